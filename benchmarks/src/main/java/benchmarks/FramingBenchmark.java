@@ -0,0 +1,55 @@
+package benchmarks;
+
+import cryptography.HybridCryptography;
+import cryptography.SecuredGCMUsage;
+import org.apache.commons.codec.binary.Base64;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import packets.PacketType;
+
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the Base64/JSON framing that wraps every encrypted packet on the wire,
+ * independently of the cryptography itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FramingBenchmark {
+
+    @Param({"16", "1024", "16384", "262144"})
+    public int payloadSize;
+
+    private JSONObject packet;
+    private String frame;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        KeyPair keys = HybridCryptography.generateKeys();
+        byte[] iv = new byte[SecuredGCMUsage.IV_SIZE];
+        new SecureRandom().nextBytes(iv);
+        JSONObject payload = new JSONObject().put("text", HybridCryptographyBenchmark.randomText(payloadSize));
+        packet = HybridCryptography.encrypt(payload, keys.getPublic(), keys.getPrivate(),
+                new GCMParameterSpec(SecuredGCMUsage.TAG_BIT_LENGTH, iv), "eco.echotrace.77".getBytes());
+        packet.put("type", PacketType.TEXT);
+        frame = encode();
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base64.encodeBase64String(packet.toString().getBytes());
+    }
+
+    @Benchmark
+    public JSONObject decode() {
+        return new JSONObject(new String(Base64.decodeBase64(frame)));
+    }
+
+}
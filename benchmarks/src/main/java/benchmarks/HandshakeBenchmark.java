@@ -0,0 +1,51 @@
+package benchmarks;
+
+import client.TcpClient;
+import org.openjdk.jmh.annotations.*;
+import server.TcpServer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how long it takes a {@link TcpClient} to connect to a loopback {@link TcpServer},
+ * including the client's key generation and the full public key exchange.
+ * <p>
+ * Subtract the {@link KeyGenerationBenchmark} result to isolate the cost of the exchange itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class HandshakeBenchmark {
+
+    private TcpServer server;
+    private TcpClient client;
+    private int port;
+
+    @Setup(Level.Trial)
+    public void startServer() throws Exception {
+        port = Loopback.freePort();
+        server = Loopback.startServer(port);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopServer() {
+        server.close();
+    }
+
+    @Benchmark
+    public TcpClient connect() throws Exception {
+        client = new TcpClient(Loopback.HOST, port);
+        client.connect().join();
+        return client;
+    }
+
+    @TearDown(Level.Iteration)
+    public void disconnect() {
+        if (client != null) client.close();
+        client = null;
+    }
+
+}
@@ -0,0 +1,73 @@
+package benchmarks;
+
+import cryptography.HybridCryptography;
+import cryptography.SecuredGCMUsage;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.spec.GCMParameterSpec;
+import java.security.KeyPair;
+import java.security.SecureRandom;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per-message cost of {@link HybridCryptography#encrypt} and {@link HybridCryptography#decrypt}
+ * across a range of payload sizes, mirroring how {@code TcpServer} and {@code TcpClient} call them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HybridCryptographyBenchmark {
+
+    private static final byte[] AAD = "eco.echotrace.77".getBytes();
+
+    @Param({"16", "1024", "16384", "262144"})
+    public int payloadSize;
+
+    private SecureRandom secureRandom;
+    private KeyPair senderKeys;
+    private KeyPair receiverKeys;
+    private JSONObject payload;
+    private JSONObject encrypted;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        secureRandom = new SecureRandom();
+        senderKeys = HybridCryptography.generateKeys();
+        receiverKeys = HybridCryptography.generateKeys();
+        payload = new JSONObject().put("text", randomText(payloadSize));
+        encrypted = HybridCryptography.encrypt(payload, receiverKeys.getPublic(), senderKeys.getPrivate(), newParamSpec(), AAD);
+    }
+
+    @Benchmark
+    public JSONObject encrypt() {
+        return HybridCryptography.encrypt(payload, receiverKeys.getPublic(), senderKeys.getPrivate(), newParamSpec(), AAD);
+    }
+
+    @Benchmark
+    public JSONObject decrypt() throws Exception {
+        return HybridCryptography.decrypt(encrypted, senderKeys.getPublic(), receiverKeys.getPrivate(), AAD);
+    }
+
+    private GCMParameterSpec newParamSpec() {
+        byte[] iv = new byte[SecuredGCMUsage.IV_SIZE];
+        secureRandom.nextBytes(iv);
+        return new GCMParameterSpec(SecuredGCMUsage.TAG_BIT_LENGTH, iv);
+    }
+
+    /**
+     * @param length number of characters to generate
+     * @return printable text of the requested length, seeded so every fork sees the same payload
+     */
+    static String randomText(int length) {
+        Random random = new Random(length);
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) builder.append((char) ('a' + random.nextInt(26)));
+        return builder.toString();
+    }
+
+}
@@ -0,0 +1,28 @@
+package benchmarks;
+
+import cryptography.HybridCryptography;
+import org.openjdk.jmh.annotations.*;
+
+import java.security.KeyPair;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link HybridCryptography#generateKeys()}, which both the server and every client
+ * run once before they can communicate.
+ * <p>
+ * RSA key generation time varies wildly between runs, so each measurement is a single shot
+ * and enough of them are taken to get a stable average.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 20)
+@Fork(1)
+public class KeyGenerationBenchmark {
+
+    @Benchmark
+    public KeyPair generateKeys() throws Exception {
+        return HybridCryptography.generateKeys();
+    }
+
+}
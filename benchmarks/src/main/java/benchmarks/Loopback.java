@@ -0,0 +1,42 @@
+package benchmarks;
+
+import server.ServerException;
+import server.TcpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+/**
+ * Helpers shared by the benchmarks that need a real server listening on the loopback interface
+ */
+final class Loopback {
+
+    static final String HOST = InetAddress.getLoopbackAddress().getHostAddress();
+
+    private Loopback() { }
+
+    /**
+     * @return a port on the loopback interface that was free at the time of the call
+     * @throws IOException if no ephemeral port could be reserved
+     */
+    static int freePort() throws IOException {
+        try (ServerSocket probe = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            return probe.getLocalPort();
+        }
+    }
+
+    /**
+     * Creates and starts a {@link TcpServer} bound to the loopback interface
+     *
+     * @param port the port the server should listen on
+     * @return the running server
+     * @throws ServerException if the server failed to start
+     */
+    static TcpServer startServer(int port) throws ServerException {
+        TcpServer server = new TcpServer(port, 0, 0, InetAddress.getLoopbackAddress());
+        server.start().join();
+        return server;
+    }
+
+}
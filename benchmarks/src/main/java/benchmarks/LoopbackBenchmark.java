@@ -0,0 +1,85 @@
+package benchmarks;
+
+import client.TcpClient;
+import org.openjdk.jmh.annotations.*;
+import server.TcpServer;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures end-to-end traffic between a {@link TcpClient} and a {@link TcpServer} over the loopback
+ * interface: request/reply latency for a command, and one-way throughput for text messages.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class LoopbackBenchmark {
+
+    private static final int BATCH = 100;
+    private static final long TIMEOUT_SECONDS = 30;
+
+    private final AtomicLong received = new AtomicLong();
+    private volatile CompletableFuture<String> pendingReply;
+    private TcpServer server;
+    private TcpClient client;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        int port = Loopback.freePort();
+        server = Loopback.startServer(port);
+        server.addMessageListener(message -> received.incrementAndGet());
+        server.addCommandListener(command -> {
+            try { command.getConnection().replyCommand("pong", command.getArguments());
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        client = new TcpClient(Loopback.HOST, port);
+        client.addCommandListener(command -> {
+            CompletableFuture<String> reply = pendingReply;
+            if (reply != null) reply.complete(command.getArguments());
+        });
+        client.connect().join();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        client.close();
+        server.close();
+    }
+
+    /**
+     * One command sent by the client and echoed back by the server
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public String roundTrip() throws Exception {
+        CompletableFuture<String> reply = new CompletableFuture<>();
+        pendingReply = reply;
+        client.sendCommand("ping", Long.toString(System.nanoTime()));
+        return reply.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * A burst of text messages, completed once the server's listener has seen every one of them
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @OperationsPerInvocation(BATCH)
+    public long throughput() throws Exception {
+        long target = received.get() + BATCH;
+        for (int i = 0; i < BATCH; i++) client.sendText("message");
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (received.get() < target) {
+            if (System.nanoTime() > deadline) throw new IllegalStateException("Server stopped receiving messages");
+            Thread.yield();
+        }
+        return target;
+    }
+
+}
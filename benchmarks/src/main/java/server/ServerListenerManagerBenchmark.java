@@ -0,0 +1,70 @@
+package server;
+
+import listener_references.ServerJson;
+import listener_references.ServerMessage;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.*;
+import scheduling.Priority;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how long {@link ServerListenerManager} takes to hand a single event to every registered
+ * listener and have all of them run, for a growing number of listeners.
+ * <p>
+ * Lives in the {@code server} package because the {@code raise*Event} methods are package-private.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServerListenerManagerBenchmark {
+
+    @Param({"1", "4", "16", "64"})
+    public int listeners;
+
+    private final AtomicLong handled = new AtomicLong();
+    private ServerListenerManager manager;
+    private ServerMessage message;
+    private ServerJson json;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        manager = new ServerListenerManager();
+        for (int i = 0; i < listeners; i++) {
+            manager.addMessageListener(m -> handled.incrementAndGet());
+            manager.addJsonListener(j -> handled.incrementAndGet());
+        }
+        message = new ServerMessage("message", null);
+        json = new ServerJson(new JSONObject().put("key", "value"), null);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        manager.removeAllListeners();
+    }
+
+    @Benchmark
+    public long raiseMessageEvent() {
+        long target = handled.get() + listeners;
+        manager.raiseMessageEvent(message, Priority.NORMAL, null);
+        return awaitHandled(target);
+    }
+
+    @Benchmark
+    public long raiseJsonEvent() {
+        long target = handled.get() + listeners;
+        manager.raiseJsonEvent(json, Priority.NORMAL, null);
+        return awaitHandled(target);
+    }
+
+    private long awaitHandled(long target) {
+        long seen;
+        while ((seen = handled.get()) < target) Thread.yield();
+        return seen;
+    }
+
+}
@@ -0,0 +1,51 @@
+package loadtest;
+
+import server.ServerException;
+import server.TcpServer;
+import server.TcpServerConfig;
+
+import java.net.InetAddress;
+
+/**
+ * A {@link TcpServer} that sends every message, command, and json object straight back to its sender
+ */
+final class EchoServer {
+
+    /** The command the load clients send and the echo server answers */
+    static final String COMMAND = "echo";
+
+    private EchoServer() { }
+
+    /**
+     * Creates and starts an echo server
+     *
+     * @param port     the port to listen on
+     * @param bindAddr the address to bind to, or {@code null} for all local addresses
+     * @param options  the key size and socket options to use
+     * @return the running server
+     * @throws ServerException if the server failed to start
+     */
+    static TcpServer start(int port, InetAddress bindAddr, LoadTestOptions options) throws ServerException {
+        TcpServer server = new TcpServer(TcpServerConfig.builder(port)
+                .bindAddress(bindAddr)
+                .keySize(options.keySize)
+                .socketOptions(options.socketOptions())
+                .build());
+        server.addMessageListener(message -> {
+            try { message.getConnection().replyText(message.getMessage());
+            } catch (ServerException ignore) { }
+        });
+        server.addCommandListener(command -> {
+            if (!COMMAND.equals(command.getCommand())) return;
+            try { command.getConnection().replyCommand(command.getCommand(), command.getArguments());
+            } catch (ServerException ignore) { }
+        });
+        server.addJsonListener(json -> {
+            try { json.getConnection().replyJson(json.getJsonObject());
+            } catch (ServerException ignore) { }
+        });
+        server.start().join();
+        return server;
+    }
+
+}
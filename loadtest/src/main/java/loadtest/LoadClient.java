@@ -0,0 +1,119 @@
+package loadtest;
+
+import client.ClientException;
+import client.TcpClient;
+import client.TcpClientConfig;
+import org.json.JSONObject;
+
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A single {@link TcpClient} driven by the {@link LoadTest}.
+ * <p>
+ * Every message carries an id ahead of its payload, which the echo server sends back unchanged,
+ * so the client can match replies with the time the message was (or should have been) sent.
+ */
+final class LoadClient implements AutoCloseable {
+
+    private final Map<Long, Long> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong nextId = new AtomicLong();
+    private final LoadTestOptions options;
+    private final LoadStats stats;
+    private final TcpClient client;
+    private final String payload;
+    private volatile boolean running;
+    private ScheduledFuture<?> schedule;
+
+    LoadClient(String host, int port, LoadTestOptions options, LoadStats stats, String payload) {
+        this.client = new TcpClient(TcpClientConfig.builder(host, port)
+                .keySize(options.keySize)
+                .socketOptions(options.socketOptions())
+                .build());
+        this.options = options;
+        this.payload = payload;
+        this.stats = stats;
+        client.addMessageListener(message -> onReply(message.getMessage()));
+        client.addCommandListener(command -> onReply(command.getArguments()));
+        client.addJsonListener(json -> onReply(json.getJsonObject().getLong("id")));
+    }
+
+    /**
+     * Connects to the server and records how long the handshake took
+     *
+     * @throws ClientException if the client failed to connect
+     */
+    void connect() throws ClientException {
+        long start = System.nanoTime();
+        client.connect().join();
+        stats.recordHandshake(System.nanoTime() - start);
+    }
+
+    /**
+     * Starts generating traffic according to the configured {@link LoadTestOptions.Mode}
+     *
+     * @param scheduler schedules sends in open mode
+     * @param senders   performs the sends in open mode so that slow encryption does not delay the schedule
+     */
+    void start(ScheduledExecutorService scheduler, ExecutorService senders) {
+        running = true;
+        if (options.mode == LoadTestOptions.Mode.CLOSED) {
+            for (int i = 0; i < options.outstanding; i++) send(System.nanoTime());
+            return;
+        }
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) * options.clients / options.rate);
+        long firstSend = System.nanoTime();
+        AtomicLong tick = new AtomicLong();
+        schedule = scheduler.scheduleAtFixedRate(() -> {
+            long intended = firstSend + tick.getAndIncrement() * periodNanos;
+            senders.execute(() -> send(intended));
+        }, ThreadLocalRandom.current().nextLong(periodNanos), periodNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stops sending new messages; replies to messages already in flight are still recorded
+     */
+    void stop() {
+        running = false;
+        if (schedule != null) schedule.cancel(false);
+    }
+
+    private void send(long intendedNanos) {
+        if (!running) return;
+        long id = nextId.getAndIncrement();
+        inFlight.put(id, intendedNanos);
+        try {
+            int pick = ThreadLocalRandom.current().nextInt(options.textWeight + options.commandWeight + options.jsonWeight);
+            if (pick < options.textWeight) client.sendText(id + ":" + payload);
+            else if (pick < options.textWeight + options.commandWeight) client.sendCommand(EchoServer.COMMAND, id + ":" + payload);
+            else client.sendJSON(new JSONObject().put("id", id).put("payload", payload));
+            stats.sent.increment();
+        } catch (ClientException | RuntimeException e) {
+            inFlight.remove(id);
+            stats.errors.increment();
+        }
+    }
+
+    private void onReply(String body) {
+        int split = body.indexOf(':');
+        try { onReply(Long.parseLong(split < 0 ? body : body.substring(0, split)));
+        } catch (NumberFormatException e) {
+            stats.errors.increment();
+        }
+    }
+
+    private void onReply(long id) {
+        Long sentAt = inFlight.remove(id);
+        if (sentAt == null) return;
+        stats.recordLatency(System.nanoTime() - sentAt);
+        if (options.mode == LoadTestOptions.Mode.CLOSED) send(System.nanoTime());
+    }
+
+    @Override
+    public void close() {
+        stop();
+        client.close();
+    }
+
+}
@@ -0,0 +1,43 @@
+package loadtest;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms shared by every {@link LoadClient}
+ */
+final class LoadStats {
+
+    private static final long HIGHEST_TRACKABLE = TimeUnit.MINUTES.toMicros(10);
+
+    final Recorder latency = new Recorder(HIGHEST_TRACKABLE, 3);
+    final Recorder handshakes = new Recorder(HIGHEST_TRACKABLE, 3);
+    final Histogram totalLatency = new Histogram(HIGHEST_TRACKABLE, 3);
+    final Histogram totalHandshakes = new Histogram(HIGHEST_TRACKABLE, 3);
+    final AtomicInteger connected = new AtomicInteger();
+    final LongAdder connectFailures = new LongAdder();
+    final LongAdder sent = new LongAdder();
+    final LongAdder received = new LongAdder();
+    final LongAdder errors = new LongAdder();
+
+    /**
+     * @param nanos how long a message took from its (intended) send time until its echo arrived
+     */
+    void recordLatency(long nanos) {
+        latency.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_TRACKABLE));
+        received.increment();
+    }
+
+    /**
+     * @param nanos how long a client took to connect and finish its handshake
+     */
+    void recordHandshake(long nanos) {
+        handshakes.recordValue(Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_TRACKABLE));
+        connected.incrementAndGet();
+    }
+
+}
@@ -0,0 +1,124 @@
+package loadtest;
+
+import client.ClientException;
+import server.TcpServer;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Connects a configurable number of {@link client.TcpClient}s to a {@link TcpServer} and reports how much
+ * traffic it sustains. Clients connect gradually during the ramp phase, and every client starts sending as soon
+ * as its handshake completes, so the load grows with the number of connected clients. The soak phase then keeps
+ * the full load running for a fixed amount of time.
+ * <p>
+ * Without {@code --host} an {@link EchoServer} is started inside the same JVM on the loopback interface,
+ * in which case the reported heap and thread usage covers both sides.
+ */
+public final class LoadTest {
+
+    private static final long DRAIN_SECONDS = 5;
+
+    private LoadTest() { }
+
+    public static void main(String[] args) throws Exception {
+        LoadTestOptions options;
+        try { options = LoadTestOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            if (e.getMessage() != null && !e.getMessage().isEmpty()) System.err.println(e.getMessage());
+            System.err.print(LoadTestOptions.usage());
+            System.exit(2);
+            return;
+        }
+
+        if (options.serverOnly) {
+            EchoServer.start(options.port, options.host == null ? null : InetAddress.getByName(options.host), options);
+            System.out.println("Echo server listening on port " + options.port);
+            Thread.currentThread().join();
+        }
+
+        TcpServer embedded = null;
+        String host = options.host;
+        int port = options.port;
+        if (host == null) {
+            InetAddress loopback = InetAddress.getLoopbackAddress();
+            if (port == 0) port = freePort(loopback);
+            embedded = EchoServer.start(port, loopback, options);
+            host = loopback.getHostAddress();
+        }
+
+        try { run(host, port, options);
+        } finally {
+            if (embedded != null) embedded.close();
+        }
+        System.exit(0);
+    }
+
+    private static void run(String host, int port, LoadTestOptions options) throws InterruptedException {
+        LoadStats stats = new LoadStats();
+        Reporter reporter = new Reporter(stats, System.out);
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+        ExecutorService connectors = Executors.newFixedThreadPool(options.connectThreads);
+        ExecutorService senders = Executors.newFixedThreadPool(options.senderThreads);
+        List<LoadClient> clients = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch attempted = new CountDownLatch(options.clients);
+        String payload = payload(options.payloadSize);
+
+        scheduler.scheduleAtFixedRate(reporter, options.reportSeconds, options.reportSeconds, TimeUnit.SECONDS);
+        long rampMillis = TimeUnit.SECONDS.toMillis(options.rampSeconds);
+        for (int i = 0; i < options.clients; i++) {
+            long delay = rampMillis * i / options.clients;
+            scheduler.schedule(() -> connectors.execute(() -> {
+                LoadClient client = new LoadClient(host, port, options, stats, payload);
+                try {
+                    client.connect();
+                    clients.add(client);
+                    client.start(scheduler, senders);
+                } catch (ClientException | RuntimeException e) {
+                    stats.connectFailures.increment();
+                } finally {
+                    attempted.countDown();
+                }
+            }), delay, TimeUnit.MILLISECONDS);
+        }
+
+        attempted.await();
+        reporter.setPhase("soak");
+        TimeUnit.SECONDS.sleep(options.soakSeconds);
+
+        reporter.setPhase("drain");
+        synchronized (clients) {
+            clients.forEach(LoadClient::stop);
+        }
+        long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DRAIN_SECONDS);
+        while (stats.received.sum() < stats.sent.sum() && System.nanoTime() < drainDeadline)
+            TimeUnit.MILLISECONDS.sleep(50);
+
+        scheduler.shutdownNow();
+        senders.shutdownNow();
+        connectors.shutdownNow();
+        reporter.run();
+        reporter.printSummary();
+        synchronized (clients) {
+            clients.forEach(LoadClient::close);
+        }
+    }
+
+    private static String payload(int size) {
+        StringBuilder builder = new StringBuilder(size);
+        for (int i = 0; i < size; i++) builder.append((char) ('a' + i % 26));
+        return builder.toString();
+    }
+
+    private static int freePort(InetAddress address) throws IOException {
+        try (ServerSocket probe = new ServerSocket(0, 0, address)) {
+            return probe.getLocalPort();
+        }
+    }
+
+}
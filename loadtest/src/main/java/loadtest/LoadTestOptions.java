@@ -0,0 +1,146 @@
+package loadtest;
+
+import config.SocketOptions;
+import cryptography.HybridCryptography;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line options of the {@link LoadTest} tool
+ */
+final class LoadTestOptions {
+
+    /**
+     * How the clients decide when to send the next message
+     */
+    enum Mode {
+        /** every client keeps a fixed number of messages in flight and sends the next one when a reply arrives */
+        CLOSED,
+        /** messages are sent on a fixed schedule regardless of how quickly the server replies */
+        OPEN
+    }
+
+    String host = null;
+    int port = 0;
+    boolean serverOnly = false;
+    int clients = 10;
+    int connectThreads = Runtime.getRuntime().availableProcessors();
+    int senderThreads = Runtime.getRuntime().availableProcessors() * 2;
+    Mode mode = Mode.CLOSED;
+    int outstanding = 1;
+    double rate = 100;
+    int textWeight = 1;
+    int commandWeight = 1;
+    int jsonWeight = 1;
+    int payloadSize = 64;
+    int rampSeconds = 10;
+    int soakSeconds = 60;
+    int reportSeconds = 1;
+    int keySize = HybridCryptography.DEFAULT_KEY_SIZE;
+    boolean tcpNoDelay = false;
+
+    /**
+     * Parses {@code --name value} and {@code --name=value} pairs into a new set of options
+     *
+     * @param args the raw command line arguments
+     * @return the parsed options
+     * @throws IllegalArgumentException if an option is unknown or has an invalid value
+     */
+    static LoadTestOptions parse(String[] args) {
+        Map<String, String> values = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) throw new IllegalArgumentException("Unexpected argument: " + arg);
+            int split = arg.indexOf('=');
+            if (split >= 0) values.put(arg.substring(2, split), arg.substring(split + 1));
+            else if (arg.equals("--server-only") || arg.equals("--tcp-nodelay") || arg.equals("--help")) values.put(arg.substring(2), "true");
+            else if (i + 1 < args.length) values.put(arg.substring(2), args[++i]);
+            else throw new IllegalArgumentException("Missing value for " + arg);
+        }
+
+        LoadTestOptions options = new LoadTestOptions();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            String value = entry.getValue();
+            switch (entry.getKey()) {
+                case "help": throw new IllegalArgumentException("");
+                case "host": options.host = value; break;
+                case "port": options.port = positive(entry.getKey(), value); break;
+                case "server-only": options.serverOnly = Boolean.parseBoolean(value); break;
+                case "clients": options.clients = positive(entry.getKey(), value); break;
+                case "connect-threads": options.connectThreads = positive(entry.getKey(), value); break;
+                case "sender-threads": options.senderThreads = positive(entry.getKey(), value); break;
+                case "mode": options.mode = Mode.valueOf(value.toUpperCase()); break;
+                case "outstanding": options.outstanding = positive(entry.getKey(), value); break;
+                case "rate": options.rate = Double.parseDouble(value); break;
+                case "mix": parseMix(options, value); break;
+                case "payload": options.payloadSize = positive(entry.getKey(), value); break;
+                case "ramp": options.rampSeconds = notNegative(entry.getKey(), value); break;
+                case "soak": options.soakSeconds = notNegative(entry.getKey(), value); break;
+                case "report": options.reportSeconds = positive(entry.getKey(), value); break;
+                case "key-size": options.keySize = positive(entry.getKey(), value); break;
+                case "tcp-nodelay": options.tcpNoDelay = Boolean.parseBoolean(value); break;
+                default: throw new IllegalArgumentException("Unknown option: --" + entry.getKey());
+            }
+        }
+        if (options.rate <= 0) throw new IllegalArgumentException("--rate must be greater than 0");
+        if ((options.host != null || options.serverOnly) && options.port == 0)
+            throw new IllegalArgumentException("--port is required together with --host or --server-only");
+        return options;
+    }
+
+    /**
+     * @return the socket options requested on the command line
+     */
+    SocketOptions socketOptions() {
+        SocketOptions.Builder builder = SocketOptions.builder();
+        if (tcpNoDelay) builder.tcpNoDelay(true);
+        return builder.build();
+    }
+
+    /**
+     * @return the usage text printed for {@code --help} and invalid arguments
+     */
+    static String usage() {
+        return "Usage: java -jar loadtest.jar [options]\n"
+                + "  --host <host>            server to test; an embedded echo server is started when omitted\n"
+                + "  --port <port>            server port (required with --host and --server-only)\n"
+                + "  --server-only            only run the echo server, for testing from other machines\n"
+                + "  --clients <n>            number of clients to connect (default 10)\n"
+                + "  --connect-threads <n>    handshakes performed in parallel (default: cores)\n"
+                + "  --sender-threads <n>     threads sending messages in open mode (default: 2 x cores)\n"
+                + "  --mode closed|open       closed: fixed messages in flight per client, open: fixed send rate (default closed)\n"
+                + "  --outstanding <n>        messages in flight per client in closed mode (default 1)\n"
+                + "  --rate <msg/s>           total send rate over all clients in open mode (default 100)\n"
+                + "  --mix <t:c:j>            weights of text, command, and json messages (default 1:1:1)\n"
+                + "  --payload <chars>        payload size of each message (default 64)\n"
+                + "  --ramp <seconds>         time over which the clients are connected (default 10)\n"
+                + "  --soak <seconds>         time to keep running once every client is connected (default 60)\n"
+                + "  --report <seconds>       reporting interval (default 1)\n"
+                + "  --key-size <bits>        RSA key size of the clients and the embedded server (default 4096)\n"
+                + "  --tcp-nodelay            disable Nagle's algorithm on every connection\n";
+    }
+
+    private static void parseMix(LoadTestOptions options, String value) {
+        String[] parts = value.split(":");
+        if (parts.length != 3) throw new IllegalArgumentException("--mix must look like text:command:json, e.g. 2:1:1");
+        options.textWeight = notNegative("mix", parts[0]);
+        options.commandWeight = notNegative("mix", parts[1]);
+        options.jsonWeight = notNegative("mix", parts[2]);
+        if (options.textWeight + options.commandWeight + options.jsonWeight == 0)
+            throw new IllegalArgumentException("--mix needs at least one non-zero weight");
+    }
+
+    private static int positive(String name, String value) {
+        int parsed = Integer.parseInt(value);
+        if (parsed <= 0) throw new IllegalArgumentException("--" + name + " must be greater than 0");
+        return parsed;
+    }
+
+    private static int notNegative(String name, String value) {
+        int parsed = Integer.parseInt(value);
+        if (parsed < 0) throw new IllegalArgumentException("--" + name + " cannot be negative");
+        return parsed;
+    }
+
+}
@@ -0,0 +1,89 @@
+package loadtest;
+
+import org.HdrHistogram.Histogram;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Periodically prints what the {@link LoadClient}s have recorded since the previous report,
+ * together with the heap and thread usage of the load test JVM.
+ */
+final class Reporter implements Runnable {
+
+    private static final String HEADER = String.format("%8s %-6s %7s %6s %9s %8s %8s %6s %9s %9s %9s %8s %7s",
+            "time(s)", "phase", "clients", "hs/s", "hs99(ms)", "sent/s", "recv/s", "errors",
+            "p50(ms)", "p99(ms)", "p999(ms)", "heap(MB)", "threads");
+
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final Runtime runtime = Runtime.getRuntime();
+    private final LoadStats stats;
+    private final PrintStream out;
+    private final long startNanos;
+    private volatile String phase = "ramp";
+    private long lastReportNanos;
+    private long lastSent;
+    private long lastReceived;
+    private int lines;
+
+    Reporter(LoadStats stats, PrintStream out) {
+        this.stats = stats;
+        this.out = out;
+        this.startNanos = System.nanoTime();
+        this.lastReportNanos = startNanos;
+    }
+
+    /**
+     * @param phase the name of the phase shown on every following report line
+     */
+    void setPhase(String phase) {
+        this.phase = phase;
+    }
+
+    @Override
+    public synchronized void run() {
+        long now = System.nanoTime();
+        double seconds = Math.max(now - lastReportNanos, 1) / 1e9;
+        lastReportNanos = now;
+
+        Histogram latency = stats.latency.getIntervalHistogram();
+        Histogram handshakes = stats.handshakes.getIntervalHistogram();
+        stats.totalLatency.add(latency);
+        stats.totalHandshakes.add(handshakes);
+        long sent = stats.sent.sum();
+        long received = stats.received.sum();
+
+        if (lines++ % 20 == 0) out.println(HEADER);
+        out.println(String.format("%8.1f %-6s %7d %6.0f %9.1f %8.0f %8.0f %6d %9.2f %9.2f %9.2f %8d %7d",
+                (now - startNanos) / 1e9, phase, stats.connected.get(),
+                handshakes.getTotalCount() / seconds, millis(handshakes, 99.0),
+                (sent - lastSent) / seconds, (received - lastReceived) / seconds, stats.errors.sum(),
+                millis(latency, 50.0), millis(latency, 99.0), millis(latency, 99.9),
+                (runtime.totalMemory() - runtime.freeMemory()) / (1024 * 1024), threads.getThreadCount()));
+        lastSent = sent;
+        lastReceived = received;
+    }
+
+    /**
+     * Prints the totals over the whole run; call after the final {@link #run()}
+     */
+    synchronized void printSummary() {
+        out.println();
+        out.println(String.format("duration          %.1f s", (System.nanoTime() - startNanos) / 1e9));
+        out.println(String.format("handshakes        %d ok, %d failed, p50 %.1f ms, p99 %.1f ms, max %.1f ms",
+                stats.totalHandshakes.getTotalCount(), stats.connectFailures.sum(), millis(stats.totalHandshakes, 50.0),
+                millis(stats.totalHandshakes, 99.0), stats.totalHandshakes.getMaxValue() / 1000.0));
+        out.println(String.format("messages          %d sent, %d received, %d errors",
+                stats.sent.sum(), stats.received.sum(), stats.errors.sum()));
+        out.println(String.format("latency           p50 %.2f ms, p99 %.2f ms, p999 %.2f ms, max %.2f ms",
+                millis(stats.totalLatency, 50.0), millis(stats.totalLatency, 99.0), millis(stats.totalLatency, 99.9),
+                stats.totalLatency.getMaxValue() / 1000.0));
+        out.println(String.format("peak threads      %d", threads.getPeakThreadCount()));
+    }
+
+    private static double millis(Histogram histogram, double percentile) {
+        return histogram.getTotalCount() == 0 ? 0 : histogram.getValueAtPercentile(percentile) / 1000.0;
+    }
+
+}
@@ -2,35 +2,98 @@ package client;
 
 import listener_references.*;
 import listeners.ClientCommandListener;
+import listeners.Dispatch;
+import listeners.Listener;
+import listeners.ClientErrorListener;
 import listeners.ClientJsonListener;
 import listeners.ClientMessageListener;
+import listeners.ClientTopicListener;
+import logging.Log;
 import org.json.JSONObject;
+import scheduling.InlineWatchdog;
+import scheduling.Priority;
+import scheduling.PriorityTaskQueue;
+import scheduling.Scheduling;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A listener manager to manage all the event listeners
  */
 public class ClientListenerManager {
 
-    private ExecutorService executor;
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private volatile ExecutorService executor;
+    private final int threads;
+    private final int queueSize;
+    private final Scheduling scheduling;
+    private InlineWatchdog watchdog;
+    private Dispatch dispatch;
+    private Set<Listener> inlineListeners;
+    private int inlineBudget;
     private volatile List<ClientMessageListener> messageListeners;
     private volatile List<ClientCommandListener> commandListeners;
     private volatile List<ClientJsonListener> jsonListeners;
+    private volatile List<ClientTopicListener> topicListeners;
+    private volatile List<ClientErrorListener> errorListeners;
 
     /**
      * Constructs a new {@link ClientListenerManager} with no listeners pre-registered
      */
     ClientListenerManager() {
-        executor = Executors.newCachedThreadPool();
-        messageListeners = new ArrayList<>();
-        commandListeners = new ArrayList<>();
-        jsonListeners = new ArrayList<>();
+        this(0, 0);
+    }
+
+    /**
+     * Constructs a new {@link ClientListenerManager} with no listeners pre-registered
+     * @param threads   how many listeners may run at once, or {@code 0} for no limit
+     * @param queueSize how many listener invocations may wait for a thread, or {@code 0} for no limit.
+     *                  Once the queue is full, the thread raising an event runs the listener itself.
+     */
+    ClientListenerManager(int threads, int queueSize) {
+        this(threads, queueSize, Scheduling.STRICT);
+    }
+
+    /**
+     * Constructs a new {@link ClientListenerManager} with no listeners pre-registered
+     * @param threads    how many listeners may run at once, or {@code 0} for no limit
+     * @param queueSize  how many listener invocations may wait for a thread, or {@code 0} for no limit.
+     *                   Once the queue is full, the thread raising an event runs the listener itself.
+     * @param scheduling the order in which waiting listener invocations of different {@link Priority} classes run
+     */
+    ClientListenerManager(int threads, int queueSize, Scheduling scheduling) {
+        this(threads, queueSize, scheduling, Dispatch.EXECUTOR, 0);
+    }
+
+    /**
+     * Constructs a new {@link ClientListenerManager} with no listeners pre-registered
+     * @param threads      how many listeners may run at once, or {@code 0} for no limit
+     * @param queueSize    how many listener invocations may wait for a thread, or {@code 0} for no limit.
+     *                     Once the queue is full, the thread raising an event runs the listener itself.
+     * @param scheduling   the order in which waiting listener invocations of different {@link Priority} classes run
+     * @param dispatch     where listeners registered without a {@link Dispatch} of their own run
+     * @param inlineBudget milliseconds an inline listener may run before it is moved to the executor,
+     *                     or {@code 0} to never move one
+     */
+    ClientListenerManager(int threads, int queueSize, Scheduling scheduling, Dispatch dispatch, int inlineBudget) {
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.scheduling = scheduling;
+        executor = newExecutor(threads, queueSize, scheduling);
+        this.watchdog = new InlineWatchdog(inlineBudget, this::demote);
+        this.dispatch = Objects.requireNonNull(dispatch);
+        this.inlineListeners = ConcurrentHashMap.newKeySet();
+        this.inlineBudget = inlineBudget;
+        messageListeners = new CopyOnWriteArrayList<>();
+        commandListeners = new CopyOnWriteArrayList<>();
+        jsonListeners = new CopyOnWriteArrayList<>();
+        topicListeners = new CopyOnWriteArrayList<>();
+        errorListeners = new CopyOnWriteArrayList<>();
     }
 
     /**
@@ -38,7 +101,17 @@ public class ClientListenerManager {
      * @param listener the listener to be added
      */
     public void addMessageListener(ClientMessageListener listener) {
+        addMessageListener(listener, dispatch);
+    }
+
+    /**
+     * Adds the specified {@link ClientMessageListener} to the list
+     * @param listener the listener to be added
+     * @param dispatch where the listener runs
+     */
+    public void addMessageListener(ClientMessageListener listener, Dispatch dispatch) {
         Objects.requireNonNull(listener);
+        register(listener, dispatch);
         messageListeners.add(listener);
     }
 
@@ -49,6 +122,7 @@ public class ClientListenerManager {
     public void removeMessageListener(ClientMessageListener listener) {
         Objects.requireNonNull(listener);
         messageListeners.remove(listener);
+        inlineListeners.remove(listener);
     }
 
     /**
@@ -56,7 +130,17 @@ public class ClientListenerManager {
      * @param listener the listener to be added
      */
     public void addCommandListener(ClientCommandListener listener) {
+        addCommandListener(listener, dispatch);
+    }
+
+    /**
+     * Adds the specified {@link ClientCommandListener} to the list
+     * @param listener the listener to be added
+     * @param dispatch where the listener runs
+     */
+    public void addCommandListener(ClientCommandListener listener, Dispatch dispatch) {
         Objects.requireNonNull(listener);
+        register(listener, dispatch);
         commandListeners.add(listener);
     }
 
@@ -67,6 +151,7 @@ public class ClientListenerManager {
     public void removeCommandListener(ClientCommandListener listener) {
         Objects.requireNonNull(listener);
         commandListeners.remove(listener);
+        inlineListeners.remove(listener);
     }
 
     /**
@@ -74,7 +159,17 @@ public class ClientListenerManager {
      * @param listener the listener to be added
      */
     void addJsonListener(ClientJsonListener listener) {
+        addJsonListener(listener, dispatch);
+    }
+
+    /**
+     * Adds the specified {@link ClientJsonListener} to the list
+     * @param listener the listener to be added
+     * @param dispatch where the listener runs
+     */
+    void addJsonListener(ClientJsonListener listener, Dispatch dispatch) {
         Objects.requireNonNull(listener);
+        register(listener, dispatch);
         jsonListeners.add(listener);
     }
 
@@ -85,23 +180,73 @@ public class ClientListenerManager {
     void removeJsonListener(ClientJsonListener listener) {
         Objects.requireNonNull(listener);
         jsonListeners.remove(listener);
+        inlineListeners.remove(listener);
+    }
+
+    /**
+     * Adds the specified {@link ClientTopicListener} to the list
+     * @param listener the listener to be added
+     */
+    void addTopicListener(ClientTopicListener listener) {
+        addTopicListener(listener, dispatch);
+    }
+
+    /**
+     * Adds the specified {@link ClientTopicListener} to the list
+     * @param listener the listener to be added
+     * @param dispatch where the listener runs
+     */
+    void addTopicListener(ClientTopicListener listener, Dispatch dispatch) {
+        Objects.requireNonNull(listener);
+        register(listener, dispatch);
+        topicListeners.add(listener);
+    }
+
+    /**
+     * Removes the specified {@link ClientTopicListener} from the list
+     * @param listener the listener to be removed
+     */
+    void removeTopicListener(ClientTopicListener listener) {
+        Objects.requireNonNull(listener);
+        topicListeners.remove(listener);
+        inlineListeners.remove(listener);
+    }
+
+    /**
+     * Adds the specified {@link ClientErrorListener} to the list
+     * @param listener the listener to be added
+     */
+    void addErrorListener(ClientErrorListener listener) {
+        errorListeners.add(Objects.requireNonNull(listener));
+    }
+
+    /**
+     * Removes the specified {@link ClientErrorListener} from the list
+     * @param listener the listener to be removed
+     */
+    void removeErrorListener(ClientErrorListener listener) {
+        errorListeners.remove(Objects.requireNonNull(listener));
     }
 
     /**
      * Removes every single listener registered to the server
      */
     public void removeAllListeners() {
+        inlineListeners.clear();
         messageListeners.clear();
         commandListeners.clear();
         jsonListeners.clear();
+        topicListeners.clear();
+        errorListeners.clear();
     }
 
     /**
      * Runs each of the {@link ClientMessageListener}s with the {@code message} as input
-     * @param message the {@link MessageImpl} to pass to each of the listeners
+     * @param message  the {@link MessageImpl} to pass to each of the listeners
+     * @param priority the {@link Priority} the listeners are queued with
      */
-    synchronized void raiseMessageEvent(ClientMessage message) {
-        messageListeners.forEach(listener -> executor.submit((Callable<Void>) () -> {
+    void raiseMessageEvent(ClientMessage message, Priority priority) {
+        messageListeners.forEach(listener -> dispatch(listener, priority, () -> {
             listener.onMessageReceived(message);
             return null;
         }));
@@ -109,10 +254,11 @@ public class ClientListenerManager {
 
     /**
      * Runs each of the {@link ClientCommandListener}s with the {@code command} as input
-     * @param command the {@link CommandImpl} to pass to each of the listeners
+     * @param command  the {@link CommandImpl} to pass to each of the listeners
+     * @param priority the {@link Priority} the listeners are queued with
      */
-    synchronized void raiseCommandEvent(ClientCommand command) {
-        commandListeners.forEach(listener -> executor.submit((Callable<Void>) () -> {
+    void raiseCommandEvent(ClientCommand command, Priority priority) {
+        commandListeners.forEach(listener -> dispatch(listener, priority, () -> {
             listener.onCommandReceived(command);
             return null;
         }));
@@ -120,13 +266,77 @@ public class ClientListenerManager {
 
     /**
      * Runs each of the {@link ClientJsonListener}s with the {@code command} as input
-     * @param json the {@link JSONObject} to pass to each of the listeners
+     * @param json     the {@link JSONObject} to pass to each of the listeners
+     * @param priority the {@link Priority} the listeners are queued with
      */
-    synchronized void raiseJsonEvent(ClientJson json) {
-        jsonListeners.forEach(listener -> executor.submit((Callable<Void>) () -> {
+    void raiseJsonEvent(ClientJson json, Priority priority) {
+        jsonListeners.forEach(listener -> dispatch(listener, priority, () -> {
             listener.onJsonReceived(json);
             return null;
         }));
     }
 
+    /**
+     * Runs each of the {@link ClientTopicListener}s with the {@code topic} as input
+     * @param topic    the {@link ClientTopic} to pass to each of the listeners
+     * @param priority the {@link Priority} the listeners are queued with
+     */
+    void raiseTopicEvent(ClientTopic topic, Priority priority) {
+        topicListeners.forEach(listener -> dispatch(listener, priority, () -> {
+            listener.onTopicReceived(topic);
+            return null;
+        }));
+    }
+
+    /**
+     * Runs each of the {@link ClientErrorListener}s with the {@code error} as input
+     * @param error what went wrong
+     */
+    void raiseErrorEvent(Throwable error) {
+        errorListeners.forEach(listener -> executor.submit((Callable<Void>) () -> {
+            listener.onError(error);
+            return null;
+        }));
+    }
+
+    /**
+     * Stops watching inline listeners until the next one runs, and lets the listener threads finish the listeners
+     * already queued and exit. The listeners of a later connection run on a new pool.
+     */
+    void close() {
+        watchdog.close();
+        ExecutorService closed = executor;
+        executor = newExecutor(threads, queueSize, scheduling);
+        closed.shutdown();
+    }
+
+    private static ExecutorService newExecutor(int threads, int queueSize, Scheduling scheduling) {
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "tcp-client-dispatch-" + THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        if (threads <= 0) // a cached pool, which only rejects tasks once it is shut down
+            return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), factory,
+                    new ThreadPoolExecutor.DiscardPolicy());
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityTaskQueue(scheduling, queueSize), factory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private void register(Listener listener, Dispatch dispatch) {
+        if (Objects.requireNonNull(dispatch) == Dispatch.INLINE) inlineListeners.add(listener);
+        else inlineListeners.remove(listener);
+    }
+
+    private void dispatch(Listener listener, Priority priority, Callable<Void> task) {
+        if (inlineListeners.contains(listener)) watchdog.run(listener, task);
+        else executor.execute(new PriorityTaskQueue.Task(priority, task));
+    }
+
+    private void demote(Object listener, Thread thread) {
+        if (!inlineListeners.remove(listener)) return;
+        Log.warn("client", "Listener " + listener.getClass().getName() + " exceeded its inline budget of "
+                + inlineBudget + " ms on " + thread.getName() + " and is dispatched on the executor from now on");
+    }
+
 }
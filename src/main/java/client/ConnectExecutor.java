@@ -0,0 +1,25 @@
+package client;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The pool {@link TcpClient#connect()} runs connection attempts on when no executor is given. Its daemon
+ * threads are created on demand and end after a minute without work, so connecting never keeps the JVM alive.
+ */
+final class ConnectExecutor {
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    static final ExecutorService INSTANCE = Executors.newCachedThreadPool(ConnectExecutor::newThread);
+
+    private ConnectExecutor() { }
+
+    private static Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(runnable, "tcp-client-connect-" + THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+
+}
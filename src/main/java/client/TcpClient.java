@@ -1,34 +1,64 @@
 package client;
 
+import cryptography.HandshakeCookie;
 import cryptography.HybridCryptography;
 import cryptography.SecuredGCMUsage;
 import listener_references.ClientCommand;
 import listener_references.ClientConnection;
 import listener_references.ClientJson;
 import listener_references.ClientMessage;
+import listener_references.ClientTopic;
 import listeners.ClientCommandListener;
+import listeners.Dispatch;
+import listeners.ClientErrorListener;
 import listeners.ClientJsonListener;
 import listeners.ClientMessageListener;
+import listeners.ClientTopicListener;
+import local.LocalChannel;
+import local.LocalTransport;
+import logging.Log;
 import org.apache.commons.codec.binary.Base64;
 import org.json.JSONObject;
+import packets.AckedDelivery;
+import packets.Capabilities;
 import packets.CommandPacket;
+import packets.Frame;
+import packets.Hello;
 import packets.PacketType;
+import scheduling.Heartbeats;
+import scheduling.OrderedPipeline;
+import scheduling.Priority;
+import scheduling.PriorityWriter;
+import tracing.Trace;
+import unix.UnixDomainSockets;
 
 import javax.crypto.spec.GCMParameterSpec;
+import javax.net.ssl.SSLSocket;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.security.*;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
 
 import static cryptography.HybridCryptography.decrypt;
 import static cryptography.HybridCryptography.encrypt;
@@ -36,36 +66,52 @@ import static packets.PacketType.TEXT;
 
 public class TcpClient implements AutoCloseable, Runnable {
 
-    private int port;
     private Socket socket;
-    private String address;
     private boolean isOpen;
     private KeyPair clientKeys;
-    private PrintWriter outgoing;
+    private PriorityWriter outgoing;
+    private LocalChannel channel;
+    private TcpClientConfig config;
     private ClientConnection connection;
     private BufferedReader incoming;
     private PublicKey serverPublicKey;
+    private Hello agreed;
+    private ScheduledFuture<?> heartbeat;
+    private ScheduledFuture<?> ackFlush;
+    private AckedDelivery delivery;
     private ExecutorService executorService;
+    private ExecutorService decryptPool;
     private ClientListenerManager listenerManager;
+    private CompletableFuture<Void> connecting;
 
     /**
-     * Creates a new {@link TcpClient} bound to the specified host and port
+     * Creates a new {@link TcpClient} described by the {@code config}
      *
-     * @param   host the host name, or {@code null} for the loopback address.
-     * @param   port the port number.
+     * @param   config the {@link TcpClientConfig} describing the server to connect to and how the client is tuned
      */
-    public TcpClient(String host, int port) {
+    public TcpClient(TcpClientConfig config) {
+        this.config = Objects.requireNonNull(config, "config cannot be null");
         socket = null;
         isOpen = false;
         incoming = null;
         outgoing = null;
-        this.port = port;
         clientKeys = null;
         connection = null;
-        this.address = host;
         serverPublicKey = null;
         executorService = null;
-        listenerManager = new ClientListenerManager();
+        connecting = null;
+        listenerManager = new ClientListenerManager(config.getDispatchThreads(), config.getDispatchQueueSize(), config.getScheduling(),
+                config.getDispatch(), config.getInlineBudget());
+    }
+
+    /**
+     * Creates a new {@link TcpClient} bound to the specified host and port
+     *
+     * @param   host the host name, or {@code null} for the loopback address.
+     * @param   port the port number.
+     */
+    public TcpClient(String host, int port) {
+        this(TcpClientConfig.builder(host, port).build());
     }
 
     /**
@@ -77,87 +123,292 @@ public class TcpClient implements AutoCloseable, Runnable {
      * @throws ClientException   if something went wrong while the client tried connecting to the server
      */
     public TcpClient(String host, int port, boolean connectImmediately) throws ClientException {
-        socket = null;
-        isOpen = false;
-        incoming = null;
-        outgoing = null;
-        this.port = port;
-        clientKeys = null;
-        connection = null;
-        this.address = host;
-        serverPublicKey = null;
-        executorService = null;
-        listenerManager = new ClientListenerManager();
+        this(TcpClientConfig.builder(host, port).build());
+        if (!connectImmediately) return;
+        try { connect().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof ClientException) throw (ClientException) e.getCause();
+            throw e;
+        }
+    }
 
-        if (connectImmediately) connect().join();
+    /**
+     * @return the {@link TcpClientConfig} the client was created with
+     */
+    public TcpClientConfig getConfig() {
+        return config;
     }
 
     /**
      * Attempts to connect the client to the server specified when
-     * creating the client object
+     * creating the client object, on a shared pool of daemon threads
      *
-     * @return  an empty completed future when the client is fully
-     *          connected to the server
-     * @throws  ClientException if the client failed to create a
-     *          secure connection with the server
+     * @return  a future completed once the client is fully connected
+     *          to the server, or completed exceptionally with a
+     *          {@link ClientException} if it failed to connect
+     * @throws  ClientException if the client is already connected or connecting
+     * @see     #connect(Executor)
      */
     public CompletableFuture<Void> connect() throws ClientException {
+        return connect(ConnectExecutor.INSTANCE);
+    }
+
+    /**
+     * Attempts to connect the client to the server specified when
+     * creating the client object. The key generation, the TCP connect,
+     * and the key exchange all run on the {@code executor}, so that
+     * many clients can connect in parallel. The configured connect and
+     * handshake timeouts bound how long the attempt may block.
+     * <p>
+     * Cancelling the returned future aborts the attempt and closes the
+     * half-open connection.
+     *
+     * @param   executor runs the connection attempt
+     * @return  a future completed once the client is fully connected
+     *          to the server, or completed exceptionally with a
+     *          {@link ClientException} if it failed to connect
+     * @throws  ClientException if the client is already connected or connecting
+     */
+    public synchronized CompletableFuture<Void> connect(Executor executor) throws ClientException {
+        Objects.requireNonNull(executor, "executor cannot be null");
         if (isOpen) throw new ClientException("Client is already connected to the server");
-        try { clientKeys = HybridCryptography.generateKeys();
-        } catch (NoSuchAlgorithmException e) {
-            throw new ClientException("Unable to generate async encryption keys: " + e.getMessage());
+        if (connecting != null && !connecting.isDone()) throw new ClientException("Client is already connecting to the server");
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.whenComplete((ignored, error) -> {
+            if (future.isCancelled()) abortConnect();
+        });
+        try { executor.execute(() -> establish(future));
+        } catch (RejectedExecutionException e) {
+            throw new ClientException("Unable to start connecting to the server: " + e.getMessage());
         }
-        if (clientKeys == null) throw new ClientException("Failed to generate async encryption keys");
+        connecting = future;
+        return future;
+    }
+
+    /**
+     * Performs the connection attempt and completes the {@code future} with its outcome
+     *
+     * @param future the future returned to the caller of {@link #connect(Executor)}
+     */
+    private void establish(CompletableFuture<Void> future) {
         try {
-            socket = new Socket(address, port);
-            socket.setKeepAlive(true);
-            incoming = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            outgoing = new PrintWriter(socket.getOutputStream(), true);
-        } catch (IOException ioe) {
-            throw new ClientException("Failed to connect to server: " + ioe.getMessage() + " | Is the server actually running?");
+            if (config.getLocalName() != null) {
+                establishLocal(future);
+                return;
+            }
+            KeyPair keys = null;
+            if (config.getTls() == null) { // over TLS frames are not encrypted a second time
+                try { keys = HybridCryptography.generateKeys(config.getKeySize());
+                } catch (NoSuchAlgorithmException e) {
+                    throw new ClientException("Unable to generate async encryption keys: " + e.getMessage());
+                }
+                if (keys == null) throw new ClientException("Failed to generate async encryption keys");
+            }
+            Socket attempt;
+            try {
+                if (config.getUnixSocket() != null) attempt = UnixDomainSockets.connect(config.getUnixSocket());
+                else if (config.getTls() != null) {
+                    attempt = config.getTls().getContext().getSocketFactory().createSocket();
+                    config.getTls().apply((SSLSocket) attempt);
+                } else attempt = new Socket();
+            } catch (IOException ioe) {
+                throw new ClientException("Failed to connect to server: " + ioe.getMessage() + " | Is the server actually running?");
+            }
+            synchronized (this) {
+                if (future.isCancelled()) return;
+                clientKeys = keys;
+                socket = attempt;
+            }
+            try {
+                config.getSocketOptions().apply(attempt);
+                if (!attempt.isConnected()) attempt.connect(config.getHost() == null
+                        ? new InetSocketAddress(InetAddress.getLoopbackAddress(), config.getPort())
+                        : new InetSocketAddress(config.getHost(), config.getPort()), config.getConnectTimeout());
+                attempt.setSoTimeout(config.getHandshakeTimeout());
+                if (attempt instanceof SSLSocket) ((SSLSocket) attempt).startHandshake();
+                incoming = new BufferedReader(new InputStreamReader(attempt.getInputStream()));
+                outgoing = new PriorityWriter(attempt.getOutputStream(), config.getScheduling());
+            } catch (IOException ioe) {
+                throw new ClientException("Failed to connect to server: " + ioe.getMessage() + " | Is the server actually running?");
+            }
+            try { exchangeKeys();
+            } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+                throw new ClientException("Unable to process server's public async encryption key: " + e.getMessage());
+            } catch (IOException e) {
+                throw new ClientException("Communication failure when exchanging public async keys with the server: " + e.getMessage());
+            }
+            try { attempt.setSoTimeout(config.getReadTimeout());
+            } catch (SocketException e) {
+                throw new ClientException("Failed to configure the connection to the server: " + e.getMessage());
+            }
+            synchronized (this) {
+                if (future.isCancelled()) return;
+                isOpen = true;
+                connection = new ClientConnection(this, attempt, agreed.getVersion(), agreed.getCapabilities());
+                outgoing.setCapabilities(agreed.getCapabilities());
+                int interval = agreed.getCapabilities().getHeartbeatInterval();
+                if (interval > 0) heartbeat = Heartbeats.start(outgoing, interval);
+                if (config.getDecryptThreads() > 0) decryptPool = Executors.newFixedThreadPool(config.getDecryptThreads());
+                if (delivery != null) {
+                    delivery.connect(agreed.getDeliverySession(), agreed.getDeliveryWindow());
+                    ackFlush = AckedDelivery.schedule(this::acknowledge);
+                    retransmit();
+                }
+                executorService = Executors.newSingleThreadExecutor();
+                executorService.submit(this);
+                future.complete(null);
+            }
+        } catch (ClientException e) {
+            abortConnect();
+            future.completeExceptionally(e);
+        } catch (RuntimeException e) {
+            abortConnect();
+            future.completeExceptionally(new ClientException("Failed to connect to server: " + e));
         }
-        try { exchangeKeys();
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
-            throw new ClientException("Unable to process server's public async encryption key: " + e.getMessage());
+    }
+
+    /**
+     * Connects to a server in the same JVM, which needs neither keys nor a handshake
+     *
+     * @param future the future returned to the caller of {@link #connect(Executor)}
+     * @throws ClientException if no server is bound to the configured name or it refused the connection
+     */
+    private void establishLocal(CompletableFuture<Void> future) throws ClientException {
+        LocalChannel attempt;
+        try { attempt = LocalTransport.connect(config.getLocalName());
         } catch (IOException e) {
-            throw new ClientException("Communication failure when exchanging public async keys with the server: " + e.getMessage());
+            throw new ClientException("Failed to connect to server: " + e.getMessage());
+        }
+        synchronized (this) {
+            if (future.isCancelled()) {
+                attempt.close();
+                return;
+            }
+            channel = attempt;
+            agreed = new Hello(Hello.VERSION, null, Capabilities.LOCAL);
+            isOpen = true;
+            connection = new ClientConnection(this, null, Hello.VERSION, Capabilities.LOCAL);
+            executorService = Executors.newSingleThreadExecutor();
+            executorService.submit(this);
+            future.complete(null);
         }
-        isOpen = true;
-        connection = new ClientConnection(this, socket);
-        executorService = Executors.newSingleThreadExecutor();
-        executorService.submit(this);
-        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * Closes the connection of a connection attempt that failed or was cancelled
+     */
+    private synchronized void abortConnect() {
+        if (isOpen || socket == null) return;
+        try { socket.close();
+        } catch (IOException ignore) { }
     }
 
     /**
      * Attempts to exchange public async encryption keys with the
-     * connected server
+     * connected server, answering the server's handshake cookie challenge
+     * first if it sends one. With protocol version 2 the client sends a
+     * {@link Hello} and the server's reply, which carries the agreed
+     * {@link Capabilities}, completes the handshake.
      *
      * @throws  IOException if something went wrong with the server's
      *          incoming or outgoing streams
      * @throws  NoSuchAlgorithmException if the encryption algorithm didn't exist
      * @throws  InvalidKeySpecException if the key specifications were invalid
      * @throws  ClientException if the client couldn't send a confirmation
-     *          message to the server after completing the handshake
+     *          message to the server after completing the handshake, or
+     *          the server did not answer with a hello
      */
     private void exchangeKeys() throws IOException, NoSuchAlgorithmException, InvalidKeySpecException, ClientException {
+        if (config.getHandshakeVersion() == 1) {
+            exchangeLegacyKeys();
+            return;
+        }
+        Set<String> codecs;
+        if (config.getTls() != null) codecs = Collections.singleton(Capabilities.PLAIN_CODEC);
+        else if (config.getUnixSocket() != null && config.isUnixPlaintext())
+            codecs = new LinkedHashSet<>(Arrays.asList(Capabilities.PLAIN_CODEC, Capabilities.JSON_CODEC));
+        else codecs = Collections.singleton(Capabilities.JSON_CODEC);
+        Capabilities capabilities = new Capabilities(Collections.emptySet(), codecs, config.getMaxFrameSize(), config.getHeartbeatInterval());
+        if (config.getAckWindow() > 0 && delivery == null) delivery = new AckedDelivery(config.getAckWindow());
+        outgoing.println(new Hello(Hello.VERSION, clientKeys == null ? null : clientKeys.getPublic(), capabilities, config.getClientId(),
+                delivery == null ? 0 : delivery.getSession(), delivery == null ? 0 : delivery.getWindow()).encode());
+        String reply = readHandshakeReply();
+        if (reply == null)
+            throw new IOException("the server closed the connection; servers older than protocol version 2 need handshakeVersion(1)");
+        if (!Hello.isHello(reply)) throw new ClientException("The server did not answer the handshake with a hello");
+        Hello hello = Hello.decode(reply);
+        serverPublicKey = hello.getPublicKey();
+        // the server already intersected both sides, intersecting again guards against a server offering more than
+        // asked for; the server's order is kept so that both sides pick the same codec
+        agreed = new Hello(hello.getVersion(), serverPublicKey, hello.getCapabilities().agree(capabilities), null,
+                hello.getDeliverySession(), hello.getDeliveryWindow());
+        if (agreed.getCapabilities().getCodecs().isEmpty()) throw new ClientException("The server supports none of the client's codecs");
+        if (delivery != null && hello.getDeliverySession() == 0)
+            throw new ClientException("The server does not support acknowledged delivery");
+    }
+
+    /**
+     * Performs the version 1 handshake, in which the keys are sent as
+     * text and the client confirms that it received the server's key
+     *
+     * @throws  IOException if something went wrong with the server's
+     *          incoming or outgoing streams
+     * @throws  NoSuchAlgorithmException if the encryption algorithm didn't exist
+     * @throws  InvalidKeySpecException if the key specifications were invalid
+     * @throws  ClientException if the client couldn't send a confirmation
+     *          message to the server after completing the handshake
+     */
+    private void exchangeLegacyKeys() throws IOException, NoSuchAlgorithmException, InvalidKeySpecException, ClientException {
         outgoing.println(Arrays.toString(clientKeys.getPublic().getEncoded()));
-        String firstMessage = incoming.readLine();
+        String firstMessage = readHandshakeReply();
         if (firstMessage == null) throw new IOException();
         byte[] keyBytes = parseStrByteArray(firstMessage);
         X509EncodedKeySpec spec = new X509EncodedKeySpec(keyBytes);
         serverPublicKey = KeyFactory.getInstance("RSA").generatePublic(spec);
+        agreed = new Hello(1, serverPublicKey, Capabilities.LEGACY);
         try { sendText("handshake");
         } catch (ClientException e) {
             throw new ClientException("Failed to send handshake confirmation message: " + e.getMessage());
         }
     }
 
+    /**
+     * @return the server's answer to the client's key, after solving the
+     *         handshake cookie challenge if the server sent one first
+     * @throws  IOException if something went wrong with the server's
+     *          incoming stream
+     * @throws  NoSuchAlgorithmException if the cookie's hash algorithm didn't exist
+     * @throws  ClientException if the challenge is not worth solving
+     */
+    private String readHandshakeReply() throws IOException, NoSuchAlgorithmException, ClientException {
+        String firstMessage = incoming.readLine();
+        if (HandshakeCookie.isChallenge(firstMessage)) {
+            try { outgoing.println(HandshakeCookie.solve(firstMessage));
+            } catch (IllegalArgumentException e) {
+                throw new ClientException("Refusing the server's handshake cookie challenge: " + e.getMessage());
+            }
+            firstMessage = incoming.readLine();
+        }
+        return firstMessage;
+    }
+
+    @SuppressWarnings("unused")
+    public void addErrorListener(ClientErrorListener listener) {
+        listenerManager.addErrorListener(listener);
+    }
+    @SuppressWarnings("unused")
+    public void removeErrorListener(ClientErrorListener listener) {
+        listenerManager.removeErrorListener(listener);
+    }
     @SuppressWarnings("unused")
     public void addMessageListener(ClientMessageListener listener) {
         listenerManager.addMessageListener(listener);
     }
     @SuppressWarnings("unused")
+    public void addMessageListener(ClientMessageListener listener, Dispatch dispatch) {
+        listenerManager.addMessageListener(listener, dispatch);
+    }
+    @SuppressWarnings("unused")
     public void removeMessageListener(ClientMessageListener listener) {
         listenerManager.removeMessageListener(listener);
     }
@@ -166,6 +417,10 @@ public class TcpClient implements AutoCloseable, Runnable {
         listenerManager.addCommandListener(listener);
     }
     @SuppressWarnings("unused")
+    public void addCommandListener(ClientCommandListener listener, Dispatch dispatch) {
+        listenerManager.addCommandListener(listener, dispatch);
+    }
+    @SuppressWarnings("unused")
     public void removeCommandListener(ClientCommandListener listener) {
         listenerManager.removeCommandListener(listener);
     }
@@ -174,10 +429,26 @@ public class TcpClient implements AutoCloseable, Runnable {
         listenerManager.addJsonListener(listener);
     }
     @SuppressWarnings("unused")
+    public void addJsonListener(ClientJsonListener listener, Dispatch dispatch) {
+        listenerManager.addJsonListener(listener, dispatch);
+    }
+    @SuppressWarnings("unused")
     public void removeJsonListener(ClientJsonListener listener) {
         listenerManager.removeJsonListener(listener);
     }
     @SuppressWarnings("unused")
+    public void addTopicListener(ClientTopicListener listener) {
+        listenerManager.addTopicListener(listener);
+    }
+    @SuppressWarnings("unused")
+    public void addTopicListener(ClientTopicListener listener, Dispatch dispatch) {
+        listenerManager.addTopicListener(listener, dispatch);
+    }
+    @SuppressWarnings("unused")
+    public void removeTopicListener(ClientTopicListener listener) {
+        listenerManager.removeTopicListener(listener);
+    }
+    @SuppressWarnings("unused")
     public void removeAllListeners() {
         listenerManager.removeAllListeners();
     }
@@ -185,45 +456,167 @@ public class TcpClient implements AutoCloseable, Runnable {
         return Optional.of(connection);
     }
 
+    /**
+     * @return how many frames sent under {@link TcpClientConfig.Builder#ackWindow(int) acknowledged delivery} the
+     *         server has not acknowledged yet, which are sent again when the client connects again
+     */
+    public int getUnacknowledgedCount() {
+        return delivery == null ? 0 : delivery.getUnacknowledgedCount();
+    }
+
     @Override
     public void run() {
+        if (channel != null) {
+            receiveLocal();
+            close();
+            return;
+        }
+        OrderedPipeline<Frame> pipeline = decryptPool == null ? null : new OrderedPipeline<>(decryptPool, config.getDecryptWindow(), frame -> {
+            receive(frame);
+            return isOpen;
+        }, e -> {
+            failed(e);
+            close();
+        });
         try {
             while (isOpen) {
 
                 String received = incoming.readLine();
-                if (received == null) return;
-                String raw = new String(Base64.decodeBase64(received));
-                JSONObject packet = new JSONObject(raw);
-                JSONObject data = decryptEncryptionPacket(packet, serverPublicKey, clientKeys.getPrivate());
-
-                switch (packet.getEnum(PacketType.class, "type")) {
-                    case TEXT:
-                        String text = data.getString("text");
-                        listenerManager.raiseMessageEvent(new ClientMessage(text, connection));
-                        break;
-                    case COMMAND:
-                        String command = data.getString("command");
-                        String arguments = data.getString("arguments");
-                        CommandPacket cPacket = new CommandPacket(command, arguments);
-                        listenerManager.raiseCommandEvent(new ClientCommand(cPacket, connection));
-                        break;
-                    case JSON:
-                        listenerManager.raiseJsonEvent(new ClientJson(data, connection));
-                        break;
+                if (received == null) break;
+                if (received.equals(Capabilities.HEARTBEAT)) continue;
+                if (!agreed.getCapabilities().allowsFrame(received.length())) break;
+                if (pipeline != null) {
+                    pipeline.submit(() -> decode(received));
+                    continue;
                 }
+                receive(decode(received));
             }
         } catch (SocketException se) {
-            if (!se.getMessage().equals("Socket closed"))
-                se.printStackTrace();
+            if ("Connection reset".equals(se.getMessage())) Log.info("client", "Server terminated connection");
+            else if (!"Socket closed".equals(se.getMessage())) failed(se);
         } catch (Exception e) {
-            if (e.getMessage().equals("client.listener_references.ServerConnection reset")) {
-                System.out.println("Server terminated connection");
-                close();
-            } else { e.printStackTrace(); }
+            failed(e);
+        }
+        if (pipeline != null) { // let the frames still being decrypted reach the listeners first
+            try { pipeline.awaitIdle();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
         close();
     }
 
+    /**
+     * Decodes, decrypts, and verifies a frame received from the server
+     *
+     * @param received the line the frame was received as
+     * @return the decoded frame
+     * @throws Exception if the frame is malformed or failed verification
+     */
+    private Frame decode(String received) throws Exception {
+        JSONObject packet = new JSONObject(new String(Base64.decodeBase64(received)));
+        JSONObject data = agreed.getCapabilities().isEncrypted()
+                ? decryptEncryptionPacket(packet, serverPublicKey, clientKeys.getPrivate()) : packet.getJSONObject("data");
+        if (delivery != null) delivery.acknowledge(packet);
+        return new Frame(packet.getEnum(PacketType.class, "type"), packet.optEnum(Priority.class, "priority", Priority.NORMAL), data,
+                packet.optLong("seq"), packet.optLong("base"));
+    }
+
+    /**
+     * Dispatches a frame received from the server, unless acknowledged delivery finds that it was received before
+     *
+     * @param frame the decoded frame
+     */
+    private void receive(Frame frame) {
+        if (delivery == null) {
+            dispatch(frame.getType(), frame.getData(), frame.getPriority());
+            return;
+        }
+        if (frame.getType() == PacketType.ACK) {
+            delivery.acknowledge(frame.getData());
+            return;
+        }
+        if (frame.getSequence() > 0 && !delivery.receive(frame.getSequence(), frame.getBase())) return;
+        delivery.beginReceiving();
+        try { dispatch(frame.getType(), frame.getData(), frame.getPriority());
+        } finally {
+            delivery.endReceiving();
+        }
+        if (delivery.isAckUrgent()) acknowledge();
+    }
+
+    /**
+     * Sends the acknowledgement due to the server as a frame of its own, since nothing else carried it
+     */
+    private void acknowledge() {
+        JSONObject body = new JSONObject();
+        if (!delivery.acknowledgeTo(body)) return;
+        try { send(body, PacketType.ACK, Priority.HIGH, false);
+        } catch (ClientException e) {
+            delivery.unsent(0, body);
+        }
+    }
+
+    /**
+     * Sends what the server did not acknowledge on earlier connections again, with the original numbers
+     */
+    private void retransmit() {
+        for (Map.Entry<Long, Frame> entry : delivery.getUnacknowledged().entrySet()) {
+            Frame frame = entry.getValue();
+            try { write(packet(frame.getData()), frame.getType(), frame.getPriority(), entry.getKey());
+            } catch (ClientException e) {
+                return;
+            }
+        }
+    }
+
+    private void receiveLocal() {
+        try {
+            Frame frame;
+            while (isOpen && (frame = channel.receive()) != null)
+                dispatch(frame.getType(), frame.getData(), frame.getPriority());
+        } catch (Exception e) {
+            failed(e);
+        }
+    }
+
+    /**
+     * Logs an unexpected failure of the connection and raises it to the {@link ClientErrorListener}s
+     */
+    private void failed(Exception e) {
+        Log.error("client", "Connection to the server failed", e);
+        listenerManager.raiseErrorEvent(e);
+    }
+
+    /**
+     * Raises the event of a frame received from the server
+     *
+     * @param type     what kind of packet the frame carries
+     * @param data     the decrypted content of the frame
+     * @param priority the {@link Priority} the server sent the frame with
+     */
+    private void dispatch(PacketType type, JSONObject data, Priority priority) {
+        switch (type) {
+            case TEXT:
+                String text = data.getString("text");
+                listenerManager.raiseMessageEvent(new ClientMessage(text, connection), priority);
+                break;
+            case COMMAND:
+                String command = data.getString("command");
+                String arguments = data.getString("arguments");
+                CommandPacket cPacket = new CommandPacket(command, arguments);
+                listenerManager.raiseCommandEvent(new ClientCommand(cPacket, connection), priority);
+                break;
+            case JSON:
+                listenerManager.raiseJsonEvent(new ClientJson(data, connection), priority);
+                break;
+            case TOPIC:
+                ClientTopic topic = new ClientTopic(data.getString("topic"), data.getJSONObject("payload"), connection);
+                listenerManager.raiseTopicEvent(topic, priority);
+                break;
+        }
+    }
+
     /**
      * Attempts to encrypt the data and wrap it in an {@link JSONObject}
      *
@@ -265,7 +658,22 @@ public class TcpClient implements AutoCloseable, Runnable {
      * @throws  IllegalArgumentException if {@code text} is null
      */
     public void sendText(String text) throws ClientException {
-        send(new JSONObject().put("text", text), TEXT);
+        sendText(text, Priority.NORMAL);
+    }
+
+    /**
+     * Attempts to encrypt and send the {@code text} to the server
+     * that the client is currently connected to
+     *
+     * @param   text     the {@code String} to be sent to the server
+     * @param   priority the {@link Priority} of the message on both
+     *                   ends of the connection
+     * @throws  ClientException if something went wrong while trying
+     *          to send the message
+     * @throws  IllegalArgumentException if {@code text} is null
+     */
+    public void sendText(String text, Priority priority) throws ClientException {
+        send(new JSONObject().put("text", text), TEXT, priority);
     }
 
     /**
@@ -279,21 +687,152 @@ public class TcpClient implements AutoCloseable, Runnable {
      *          to send the message
      */
     public void sendCommand(String command, String arguments) throws ClientException {
-        send(new JSONObject().put("command", command).put("arguments", arguments), PacketType.COMMAND);
+        sendCommand(command, arguments, Priority.NORMAL);
+    }
+
+    /**
+     * Attempts to format, encrypt, and send the {@code command} and
+     * {@code arguments} to the server that the client is currently
+     * connected to
+     *
+     * @param   command   the command to be sent to the server
+     * @param   arguments the command args associated with the command
+     * @param   priority  the {@link Priority} of the command on both
+     *                    ends of the connection
+     * @throws  ClientException if something went wrong while trying
+     *          to send the message
+     */
+    public void sendCommand(String command, String arguments, Priority priority) throws ClientException {
+        send(new JSONObject().put("command", command).put("arguments", arguments), PacketType.COMMAND, priority);
     }
 
     public void sendJSON(JSONObject json) throws ClientException {
-        send(json, PacketType.JSON);
+        sendJSON(json, Priority.NORMAL);
     }
 
-    private void send(JSONObject json, PacketType type) throws ClientException {
+    /**
+     * Attempts to encrypt and send the {@code json} to the server
+     * that the client is currently connected to
+     *
+     * @param   json     the {@link JSONObject} to be sent to the server
+     * @param   priority the {@link Priority} of the object on both
+     *                   ends of the connection
+     * @throws  ClientException if something went wrong while trying
+     *          to send the object
+     */
+    public void sendJSON(JSONObject json, Priority priority) throws ClientException {
+        send(json, PacketType.JSON, priority);
+    }
+
+    /**
+     * Subscribes the client to every topic matching the {@code pattern}. Topics are made of levels
+     * separated by {@code /}; {@code +} matches exactly one level and a trailing {@code #} any number
+     * of levels, so {@code sensors/+/temperature} matches {@code sensors/kitchen/temperature} and
+     * {@code sensors/#} matches every topic under {@code sensors}. Payloads published to the topics
+     * are passed to the {@link ClientTopicListener}s.
+     *
+     * @param   pattern the topic or pattern to subscribe to
+     * @throws  ClientException if the server does not support topics or
+     *          something went wrong while trying to send the request
+     * @throws  IllegalArgumentException if the pattern is empty or uses a
+     *          wildcard other than as a whole level, or {@code #} other than last
+     */
+    public void subscribe(String pattern) throws ClientException {
+        send(topicRequest(pattern), PacketType.SUBSCRIBE, Priority.NORMAL);
+    }
+
+    /**
+     * Undoes a {@link #subscribe(String)} with the same {@code pattern}
+     *
+     * @param   pattern the topic or pattern to unsubscribe from
+     * @throws  ClientException if the server does not support topics or
+     *          something went wrong while trying to send the request
+     * @throws  IllegalArgumentException if the pattern is not valid
+     */
+    public void unsubscribe(String pattern) throws ClientException {
+        send(topicRequest(pattern), PacketType.UNSUBSCRIBE, Priority.NORMAL);
+    }
+
+    private JSONObject topicRequest(String pattern) throws ClientException {
+        if (pattern == null || pattern.isEmpty()) throw new IllegalArgumentException("pattern cannot be empty");
+        String[] levels = pattern.split("/", -1);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (level.equals("#") ? i != levels.length - 1
+                    : !level.equals("+") && (level.indexOf('+') >= 0 || level.indexOf('#') >= 0))
+                throw new IllegalArgumentException("Invalid topic pattern: " + pattern);
+        }
+        if (agreed != null && agreed.getVersion() < Hello.VERSION)
+            throw new ClientException("The server does not support topics: it only speaks protocol version " + agreed.getVersion());
+        return new JSONObject().put("pattern", pattern);
+    }
+
+    private void send(JSONObject json, PacketType type, Priority priority) throws ClientException {
+        send(json, type, priority, true);
+    }
+
+    /**
+     * @param numbered {@code false} for frames that are not delivered again if the connection is lost, such as
+     *                 acknowledgements and the request to disconnect
+     */
+    private void send(JSONObject json, PacketType type, Priority priority, boolean numbered) throws ClientException {
         if (json == null || json.isEmpty()) throw new IllegalArgumentException("Cannot send empty data");
+        Objects.requireNonNull(priority, "priority cannot be null");
+        if (channel != null) { // in-JVM connections pass the frame as is
+            if (!channel.send(new Frame(type, priority, json)))
+                throw new ClientException("Failed to send data: the in-JVM connection to the server is closed");
+            return;
+        }
         if (serverPublicKey == null) throw new ClientException("Failed to encrypt data: server's public async encryption key does not exist");
         if (outgoing == null) throw new ClientException("Failed to send data: no secure connection to the server exists");
-        JSONObject packet = generateEncryptionPacket(json, serverPublicKey, clientKeys.getPrivate());
+        JSONObject packet = packet(json);
+        double traceSampleRate = config.getTraceSampleRate();
+        if (traceSampleRate > 0 && (type == TEXT || type == PacketType.COMMAND || type == PacketType.JSON)
+                && numbered && ThreadLocalRandom.current().nextDouble() < traceSampleRate)
+            packet.put("trace", Trace.newId()).put("sent", System.currentTimeMillis());
+        long sequence = 0;
+        if (delivery != null && numbered) {
+            try { sequence = delivery.sequence(new Frame(type, priority, json));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ClientException("Interrupted while waiting for the server to acknowledge earlier frames");
+            }
+            if (sequence == AckedDelivery.FULL) throw new ClientException("Failed to send data: "
+                    + delivery.getWindow() + " frames are unacknowledged and the server's acknowledgements are read by this thread");
+            if (sequence < 0) throw new ClientException("Failed to send data: not connected to the server with "
+                    + delivery.getWindow() + " frames unacknowledged");
+        }
+        write(packet, type, priority, sequence);
+    }
+
+    /**
+     * @return the packet carrying the {@code json}, encrypted unless the connection agreed on unencrypted frames
+     */
+    private JSONObject packet(JSONObject json) throws ClientException {
+        JSONObject packet = outgoing.getCapabilities().isEncrypted()
+                ? generateEncryptionPacket(json, serverPublicKey, clientKeys.getPrivate()) : new JSONObject().put("data", json);
         if (packet == null || packet.isEmpty()) throw new ClientException("Failed to encrypt data: could not generate encryption packet");
+        return packet;
+    }
+
+    /**
+     * Writes a packet with its number under acknowledged delivery, if it has one, and whatever acknowledgement is
+     * due to the server
+     */
+    private void write(JSONObject packet, PacketType type, Priority priority, long sequence) throws ClientException {
+        AckedDelivery delivery = this.delivery;
+        if (delivery != null) {
+            if (sequence > 0) packet.put("seq", sequence).put("base", delivery.getBase());
+            delivery.acknowledgeTo(packet);
+        }
         packet.put("type", type);
-        outgoing.println(Base64.encodeBase64String(packet.toString().getBytes()));
+        if (priority != Priority.NORMAL) packet.put("priority", priority);
+        String frame = Base64.encodeBase64String(packet.toString().getBytes());
+        if (!outgoing.allowsFrame(frame.length())) {
+            if (delivery != null) delivery.unsent(sequence, packet);
+            throw new ClientException("Frame of " + frame.length() + " characters exceeds the max frame size agreed with the server");
+        }
+        outgoing.println(frame, priority);
     }
 
     private byte[] parseStrByteArray(String a) {
@@ -310,14 +849,26 @@ public class TcpClient implements AutoCloseable, Runnable {
      */
     @Override
     public void close() {
-        try { sendCommand("sudo", "disconnect");
+        if (isOpen && delivery != null) acknowledge(); // spares the server sending it all again
+        try { send(new JSONObject().put("command", "sudo").put("arguments", "disconnect"), PacketType.COMMAND, Priority.NORMAL, false);
         } catch (ClientException ignore) { }
+        CompletableFuture<Void> pending = connecting;
+        if (pending != null) pending.cancel(false);
         if (!isOpen) return; isOpen = false;
+        if (heartbeat != null) heartbeat.cancel(false);
+        if (ackFlush != null) ackFlush.cancel(false);
+        if (delivery != null) delivery.disconnect();
         executorService.shutdownNow();
+        if (decryptPool != null) decryptPool.shutdownNow();
+        listenerManager.close();
         connection = null;
+        if (channel != null) {
+            channel.close();
+            return;
+        }
         try { socket.close();
         } catch (IOException ioe) {
-            ioe.printStackTrace();
+            Log.warn("client", "Failed to close the socket", ioe);
         }
     }
 
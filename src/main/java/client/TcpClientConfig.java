@@ -0,0 +1,624 @@
+package client;
+
+import config.SocketOptions;
+import config.TlsOptions;
+import cryptography.HybridCryptography;
+import listeners.Dispatch;
+import packets.AckedDelivery;
+import packets.Hello;
+import scheduling.Priority;
+import scheduling.Scheduling;
+
+import java.nio.file.Path;
+
+/**
+ * Everything that can be tuned about a {@link TcpClient}: the server it connects to, its timeouts,
+ * how many threads run its listeners and how far their queue may grow, its socket options, and its key size.
+ * <p>
+ * Instances are immutable and created through {@link #builder(String, int)}, which validates the
+ * combination of settings when {@link Builder#build()} is called.
+ */
+public final class TcpClientConfig {
+
+    private final String host;
+    private final int port;
+    private final String localName;
+    private final Path unixSocket;
+    private final boolean unixPlaintext;
+    private final int connectTimeout;
+    private final int handshakeTimeout;
+    private final int readTimeout;
+    private final int dispatchThreads;
+    private final int dispatchQueueSize;
+    private final Scheduling scheduling;
+    private final Dispatch dispatch;
+    private final int inlineBudget;
+    private final int decryptThreads;
+    private final int decryptWindow;
+    private final int maxFrameSize;
+    private final int heartbeatInterval;
+    private final int handshakeVersion;
+    private final String clientId;
+    private final int ackWindow;
+    private final double traceSampleRate;
+    private final int keySize;
+    private final SocketOptions socketOptions;
+    private final TlsOptions tls;
+
+    private TcpClientConfig(Builder builder) {
+        this.host = builder.host;
+        this.port = builder.port;
+        this.localName = builder.localName;
+        this.unixSocket = builder.unixSocket;
+        this.unixPlaintext = builder.unixPlaintext;
+        this.connectTimeout = builder.connectTimeout;
+        this.handshakeTimeout = builder.handshakeTimeout;
+        this.readTimeout = builder.readTimeout;
+        this.dispatchThreads = builder.dispatchThreads;
+        this.dispatchQueueSize = builder.dispatchQueueSize;
+        this.scheduling = builder.scheduling;
+        this.dispatch = builder.dispatch;
+        this.inlineBudget = builder.inlineBudget;
+        this.decryptThreads = builder.decryptThreads;
+        this.decryptWindow = builder.decryptWindow;
+        this.maxFrameSize = builder.maxFrameSize;
+        this.heartbeatInterval = builder.heartbeatInterval;
+        this.handshakeVersion = builder.handshakeVersion;
+        this.clientId = builder.clientId;
+        this.ackWindow = builder.ackWindow;
+        this.traceSampleRate = builder.traceSampleRate;
+        this.keySize = builder.keySize;
+        this.socketOptions = builder.socketOptions;
+        this.tls = builder.tls;
+    }
+
+    /**
+     * @param host the host name of the server, or {@code null} for the loopback address
+     * @param port the port of the server
+     * @return a new {@link Builder} with every other setting at its default
+     */
+    public static Builder builder(String host, int port) {
+        return new Builder(host, port);
+    }
+
+    /**
+     * Connections to a {@link server.TcpServer} in the same JVM skip sockets, the handshake, and encryption,
+     * and pass frames as objects instead; see {@link local.LocalTransport}
+     *
+     * @param name the in-JVM name the server is bound to
+     * @return a new {@link Builder} with every other setting at its default
+     * @see server.TcpServerConfig.Builder#localName(String)
+     */
+    public static Builder local(String name) {
+        Builder builder = new Builder(null, 0);
+        builder.localName = name;
+        return builder;
+    }
+
+    /**
+     * Connections through a Unix domain socket, which needs Java 16 or newer, use the same handshake and
+     * listeners as over TCP without the overhead of the loopback network stack
+     *
+     * @param path the socket file of the server
+     * @return a new {@link Builder} with every other setting at its default
+     * @see server.TcpServerConfig.Builder#unixSocket(Path)
+     */
+    public static Builder unix(Path path) {
+        Builder builder = new Builder(null, 0);
+        builder.unixSocket = path;
+        return builder;
+    }
+
+    /**
+     * @return a new {@link Builder} initialized with the settings of this config
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder(host, port);
+        builder.localName = localName;
+        builder.unixSocket = unixSocket;
+        builder.unixPlaintext = unixPlaintext;
+        builder.connectTimeout = connectTimeout;
+        builder.handshakeTimeout = handshakeTimeout;
+        builder.readTimeout = readTimeout;
+        builder.dispatchThreads = dispatchThreads;
+        builder.dispatchQueueSize = dispatchQueueSize;
+        builder.scheduling = scheduling;
+        builder.dispatch = dispatch;
+        builder.inlineBudget = inlineBudget;
+        builder.decryptThreads = decryptThreads;
+        builder.decryptWindow = decryptWindow;
+        builder.maxFrameSize = maxFrameSize;
+        builder.heartbeatInterval = heartbeatInterval;
+        builder.handshakeVersion = handshakeVersion;
+        builder.clientId = clientId;
+        builder.ackWindow = ackWindow;
+        builder.traceSampleRate = traceSampleRate;
+        builder.keySize = keySize;
+        builder.socketOptions = socketOptions;
+        builder.tls = tls;
+        return builder;
+    }
+
+    /**
+     * @return the host name of the server, or {@code null} for the loopback address
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * @return the port of the server
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the in-JVM name of the server to connect to, or {@code null} to connect over TCP
+     */
+    public String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * @return the socket file of the server to connect to, or {@code null} to connect over TCP
+     */
+    public Path getUnixSocket() {
+        return unixSocket;
+    }
+
+    /**
+     * @return whether the client skips encryption on a Unix domain socket if the server allows it
+     */
+    public boolean isUnixPlaintext() {
+        return unixPlaintext;
+    }
+
+    /**
+     * @return milliseconds to wait for the TCP connection to be established, or {@code 0} to wait indefinitely
+     */
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @return milliseconds to wait for each step of the handshake, or {@code 0} to wait indefinitely
+     */
+    public int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    /**
+     * @return milliseconds of zero activity from the server until the client disconnects, or {@code 0} for never
+     */
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @return how many listeners may run at once, or {@code 0} for no limit
+     */
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    /**
+     * @return how many listener invocations may wait for a dispatch thread, or {@code 0} for no limit
+     */
+    public int getDispatchQueueSize() {
+        return dispatchQueueSize;
+    }
+
+    /**
+     * @return how queued frames and listener invocations of different {@link Priority} classes are ordered
+     */
+    public Scheduling getScheduling() {
+        return scheduling;
+    }
+
+    /**
+     * @return where listeners registered without a {@link Dispatch} of their own run
+     */
+    public Dispatch getDispatch() {
+        return dispatch;
+    }
+
+    /**
+     * @return milliseconds an inline listener may run before it is moved to a dispatch thread, or {@code 0} for no limit
+     */
+    public int getInlineBudget() {
+        return inlineBudget;
+    }
+
+    /**
+     * @return how many threads decode and decrypt received frames, or {@code 0} to do it on the reading thread
+     */
+    public int getDecryptThreads() {
+        return decryptThreads;
+    }
+
+    /**
+     * @return how many frames of a single connection may be decrypted at once
+     */
+    public int getDecryptWindow() {
+        return decryptWindow == 0 ? decryptThreads * 4 : decryptWindow;
+    }
+
+    /**
+     * @return the longest frame in characters the client accepts, or {@code 0} for no limit
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * @return milliseconds between the heartbeats the client sends and expects, or {@code 0} for none
+     */
+    public int getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * @return the handshake protocol version the client uses
+     */
+    public int getHandshakeVersion() {
+        return handshakeVersion;
+    }
+
+    /**
+     * @return the identity the client keeps across connections, or {@code null} for none
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    /**
+     * @return how many frames the client may have unacknowledged under acknowledged delivery, or {@code 0} if it
+     *         does not ask for it
+     */
+    public int getAckWindow() {
+        return ackWindow;
+    }
+
+    /**
+     * @return the fraction of the frames the client sends with a trace header
+     */
+    public double getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    /**
+     * @return the size of the client's RSA key in bits
+     */
+    public int getKeySize() {
+        return keySize;
+    }
+
+    /**
+     * @return the options applied to the client's socket
+     */
+    public SocketOptions getSocketOptions() {
+        return socketOptions;
+    }
+
+    /**
+     * @return the TLS settings of the connection, or {@code null} if the client uses the library's own encryption
+     */
+    public TlsOptions getTls() {
+        return tls;
+    }
+
+    public static final class Builder {
+
+        private final String host;
+        private final int port;
+        private String localName;
+        private Path unixSocket;
+        private boolean unixPlaintext = false;
+        private int connectTimeout = 0;
+        private int handshakeTimeout = 0;
+        private int readTimeout = 0;
+        private int dispatchThreads = 0;
+        private int dispatchQueueSize = 0;
+        private Scheduling scheduling = Scheduling.STRICT;
+        private Dispatch dispatch = Dispatch.EXECUTOR;
+        private int inlineBudget = 10;
+        private int decryptThreads = 0;
+        private int decryptWindow = 0;
+        private int maxFrameSize = 0;
+        private int heartbeatInterval = 0;
+        private int handshakeVersion = Hello.VERSION;
+        private String clientId;
+        private int ackWindow = 0;
+        private double traceSampleRate = 0;
+        private int keySize = HybridCryptography.DEFAULT_KEY_SIZE;
+        private SocketOptions socketOptions = SocketOptions.DEFAULT;
+        private TlsOptions tls;
+
+        private Builder(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        /**
+         * Asks for the {@link packets.Capabilities#PLAIN_CODEC relaxed crypto mode} when connecting through a Unix
+         * domain socket; frames are only sent unencrypted if the server offers it as well.
+         *
+         * @param allow {@code true} to skip encryption on a Unix domain socket, {@code false} (the default) otherwise
+         * @return this builder
+         */
+        public Builder unixPlaintext(boolean allow) {
+            this.unixPlaintext = allow;
+            return this;
+        }
+
+        /**
+         * @param millis how long to wait for the TCP connection to be established, or {@code 0} (the default) to wait indefinitely
+         * @return this builder
+         */
+        public Builder connectTimeout(int millis) {
+            this.connectTimeout = millis;
+            return this;
+        }
+
+        /**
+         * @param millis how long to wait for each step of the handshake, or {@code 0} (the default) to wait indefinitely
+         * @return this builder
+         */
+        public Builder handshakeTimeout(int millis) {
+            this.handshakeTimeout = millis;
+            return this;
+        }
+
+        /**
+         * @param millis how many milliseconds of zero activity from the server until the client disconnects,
+         *               or {@code 0} (the default) for never
+         * @return this builder
+         */
+        public Builder readTimeout(int millis) {
+            this.readTimeout = millis;
+            return this;
+        }
+
+        /**
+         * @param threads how many listeners may run at once, or {@code 0} (the default) for no limit
+         * @return this builder
+         */
+        public Builder dispatchThreads(int threads) {
+            this.dispatchThreads = threads;
+            return this;
+        }
+
+        /**
+         * Once the queue is full, the thread reading from the server runs the listeners itself,
+         * which stops it from reading further until the listeners catch up.
+         *
+         * @param queueSize how many listener invocations may wait for a dispatch thread, or {@code 0}
+         *                  (the default) for no limit. Requires a dispatch thread limit.
+         * @return this builder
+         */
+        public Builder dispatchQueueSize(int queueSize) {
+            this.dispatchQueueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * Decides which {@link Priority} goes first, both among frames waiting to be written to a busy connection
+         * and among listener invocations waiting for a dispatch thread.
+         *
+         * @param scheduling how frames and listener invocations of different priorities are ordered
+         *                   (default {@link Scheduling#STRICT})
+         * @return this builder
+         */
+        public Builder scheduling(Scheduling scheduling) {
+            this.scheduling = scheduling;
+            return this;
+        }
+
+        /**
+         * {@link Dispatch#INLINE} runs listeners on the thread that read the event, which is the fastest path
+         * for listeners that only take microseconds. Single listeners can still be registered with a dispatch of their own.
+         *
+         * @param dispatch where listeners registered without a {@link Dispatch} of their own run (default {@link Dispatch#EXECUTOR})
+         * @return this builder
+         */
+        public Builder dispatch(Dispatch dispatch) {
+            this.dispatch = dispatch;
+            return this;
+        }
+
+        /**
+         * An inline listener that runs longer than this, or is found still running after it, is reported and
+         * dispatched on a dispatch thread from then on.
+         *
+         * @param millis how long an inline listener may run, or {@code 0} to never move one (default 10)
+         * @return this builder
+         */
+        public Builder inlineBudget(int millis) {
+            this.inlineBudget = millis;
+            return this;
+        }
+
+        /**
+         * Decodes, decrypts, and verifies received frames on a pool of threads instead of the
+         * thread reading the connection, so that a single busy connection can use more than one core. Frames are
+         * still dispatched in the order they were received.
+         *
+         * @param threads how many threads decrypt frames, or {@code 0} (the default) to decrypt on the reading thread
+         * @return this builder
+         */
+        public Builder decryptThreads(int threads) {
+            this.decryptThreads = threads;
+            return this;
+        }
+
+        /**
+         * @param frames how many frames of a single connection may be decrypted at once before the connection stops
+         *               reading, or {@code 0} (the default) for four per decrypt thread
+         * @return this builder
+         */
+        public Builder decryptWindow(int frames) {
+            this.decryptWindow = frames;
+            return this;
+        }
+
+        /**
+         * Offered to the server during a version 2 handshake; the smaller limit of both sides applies to frames in
+         * either direction. A peer that sends a longer frame is disconnected, and sending one fails.
+         *
+         * @param characters the longest frame the client accepts, or {@code 0} (the default) for no limit
+         * @return this builder
+         */
+        public Builder maxFrameSize(int characters) {
+            this.maxFrameSize = characters;
+            return this;
+        }
+
+        /**
+         * Offered to the server during a version 2 handshake. If both sides ask for heartbeats, each sends one at the
+         * slower of the two intervals whenever it is not busy sending anything else, which keeps an otherwise quiet
+         * connection from running into an idle timeout.
+         *
+         * @param millis milliseconds between heartbeats, or {@code 0} (the default) for none
+         * @return this builder
+         */
+        public Builder heartbeatInterval(int millis) {
+            this.heartbeatInterval = millis;
+            return this;
+        }
+
+        /**
+         * Servers older than protocol version 2 only understand the version 1 handshake, which sends keys as text,
+         * takes an extra round trip, and agrees on no {@link packets.Capabilities}.
+         *
+         * @param version the handshake protocol version to use, {@code 1} or {@code 2} (the default)
+         * @return this builder
+         */
+        public Builder handshakeVersion(int version) {
+            this.handshakeVersion = version;
+            return this;
+        }
+
+        /**
+         * Sent to the server during a version 2 handshake, so that it can tell that a new connection comes from the
+         * same client as an earlier one, for example to deliver what it queued for the client while it was offline.
+         * The server takes the client's word for it unless it
+         * {@link server.TcpServerConfig.Builder#clientIdFromCertificate(boolean) binds ids to TLS client certificates},
+         * in which case the id must be the common name of the certificate in the client's key store.
+         *
+         * @param clientId the identity of the client, at most {@value Hello#MAX_CLIENT_ID_LENGTH} characters,
+         *                 or {@code null} (the default) for none
+         * @return this builder
+         */
+        public Builder clientId(String clientId) {
+            this.clientId = clientId;
+            return this;
+        }
+
+        /**
+         * Asks the server for at-least-once delivery, which it has to be
+         * {@link server.TcpServerConfig.Builder#ackWindow(int) configured} for. Frames in both directions are then
+         * numbered and acknowledged, and whatever a lost connection did not deliver is sent again once the client
+         * {@link TcpClient#connect() connects} again. Duplicates are suppressed across reconnects if the client also
+         * declares a {@link #clientId(String) client id}; otherwise the server cannot tell it is the same client.
+         *
+         * @param frames how many frames may be sent before the client waits for the server to acknowledge them,
+         *               at most {@value AckedDelivery#MAX_WINDOW}, or {@code 0} (the default) for no acknowledgements
+         * @return this builder
+         */
+        public Builder ackWindow(int frames) {
+            this.ackWindow = frames;
+            return this;
+        }
+
+        /**
+         * Sends a sample of the text, command, and json frames with a trace header: a random trace id and the time
+         * the frame was sent, which a server {@link server.TcpServerConfig.Builder#tracing(tracing.TraceSink, double)
+         * tracing} frames follows through to its listeners if it samples the frame too, or if it
+         * {@link server.TcpServerConfig.Builder#traceClientSamples(boolean) traces what clients sample}. Servers that
+         * do not trace ignore the header, and frames passed in the same JVM never carry one.
+         *
+         * @param rate the fraction of frames to sample, between {@code 0} (the default) and {@code 1}
+         * @return this builder
+         */
+        public Builder traceSampleRate(double rate) {
+            this.traceSampleRate = rate;
+            return this;
+        }
+
+        /**
+         * @param bits the size of the client's RSA key (default {@link HybridCryptography#DEFAULT_KEY_SIZE}).
+         *             Smaller keys make connecting and every message cheaper at the cost of security margin.
+         * @return this builder
+         */
+        public Builder keySize(int bits) {
+            this.keySize = bits;
+            return this;
+        }
+
+        /**
+         * @param socketOptions the options applied to the client's socket
+         * @return this builder
+         */
+        public Builder socketOptions(SocketOptions socketOptions) {
+            this.socketOptions = socketOptions;
+            return this;
+        }
+
+        /**
+         * Connects over TLS instead of the library's own encryption, which the server has to be
+         * {@link server.TcpServerConfig.Builder#tls(TlsOptions) configured} for as well. The client then needs no
+         * RSA key of its own, so {@link #keySize(int)} does not apply.
+         *
+         * @param tls the TLS settings, or {@code null} (the default) for the library's own encryption
+         * @return this builder
+         */
+        public Builder tls(TlsOptions tls) {
+            this.tls = tls;
+            return this;
+        }
+
+        /**
+         * @return the configured {@link TcpClientConfig}
+         * @throws IllegalArgumentException if a setting is out of range or conflicts with another one
+         */
+        public TcpClientConfig build() {
+            if (localName != null && localName.isEmpty()) throw new IllegalArgumentException("localName cannot be empty");
+            if (localName != null && unixSocket != null) throw new IllegalArgumentException("localName and unixSocket cannot both be set");
+            if (tls != null && (localName != null || unixSocket != null))
+                throw new IllegalArgumentException("tls only applies to TCP connections");
+            if (tls != null && handshakeVersion == 1) throw new IllegalArgumentException("tls needs handshakeVersion 2");
+            if (localName == null && unixSocket == null && (port <= 0 || port > 65535)) throw new IllegalArgumentException("port out of range: " + port);
+            if (connectTimeout < 0) throw new IllegalArgumentException("connectTimeout cannot be negative");
+            if (handshakeTimeout < 0) throw new IllegalArgumentException("handshakeTimeout cannot be negative");
+            if (readTimeout < 0) throw new IllegalArgumentException("readTimeout cannot be negative");
+            if (dispatchThreads < 0) throw new IllegalArgumentException("dispatchThreads cannot be negative");
+            if (dispatchQueueSize < 0) throw new IllegalArgumentException("dispatchQueueSize cannot be negative");
+            if (dispatchQueueSize > 0 && dispatchThreads == 0)
+                throw new IllegalArgumentException("dispatchQueueSize requires a dispatchThreads limit");
+            if (scheduling == null) throw new IllegalArgumentException("scheduling cannot be null");
+            if (dispatch == null) throw new IllegalArgumentException("dispatch cannot be null");
+            if (inlineBudget < 0) throw new IllegalArgumentException("inlineBudget cannot be negative");
+            if (decryptThreads < 0) throw new IllegalArgumentException("decryptThreads cannot be negative");
+            if (decryptWindow < 0) throw new IllegalArgumentException("decryptWindow cannot be negative");
+            if (maxFrameSize < 0) throw new IllegalArgumentException("maxFrameSize cannot be negative");
+            if (heartbeatInterval < 0) throw new IllegalArgumentException("heartbeatInterval cannot be negative");
+            if (handshakeVersion < 1 || handshakeVersion > Hello.VERSION)
+                throw new IllegalArgumentException("handshakeVersion must be between 1 and " + Hello.VERSION);
+            if (clientId != null && (clientId.isEmpty() || clientId.length() > Hello.MAX_CLIENT_ID_LENGTH))
+                throw new IllegalArgumentException("clientId must be between 1 and " + Hello.MAX_CLIENT_ID_LENGTH + " characters");
+            if (clientId != null && (handshakeVersion == 1 || localName != null))
+                throw new IllegalArgumentException("clientId needs a handshakeVersion 2 socket connection");
+            if (ackWindow < 0 || ackWindow > AckedDelivery.MAX_WINDOW)
+                throw new IllegalArgumentException("ackWindow must be between 0 and " + AckedDelivery.MAX_WINDOW);
+            if (!(traceSampleRate >= 0 && traceSampleRate <= 1)) throw new IllegalArgumentException("traceSampleRate must be between 0 and 1");
+            if (ackWindow > 0 && (handshakeVersion == 1 || localName != null))
+                throw new IllegalArgumentException("ackWindow needs a handshakeVersion 2 socket connection");
+            if (keySize < HybridCryptography.MIN_KEY_SIZE)
+                throw new IllegalArgumentException("keySize must be at least " + HybridCryptography.MIN_KEY_SIZE);
+            if (socketOptions == null) throw new IllegalArgumentException("socketOptions cannot be null");
+            return new TcpClientConfig(this);
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package config;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns on a {@link server.TcpServer}'s durable outbox: what the server sends to a client by its
+ * {@link client.TcpClientConfig.Builder#clientId(String) identity} while the client is offline is appended to an
+ * on-disk log for that client and delivered, in order, once it reconnects. Queued data goes to memory-mapped
+ * segment files rather than the heap, so a burst to offline clients costs sequential writes to the page cache.
+ * <p>
+ * Writes are made durable in groups: every {@link #getSyncInterval() sync interval} the logs written to since the
+ * last sync are forced to disk together, so a crash loses at most that interval's worth of queued data. Consumed
+ * segments are deleted as the queue drains, and the oldest segments are dropped once a client's log outgrows
+ * {@link #getMaxBytesPerClient()} or they are older than {@link #getRetention()}.
+ * <p>
+ * Queued data is stored as the plain content of each frame, since every connection is encrypted with its own keys;
+ * the directory should be only as readable as the data it holds.
+ * <p>
+ * <b>Client ids are not authenticated by default.</b> Any client declaring an id receives what is queued for it, so
+ * without {@link server.TcpServerConfig.Builder#clientIdFromCertificate(boolean)}, which binds ids to TLS client
+ * certificates, the outbox is only safe when every client able to connect is trusted.
+ */
+public final class OutboxOptions {
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytesPerClient;
+    private final long retention;
+    private final int syncInterval;
+
+    private OutboxOptions(Builder builder) {
+        this.directory = builder.directory;
+        this.segmentSize = builder.segmentSize;
+        this.maxBytesPerClient = builder.maxBytesPerClient;
+        this.retention = builder.retention;
+        this.syncInterval = builder.syncInterval;
+    }
+
+    /**
+     * @param directory the directory the logs are kept in, one subdirectory per client; created if missing
+     * @return a new {@link Builder} with 4 MiB segments, 256 MiB and 7 days of retention per client,
+     *         and a 100 millisecond sync interval
+     */
+    public static Builder builder(Path directory) {
+        return new Builder(directory);
+    }
+
+    /**
+     * @return the directory the logs are kept in
+     */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the size of each memory-mapped segment file in bytes, which also bounds the size of a single frame
+     */
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * @return how many bytes of segments a client's log may hold before its oldest segments are dropped
+     */
+    public long getMaxBytesPerClient() {
+        return maxBytesPerClient;
+    }
+
+    /**
+     * @return milliseconds after the last write to a segment before it is dropped, even if it was never delivered
+     */
+    public long getRetention() {
+        return retention;
+    }
+
+    /**
+     * @return milliseconds between group syncs, or {@code 0} to force every write to disk before it returns
+     */
+    public int getSyncInterval() {
+        return syncInterval;
+    }
+
+    public static final class Builder {
+
+        private final Path directory;
+        private int segmentSize = 4 * 1024 * 1024;
+        private long maxBytesPerClient = 256L * 1024 * 1024;
+        private long retention = TimeUnit.DAYS.toMillis(7);
+        private int syncInterval = 100;
+
+        private Builder(Path directory) {
+            this.directory = directory;
+        }
+
+        /**
+         * @param bytes the size of each memory-mapped segment file (default 4 MiB), which also bounds the size
+         *              of a single queued frame
+         * @return this builder
+         */
+        public Builder segmentSize(int bytes) {
+            this.segmentSize = bytes;
+            return this;
+        }
+
+        /**
+         * @param bytes how many bytes of segments a client's log may hold (default 256 MiB); beyond that the
+         *              oldest segments are dropped, undelivered or not
+         * @return this builder
+         */
+        public Builder maxBytesPerClient(long bytes) {
+            this.maxBytesPerClient = bytes;
+            return this;
+        }
+
+        /**
+         * @param millis how long after its last write a segment is kept (default 7 days), or {@code 0} to keep
+         *               segments until they are delivered or pushed out by {@link #maxBytesPerClient(long)}
+         * @return this builder
+         */
+        public Builder retention(long millis) {
+            this.retention = millis;
+            return this;
+        }
+
+        /**
+         * @param millis milliseconds between group syncs (default 100), or {@code 0} to force every write to disk
+         *               before it returns, which is far slower but loses nothing on a crash
+         * @return this builder
+         */
+        public Builder syncInterval(int millis) {
+            this.syncInterval = millis;
+            return this;
+        }
+
+        /**
+         * @return the configured {@link OutboxOptions}
+         * @throws IllegalArgumentException if a setting is out of range
+         */
+        public OutboxOptions build() {
+            if (directory == null) throw new IllegalArgumentException("directory cannot be null");
+            if (segmentSize < 4096) throw new IllegalArgumentException("segmentSize must be at least 4096 bytes");
+            if (maxBytesPerClient < segmentSize) throw new IllegalArgumentException("maxBytesPerClient must be at least segmentSize");
+            if (retention < 0) throw new IllegalArgumentException("retention cannot be negative");
+            if (syncInterval < 0) throw new IllegalArgumentException("syncInterval cannot be negative");
+            return new OutboxOptions(this);
+        }
+    }
+
+}
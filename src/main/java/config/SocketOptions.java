@@ -0,0 +1,186 @@
+package config;
+
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * Socket options applied to every connection of a {@link server.TcpServer} or {@link client.TcpClient}.
+ * Options left unset keep the operating system's defaults.
+ */
+public final class SocketOptions {
+
+    /** The options used when nothing else was configured: keep-alive on, everything else left to the OS */
+    public static final SocketOptions DEFAULT = builder().build();
+
+    private final Boolean tcpNoDelay;
+    private final boolean keepAlive;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final int soLinger;
+    private final int trafficClass;
+
+    private SocketOptions(Builder builder) {
+        this.tcpNoDelay = builder.tcpNoDelay;
+        this.keepAlive = builder.keepAlive;
+        this.sendBufferSize = builder.sendBufferSize;
+        this.receiveBufferSize = builder.receiveBufferSize;
+        this.soLinger = builder.soLinger;
+        this.trafficClass = builder.trafficClass;
+    }
+
+    /**
+     * @return a new {@link Builder} with every option unset and keep-alive enabled
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Applies the options to a connected socket
+     *
+     * @param socket the socket to configure
+     * @throws SocketException if the socket rejected one of the options
+     */
+    public void apply(Socket socket) throws SocketException {
+        if (tcpNoDelay != null) socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(keepAlive);
+        if (sendBufferSize > 0) socket.setSendBufferSize(sendBufferSize);
+        if (receiveBufferSize > 0) socket.setReceiveBufferSize(receiveBufferSize);
+        if (soLinger >= 0) socket.setSoLinger(true, soLinger);
+        if (trafficClass >= 0) socket.setTrafficClass(trafficClass);
+    }
+
+    /**
+     * Applies the options that have to be set on a listening socket before it is bound.
+     * Accepted sockets inherit the receive buffer size, which has to be known before the
+     * TCP handshake to allow windows larger than 64 KB.
+     *
+     * @param socket the unbound listening socket to configure
+     * @throws SocketException if the socket rejected one of the options
+     */
+    public void applyBeforeBind(ServerSocket socket) throws SocketException {
+        if (receiveBufferSize > 0) socket.setReceiveBufferSize(receiveBufferSize);
+    }
+
+    /**
+     * @return whether Nagle's algorithm is disabled, or {@code null} for the OS default
+     */
+    public Boolean getTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    /**
+     * @return whether TCP keep-alive probes are sent on idle connections
+     */
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * @return the requested send buffer size in bytes, or {@code 0} for the OS default
+     */
+    public int getSendBufferSize() {
+        return sendBufferSize;
+    }
+
+    /**
+     * @return the requested receive buffer size in bytes, or {@code 0} for the OS default
+     */
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    /**
+     * @return the linger timeout in seconds, or {@code -1} if lingering is disabled
+     */
+    public int getSoLinger() {
+        return soLinger;
+    }
+
+    /**
+     * @return the IP traffic class / type-of-service byte, or {@code -1} for the OS default
+     */
+    public int getTrafficClass() {
+        return trafficClass;
+    }
+
+    public static final class Builder {
+
+        private Boolean tcpNoDelay = null;
+        private boolean keepAlive = true;
+        private int sendBufferSize = 0;
+        private int receiveBufferSize = 0;
+        private int soLinger = -1;
+        private int trafficClass = -1;
+
+        private Builder() { }
+
+        /**
+         * @param tcpNoDelay {@code true} to send small frames immediately instead of coalescing them, which lowers latency
+         * @return this builder
+         */
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        /**
+         * @param keepAlive {@code true} to send TCP keep-alive probes on idle connections
+         * @return this builder
+         */
+        public Builder keepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * @param bytes the send buffer size, or {@code 0} for the OS default
+         * @return this builder
+         */
+        public Builder sendBufferSize(int bytes) {
+            this.sendBufferSize = bytes;
+            return this;
+        }
+
+        /**
+         * @param bytes the receive buffer size, or {@code 0} for the OS default
+         * @return this builder
+         */
+        public Builder receiveBufferSize(int bytes) {
+            this.receiveBufferSize = bytes;
+            return this;
+        }
+
+        /**
+         * @param seconds how long closing a socket may block to flush unsent data, or {@code -1} to not linger
+         * @return this builder
+         */
+        public Builder soLinger(int seconds) {
+            this.soLinger = seconds;
+            return this;
+        }
+
+        /**
+         * @param trafficClass the IP traffic class / type-of-service byte, or {@code -1} for the OS default
+         * @return this builder
+         */
+        public Builder trafficClass(int trafficClass) {
+            this.trafficClass = trafficClass;
+            return this;
+        }
+
+        /**
+         * @return the configured {@link SocketOptions}
+         * @throws IllegalArgumentException if an option is out of range
+         */
+        public SocketOptions build() {
+            if (sendBufferSize < 0) throw new IllegalArgumentException("sendBufferSize cannot be negative");
+            if (receiveBufferSize < 0) throw new IllegalArgumentException("receiveBufferSize cannot be negative");
+            if (soLinger < -1 || soLinger > 65535) throw new IllegalArgumentException("soLinger must be between -1 and 65535");
+            if (trafficClass < -1 || trafficClass > 255) throw new IllegalArgumentException("trafficClass must be between -1 and 255");
+            return new SocketOptions(this);
+        }
+    }
+
+}
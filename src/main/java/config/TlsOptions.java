@@ -0,0 +1,220 @@
+package config;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Switches a {@link server.TcpServer} or {@link client.TcpClient} from the library's own encryption to the JDK's
+ * TLS stack. The TLS handshake authenticates the server (and the client, if required) and every record is
+ * encrypted by TLS, so frames are sent without encrypting them a second time. The listener API stays the same.
+ * <p>
+ * For local testing a self-signed certificate is enough, for example one made with
+ * {@code keytool -genkeypair -alias server -keyalg EC -keystore server.p12 -storepass changeit
+ * -dname CN=localhost -ext SAN=dns:localhost,ip:127.0.0.1}, given to the server as its key store and to the
+ * client as its trust store.
+ */
+public final class TlsOptions {
+
+    private final SSLContext context;
+    private final List<String> protocols;
+    private final boolean needClientAuth;
+    private final boolean verifyHostname;
+
+    private TlsOptions(Builder builder, SSLContext context) {
+        this.context = context;
+        this.protocols = Collections.unmodifiableList(Arrays.asList(builder.protocols));
+        this.needClientAuth = builder.needClientAuth;
+        this.verifyHostname = builder.verifyHostname;
+    }
+
+    /**
+     * @return a new {@link Builder} for TLS 1.3 that trusts the JDK's default certificate authorities
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * @return the {@link SSLContext} sockets are created from
+     */
+    public SSLContext getContext() {
+        return context;
+    }
+
+    /**
+     * @return the TLS protocol versions that may be negotiated
+     */
+    public List<String> getProtocols() {
+        return protocols;
+    }
+
+    /**
+     * @return whether the server requires clients to present a trusted certificate
+     */
+    public boolean isNeedClientAuth() {
+        return needClientAuth;
+    }
+
+    /**
+     * @return whether the client checks that the server's certificate matches the host it connects to
+     */
+    public boolean isVerifyHostname() {
+        return verifyHostname;
+    }
+
+    /**
+     * Applies the options to a listening socket before it accepts connections
+     *
+     * @param socket the listening socket to configure
+     */
+    public void apply(SSLServerSocket socket) {
+        socket.setEnabledProtocols(protocols.toArray(new String[0]));
+        socket.setNeedClientAuth(needClientAuth);
+    }
+
+    /**
+     * Applies the options to a client socket before it connects
+     *
+     * @param socket the socket to configure
+     */
+    public void apply(SSLSocket socket) {
+        SSLParameters parameters = socket.getSSLParameters();
+        parameters.setProtocols(protocols.toArray(new String[0]));
+        if (verifyHostname) parameters.setEndpointIdentificationAlgorithm("HTTPS");
+        socket.setSSLParameters(parameters);
+    }
+
+    public static final class Builder {
+
+        private Path keyStore;
+        private char[] keyStorePassword;
+        private Path trustStore;
+        private char[] trustStorePassword;
+        private String storeType = "PKCS12";
+        private String[] protocols = {"TLSv1.3"};
+        private boolean needClientAuth = false;
+        private boolean verifyHostname = true;
+        private SSLContext context;
+
+        private Builder() { }
+
+        /**
+         * @param path     the key store holding the certificate and private key this side presents; required on
+         *                 the server, and on the client when the server requires client authentication
+         * @param password the password of the key store and its key
+         * @return this builder
+         */
+        public Builder keyStore(Path path, char[] password) {
+            this.keyStore = path;
+            this.keyStorePassword = password == null ? null : password.clone();
+            return this;
+        }
+
+        /**
+         * @param path     the trust store holding the certificates of the peers to trust, such as a self-signed
+         *                 server certificate, or {@code null} (the default) for the JDK's certificate authorities
+         * @param password the password of the trust store
+         * @return this builder
+         */
+        public Builder trustStore(Path path, char[] password) {
+            this.trustStore = path;
+            this.trustStorePassword = password == null ? null : password.clone();
+            return this;
+        }
+
+        /**
+         * @param type the {@link KeyStore} type of both stores (default {@code PKCS12})
+         * @return this builder
+         */
+        public Builder storeType(String type) {
+            this.storeType = type;
+            return this;
+        }
+
+        /**
+         * @param protocols the TLS protocol versions that may be negotiated (default {@code TLSv1.3} only)
+         * @return this builder
+         */
+        public Builder protocols(String... protocols) {
+            this.protocols = protocols == null ? null : protocols.clone();
+            return this;
+        }
+
+        /**
+         * @param need {@code true} to make the server require a trusted client certificate, {@code false} (the default) otherwise
+         * @return this builder
+         */
+        public Builder needClientAuth(boolean need) {
+            this.needClientAuth = need;
+            return this;
+        }
+
+        /**
+         * @param verify {@code true} (the default) to make the client check that the server's certificate matches
+         *               the host it connects to
+         * @return this builder
+         */
+        public Builder verifyHostname(boolean verify) {
+            this.verifyHostname = verify;
+            return this;
+        }
+
+        /**
+         * @param context a fully configured {@link SSLContext} to use instead of one built from the stores
+         * @return this builder
+         */
+        public Builder context(SSLContext context) {
+            this.context = context;
+            return this;
+        }
+
+        /**
+         * @return the options, with the stores loaded into a new {@link SSLContext} unless one was given
+         * @throws IllegalArgumentException if a setting is invalid or a store could not be loaded
+         */
+        public TlsOptions build() {
+            if (protocols == null || protocols.length == 0) throw new IllegalArgumentException("protocols cannot be empty");
+            if (storeType == null) throw new IllegalArgumentException("storeType cannot be null");
+            if (context != null) return new TlsOptions(this, context);
+            try {
+                KeyManagerFactory keys = null;
+                if (keyStore != null) {
+                    keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+                    keys.init(load(keyStore, keyStorePassword), keyStorePassword);
+                }
+                TrustManagerFactory trust = null;
+                if (trustStore != null) {
+                    trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+                    trust.init(load(trustStore, trustStorePassword));
+                }
+                SSLContext built = SSLContext.getInstance("TLS");
+                built.init(keys == null ? null : keys.getKeyManagers(), trust == null ? null : trust.getTrustManagers(), null);
+                return new TlsOptions(this, built);
+            } catch (IOException | GeneralSecurityException e) {
+                throw new IllegalArgumentException("Unable to set up TLS: " + e.getMessage(), e);
+            }
+        }
+
+        private KeyStore load(Path path, char[] password) throws IOException, GeneralSecurityException {
+            KeyStore store = KeyStore.getInstance(storeType);
+            try (InputStream in = Files.newInputStream(path)) {
+                store.load(in, password);
+            }
+            return store;
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package cryptography;
+
+import java.nio.ByteBuffer;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Base64;
+
+/**
+ * A cookie that a server demands from a client before doing any public key work for it.
+ * <p>
+ * The server sends a random nonce, which it keeps for the rest of the handshake, and the client has to echo it
+ * back. The server can additionally require a small proof of work: the client must find a counter such that
+ * {@code SHA-256(nonce || counter)} starts with {@code difficulty} zero bits. Checking a solution costs a single
+ * hash, compared to the RSA private key operation the server would otherwise perform for every connecting peer,
+ * and since the nonce is new for every connection, solutions cannot be computed ahead or reused.
+ * <p>
+ * Challenges are sent as {@code cookie:<nonce>:<difficulty>}, responses as {@code cookie:<nonce>:<counter>}.
+ */
+public class HandshakeCookie {
+
+    /** The most puzzle difficulty a client is willing to solve, roughly a second of work */
+    public static final int MAX_DIFFICULTY = 24;
+
+    private static final String PREFIX = "cookie:";
+    private static final int NONCE_BYTES = 16;
+    private static final int HASH_BYTES = 32;
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final byte[] nonce = new byte[NONCE_BYTES];
+    private final int difficulty;
+
+    /**
+     * Creates the cookie of a single handshake, with a new random nonce
+     *
+     * @param difficulty how many leading zero bits the client's puzzle solution needs, {@code 0} for no puzzle
+     */
+    public HandshakeCookie(int difficulty) {
+        if (difficulty < 0 || difficulty > MAX_DIFFICULTY)
+            throw new IllegalArgumentException("difficulty must be between 0 and " + MAX_DIFFICULTY);
+        RANDOM.nextBytes(nonce);
+        this.difficulty = difficulty;
+    }
+
+    /**
+     * @return the challenge line to be sent to the client
+     */
+    public String challenge() {
+        return PREFIX + Base64.getEncoder().encodeToString(nonce) + ":" + difficulty;
+    }
+
+    /**
+     * Checks the client's response to the {@link #challenge()}
+     *
+     * @param response the response line received from the client
+     * @return {@code true} if the response echoes the nonce and solves the puzzle
+     * @throws NoSuchAlgorithmException if SHA-256 is unavailable
+     */
+    public boolean verify(String response) throws NoSuchAlgorithmException {
+        if (response == null || !response.startsWith(PREFIX)) return false;
+        String[] parts = response.substring(PREFIX.length()).split(":");
+        if (parts.length != 2) return false;
+        byte[] echoed;
+        long counter;
+        try {
+            echoed = Base64.getDecoder().decode(parts[0]);
+            counter = Long.parseLong(parts[1]);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+        if (!MessageDigest.isEqual(nonce, echoed)) return false;
+        if (difficulty == 0) return true;
+        byte[] hash = new byte[HASH_BYTES];
+        puzzleHash(MessageDigest.getInstance("SHA-256"), ByteBuffer.allocate(Long.BYTES), nonce, counter, hash);
+        return leadingZeroBits(hash) >= difficulty;
+    }
+
+    /**
+     * @param line a line received from the server during the handshake
+     * @return {@code true} if the line is a cookie challenge rather than the server's public key
+     */
+    public static boolean isChallenge(String line) {
+        return line != null && line.startsWith(PREFIX);
+    }
+
+    /**
+     * Solves a challenge on the client side
+     *
+     * @param challenge the challenge line received from the server
+     * @return the response line to be sent back to the server
+     * @throws IllegalArgumentException if the challenge is malformed or asks for more than {@link #MAX_DIFFICULTY}
+     * @throws NoSuchAlgorithmException if SHA-256 is unavailable
+     */
+    public static String solve(String challenge) throws NoSuchAlgorithmException {
+        if (!isChallenge(challenge)) throw new IllegalArgumentException("Not a handshake cookie challenge");
+        String[] parts = challenge.substring(PREFIX.length()).split(":");
+        if (parts.length != 2) throw new IllegalArgumentException("Malformed handshake cookie challenge");
+        int required = Integer.parseInt(parts[1]);
+        if (required < 0 || required > MAX_DIFFICULTY)
+            throw new IllegalArgumentException("Handshake puzzle difficulty " + required + " is out of range");
+        byte[] nonce = Base64.getDecoder().decode(parts[0]);
+        long counter = 0;
+        if (required > 0) { // one digest and buffer for every attempt, as there may be millions
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            ByteBuffer counterBytes = ByteBuffer.allocate(Long.BYTES);
+            byte[] hash = new byte[HASH_BYTES];
+            while (true) {
+                puzzleHash(digest, counterBytes, nonce, counter, hash);
+                if (leadingZeroBits(hash) >= required) break;
+                counter++;
+            }
+        }
+        return PREFIX + parts[0] + ":" + counter;
+    }
+
+    /**
+     * Writes {@code SHA-256(nonce || counter)} to {@code hash}, reusing the {@code digest} and {@code counterBytes}
+     */
+    private static void puzzleHash(MessageDigest digest, ByteBuffer counterBytes, byte[] nonce, long counter, byte[] hash) {
+        digest.update(nonce);
+        digest.update(counterBytes.putLong(0, counter).array());
+        try { digest.digest(hash, 0, HASH_BYTES);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e); // the buffer always fits a SHA-256 hash
+        }
+    }
+
+    private static int leadingZeroBits(byte[] hash) {
+        int bits = 0;
+        for (byte b : hash) {
+            if (b == 0) {
+                bits += 8;
+                continue;
+            }
+            return bits + Integer.numberOfLeadingZeros(b & 0xff) - 24;
+        }
+        return bits;
+    }
+
+}
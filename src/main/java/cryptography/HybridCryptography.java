@@ -1,5 +1,6 @@
 package cryptography;
 
+import logging.Log;
 import org.json.JSONObject;
 
 import javax.crypto.KeyGenerator;
@@ -11,14 +12,30 @@ import java.util.Base64;
 
 public class HybridCryptography {
 
+    /** The RSA key size used unless another one is configured */
+    public static final int DEFAULT_KEY_SIZE = SecuredRSAUsage.RSA_KEY_LENGTH;
+    /** The smallest RSA key size that can still wrap an AES key with OAEP and SHA-512 */
+    public static final int MIN_KEY_SIZE = 2048;
+
     /**
      * @return Asymmetric {@link KeyPair} used for RSA encryption/decryption
      * @throws NoSuchAlgorithmException if someone messed with the code and changed
      *                                  the algorithm to one that is invalid
      */
     public static KeyPair generateKeys() throws NoSuchAlgorithmException {
+        return generateKeys(DEFAULT_KEY_SIZE);
+    }
+
+    /**
+     * @param keySize the RSA key size in bits, at least {@link #MIN_KEY_SIZE}
+     * @return Asymmetric {@link KeyPair} used for RSA encryption/decryption
+     * @throws NoSuchAlgorithmException if someone messed with the code and changed
+     *                                  the algorithm to one that is invalid
+     */
+    public static KeyPair generateKeys(int keySize) throws NoSuchAlgorithmException {
+        if (keySize < MIN_KEY_SIZE) throw new IllegalArgumentException("keySize must be at least " + MIN_KEY_SIZE);
         KeyPairGenerator rsaKeyGen = KeyPairGenerator.getInstance(SecuredRSAUsage.ALGORITHM_NAME);
-        rsaKeyGen.initialize(SecuredRSAUsage.RSA_KEY_LENGTH);
+        rsaKeyGen.initialize(keySize);
         return rsaKeyGen.generateKeyPair();
     }
 
@@ -33,16 +50,10 @@ public class HybridCryptography {
      * @return              String array of [ asymmetrically encrypted symmetric encryption key , symmetrically encrypted data ]
      */
     public static JSONObject encrypt(JSONObject json, PublicKey publicKey, PrivateKey privateKey, GCMParameterSpec gcmParamSpec, byte[] aadData) {
-        SecretKey aesKey = null;
         try {
             KeyGenerator keygen = KeyGenerator.getInstance("AES"); // Specifying algorithm key will be used for
             keygen.init(SecuredGCMUsage.AES_KEY_SIZE); // Specifying Key size to be used, Note: This would need JCE Unlimited Strength to be installed explicitly
-            aesKey = keygen.generateKey();
-        } catch(NoSuchAlgorithmException noSuchAlgoExc) {
-            System.out.println("Key being request is for AES algorithm, but this cryptographic algorithm is not available in the environment "  + noSuchAlgoExc);
-            System.exit(1);
-        }
-        try {
+            SecretKey aesKey = keygen.generateKey();
             String signature = SecuredRSAUsage.sign(json.toString(), privateKey);
             JSONObject gcmJson = new JSONObject(gcmParamSpec);
             byte[] encryptedData = SecuredGCMUsage.aesEncrypt(json.toString()+","+signature, aesKey,  gcmParamSpec, aadData);
@@ -50,7 +61,9 @@ public class HybridCryptography {
             String encryptedKey = SecuredRSAUsage.rsaEncrypt(encodedKey, publicKey);
             return new JSONObject().put("encrypted_key", encryptedKey).put("gcm_param_spec", gcmJson)
                     .put("data", Base64.getEncoder().encodeToString(encryptedData));
-        } catch (Exception e) {System.out.println("Exception while encryption/decryption"); e.printStackTrace(); }
+        } catch (Exception e) {
+            Log.error("crypto", "Failed to encrypt a packet", e);
+        }
         return null;
     }
 
@@ -2,6 +2,8 @@ package listener_references;
 
 import client.ClientException;
 import client.TcpClient;
+import packets.Capabilities;
+import scheduling.Priority;
 
 import java.net.Socket;
 
@@ -18,7 +20,18 @@ public class ClientConnection extends Connection {
      * @param socket the actual {@link Socket} that the client is connected to
      */
     public ClientConnection(TcpClient server, Socket socket) {
-        super(socket);
+        this(server, socket, 1, Capabilities.LEGACY);
+    }
+
+    /**
+     * Creates a new reference to a connection to a server
+     * @param server          the {@link TcpClient} currently accepting client connections
+     * @param socket          the actual {@link Socket} that the client is connected to
+     * @param protocolVersion the protocol version agreed on with the server
+     * @param capabilities    the {@link Capabilities} agreed on with the server
+     */
+    public ClientConnection(TcpClient server, Socket socket, int protocolVersion, Capabilities capabilities) {
+        super(socket, protocolVersion, capabilities);
         this.client = server;
     }
 
@@ -30,6 +43,15 @@ public class ClientConnection extends Connection {
         client.sendText(data);
     }
 
+    /**
+     * Sends a simple message to the server connected through this connection
+     * @param data     text to be sent
+     * @param priority the {@link Priority} of the message on both ends of the connection
+     */
+    public void replyText(String data, Priority priority) throws ClientException {
+        client.sendText(data, priority);
+    }
+
     /**
      * Sends a command to the server connected through this connection
      * @param command   command to be sent
@@ -39,4 +61,14 @@ public class ClientConnection extends Connection {
         client.sendCommand(command, arguments);
     }
 
+    /**
+     * Sends a command to the server connected through this connection
+     * @param command   command to be sent
+     * @param arguments the command arguments
+     * @param priority  the {@link Priority} of the command on both ends of the connection
+     */
+    public void replyCommand(String command, String arguments, Priority priority) throws ClientException {
+        client.sendCommand(command, arguments, priority);
+    }
+
 }
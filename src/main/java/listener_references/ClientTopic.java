@@ -0,0 +1,39 @@
+package listener_references;
+
+import org.json.JSONObject;
+
+/**
+ * The {@link ClientTopic} object to be passed to a {@link listeners.ClientTopicListener}
+ */
+public class ClientTopic extends JsonImpl {
+
+    protected final String topic;
+    protected final ClientConnection connection;
+
+    /**
+     * Constructs a new {@link ClientTopic}
+     * @param topic      the topic the payload was published to
+     * @param payload    the published {@link JSONObject}
+     * @param connection the {@link ClientConnection} the payload was received from
+     */
+    public ClientTopic(String topic, JSONObject payload, ClientConnection connection) {
+        super(payload);
+        this.topic = topic;
+        this.connection = connection;
+    }
+
+    /**
+     * @return the topic the payload was published to
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return the {@link ClientConnection} the payload was received from
+     */
+    @Override
+    public ClientConnection getConnection() {
+        return connection;
+    }
+}
@@ -1,5 +1,7 @@
 package listener_references;
 
+import packets.Capabilities;
+
 import java.net.Socket;
 import java.sql.Timestamp;
 import java.util.Optional;
@@ -11,22 +13,51 @@ public class Connection {
 
     protected transient final Socket socket;
     protected final Timestamp connectionCreation;
+    protected final int protocolVersion;
+    protected final Capabilities capabilities;
 
     /**
      * @param socket the {@link Socket} associated with the connection
      */
     public Connection(Socket socket) {
+        this(socket, 1, Capabilities.LEGACY);
+    }
+
+    /**
+     * @param socket          the {@link Socket} associated with the connection
+     * @param protocolVersion the protocol version both peers agreed on during the handshake
+     * @param capabilities    the {@link Capabilities} both peers agreed on during the handshake
+     */
+    public Connection(Socket socket, int protocolVersion, Capabilities capabilities) {
         connectionCreation = new Timestamp(System.currentTimeMillis());
         this.socket = socket;
+        this.protocolVersion = protocolVersion;
+        this.capabilities = capabilities;
     }
 
     /**
-     * @return the {@link Socket} associated with this connection
+     * @return the {@link Socket} associated with this connection, or {@code null} for an in-JVM or replayed connection
      */
     public Socket getSocket() {
         return socket;
     }
 
+    /**
+     * @return {@code true} if the peer runs in the same JVM and frames are passed without a socket
+     * @see local.LocalTransport
+     */
+    public boolean isLocal() {
+        return capabilities == Capabilities.LOCAL;
+    }
+
+    /**
+     * @return {@code true} if the connection stands in for one recorded in a capture, and has no peer
+     * @see server.TcpServer#replay(java.nio.file.Path, boolean)
+     */
+    public boolean isReplayed() {
+        return capabilities == Capabilities.REPLAY;
+    }
+
     /**
      * @return the {@link Timestamp} of when the connection was established
      */
@@ -34,6 +65,20 @@ public class Connection {
         return connectionCreation;
     }
 
+    /**
+     * @return the protocol version both peers agreed on during the handshake
+     */
+    public int getProtocolVersion() {
+        return protocolVersion;
+    }
+
+    /**
+     * @return the {@link Capabilities} both peers agreed on during the handshake
+     */
+    public Capabilities getCapabilities() {
+        return capabilities;
+    }
+
     /**
      * Attempts to wrap the object as a {@code ServerConnection}
      * @return a {@link Optional<ServerConnection>} of this object wrapped as a {@code ServerConnection}
@@ -5,7 +5,7 @@ import packets.CommandPacket;
 /**
  * The {@link ServerCommand} to be passed to a {@link listeners.ServerCommandListener}
  */
-public class ServerCommand extends CommandImpl {
+public class ServerCommand extends CommandImpl implements ServerInbound {
 
     private final ServerConnection connection;
 
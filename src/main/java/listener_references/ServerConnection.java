@@ -1,12 +1,18 @@
 package listener_references;
 
+import local.LocalWriter;
 import org.json.JSONObject;
+import packets.Capabilities;
+import scheduling.Priority;
+import server.Publication;
 import server.ServerException;
 import server.TcpServer;
 
 import java.io.PrintWriter;
 import java.net.Socket;
 import java.security.PublicKey;
+import java.util.Optional;
+import java.util.concurrent.Flow;
 
 /**
  * ServerConnection class that contains information about a socket connection to a client
@@ -16,6 +22,7 @@ public class ServerConnection extends Connection {
     private transient final PublicKey key;
     private transient final TcpServer server;
     private transient final PrintWriter outgoing;
+    private final String clientId;
 
     /**
      *
@@ -25,10 +32,51 @@ public class ServerConnection extends Connection {
      * @param outgoing  the {@link PrintWriter} used for sending messages to the client
      */
     public ServerConnection(TcpServer server, Socket socket, PublicKey key, PrintWriter outgoing) {
-        super(socket);
+        this(server, socket, key, outgoing, 1, Capabilities.LEGACY);
+    }
+
+    /**
+     *
+     * @param server          the {@link TcpServer} currently accepting client connections
+     * @param socket          the actual {@link Socket} that the client is connected to
+     * @param key             the {@link PublicKey} used for encrypting messages to be sent to the client
+     * @param outgoing        the {@link PrintWriter} used for sending messages to the client
+     * @param protocolVersion the protocol version agreed on with the client
+     * @param capabilities    the {@link Capabilities} agreed on with the client
+     */
+    public ServerConnection(TcpServer server, Socket socket, PublicKey key, PrintWriter outgoing,
+                            int protocolVersion, Capabilities capabilities) {
+        this(server, socket, key, outgoing, protocolVersion, capabilities, null);
+    }
+
+    /**
+     *
+     * @param server          the {@link TcpServer} currently accepting client connections
+     * @param socket          the actual {@link Socket} that the client is connected to
+     * @param key             the {@link PublicKey} used for encrypting messages to be sent to the client
+     * @param outgoing        the {@link PrintWriter} used for sending messages to the client
+     * @param protocolVersion the protocol version agreed on with the client
+     * @param capabilities    the {@link Capabilities} agreed on with the client
+     * @param clientId        the identity the client declared during the handshake, or {@code null} for none
+     */
+    public ServerConnection(TcpServer server, Socket socket, PublicKey key, PrintWriter outgoing,
+                            int protocolVersion, Capabilities capabilities, String clientId) {
+        super(socket, protocolVersion, capabilities);
         this.outgoing = outgoing;
         this.server = server;
         this.key = key;
+        this.clientId = clientId;
+    }
+
+    /**
+     * The identity the client keeps across connections, as declared by the client itself during the handshake.
+     * It is not authenticated by the library; over TLS with client authentication, the certificate is what
+     * proves who the client is.
+     *
+     * @return the identity of the client, if it declared one
+     */
+    public Optional<String> getClientId() {
+        return Optional.ofNullable(clientId);
     }
 
     /**
@@ -39,6 +87,15 @@ public class ServerConnection extends Connection {
         server.sendText(data, outgoing, key);
     }
 
+    /**
+     * Sends a simple message to the client connected through this connection
+     * @param data     text to be sent
+     * @param priority the {@link Priority} of the message on both ends of the connection
+     */
+    public void replyText(String data, Priority priority) throws ServerException {
+        server.sendText(data, priority, outgoing, key);
+    }
+
     /**
      * Sends a command to the client connected through this connection
      * @param command   command to be sent
@@ -48,6 +105,16 @@ public class ServerConnection extends Connection {
         server.sendCommand(command, arguments, outgoing, key);
     }
 
+    /**
+     * Sends a command to the client connected through this connection
+     * @param command   command to be sent
+     * @param arguments the command arguments
+     * @param priority  the {@link Priority} of the command on both ends of the connection
+     */
+    public void replyCommand(String command, String arguments, Priority priority) throws ServerException {
+        server.sendCommand(command, arguments, priority, outgoing, key);
+    }
+
     /**
      * Sends a JSONObject to the client connected through this connection
      * @param json the JSONObject to be sent
@@ -56,6 +123,42 @@ public class ServerConnection extends Connection {
         server.sendJson(json, outgoing, key);
     }
 
+    /**
+     * Sends a JSONObject to the client connected through this connection
+     * @param json     the JSONObject to be sent
+     * @param priority the {@link Priority} of the object on both ends of the connection
+     */
+    public void replyJson(JSONObject json, Priority priority) throws ServerException {
+        server.sendJson(json, priority, outgoing, key);
+    }
+
+    /**
+     * Sends a payload published to a topic the client is subscribed to
+     * @param publication the {@link Publication} to be sent
+     * @see TcpServer#publish(String, JSONObject, Priority)
+     */
+    public void deliver(Publication publication) throws ServerException {
+        server.sendPublication(publication, outgoing, key);
+    }
+
+    /**
+     * @return a {@link Flow.Publisher} of everything received through this connection, which stops reading
+     *         from the client while its subscribers have not requested more
+     * @see TcpServer#publisher(ServerConnection)
+     */
+    public Flow.Publisher<ServerInbound> publisher() {
+        return server.publisher(this);
+    }
+
+    /**
+     * @return {@code true} once the connection to the client is closed, which a connection
+     *         {@link TcpServer#replay(java.nio.file.Path, boolean) replayed} from a capture always is
+     */
+    public boolean isClosed() {
+        if (outgoing instanceof LocalWriter) return ((LocalWriter) outgoing).getChannel().isClosed();
+        return socket == null || socket.isClosed();
+    }
+
     /*
      * @return the {@link PublicKey} from the client
      */
@@ -0,0 +1,14 @@
+package listener_references;
+
+/**
+ * Anything a {@link ServerConnection} receives from its client and hands to its listeners:
+ * a {@link ServerMessage}, a {@link ServerCommand}, or a {@link ServerJson}
+ */
+public interface ServerInbound {
+
+    /**
+     * @return the {@link ServerConnection} it was received from
+     */
+    ServerConnection getConnection();
+
+}
@@ -5,7 +5,7 @@ import org.json.JSONObject;
 /**
  * The {@link ServerJson} object to be passed to a {@link listeners.ServerJsonListener}
  */
-public class ServerJson extends JsonImpl {
+public class ServerJson extends JsonImpl implements ServerInbound {
 
     protected final ServerConnection connection;
 
@@ -3,7 +3,7 @@ package listener_references;
 /**
  * The {@link ServerMessage} object to be passed to a {@link listeners.ServerMessageListener}
  */
-public class ServerMessage extends MessageImpl {
+public class ServerMessage extends MessageImpl implements ServerInbound {
 
     protected final ServerConnection connection;
 
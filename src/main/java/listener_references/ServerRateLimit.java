@@ -0,0 +1,94 @@
+package listener_references;
+
+import server.RateLimitAction;
+
+import java.sql.Timestamp;
+
+/**
+ * The {@link ServerRateLimit} object to be passed to a {@link listeners.ServerRateLimitListener}.
+ * Limit hits of a connection are reported at most once per second, so a single event may stand
+ * for several frames that were throttled or rejected.
+ */
+public class ServerRateLimit {
+
+    /**
+     * Whose limit was exceeded
+     */
+    public enum Scope {
+        /** the limit of the single connection */
+        CONNECTION,
+        /** the limit shared by every connection from the same remote address */
+        ADDRESS
+    }
+
+    /**
+     * What kind of limit was exceeded
+     */
+    public enum Kind { MESSAGES, BYTES }
+
+    protected final ServerConnection connection;
+    protected final Scope scope;
+    protected final Kind kind;
+    protected final RateLimitAction action;
+    protected final long limitedFrames;
+    protected final Timestamp limitReached;
+
+    /**
+     * Constructs a new {@link ServerRateLimit}
+     * @param connection    the {@link ServerConnection} whose traffic exceeded the limit
+     * @param scope         whose limit was exceeded
+     * @param kind          what kind of limit was exceeded
+     * @param action        what the server did with the traffic
+     * @param limitedFrames how many frames were limited since the previous event of this connection
+     */
+    public ServerRateLimit(ServerConnection connection, Scope scope, Kind kind, RateLimitAction action, long limitedFrames) {
+        this.limitReached = new Timestamp(System.currentTimeMillis());
+        this.connection = connection;
+        this.scope = scope;
+        this.kind = kind;
+        this.action = action;
+        this.limitedFrames = limitedFrames;
+    }
+
+    /**
+     * @return the {@link ServerConnection} whose traffic exceeded the limit
+     */
+    public ServerConnection getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return whether the limit of the connection or of its remote address was exceeded
+     */
+    public Scope getScope() {
+        return scope;
+    }
+
+    /**
+     * @return whether the message or the byte limit was exceeded
+     */
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return whether the traffic was throttled or rejected
+     */
+    public RateLimitAction getAction() {
+        return action;
+    }
+
+    /**
+     * @return how many frames were limited since the previous event of this connection
+     */
+    public long getLimitedFrames() {
+        return limitedFrames;
+    }
+
+    /**
+     * @return the {@link Timestamp} of when the event was raised
+     */
+    public Timestamp getLimitReached() {
+        return limitReached;
+    }
+}
@@ -0,0 +1,8 @@
+package listeners;
+
+/**
+ * ErrorListener to be fired whenever the connection to the server fails unexpectedly
+ */
+public interface ClientErrorListener extends Listener {
+    void onError(Throwable error);
+}
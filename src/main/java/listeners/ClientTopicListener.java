@@ -0,0 +1,10 @@
+package listeners;
+
+import listener_references.ClientTopic;
+
+/**
+ * TopicListener to be fired whenever a payload is received for a topic the client subscribed to
+ */
+public interface ClientTopicListener extends Listener {
+    void onTopicReceived(ClientTopic topic);
+}
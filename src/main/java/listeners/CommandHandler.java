@@ -0,0 +1,21 @@
+package listeners;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a public method taking a single {@link listener_references.ServerCommand} as the handler of a command,
+ * to be registered with {@link server.TcpServer#addCommandHandlers(Object)}
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface CommandHandler {
+
+    /**
+     * @return the name of the command the method handles
+     */
+    String value();
+
+}
@@ -0,0 +1,19 @@
+package listeners;
+
+/**
+ * Where a {@link Listener} runs when its event is raised
+ */
+public enum Dispatch {
+
+    /** On a dispatch thread, so that the connection keeps reading while the listener runs */
+    EXECUTOR,
+
+    /**
+     * Directly on the thread that read the event from the connection, which saves the handoff to a
+     * dispatch thread but stops the connection from reading until the listener returns. Meant for
+     * listeners that finish within microseconds; one that exceeds the inline budget is moved to
+     * {@link #EXECUTOR} dispatch.
+     */
+    INLINE
+
+}
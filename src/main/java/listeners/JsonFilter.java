@@ -0,0 +1,186 @@
+package listeners;
+
+import org.json.JSONObject;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Which {@link listener_references.ServerJson}s a {@link ServerJsonListener} is interested in, described declaratively
+ * so that the server can index the filters of all listeners and evaluate them together once per object. A field is
+ * addressed by its path: the names of the fields leading to it, separated by dots, such as {@code meta.type}.
+ * <p>
+ * A filter is made of one or more clauses, all of which have to match.
+ */
+public final class JsonFilter {
+
+    /**
+     * What a {@link Clause} requires of its field
+     */
+    public enum Kind {
+        /** The field has a given value */
+        EQUALS,
+        /** The field is present */
+        EXISTS,
+        /** The field is a string starting with a given prefix */
+        PREFIX
+    }
+
+    private final List<Clause> clauses;
+
+    private JsonFilter(List<Clause> clauses) {
+        this.clauses = Collections.unmodifiableList(clauses);
+    }
+
+    /**
+     * @param path  the path of the field
+     * @param value the string, number, or boolean the field has to equal; numbers compare by value, so 1 equals 1.0
+     * @return a filter matching objects whose field equals the {@code value}
+     */
+    public static JsonFilter fieldEquals(String path, Object value) {
+        Objects.requireNonNull(value, "value cannot be null");
+        if (!(value instanceof String || value instanceof Number || value instanceof Boolean))
+            throw new IllegalArgumentException("value must be a String, Number, or Boolean");
+        return new JsonFilter(Collections.singletonList(new Clause(Kind.EQUALS, path, value)));
+    }
+
+    /**
+     * @param path the path of the field
+     * @return a filter matching objects that have the field, with any value other than {@code null}
+     */
+    public static JsonFilter fieldExists(String path) {
+        return new JsonFilter(Collections.singletonList(new Clause(Kind.EXISTS, path, null)));
+    }
+
+    /**
+     * @param path   the path of the field
+     * @param prefix what the string value of the field has to start with
+     * @return a filter matching objects whose field is a string starting with the {@code prefix}
+     */
+    public static JsonFilter fieldStartsWith(String path, String prefix) {
+        return new JsonFilter(Collections.singletonList(new Clause(Kind.PREFIX, path, Objects.requireNonNull(prefix, "prefix cannot be null"))));
+    }
+
+    /**
+     * @param other another filter
+     * @return a filter matching the objects that both this filter and the {@code other} match
+     */
+    public JsonFilter and(JsonFilter other) {
+        List<Clause> combined = new ArrayList<>(clauses);
+        combined.addAll(other.clauses);
+        return new JsonFilter(combined);
+    }
+
+    /**
+     * @return the clauses that all have to match
+     */
+    public List<Clause> getClauses() {
+        return clauses;
+    }
+
+    /**
+     * @param json the object to test
+     * @return {@code true} if every clause matches the object
+     */
+    public boolean test(JSONObject json) {
+        for (Clause clause : clauses) if (!clause.test(clause.read(json))) return false;
+        return true;
+    }
+
+    /**
+     * @param value the value of a field
+     * @return the form values are compared in, so that index lookups agree with {@link Clause#test(Object)}
+     */
+    public static String valueKey(Object value) {
+        if (value instanceof Number) {
+            try { return "n" + new BigDecimal(value.toString()).stripTrailingZeros().toPlainString();
+            } catch (NumberFormatException e) { // NaN and the infinities
+                return "n" + value;
+            }
+        }
+        if (value instanceof Boolean) return "b" + value;
+        return "s" + value;
+    }
+
+    @Override
+    public String toString() {
+        return clauses.toString();
+    }
+
+    /**
+     * A single requirement on a single field
+     */
+    public static final class Clause {
+
+        private final Kind kind;
+        private final String path;
+        private final String[] levels;
+        private final Object value;
+        private final String key;
+
+        private Clause(Kind kind, String path, Object value) {
+            if (path == null || path.isEmpty()) throw new IllegalArgumentException("path cannot be empty");
+            this.kind = kind;
+            this.path = path;
+            this.levels = path.split("\\.");
+            this.value = value;
+            this.key = kind == Kind.EQUALS ? valueKey(value) : null;
+        }
+
+        /**
+         * @return what the clause requires of its field
+         */
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * @return the path of the field
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return the value the field has to equal, or the prefix it has to start with, or {@code null} for {@link Kind#EXISTS}
+         */
+        public Object getValue() {
+            return value;
+        }
+
+        /**
+         * @param json the object to read from
+         * @return the value of the field, or {@code null} if the object does not have it
+         */
+        public Object read(JSONObject json) {
+            Object current = json;
+            for (String level : levels) {
+                if (!(current instanceof JSONObject)) return null;
+                current = ((JSONObject) current).opt(level);
+            }
+            return current == JSONObject.NULL ? null : current;
+        }
+
+        /**
+         * @param field the value of the field, as returned by {@link #read(JSONObject)}
+         * @return {@code true} if the value meets the clause
+         */
+        public boolean test(Object field) {
+            if (field == null) return false;
+            switch (kind) {
+                case EQUALS: return valueKey(field).equals(key);
+                case PREFIX: return field instanceof String && ((String) field).startsWith((String) value);
+                default: return true;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return path + (kind == Kind.EQUALS ? " == " + value : kind == Kind.PREFIX ? " ^= " + value : " exists");
+        }
+    }
+
+}
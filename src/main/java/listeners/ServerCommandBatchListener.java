@@ -0,0 +1,12 @@
+package listeners;
+
+import listener_references.ServerCommand;
+
+import java.util.List;
+
+/**
+ * ServerCommandBatchListener to be fired with a batch of ServerCommands whenever enough were received or the oldest one waited long enough
+ */
+public interface ServerCommandBatchListener extends Listener {
+    void onCommandsReceived(List<ServerCommand> commands);
+}
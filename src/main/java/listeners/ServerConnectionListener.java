@@ -8,4 +8,12 @@ import listener_references.ServerConnection;
 public interface ServerConnectionListener extends Listener {
     void onConnectionCreated(ServerConnection connection);
     void onConnectionRemoved(ServerConnection connection);
+
+    /**
+     * Fired when serving a connection fails unexpectedly, before the connection is removed
+     *
+     * @param connection the connection that failed
+     * @param error      what went wrong
+     */
+    default void onConnectionError(ServerConnection connection, Throwable error) { }
 }
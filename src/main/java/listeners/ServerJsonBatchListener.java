@@ -0,0 +1,12 @@
+package listeners;
+
+import listener_references.ServerJson;
+
+import java.util.List;
+
+/**
+ * ServerJsonBatchListener to be fired with a batch of ServerJson objects whenever enough were received or the oldest one waited long enough
+ */
+public interface ServerJsonBatchListener extends Listener {
+    void onJsonReceived(List<ServerJson> json);
+}
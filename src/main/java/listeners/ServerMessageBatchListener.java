@@ -0,0 +1,12 @@
+package listeners;
+
+import listener_references.ServerMessage;
+
+import java.util.List;
+
+/**
+ * ServerMessageBatchListener to be fired with a batch of ServerMessages whenever enough were received or the oldest one waited long enough
+ */
+public interface ServerMessageBatchListener extends Listener {
+    void onMessagesReceived(List<ServerMessage> messages);
+}
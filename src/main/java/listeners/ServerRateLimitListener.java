@@ -0,0 +1,10 @@
+package listeners;
+
+import listener_references.ServerRateLimit;
+
+/**
+ * ServerRateLimitListener to be fired whenever a connection's inbound traffic exceeds a rate limit
+ */
+public interface ServerRateLimitListener extends Listener {
+    void onRateLimited(ServerRateLimit limit);
+}
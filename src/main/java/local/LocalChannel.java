@@ -0,0 +1,81 @@
+package local;
+
+import packets.Frame;
+
+/**
+ * One end of an in-JVM connection between a {@link client.TcpClient} and a {@link server.TcpServer},
+ * made of two {@link LocalPipe}s crossing over to the other end. Closing either end closes the connection
+ * in both directions.
+ */
+public final class LocalChannel implements AutoCloseable {
+
+    private final String name;
+    private final LocalPipe inbound;
+    private final LocalPipe outbound;
+    private final LocalWriter writer;
+
+    private LocalChannel(String name, LocalPipe inbound, LocalPipe outbound) {
+        this.name = name;
+        this.inbound = inbound;
+        this.outbound = outbound;
+        this.writer = new LocalWriter(this);
+    }
+
+    /**
+     * @param name the name the server is bound to
+     * @return the client end and the server end of a new connection
+     */
+    static LocalChannel[] pair(String name) {
+        LocalPipe toServer = new LocalPipe();
+        LocalPipe toClient = new LocalPipe();
+        return new LocalChannel[] {new LocalChannel(name, toClient, toServer), new LocalChannel(name, toServer, toClient)};
+    }
+
+    /**
+     * @param frame the frame to be passed to the other end, waiting while {@value LocalPipe#CAPACITY} frames
+     *              are already waiting there
+     * @return {@code false} if the connection is closed, or the sending thread was interrupted while waiting,
+     *         and the frame was dropped
+     */
+    public boolean send(Frame frame) {
+        return outbound.send(frame);
+    }
+
+    /**
+     * Waits for the next frame from the other end; only one thread may receive at a time
+     *
+     * @return the next frame, or {@code null} once the connection is closed or the receiving thread is interrupted
+     */
+    public Frame receive() {
+        return inbound.receive();
+    }
+
+    /**
+     * @return a {@link java.io.PrintWriter} standing in for this end, so that it can be used wherever the
+     *         writer of a socket is expected; frames are sent through {@link LocalWriter#send(Frame)}
+     */
+    public LocalWriter getWriter() {
+        return writer;
+    }
+
+    /**
+     * @return the name the server is bound to
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return {@code true} if either end closed the connection
+     */
+    public boolean isClosed() {
+        return outbound.isClosed();
+    }
+
+    @Override
+    public void close() {
+        outbound.close();
+        inbound.close();
+    }
+
+}
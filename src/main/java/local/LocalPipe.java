@@ -0,0 +1,77 @@
+package local;
+
+import packets.Frame;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Carries frames in one direction. Any number of threads may send, but only one thread receives, which
+ * parks while the pipe is empty instead of waiting on a lock.
+ * <p>
+ * At most {@value #CAPACITY} frames may wait to be received; sending more waits for the receiver, the way writing
+ * to a socket whose buffers are full does, so a receiver that stops taking frames also stops its sender.
+ */
+final class LocalPipe {
+
+    /** How many frames may wait to be received */
+    static final int CAPACITY = 1024;
+
+    private final Queue<Frame> frames = new ConcurrentLinkedQueue<>();
+    private final Semaphore room = new Semaphore(CAPACITY);
+    private volatile Thread receiver;
+    private volatile boolean closed;
+
+    /**
+     * Passes a frame to the receiver, waiting while the pipe is full
+     *
+     * @param frame the frame to be passed to the receiver
+     * @return {@code false} if the pipe is closed, or the sending thread was interrupted while waiting,
+     *         and the frame was dropped
+     */
+    boolean send(Frame frame) {
+        try {
+            while (!room.tryAcquire(10, TimeUnit.MILLISECONDS)) if (closed) return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        if (closed) return false;
+        frames.offer(frame);
+        // the receiver is published before it polls, so it either sees the frame or gets unparked
+        LockSupport.unpark(receiver);
+        return true;
+    }
+
+    /**
+     * Waits for the next frame. Frames sent before the pipe was closed are still received.
+     *
+     * @return the next frame, or {@code null} once the pipe is closed and empty or the receiver is interrupted
+     */
+    Frame receive() {
+        receiver = Thread.currentThread();
+        while (true) {
+            Frame frame = frames.poll();
+            if (frame != null) {
+                room.release();
+                return frame;
+            }
+            if (closed) return frames.poll();
+            if (Thread.currentThread().isInterrupted()) return null;
+            LockSupport.park(this);
+        }
+    }
+
+    void close() {
+        closed = true;
+        LockSupport.unpark(receiver);
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+}
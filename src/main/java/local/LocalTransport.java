@@ -0,0 +1,55 @@
+package local;
+
+import packets.Frame;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * The registry that lets a {@link client.TcpClient} reach a {@link server.TcpServer} running in the same JVM
+ * by name. Connections made this way skip sockets, the handshake, encryption, and encoding: frames are passed
+ * as {@link Frame} objects, while both sides still raise the same listener events.
+ */
+public final class LocalTransport {
+
+    private static final Map<String, Predicate<LocalChannel>> SERVERS = new ConcurrentHashMap<>();
+
+    private LocalTransport() { }
+
+    /**
+     * @param name     the name clients connect to
+     * @param acceptor takes the server end of every new connection, returning {@code false} to refuse it
+     * @throws IOException if another server is already bound to the name
+     */
+    public static void bind(String name, Predicate<LocalChannel> acceptor) throws IOException {
+        if (SERVERS.putIfAbsent(name, acceptor) != null)
+            throw new IOException("Another server is already bound to the in-JVM name \"" + name + "\"");
+    }
+
+    /**
+     * @param name     the name the server was bound to
+     * @param acceptor the acceptor the server was bound with
+     */
+    public static void unbind(String name, Predicate<LocalChannel> acceptor) {
+        SERVERS.remove(name, acceptor);
+    }
+
+    /**
+     * @param name the name the server is bound to
+     * @return the client end of a new connection
+     * @throws IOException if no server is bound to the name or the server refused the connection
+     */
+    public static LocalChannel connect(String name) throws IOException {
+        Predicate<LocalChannel> acceptor = SERVERS.get(name);
+        if (acceptor == null) throw new IOException("No server is bound to the in-JVM name \"" + name + "\"");
+        LocalChannel[] ends = LocalChannel.pair(name);
+        if (!acceptor.test(ends[1])) {
+            ends[1].close();
+            throw new IOException("The server bound to the in-JVM name \"" + name + "\" refused the connection");
+        }
+        return ends[0];
+    }
+
+}
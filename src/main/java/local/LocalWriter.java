@@ -0,0 +1,59 @@
+package local;
+
+import packets.Frame;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+
+/**
+ * The {@link PrintWriter} of an in-JVM connection. It only exists so that a {@link LocalChannel} fits where
+ * the writer of a socket is expected; frames are passed with {@link #send(Frame)}, and writing text
+ * to it is not supported.
+ */
+public final class LocalWriter extends PrintWriter {
+
+    private final LocalChannel channel;
+
+    LocalWriter(LocalChannel channel) {
+        super(Writer.nullWriter());
+        this.channel = channel;
+    }
+
+    /**
+     * @param frame the frame to be passed to the other end, waiting while {@value LocalPipe#CAPACITY} frames
+     *              are already waiting there
+     * @return {@code false} if the connection is closed, or the sending thread was interrupted while waiting,
+     *         and the frame was dropped
+     */
+    public boolean send(Frame frame) {
+        return channel.send(frame);
+    }
+
+    /**
+     * @return the channel the writer sends through
+     */
+    public LocalChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void write(String s, int off, int len) {
+        throw new UnsupportedOperationException("In-JVM connections carry frames, not text");
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) {
+        throw new UnsupportedOperationException("In-JVM connections carry frames, not text");
+    }
+
+    @Override
+    public void write(int c) {
+        throw new UnsupportedOperationException("In-JVM connections carry frames, not text");
+    }
+
+    @Override
+    public void close() {
+        channel.close();
+    }
+
+}
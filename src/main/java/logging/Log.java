@@ -0,0 +1,268 @@
+package logging;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The library's log. Logging an event costs the thread doing it a few volatile writes into a ring of
+ * {@value #CAPACITY} preallocated slots, and never blocks: when the ring is full the event is dropped and counted.
+ * A single daemon thread, {@code tcp-log}, takes the events out of the ring and writes them to the {@link LogSink},
+ * so that a storm of failing connections does not have every one of their threads contending for {@link System#err}.
+ * <p>
+ * The writing thread suppresses duplicates: an event with the same source, message, and type of cause as one
+ * written less than {@value #SUPPRESSION_WINDOW} milliseconds earlier is only counted, and the count is written
+ * once the window is over. Messages are therefore best kept constant, with the details in the cause.
+ */
+public final class Log {
+
+    /** How many events may wait to be written */
+    public static final int CAPACITY = 4096;
+
+    /** Milliseconds during which repeats of an event are counted instead of written */
+    public static final int SUPPRESSION_WINDOW = 1000;
+
+    private static final int MASK = CAPACITY - 1;
+    private static final Slot[] SLOTS = new Slot[CAPACITY];
+    private static final AtomicLong HEAD = new AtomicLong();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final Map<String, Window> WINDOWS = new HashMap<>();
+    private static final Thread WRITER;
+
+    private static volatile long tail;
+    private static volatile long flushed;
+    private static volatile boolean waiting;
+    private static volatile boolean closing;
+    private static volatile LogSink sink = LogSinks.stderr();
+    private static volatile LogEvent.Level level = LogEvent.Level.INFO;
+    private static long reportedDrops;
+    private static long lastSweep;
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) SLOTS[i] = new Slot();
+        WRITER = new Thread(Log::write, "tcp-log");
+        WRITER.setDaemon(true);
+        WRITER.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> { // writes what is left before the JVM exits
+            closing = true;
+            LockSupport.unpark(WRITER);
+            try { WRITER.join(1000);
+            } catch (InterruptedException ignore) { }
+        }, "tcp-log-shutdown"));
+    }
+
+    private Log() { }
+
+    /**
+     * @param sink where events are written from now on, {@link LogSinks#stderr()} by default
+     */
+    public static void setSink(LogSink sink) {
+        Log.sink = Objects.requireNonNull(sink, "sink cannot be null");
+    }
+
+    /**
+     * @param level the least severe {@link LogEvent.Level} that is logged, {@code INFO} by default;
+     *              less severe events are discarded before they reach the ring
+     */
+    public static void setLevel(LogEvent.Level level) {
+        Log.level = Objects.requireNonNull(level, "level cannot be null");
+    }
+
+    /**
+     * @param level a {@link LogEvent.Level}
+     * @return {@code true} if events of the {@code level} are logged
+     */
+    public static boolean isEnabled(LogEvent.Level level) {
+        return level.compareTo(Log.level) >= 0;
+    }
+
+    /**
+     * @return how many events were dropped because the ring was full
+     */
+    public static long getDropped() {
+        return DROPPED.sum();
+    }
+
+    /**
+     * Logs an event of level {@code DEBUG}, see {@link #log(LogEvent.Level, String, String, Throwable)}
+     */
+    public static void debug(String source, String message) {
+        log(LogEvent.Level.DEBUG, source, message, null);
+    }
+
+    /**
+     * Logs an event of level {@code INFO}, see {@link #log(LogEvent.Level, String, String, Throwable)}
+     */
+    public static void info(String source, String message) {
+        log(LogEvent.Level.INFO, source, message, null);
+    }
+
+    /**
+     * Logs an event of level {@code WARN}, see {@link #log(LogEvent.Level, String, String, Throwable)}
+     */
+    public static void warn(String source, String message) {
+        log(LogEvent.Level.WARN, source, message, null);
+    }
+
+    /**
+     * Logs an event of level {@code WARN}, see {@link #log(LogEvent.Level, String, String, Throwable)}
+     */
+    public static void warn(String source, String message, Throwable error) {
+        log(LogEvent.Level.WARN, source, message, error);
+    }
+
+    /**
+     * Logs an event of level {@code ERROR}, see {@link #log(LogEvent.Level, String, String, Throwable)}
+     */
+    public static void error(String source, String message, Throwable error) {
+        log(LogEvent.Level.ERROR, source, message, error);
+    }
+
+    /**
+     * Puts an event in the ring, or drops it if the ring is full
+     *
+     * @param level   how severe the event is
+     * @param source  the part of the library the event comes from, such as {@code "server"}
+     * @param message what happened
+     * @param error   the cause, or {@code null}
+     */
+    public static void log(LogEvent.Level level, String source, String message, Throwable error) {
+        if (!isEnabled(level)) return;
+        long sequence;
+        do {
+            sequence = HEAD.get();
+            if (sequence - tail >= CAPACITY) {
+                DROPPED.increment();
+                return;
+            }
+        } while (!HEAD.compareAndSet(sequence, sequence + 1));
+        Slot slot = SLOTS[(int) sequence & MASK];
+        slot.level = level;
+        slot.timeMillis = System.currentTimeMillis();
+        slot.source = source;
+        slot.message = message;
+        slot.error = error;
+        slot.published = sequence + 1;
+        if (waiting) LockSupport.unpark(WRITER);
+    }
+
+    /**
+     * Waits until every event logged so far has been written and the sink flushed, or the {@code timeout} elapses
+     *
+     * @param timeout how long to wait at most
+     * @param unit    the unit of the {@code timeout}
+     * @return {@code true} if every event logged so far has been written
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long target = HEAD.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (flushed < target) {
+            if (System.nanoTime() - deadline >= 0) return false;
+            LockSupport.unpark(WRITER);
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    private static void write() {
+        while (true) {
+            long next = tail;
+            Slot slot = SLOTS[(int) next & MASK];
+            if (slot.published != next + 1) {
+                idle();
+                if (closing && slot.published != next + 1) return;
+                waiting = true;
+                if (slot.published != next + 1 && !closing) LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(100));
+                waiting = false;
+                continue;
+            }
+            LogEvent event = new LogEvent(slot.level, slot.timeMillis, slot.source, slot.message, slot.error, 0);
+            slot.source = null;
+            slot.message = null;
+            slot.error = null;
+            tail = next + 1; // frees the slot
+            offer(event);
+            if ((next & 255) == 0) sweep(); // keeps the counts coming while the ring never empties
+        }
+    }
+
+    private static void offer(LogEvent event) {
+        String key = event.getSource() + '\0' + event.getMessage() + '\0'
+                + (event.getError() == null ? "" : event.getError().getClass().getName());
+        Window window = WINDOWS.get(key);
+        if (window != null && event.getTimeMillis() - window.start < SUPPRESSION_WINDOW) {
+            window.suppressed++;
+            return;
+        }
+        if (window != null) summarize(window);
+        WINDOWS.put(key, new Window(event));
+        deliver(event);
+    }
+
+    private static void idle() {
+        sweep();
+        try { sink.flush();
+        } catch (RuntimeException ignore) { }
+        flushed = tail;
+    }
+
+    /**
+     * Writes the counts of the windows that are over, and of the events dropped, a few times per window
+     */
+    private static void sweep() {
+        long now = System.currentTimeMillis();
+        if (now - lastSweep < SUPPRESSION_WINDOW / 4) return;
+        lastSweep = now;
+        for (Iterator<Window> windows = WINDOWS.values().iterator(); windows.hasNext(); ) {
+            Window window = windows.next();
+            if (now - window.start < SUPPRESSION_WINDOW) continue;
+            summarize(window);
+            windows.remove();
+        }
+        long dropped = DROPPED.sum();
+        if (dropped > reportedDrops) {
+            deliver(new LogEvent(LogEvent.Level.WARN, now, "log", "Dropped " + (dropped - reportedDrops)
+                    + " events because the log could not keep up", null, 0));
+            reportedDrops = dropped;
+        }
+    }
+
+    private static void summarize(Window window) {
+        if (window.suppressed == 0) return;
+        LogEvent first = window.event;
+        deliver(new LogEvent(first.getLevel(), System.currentTimeMillis(), first.getSource(), first.getMessage(),
+                null, window.suppressed));
+    }
+
+    private static void deliver(LogEvent event) {
+        try { sink.write(event);
+        } catch (RuntimeException ignore) { } // a failing sink must not stop the writer
+    }
+
+    private static final class Slot {
+        private volatile long published;
+        private LogEvent.Level level;
+        private long timeMillis;
+        private String source;
+        private String message;
+        private Throwable error;
+    }
+
+    private static final class Window {
+        private final LogEvent event;
+        private final long start;
+        private int suppressed;
+
+        private Window(LogEvent event) {
+            this.event = event;
+            this.start = event.getTimeMillis();
+        }
+    }
+
+}
@@ -0,0 +1,107 @@
+package logging;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+
+/**
+ * A single event written by {@link Log}
+ */
+public final class LogEvent {
+
+    /**
+     * How severe an event is
+     */
+    public enum Level { DEBUG, INFO, WARN, ERROR }
+
+    private final Level level;
+    private final long timeMillis;
+    private final String source;
+    private final String message;
+    private final Throwable error;
+    private final int repeats;
+
+    /**
+     * @param level      how severe the event is
+     * @param timeMillis the wall clock time the event was logged at
+     * @param source     the part of the library the event comes from, such as {@code "server"}
+     * @param message    what happened
+     * @param error      the cause, or {@code null}
+     * @param repeats    how many more times the same event was logged and suppressed, or {@code 0}
+     */
+    public LogEvent(Level level, long timeMillis, String source, String message, Throwable error, int repeats) {
+        this.level = level;
+        this.timeMillis = timeMillis;
+        this.source = source;
+        this.message = message;
+        this.error = error;
+        this.repeats = repeats;
+    }
+
+    /**
+     * @return how severe the event is
+     */
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @return the wall clock time the event was logged at
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return the part of the library the event comes from, such as {@code "server"}
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return what happened
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return the cause, or {@code null}
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return for a summary of suppressed duplicates, how many there were, or else {@code 0}
+     */
+    public int getRepeats() {
+        return repeats;
+    }
+
+    /**
+     * @return the event on one line, without the stack trace of its cause
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder().append(Instant.ofEpochMilli(timeMillis)).append(' ').append(level)
+                .append(" [").append(source).append("] ").append(message);
+        if (error != null) builder.append(": ").append(error);
+        if (repeats > 0) builder.append(" (repeated ").append(repeats).append(repeats == 1 ? " more time)" : " more times)");
+        return builder.toString();
+    }
+
+    /**
+     * @return the event followed by the stack trace of its cause, if it has one
+     */
+    public String format() {
+        if (error == null) return toString();
+        StringWriter trace = new StringWriter();
+        error.printStackTrace(new PrintWriter(trace));
+        return new StringBuilder().append(Instant.ofEpochMilli(timeMillis)).append(' ').append(level)
+                .append(" [").append(source).append("] ").append(message).append(System.lineSeparator())
+                .append(trace.toString().trim()).toString();
+    }
+
+}
@@ -0,0 +1,21 @@
+package logging;
+
+/**
+ * Where {@link Log} writes its events, from its single background thread
+ *
+ * @see LogSinks
+ */
+@FunctionalInterface
+public interface LogSink {
+
+    /**
+     * @param event the event to write
+     */
+    void write(LogEvent event);
+
+    /**
+     * Called whenever the events waiting to be written have all been written, for sinks that buffer
+     */
+    default void flush() { }
+
+}
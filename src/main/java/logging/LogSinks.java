@@ -0,0 +1,92 @@
+package logging;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The {@link LogSink}s the library comes with
+ */
+public final class LogSinks {
+
+    private LogSinks() { }
+
+    /**
+     * @return a sink printing events, with the stack traces of their causes, to {@link System#err}, which is where
+     *         events go unless {@link Log#setSink(LogSink)} is called
+     */
+    public static LogSink stderr() {
+        return event -> System.err.println(event.format());
+    }
+
+    /**
+     * @return a sink discarding every event
+     */
+    public static LogSink discard() {
+        return event -> { };
+    }
+
+    /**
+     * @param file the file to append events to, which is created if it does not exist
+     * @return a sink appending events, with the stack traces of their causes, to the {@code file}, flushing it
+     *         whenever the events waiting to be written have all been written
+     * @throws IOException if the file cannot be opened
+     */
+    public static LogSink file(Path file) throws IOException {
+        BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        return new LogSink() {
+            @Override
+            public void write(LogEvent event) {
+                try {
+                    writer.write(event.format());
+                    writer.newLine();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+
+            @Override
+            public void flush() {
+                try { writer.flush();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        };
+    }
+
+    /**
+     * Writes events to the {@link System.Logger} named {@code redTCP.<source>}, which is how they reach SLF4J:
+     * with {@code org.slf4j:slf4j-jdk-platform-logging} on the class path, the platform loggers are SLF4J loggers.
+     * Other logging frameworks provide the same kind of bridge, and without one the events go to
+     * {@code java.util.logging}.
+     *
+     * @return a sink writing events to the platform loggers
+     */
+    public static LogSink platform() {
+        return event -> {
+            System.Logger logger = System.getLogger("redTCP." + event.getSource());
+            System.Logger.Level level = platformLevel(event.getLevel());
+            if (!logger.isLoggable(level)) return;
+            String message = event.getRepeats() == 0 ? event.getMessage()
+                    : event.getMessage() + " (repeated " + event.getRepeats() + " more times)";
+            if (event.getError() != null) logger.log(level, message, event.getError());
+            else logger.log(level, message);
+        };
+    }
+
+    private static System.Logger.Level platformLevel(LogEvent.Level level) {
+        switch (level) {
+            case DEBUG: return System.Logger.Level.DEBUG;
+            case INFO: return System.Logger.Level.INFO;
+            case WARN: return System.Logger.Level.WARNING;
+            default: return System.Logger.Level.ERROR;
+        }
+    }
+
+}
@@ -0,0 +1,325 @@
+package packets;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The state of at-least-once delivery between two peers, kept on each side for as long as the session lasts,
+ * which may span several connections.
+ * <p>
+ * Every frame a side sends is numbered and kept until the peer acknowledges it, and at most {@link #getWindow()}
+ * frames may be unacknowledged at once. Whatever is still unacknowledged when a connection is lost is sent again,
+ * with the same numbers, on the next one. Acknowledgements are cumulative, covering every frame up to a number,
+ * and selective, listing ranges of frames received beyond it, since frames of a higher {@link scheduling.Priority}
+ * overtake others on the wire. They ride along on frames going the other way, and only go out as an
+ * {@link PacketType#ACK} frame of their own if nothing is sent for {@value #ACK_DELAY} milliseconds or half the
+ * peer's window has been received.
+ * <p>
+ * The receiving side remembers which frames it got in a bitmap of the peer's window beyond the cumulative number,
+ * which is all a duplicate can fall into, so suppressing duplicates takes bounded memory however long the session
+ * runs. Each frame also carries the lowest number its sender has not seen acknowledged, so that a receiver which
+ * lost its state, or never had it, knows where to start.
+ * <p>
+ * Each side picks a random session number when it creates its state and sends it in its {@link Hello}, so that a
+ * peer that restarted is recognised and its numbering starts over.
+ */
+public final class AckedDelivery {
+
+    /** The largest window a peer may ask for, which bounds the memory of a receiving side */
+    public static final int MAX_WINDOW = 65536;
+
+    /** Milliseconds an acknowledgement waits for a frame to ride along on before it is sent on its own */
+    public static final int ACK_DELAY = 20;
+
+    /** What {@link #sequence(Frame)} returns when the window is full and no connection is left to empty it */
+    public static final long CLOSED = -1;
+
+    /** What {@link #sequence(Frame)} returns when the window is full and waiting would keep it full for good */
+    public static final long FULL = -2;
+
+    private static final int MAX_RANGES = 16;
+    private static final ThreadLocal<AckedDelivery> RECEIVING = new ThreadLocal<>();
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tcp-ack-" + THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final long session;
+    private final int window;
+    private final TreeMap<Long, Frame> unacknowledged = new TreeMap<>();
+    private long nextSequence = 1;
+    private int connections;
+    private long detachedNanos = System.nanoTime();
+
+    private long peerSession;
+    private int peerWindow;
+    private long[] received = new long[0];
+    private long capacity;
+    private long cumulative;
+    private long highest;
+    private int receipts;
+    private boolean ackDue;
+
+    /**
+     * @param window how many frames this side may have unacknowledged at once
+     */
+    public AckedDelivery(int window) {
+        if (window < 1 || window > MAX_WINDOW) throw new IllegalArgumentException("window must be between 1 and " + MAX_WINDOW);
+        long random;
+        do random = RANDOM.nextLong(); while (random == 0);
+        this.session = random;
+        this.window = window;
+    }
+
+    /**
+     * Sends {@code flush} every {@value #ACK_DELAY} milliseconds from a single daemon thread shared by every
+     * connection in the JVM
+     *
+     * @param flush sends an {@link PacketType#ACK} frame if one is due
+     * @return the schedule, to be cancelled when the connection closes
+     */
+    public static ScheduledFuture<?> schedule(Runnable flush) {
+        return SCHEDULER.scheduleWithFixedDelay(flush, ACK_DELAY, ACK_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the session number this side sends in its {@link Hello}
+     */
+    public long getSession() {
+        return session;
+    }
+
+    /**
+     * @return how many frames this side may have unacknowledged at once
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * Attaches a new connection to the session
+     *
+     * @param peerSession the session number of the peer
+     * @param peerWindow  the window of the peer
+     */
+    public synchronized void connect(long peerSession, int peerWindow) {
+        connections++;
+        if (peerSession == this.peerSession) return;
+        this.peerSession = peerSession; // a new peer, or one that restarted, numbers its frames from the start
+        this.peerWindow = peerWindow;
+        received = new long[(peerWindow + 63) / 64];
+        capacity = received.length * 64L;
+        cumulative = 0;
+        highest = 0;
+        receipts = 0;
+        ackDue = false;
+    }
+
+    /**
+     * Detaches a closed connection, which wakes up the senders waiting for the window
+     */
+    public synchronized void disconnect() {
+        connections = Math.max(connections - 1, 0);
+        if (connections == 0) detachedNanos = System.nanoTime();
+        notifyAll();
+    }
+
+    /**
+     * Ends the session if no connection has been attached to it for {@code idleNanos}, dropping the frames the
+     * peer has not acknowledged and what was received from it
+     *
+     * @param idleNanos how long the session may go without a connection
+     * @return {@code true} if the session ended and must not be attached to again
+     */
+    public synchronized boolean expire(long idleNanos) {
+        if (connections > 0 || System.nanoTime() - detachedNanos < idleNanos) return false;
+        unacknowledged.clear();
+        received = new long[0];
+        capacity = 0;
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Marks the current thread as handing a frame received in this session to the listeners, until
+     * {@link #endReceiving()}. The thread reads no acknowledgements meanwhile, so a listener it runs that sends a
+     * frame while the window is full must not wait for one.
+     */
+    public void beginReceiving() {
+        RECEIVING.set(this);
+    }
+
+    /**
+     * Ends what {@link #beginReceiving()} started
+     */
+    public void endReceiving() {
+        RECEIVING.remove();
+    }
+
+    /**
+     * Numbers a frame and keeps it until it is acknowledged, waiting while the window is full unless the current
+     * thread is {@link #beginReceiving() receiving} in this session
+     *
+     * @param frame the frame being sent
+     * @return the number of the frame, {@link #CLOSED} if the window is full and no connection is left to empty it,
+     *         or {@link #FULL} if the window is full and the current thread is receiving in this session
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized long sequence(Frame frame) throws InterruptedException {
+        while (unacknowledged.size() >= window) {
+            if (connections == 0) return CLOSED;
+            if (RECEIVING.get() == this) return FULL;
+            wait(ACK_DELAY);
+        }
+        long sequence = nextSequence++;
+        unacknowledged.put(sequence, frame);
+        return sequence;
+    }
+
+    /**
+     * Undoes {@link #sequence(Frame)} and {@link #acknowledgeTo(JSONObject)} for a packet that could not be sent
+     *
+     * @param sequence the number of the frame, or {@code 0} if it was not numbered
+     * @param packet   the packet the frame would have been sent in
+     */
+    public synchronized void unsent(long sequence, JSONObject packet) {
+        if (sequence > 0 && unacknowledged.remove(sequence) != null) notifyAll();
+        if (packet.has("ack")) ackDue = true;
+    }
+
+    /**
+     * @return the lowest number this side has not seen acknowledged, which every numbered frame carries
+     */
+    public synchronized long getBase() {
+        return unacknowledged.isEmpty() ? nextSequence : unacknowledged.firstKey();
+    }
+
+    /**
+     * @return how many frames the peer has not acknowledged yet
+     */
+    public synchronized int getUnacknowledgedCount() {
+        return unacknowledged.size();
+    }
+
+    /**
+     * @return the frames the peer has not acknowledged yet, by number, to be sent again on a new connection
+     */
+    public synchronized SortedMap<Long, Frame> getUnacknowledged() {
+        return new TreeMap<>(unacknowledged);
+    }
+
+    /**
+     * Drops the frames the peer acknowledged
+     *
+     * @param holder a received packet or {@link PacketType#ACK} frame, which may carry an acknowledgement
+     */
+    public synchronized void acknowledge(JSONObject holder) {
+        if (!holder.has("ack")) return;
+        unacknowledged.headMap(holder.getLong("ack"), true).clear();
+        JSONArray ranges = holder.optJSONArray("sack");
+        if (ranges != null) {
+            for (int i = 0; i + 1 < ranges.length(); i += 2) {
+                long from = ranges.getLong(i), to = ranges.getLong(i + 1);
+                if (from <= to) unacknowledged.subMap(from, true, to, true).clear();
+            }
+        }
+        notifyAll();
+    }
+
+    /**
+     * Records a received frame
+     *
+     * @param sequence the number of the frame
+     * @param base     the lowest number the peer had not seen acknowledged when it sent the frame
+     * @return {@code true} if the frame is new, {@code false} if it is a duplicate to be dropped
+     */
+    public synchronized boolean receive(long sequence, long base) {
+        ackDue = true; // a duplicate means an acknowledgement got lost, so it is repeated too
+        if (capacity == 0) return true;
+        if (base - 1 > cumulative) advance(base - 1);
+        if (sequence <= cumulative) return false;
+        if (sequence - cumulative > capacity) advance(sequence - capacity); // only a peer ignoring its window does this
+        if (isReceived(sequence)) return false;
+        mark(sequence, true);
+        highest = Math.max(highest, sequence);
+        advance(cumulative);
+        receipts++;
+        return true;
+    }
+
+    /**
+     * @return {@code true} if frames were received since the last acknowledgement
+     */
+    public synchronized boolean isAckDue() {
+        return ackDue;
+    }
+
+    /**
+     * @return {@code true} if so many frames were received that the peer may be running out of window
+     */
+    public synchronized boolean isAckUrgent() {
+        return receipts >= Math.max(1, peerWindow / 2);
+    }
+
+    /**
+     * Adds the acknowledgement of what was received so far, if one is due
+     *
+     * @param holder the packet, or {@link PacketType#ACK} frame, the acknowledgement rides along on
+     * @return {@code true} if an acknowledgement was added
+     */
+    public synchronized boolean acknowledgeTo(JSONObject holder) {
+        if (!ackDue) return false;
+        ackDue = false;
+        receipts = 0;
+        holder.put("ack", cumulative);
+        if (highest <= cumulative + 1) return true;
+        JSONArray ranges = new JSONArray();
+        long from = 0;
+        for (long sequence = cumulative + 2; sequence <= highest + 1 && ranges.length() < MAX_RANGES * 2; sequence++) {
+            boolean isReceived = sequence <= highest && isReceived(sequence);
+            if (isReceived && from == 0) from = sequence;
+            else if (!isReceived && from != 0) {
+                ranges.put(from).put(sequence - 1);
+                from = 0;
+            }
+        }
+        if (ranges.length() > 0) holder.put("sack", ranges);
+        return true;
+    }
+
+    /**
+     * Moves the cumulative number up to {@code to} and then over every frame already received after it
+     */
+    private void advance(long to) {
+        if (to - cumulative >= capacity) Arrays.fill(received, 0);
+        else for (long sequence = cumulative + 1; sequence <= to; sequence++) mark(sequence, false);
+        cumulative = to;
+        while (isReceived(cumulative + 1)) mark(++cumulative, false);
+        highest = Math.max(highest, cumulative);
+    }
+
+    private boolean isReceived(long sequence) {
+        long bit = Math.floorMod(sequence, capacity);
+        return (received[(int) (bit >>> 6)] & (1L << bit)) != 0;
+    }
+
+    private void mark(long sequence, boolean isReceived) {
+        long bit = Math.floorMod(sequence, capacity);
+        if (isReceived) received[(int) (bit >>> 6)] |= 1L << bit;
+        else received[(int) (bit >>> 6)] &= ~(1L << bit);
+    }
+
+}
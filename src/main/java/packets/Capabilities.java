@@ -0,0 +1,180 @@
+package packets;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The optional protocol features a peer supports, exchanged during the version 2 handshake.
+ * The server intersects its own capabilities with the client's and both sides then use the result
+ * for the lifetime of the connection.
+ * <p>
+ * Compression algorithms and codecs are named, so that a peer simply ignores names it does not know
+ * and new ones can be rolled out one side at a time.
+ */
+public final class Capabilities {
+
+    /** The codec every peer understands: the Base64 encoded JSON frames of protocol version 1 */
+    public static final String JSON_CODEC = "json";
+
+    /** The codec of in-JVM connections, which pass frames as objects instead of encoding them */
+    public static final String OBJECT_CODEC = "object";
+
+    /**
+     * Base64 encoded JSON frames like {@link #JSON_CODEC}, but neither encrypted nor signed by the library.
+     * Only offered where the transport already protects them: TLS, or the relaxed crypto mode of Unix domain
+     * sockets, whose file permissions decide who may connect.
+     */
+    public static final String PLAIN_CODEC = "plain";
+
+    /** The line a peer sends to keep an otherwise idle connection alive; never valid Base64 */
+    public static final String HEARTBEAT = ".";
+
+    /** What a version 1 peer can do */
+    public static final Capabilities LEGACY = new Capabilities(Collections.emptySet(),
+            Collections.singleton(JSON_CODEC), 0, 0);
+
+    /** What an in-JVM connection does */
+    public static final Capabilities LOCAL = new Capabilities(Collections.emptySet(),
+            Collections.singleton(OBJECT_CODEC), 0, 0);
+
+    /** What a connection replayed from a capture does, which passes frames as objects but has no peer at all */
+    public static final Capabilities REPLAY = new Capabilities(Collections.emptySet(),
+            Collections.singleton(OBJECT_CODEC), 0, 0);
+
+    private final Set<String> compression;
+    private final Set<String> codecs;
+    private final int maxFrameSize;
+    private final int heartbeatInterval;
+
+    /**
+     * @param compression       the compression algorithms the peer can apply to frames, in order of preference
+     * @param codecs            the frame encodings the peer understands, in order of preference
+     * @param maxFrameSize      the longest frame in characters the peer accepts, or {@code 0} for no limit
+     * @param heartbeatInterval milliseconds between heartbeats the peer sends and expects, or {@code 0} for none
+     */
+    public Capabilities(Set<String> compression, Set<String> codecs, int maxFrameSize, int heartbeatInterval) {
+        if (maxFrameSize < 0) throw new IllegalArgumentException("maxFrameSize cannot be negative");
+        if (heartbeatInterval < 0) throw new IllegalArgumentException("heartbeatInterval cannot be negative");
+        this.compression = Collections.unmodifiableSet(new LinkedHashSet<>(compression));
+        this.codecs = Collections.unmodifiableSet(new LinkedHashSet<>(codecs));
+        this.maxFrameSize = maxFrameSize;
+        this.heartbeatInterval = heartbeatInterval;
+    }
+
+    /**
+     * Works out what both peers can do. Names are kept in this side's order of preference, the smaller
+     * frame limit applies, and heartbeats are only sent if both peers want them, at the slower of the two rates.
+     *
+     * @param peer the capabilities of the other side
+     * @return the capabilities both sides support
+     */
+    public Capabilities agree(Capabilities peer) {
+        Set<String> agreedCompression = new LinkedHashSet<>(compression);
+        agreedCompression.retainAll(peer.compression);
+        Set<String> agreedCodecs = new LinkedHashSet<>(codecs);
+        agreedCodecs.retainAll(peer.codecs);
+        int agreedFrameSize = maxFrameSize == 0 ? peer.maxFrameSize
+                : peer.maxFrameSize == 0 ? maxFrameSize : Math.min(maxFrameSize, peer.maxFrameSize);
+        int agreedHeartbeat = heartbeatInterval == 0 || peer.heartbeatInterval == 0 ? 0
+                : Math.max(heartbeatInterval, peer.heartbeatInterval);
+        return new Capabilities(agreedCompression, agreedCodecs, agreedFrameSize, agreedHeartbeat);
+    }
+
+    /**
+     * @return the compression algorithms both peers can apply, in order of preference
+     */
+    public Set<String> getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return the frame encodings both peers understand, in order of preference
+     */
+    public Set<String> getCodecs() {
+        return codecs;
+    }
+
+    /**
+     * @return the codec frames are encoded with: the first one both peers understand
+     */
+    public String getCodec() {
+        return codecs.isEmpty() ? JSON_CODEC : codecs.iterator().next();
+    }
+
+    /**
+     * @return {@code false} if the agreed codec sends frames without encrypting them
+     */
+    public boolean isEncrypted() {
+        return !PLAIN_CODEC.equals(getCodec());
+    }
+
+    /**
+     * @return the longest frame in characters either peer may send, or {@code 0} for no limit
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * @return milliseconds between heartbeats, or {@code 0} if no heartbeats are sent
+     */
+    public int getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * @param length the length of a frame in characters
+     * @return {@code true} if the frame is within the agreed frame size
+     */
+    public boolean allowsFrame(int length) {
+        return maxFrameSize == 0 || length <= maxFrameSize;
+    }
+
+    void write(DataOutputStream out) throws IOException {
+        writeNames(out, compression);
+        writeNames(out, codecs);
+        out.writeInt(maxFrameSize);
+        out.writeInt(heartbeatInterval);
+    }
+
+    static Capabilities read(DataInputStream in) throws IOException {
+        Set<String> compression = readNames(in);
+        Set<String> codecs = readNames(in);
+        int maxFrameSize = in.readInt();
+        int heartbeatInterval = in.readInt();
+        if (maxFrameSize < 0 || heartbeatInterval < 0) throw new IOException("Negative capability value");
+        return new Capabilities(compression, codecs, maxFrameSize, heartbeatInterval);
+    }
+
+    private static void writeNames(DataOutputStream out, Set<String> names) throws IOException {
+        out.writeByte(names.size());
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            out.writeByte(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static Set<String> readNames(DataInputStream in) throws IOException {
+        int count = in.readUnsignedByte();
+        Set<String> names = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[in.readUnsignedByte()];
+            in.readFully(bytes);
+            names.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return names;
+    }
+
+    @Override
+    public String toString() {
+        return "Capabilities{compression=" + compression + ", codecs=" + codecs
+                + ", maxFrameSize=" + maxFrameSize + ", heartbeatInterval=" + heartbeatInterval + "}";
+    }
+
+}
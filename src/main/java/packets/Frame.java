@@ -0,0 +1,100 @@
+package packets;
+
+import org.json.JSONObject;
+import scheduling.Priority;
+import tracing.Trace;
+
+/**
+ * A frame after decoding and decryption, ready to be dispatched to the listeners. Connections in the same JVM
+ * pass frames in this form without ever encoding them, so the receiving side gets the very {@link JSONObject}
+ * the sender passed in, and the sender must not modify it after sending it.
+ */
+public final class Frame {
+
+    private final PacketType type;
+    private final Priority priority;
+    private final JSONObject data;
+    private final long sequence;
+    private final long base;
+    private final Trace trace;
+
+    /**
+     * @param type     what kind of packet the frame carries
+     * @param priority the {@link Priority} the receiver dispatches the frame with
+     * @param data     the content of the packet, as it would be encrypted over a socket
+     */
+    public Frame(PacketType type, Priority priority, JSONObject data) {
+        this(type, priority, data, 0, 0);
+    }
+
+    /**
+     * @param type     what kind of packet the frame carries
+     * @param priority the {@link Priority} the receiver dispatches the frame with
+     * @param data     the content of the packet, as it would be encrypted over a socket
+     * @param sequence the number of the frame under {@link AckedDelivery}, or {@code 0} if it is not numbered
+     * @param base     the lowest number the sender had not seen acknowledged, or {@code 0} if it is not numbered
+     */
+    public Frame(PacketType type, Priority priority, JSONObject data, long sequence, long base) {
+        this(type, priority, data, sequence, base, null);
+    }
+
+    /**
+     * @param type     what kind of packet the frame carries
+     * @param priority the {@link Priority} the receiver dispatches the frame with
+     * @param data     the content of the packet, as it would be encrypted over a socket
+     * @param sequence the number of the frame under {@link AckedDelivery}, or {@code 0} if it is not numbered
+     * @param base     the lowest number the sender had not seen acknowledged, or {@code 0} if it is not numbered
+     * @param trace    the {@link Trace} of the frame if it was sampled, or {@code null}
+     */
+    public Frame(PacketType type, Priority priority, JSONObject data, long sequence, long base, Trace trace) {
+        this.type = type;
+        this.priority = priority;
+        this.data = data;
+        this.sequence = sequence;
+        this.base = base;
+        this.trace = trace;
+    }
+
+    /**
+     * @return what kind of packet the frame carries
+     */
+    public PacketType getType() {
+        return type;
+    }
+
+    /**
+     * @return the {@link Priority} the receiver dispatches the frame with
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the content of the packet
+     */
+    public JSONObject getData() {
+        return data;
+    }
+
+    /**
+     * @return the number of the frame under {@link AckedDelivery}, or {@code 0} if it is not numbered
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the lowest number the sender had not seen acknowledged when it sent the frame, or {@code 0}
+     */
+    public long getBase() {
+        return base;
+    }
+
+    /**
+     * @return the {@link Trace} of the frame if it was sampled, or {@code null}
+     */
+    public Trace getTrace() {
+        return trace;
+    }
+
+}
@@ -0,0 +1,193 @@
+package packets;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+
+/**
+ * The single message each side sends during the version 2 handshake: the protocol version it speaks,
+ * its public key, and its {@link Capabilities}.
+ * <p>
+ * The client sends its hello as soon as it is connected and the server answers with its own, which carries
+ * the capabilities both sides agreed on, so the handshake takes one round trip. Hellos are binary, sent as
+ * {@code hello:<base64>} so that they fit the line based framing and can never be mistaken for the
+ * {@code [..]} key lines of protocol version 1. Every frame after the handshake is signed with the private
+ * key matching the hello, which proves that the peer owns it.
+ * <p>
+ * Layout: version (1 byte), X.509 encoded public key (2 byte length + bytes, empty when the sender only
+ * accepts unencrypted frames, as over TLS), capabilities, optionally the client's stable identity (modified
+ * UTF-8 with a 2 byte length, empty for none), and optionally the {@link AckedDelivery} session number (8 bytes)
+ * and window (4 bytes) of a side that wants acknowledged delivery. Readers ignore trailing bytes, so later versions
+ * can append fields.
+ */
+public final class Hello {
+
+    /** The newest protocol version this library speaks */
+    public static final int VERSION = 2;
+
+    /** The longest client identity a hello may carry */
+    public static final int MAX_CLIENT_ID_LENGTH = 100;
+
+    private static final String PREFIX = "hello:";
+
+    private final int version;
+    private final PublicKey publicKey;
+    private final Capabilities capabilities;
+    private final String clientId;
+    private final long deliverySession;
+    private final int deliveryWindow;
+
+    /**
+     * @param version      the protocol version of the sender
+     * @param publicKey    the public key of the sender, or {@code null} if it only accepts unencrypted frames
+     * @param capabilities the capabilities of the sender, or the agreed capabilities when sent by the server
+     */
+    public Hello(int version, PublicKey publicKey, Capabilities capabilities) {
+        this(version, publicKey, capabilities, null);
+    }
+
+    /**
+     * @param version      the protocol version of the sender
+     * @param publicKey    the public key of the sender, or {@code null} if it only accepts unencrypted frames
+     * @param capabilities the capabilities of the sender, or the agreed capabilities when sent by the server
+     * @param clientId     the identity the client keeps across connections, or {@code null} for none
+     */
+    public Hello(int version, PublicKey publicKey, Capabilities capabilities, String clientId) {
+        this(version, publicKey, capabilities, clientId, 0, 0);
+    }
+
+    /**
+     * @param version         the protocol version of the sender
+     * @param publicKey       the public key of the sender, or {@code null} if it only accepts unencrypted frames
+     * @param capabilities    the capabilities of the sender, or the agreed capabilities when sent by the server
+     * @param clientId        the identity the client keeps across connections, or {@code null} for none
+     * @param deliverySession the {@link AckedDelivery#getSession() session number} of the sender, or {@code 0}
+     *                        if it does not want acknowledged delivery, or the server refuses it
+     * @param deliveryWindow  the {@link AckedDelivery#getWindow() window} of the sender, or {@code 0}
+     */
+    public Hello(int version, PublicKey publicKey, Capabilities capabilities, String clientId,
+                 long deliverySession, int deliveryWindow) {
+        this.version = version;
+        this.publicKey = publicKey;
+        this.capabilities = capabilities;
+        this.clientId = clientId;
+        this.deliverySession = deliverySession;
+        this.deliveryWindow = deliveryWindow;
+    }
+
+    /**
+     * @param line a line received during the handshake
+     * @return {@code true} if the line is a version 2 hello rather than a version 1 key
+     */
+    public static boolean isHello(String line) {
+        return line != null && line.startsWith(PREFIX);
+    }
+
+    /**
+     * @param line a hello line
+     * @return the decoded hello
+     * @throws IOException if the line is not a well formed hello
+     */
+    public static Hello decode(String line) throws IOException {
+        if (!isHello(line)) throw new IOException("Not a handshake hello");
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                    Base64.getDecoder().decode(line.substring(PREFIX.length()))));
+            int version = in.readUnsignedByte();
+            if (version < VERSION) throw new IOException("Unsupported hello version " + version);
+            byte[] key = new byte[in.readUnsignedShort()];
+            in.readFully(key);
+            PublicKey publicKey = key.length == 0 ? null : KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(key));
+            Capabilities capabilities = Capabilities.read(in);
+            String clientId = in.available() > 0 ? in.readUTF() : "";
+            if (clientId.length() > MAX_CLIENT_ID_LENGTH)
+                throw new IOException("Client identity cannot be longer than " + MAX_CLIENT_ID_LENGTH + " characters");
+            long deliverySession = 0;
+            int deliveryWindow = 0;
+            if (in.available() > 0) {
+                deliverySession = in.readLong();
+                deliveryWindow = in.readInt();
+                if (deliverySession != 0 && (deliveryWindow < 1 || deliveryWindow > AckedDelivery.MAX_WINDOW))
+                    throw new IOException("Delivery window must be between 1 and " + AckedDelivery.MAX_WINDOW);
+            }
+            return new Hello(version, publicKey, capabilities, clientId.isEmpty() ? null : clientId,
+                    deliverySession, deliveryWindow);
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Malformed handshake hello: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the hello as a line to be sent to the peer
+     */
+    public String encode() {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            byte[] key = publicKey == null ? new byte[0] : publicKey.getEncoded();
+            out.writeByte(version);
+            out.writeShort(key.length);
+            out.write(key);
+            capabilities.write(out);
+            if (clientId != null || deliverySession != 0) out.writeUTF(clientId == null ? "" : clientId);
+            if (deliverySession != 0) {
+                out.writeLong(deliverySession);
+                out.writeInt(deliveryWindow);
+            }
+            return PREFIX + Base64.getEncoder().encodeToString(bytes.toByteArray());
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the protocol version of the sender
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the public key of the sender, or {@code null} if it only accepts unencrypted frames
+     */
+    public PublicKey getPublicKey() {
+        return publicKey;
+    }
+
+    /**
+     * @return the capabilities of the sender, or the agreed capabilities when sent by the server
+     */
+    public Capabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * @return the identity the client keeps across connections, or {@code null} if it sent none
+     */
+    public String getClientId() {
+        return clientId;
+    }
+
+    /**
+     * @return the {@link AckedDelivery} session number of the sender, or {@code 0} for none
+     */
+    public long getDeliverySession() {
+        return deliverySession;
+    }
+
+    /**
+     * @return the {@link AckedDelivery} window of the sender, or {@code 0} for none
+     */
+    public int getDeliveryWindow() {
+        return deliveryWindow;
+    }
+
+}
@@ -4,5 +4,11 @@ package packets;
  * Enum for the different types of data to be contained within the EncryptionPacket's payload
  */
 public enum PacketType {
-    TEXT, COMMAND, JSON
+    TEXT, COMMAND, JSON,
+    /** A client subscribing to, or unsubscribing from, a topic pattern */
+    SUBSCRIBE, UNSUBSCRIBE,
+    /** A payload the server published to a topic */
+    TOPIC,
+    /** An acknowledgement under {@link AckedDelivery} that had no other frame to ride along on */
+    ACK
 }
\ No newline at end of file
@@ -0,0 +1,36 @@
+package scheduling;
+
+import packets.Capabilities;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends the {@link Capabilities#HEARTBEAT heartbeats} agreed on during the handshake for every connection in the
+ * JVM from a single daemon thread. A heartbeat is skipped while the connection is busy writing something else.
+ */
+public final class Heartbeats {
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tcp-heartbeat-" + THREADS.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Heartbeats() { }
+
+    /**
+     * @param outgoing the writer of the connection
+     * @param interval milliseconds between heartbeats
+     * @return the schedule, to be cancelled when the connection closes
+     */
+    public static ScheduledFuture<?> start(PriorityWriter outgoing, int interval) {
+        return SCHEDULER.scheduleWithFixedDelay(() -> outgoing.printlnIfIdle(Capabilities.HEARTBEAT),
+                interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+}
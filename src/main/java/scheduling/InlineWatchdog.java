@@ -0,0 +1,130 @@
+package scheduling;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Runs listeners on the calling thread and flags those that take longer than a time budget, both once they
+ * return and, through a background scan, while they are still running so that a listener which never
+ * returns is noticed as well. Every invocation is flagged at most once.
+ */
+public class InlineWatchdog implements AutoCloseable {
+
+    private final long budgetNanos;
+    private final BiConsumer<Object, Thread> onOverrun;
+    private final Set<Slot> slots = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<Slot> slot = ThreadLocal.withInitial(this::newSlot);
+    private volatile ScheduledExecutorService scanner;
+
+    /**
+     * @param budgetMillis how long a listener may run, or {@code 0} to never flag one
+     * @param onOverrun    called with the listener and the thread running it when a listener exceeds the budget
+     */
+    public InlineWatchdog(int budgetMillis, BiConsumer<Object, Thread> onOverrun) {
+        this.budgetNanos = TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        this.onOverrun = onOverrun;
+    }
+
+    /**
+     * Runs the {@code task} of the {@code listener} on the calling thread. Like a task handed to an executor,
+     * an exception thrown by the listener does not reach the caller.
+     *
+     * @param listener the listener the task belongs to
+     * @param task     the invocation of the listener
+     */
+    public void run(Object listener, Callable<Void> task) {
+        if (budgetNanos == 0) {
+            call(task);
+            return;
+        }
+        if (scanner == null) startScanner();
+        Slot current = slot.get();
+        synchronized (current) {
+            current.flagged = false;
+            current.listener = listener;
+            current.started = System.nanoTime();
+        }
+        try {
+            call(task);
+        } finally {
+            long elapsed = System.nanoTime() - current.started;
+            current.started = 0;
+            if (elapsed > budgetNanos) flag(current, listener);
+        }
+    }
+
+    /**
+     * Stops the background scan. It starts again with the next inline listener.
+     */
+    @Override
+    public synchronized void close() {
+        if (scanner != null) scanner.shutdownNow();
+        scanner = null;
+    }
+
+    private static void call(Callable<Void> task) {
+        try { task.call();
+        } catch (Exception ignore) { }
+    }
+
+    private Slot newSlot() {
+        Slot created = new Slot(Thread.currentThread());
+        slots.add(created);
+        return created;
+    }
+
+    private synchronized void startScanner() {
+        if (scanner != null) return;
+        scanner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "inline-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(budgetNanos / 2, TimeUnit.MILLISECONDS.toNanos(1));
+        scanner.scheduleAtFixedRate(this::scan, period, period, TimeUnit.NANOSECONDS);
+    }
+
+    private void scan() {
+        long now = System.nanoTime();
+        for (Slot each : slots) {
+            if (!each.thread.isAlive()) {
+                slots.remove(each);
+                continue;
+            }
+            Object listener;
+            synchronized (each) {
+                if (each.started == 0 || now - each.started <= budgetNanos) continue;
+                listener = each.listener;
+            }
+            flag(each, listener);
+        }
+    }
+
+    private void flag(Slot slot, Object listener) {
+        synchronized (slot) {
+            if (slot.flagged) return;
+            slot.flagged = true;
+        }
+        onOverrun.accept(listener, slot.thread);
+    }
+
+    /**
+     * What a thread running inline listeners is currently busy with
+     */
+    private static final class Slot {
+        private final Thread thread;
+        private volatile long started;
+        private Object listener;
+        private boolean flagged;
+
+        private Slot(Thread thread) {
+            this.thread = thread;
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+package scheduling;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * Runs the expensive part of handling a connection's frames, such as decryption, on a pool of workers while
+ * still passing the results on in the order the frames were received. Results that finish early wait in a
+ * reorder buffer, and whichever worker completes the next result in line passes on everything that is ready,
+ * so results are passed on by one thread at a time.
+ * <p>
+ * At most {@code window} frames may be in flight; submitting more waits, which stops the connection from
+ * reading ahead of its workers. The first failure or a refusal of the sink stops the pipeline, and later
+ * results are dropped.
+ *
+ * @param <T> the type of the results
+ */
+public final class OrderedPipeline<T> {
+
+    /**
+     * Takes the results of the pipeline in order
+     *
+     * @param <T> the type of the results
+     */
+    @FunctionalInterface
+    public interface Sink<T> {
+        /**
+         * @param result the next result
+         * @return {@code false} to stop the pipeline
+         * @throws Exception to stop the pipeline and report the failure
+         */
+        boolean accept(T result) throws Exception;
+    }
+
+    private final Executor workers;
+    private final Sink<T> sink;
+    private final Consumer<Exception> failure;
+    private final int window;
+    private final Semaphore inFlight;
+    private final Object[] buffer;
+    private final Object lock = new Object();
+    private long submitted;
+    private long passed;
+    private boolean draining;
+    private volatile boolean stopped;
+
+    /**
+     * @param workers the pool the stages run on
+     * @param window  how many frames may be in flight at once
+     * @param sink    takes the results in order
+     * @param failure called once with the exception that stopped the pipeline
+     */
+    public OrderedPipeline(Executor workers, int window, Sink<T> sink, Consumer<Exception> failure) {
+        if (window <= 0) throw new IllegalArgumentException("window must be positive");
+        this.workers = workers;
+        this.window = window;
+        this.sink = sink;
+        this.failure = failure;
+        this.inFlight = new Semaphore(window);
+        this.buffer = new Object[window];
+    }
+
+    /**
+     * Hands the next frame's stage to the workers; only the connection's reading thread may submit
+     *
+     * @param stage computes the result of the frame
+     * @throws InterruptedException if interrupted while waiting for room in the window
+     */
+    public void submit(Callable<T> stage) throws InterruptedException {
+        inFlight.acquire();
+        long sequence = submitted++;
+        try {
+            workers.execute(() -> {
+                Object result;
+                try { result = new Result(stage.call());
+                } catch (Exception e) {
+                    result = new Failure(e);
+                }
+                complete(sequence, result);
+            });
+        } catch (RejectedExecutionException e) {
+            complete(sequence, new Failure(e));
+        }
+    }
+
+    /**
+     * Waits until every submitted frame has been dropped, or passed on and handled by the sink
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void awaitIdle() throws InterruptedException {
+        inFlight.acquire(window);
+        inFlight.release(window);
+    }
+
+    /**
+     * @return {@code true} once a failure or the sink stopped the pipeline
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    private void complete(long sequence, Object result) {
+        synchronized (lock) {
+            buffer[(int) (sequence % window)] = result;
+            if (draining) return; // the draining worker picks it up once it is next in line
+            draining = true;
+        }
+        while (true) {
+            Object next;
+            synchronized (lock) {
+                int slot = (int) (passed % window);
+                next = buffer[slot];
+                if (next == null) {
+                    draining = false;
+                    return;
+                }
+                buffer[slot] = null;
+                passed++;
+            }
+            try { pass(next);
+            } finally {
+                inFlight.release(); // only now, so that awaitIdle() also waits for the sink
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void pass(Object next) {
+        if (stopped) return;
+        Exception error = next instanceof Failure ? ((Failure) next).error : null;
+        if (error == null) {
+            try {
+                if (sink.accept(((Result) next).value)) return;
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+        stopped = true;
+        if (error != null) failure.accept(error);
+    }
+
+    private final class Result {
+        private final T value;
+
+        private Result(T value) {
+            this.value = value;
+        }
+    }
+
+    private static final class Failure {
+        private final Exception error;
+
+        private Failure(Exception error) {
+            this.error = error;
+        }
+    }
+
+}
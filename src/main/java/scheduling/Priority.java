@@ -0,0 +1,31 @@
+package scheduling;
+
+/**
+ * The priority class of a frame, which decides the order in which queued frames are written to
+ * the connection and in which received frames are handed to the listeners
+ */
+public enum Priority {
+
+    /** Control and heartbeat traffic that should overtake everything else */
+    HIGH(4),
+
+    /** The priority of every frame sent without one */
+    NORMAL(2),
+
+    /** Bulk transfers that should yield to everything else */
+    LOW(1);
+
+    private final int weight;
+
+    Priority(int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * @return the share of frames this priority receives under {@link Scheduling#WEIGHTED} scheduling
+     */
+    public int getWeight() {
+        return weight;
+    }
+
+}
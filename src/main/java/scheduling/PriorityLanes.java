@@ -0,0 +1,138 @@
+package scheduling;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * One first-in-first-out queue per {@link Priority}, taken from according to a {@link Scheduling}.
+ * Elements of the same priority always leave in the order they were added.
+ * <p>
+ * Not thread safe; callers synchronize on their own lock.
+ *
+ * @param <T> the type of queued elements
+ */
+public class PriorityLanes<T> {
+
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final Scheduling scheduling;
+    private final ArrayDeque<T>[] lanes;
+    private final int[] credit;
+    private int size;
+
+    /**
+     * @param scheduling how elements of different priorities are taken from the lanes
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public PriorityLanes(Scheduling scheduling) {
+        this.scheduling = scheduling;
+        this.lanes = new ArrayDeque[PRIORITIES.length];
+        for (int i = 0; i < lanes.length; i++) lanes[i] = new ArrayDeque<>();
+        this.credit = new int[PRIORITIES.length];
+    }
+
+    /**
+     * @param priority the lane to add the element to
+     * @param element  the element to be added
+     */
+    public void add(Priority priority, T element) {
+        lanes[priority.ordinal()].add(element);
+        size++;
+    }
+
+    /**
+     * @return the next element according to the scheduling, or {@code null} if every lane is empty
+     */
+    public T poll() {
+        int lane = next();
+        if (lane < 0) return null;
+        size--;
+        return lanes[lane].poll();
+    }
+
+    /**
+     * @return the element {@link #poll()} would return next, or {@code null} if every lane is empty
+     */
+    public T peek() {
+        if (size == 0) return null;
+        if (scheduling == Scheduling.STRICT) return lanes[first()].peek();
+        // peeking must not consume the credits of the weighted round robin
+        int[] saved = credit.clone();
+        int lane = next();
+        System.arraycopy(saved, 0, credit, 0, credit.length);
+        return lanes[lane].peek();
+    }
+
+    /**
+     * @param element the element to be removed
+     * @return {@code true} if the element was queued
+     */
+    public boolean remove(Object element) {
+        for (ArrayDeque<T> lane : lanes) {
+            if (lane.remove(element)) {
+                size--;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return how many elements are queued over all lanes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return {@code true} if every lane is empty
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return a copy of the queued elements, highest priority first
+     */
+    public List<T> toList() {
+        List<T> list = new ArrayList<>(size);
+        for (ArrayDeque<T> lane : lanes) list.addAll(lane);
+        return list;
+    }
+
+    /**
+     * Removes every queued element
+     */
+    public void clear() {
+        for (ArrayDeque<T> lane : lanes) lane.clear();
+        Arrays.fill(credit, 0);
+        size = 0;
+    }
+
+    private int first() {
+        for (int i = 0; i < lanes.length; i++) if (!lanes[i].isEmpty()) return i;
+        return -1;
+    }
+
+    private int next() {
+        if (size == 0) return -1;
+        if (scheduling == Scheduling.STRICT) return first();
+        // smooth weighted round robin over the lanes that have something queued
+        int best = -1;
+        int total = 0;
+        for (int i = 0; i < lanes.length; i++) {
+            if (lanes[i].isEmpty()) {
+                credit[i] = 0;
+                continue;
+            }
+            credit[i] += PRIORITIES[i].getWeight();
+            total += PRIORITIES[i].getWeight();
+            if (best < 0 || credit[i] > credit[best]) best = i;
+        }
+        credit[best] -= total;
+        return best;
+    }
+
+}
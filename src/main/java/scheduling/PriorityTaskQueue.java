@@ -0,0 +1,224 @@
+package scheduling;
+
+import java.util.AbstractQueue;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A work queue for a {@link java.util.concurrent.ThreadPoolExecutor} that hands out {@link Task}s by their
+ * {@link Priority} instead of strictly in the order they were queued. Tasks of the same priority keep their
+ * order, and any other {@link Runnable} is treated as {@link Priority#NORMAL}.
+ */
+public class PriorityTaskQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+    private final PriorityLanes<Runnable> lanes;
+    private final int capacity;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+
+    /**
+     * @param scheduling how tasks of different priorities are taken from the queue
+     * @param capacity   how many tasks may be queued, or {@code 0} for no limit
+     */
+    public PriorityTaskQueue(Scheduling scheduling, int capacity) {
+        this.lanes = new PriorityLanes<>(scheduling);
+        this.capacity = capacity <= 0 ? Integer.MAX_VALUE : capacity;
+    }
+
+    @Override
+    public boolean offer(Runnable task) {
+        lock.lock();
+        try {
+            if (lanes.size() >= capacity) return false;
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void put(Runnable task) throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (lanes.size() >= capacity) notFull.await();
+            enqueue(task);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean offer(Runnable task, long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (lanes.size() >= capacity) {
+                if (nanos <= 0) return false;
+                nanos = notFull.awaitNanos(nanos);
+            }
+            enqueue(task);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (lanes.isEmpty()) notEmpty.await();
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (lanes.isEmpty()) {
+                if (nanos <= 0) return null;
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Runnable peek() {
+        lock.lock();
+        try {
+            return lanes.peek();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean remove(Object task) {
+        lock.lock();
+        try {
+            if (!lanes.remove(task)) return false;
+            notFull.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int size() {
+        lock.lock();
+        try {
+            return lanes.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int remainingCapacity() {
+        lock.lock();
+        try {
+            return capacity - lanes.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target) {
+        return drainTo(target, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public int drainTo(Collection<? super Runnable> target, int maxElements) {
+        lock.lock();
+        try {
+            int drained = 0;
+            while (drained < maxElements && !lanes.isEmpty()) {
+                target.add(dequeue());
+                drained++;
+            }
+            return drained;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return a snapshot of the queued tasks, highest priority first
+     */
+    @Override
+    public Iterator<Runnable> iterator() {
+        lock.lock();
+        try {
+            return lanes.toList().iterator();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void enqueue(Runnable task) {
+        lanes.add(priorityOf(task), task);
+        notEmpty.signal();
+    }
+
+    private Runnable dequeue() {
+        Runnable task = lanes.poll();
+        if (task != null) notFull.signal();
+        return task;
+    }
+
+    private static Priority priorityOf(Runnable task) {
+        return task instanceof Task ? ((Task) task).priority : Priority.NORMAL;
+    }
+
+    /**
+     * A {@link FutureTask} that carries the {@link Priority} it is queued with
+     */
+    public static class Task extends FutureTask<Void> {
+
+        private final Priority priority;
+
+        /**
+         * @param priority the priority the task is queued with
+         * @param callable the work to be done
+         */
+        public Task(Priority priority, Callable<Void> callable) {
+            super(callable);
+            this.priority = priority;
+        }
+
+        /**
+         * @return the priority the task is queued with
+         */
+        public Priority getPriority() {
+            return priority;
+        }
+    }
+
+}
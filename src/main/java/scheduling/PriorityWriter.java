@@ -0,0 +1,169 @@
+package scheduling;
+
+import packets.AckedDelivery;
+import packets.Capabilities;
+
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+/**
+ * A {@link PrintWriter} for line based frames that lets frames of a higher {@link Priority} overtake
+ * frames of a lower one while the connection is busy.
+ * <p>
+ * Whichever thread finds the writer idle writes the queued frames in priority order, its own and those
+ * other threads queued meanwhile, until its own frame is out and a waiting thread takes over. Every caller
+ * returns only once its own frame has been written, so sending keeps its blocking behaviour. A frame that
+ * is already being written is never interrupted, so a high priority frame waits for at most one frame of
+ * lower priority.
+ */
+public class PriorityWriter extends PrintWriter {
+
+    private final PriorityLanes<Frame> queued;
+    private final Object queueLock = new Object();
+    private boolean writing;
+    private volatile Capabilities capabilities = Capabilities.LEGACY;
+    private volatile AckedDelivery delivery;
+
+    /**
+     * @param out        the stream the frames are written to
+     * @param scheduling how frames of different priorities are picked while the connection is busy
+     */
+    public PriorityWriter(OutputStream out, Scheduling scheduling) {
+        super(out, true);
+        this.queued = new PriorityLanes<>(scheduling);
+    }
+
+    /**
+     * @param capabilities the {@link Capabilities} agreed on with the peer, which decide how frames are encoded
+     *                     and how long they may be
+     */
+    public void setCapabilities(Capabilities capabilities) {
+        this.capabilities = capabilities;
+    }
+
+    /**
+     * @return the {@link Capabilities} agreed on with the peer, or {@link Capabilities#LEGACY} during the handshake
+     */
+    public Capabilities getCapabilities() {
+        return capabilities;
+    }
+
+    /**
+     * @param delivery the {@link AckedDelivery} session the connection belongs to, which numbers the frames written
+     */
+    public void setDelivery(AckedDelivery delivery) {
+        this.delivery = delivery;
+    }
+
+    /**
+     * @return the {@link AckedDelivery} session the connection belongs to, or {@code null} if frames are not numbered
+     */
+    public AckedDelivery getDelivery() {
+        return delivery;
+    }
+
+    /**
+     * @param length the length of a frame in characters
+     * @return {@code true} if the peer accepts a frame of that length
+     */
+    public boolean allowsFrame(int length) {
+        return capabilities.allowsFrame(length);
+    }
+
+    /**
+     * Writes a line, such as a heartbeat, only if no other thread is writing, since a busy connection does not
+     * need one
+     *
+     * @param line the line to be written
+     * @return {@code true} if the line was written
+     */
+    public boolean printlnIfIdle(String line) {
+        synchronized (queueLock) {
+            if (writing) return false;
+            writing = true;
+        }
+        try {
+            writeLine(line);
+        } finally {
+            synchronized (queueLock) {
+                writing = false;
+                queueLock.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a frame of {@link Priority#NORMAL} priority
+     *
+     * @param line the frame to be written
+     */
+    @Override
+    public void println(String line) {
+        println(line, Priority.NORMAL);
+    }
+
+    /**
+     * Writes a frame, waiting for the frames of a higher priority queued by other threads first
+     *
+     * @param line     the frame to be written
+     * @param priority the priority of the frame
+     */
+    public void println(String line, Priority priority) {
+        Frame frame = new Frame(line);
+        synchronized (queueLock) {
+            queued.add(priority, frame);
+            awaitTurn(frame);
+            if (frame.written) return;
+            writing = true;
+        }
+        while (true) {
+            Frame next;
+            synchronized (queueLock) {
+                if (frame.written || queued.isEmpty()) {
+                    // hand the writer over to a thread whose frame is still queued
+                    writing = false;
+                    queueLock.notifyAll();
+                    return;
+                }
+                next = queued.poll();
+            }
+            writeLine(next.line);
+            synchronized (queueLock) {
+                next.written = true;
+                queueLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Waits until either another thread wrote the frame or the writer is idle
+     */
+    private void awaitTurn(Frame frame) {
+        boolean interrupted = false;
+        while (writing && !frame.written) {
+            try { queueLock.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void writeLine(String line) {
+        synchronized (lock) {
+            super.print(line);
+            super.println();
+        }
+    }
+
+    private static final class Frame {
+        private final String line;
+        private boolean written;
+
+        private Frame(String line) {
+            this.line = line;
+        }
+    }
+
+}
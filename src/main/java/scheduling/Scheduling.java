@@ -0,0 +1,20 @@
+package scheduling;
+
+/**
+ * How frames of different {@link Priority} classes are taken from their queues
+ */
+public enum Scheduling {
+
+    /**
+     * Always takes the frame of the highest priority first. Lower priorities only
+     * make progress while no higher priority frames are waiting.
+     */
+    STRICT,
+
+    /**
+     * Shares the turns between the waiting priorities in proportion to their
+     * {@link Priority#getWeight() weight}, so that bulk traffic is never starved completely.
+     */
+    WEIGHTED
+
+}
@@ -0,0 +1,122 @@
+package server;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Collects the events of one batch listener and hands them over in batches of up to {@code maxSize},
+ * at the latest {@code linger} after the first event of a batch was queued. Batches of the same
+ * listener never overlap and keep the order the events were raised in.
+ * <p>
+ * At most {@value #QUEUED_BATCHES} batches worth of events may be queued; raising more waits for the listener, the
+ * way a full dispatch queue makes the raising thread run the listener itself, so a slow listener holds back the
+ * connections feeding it instead of filling the heap.
+ *
+ * @param <T> the type of event
+ */
+class BatchDispatcher<T> {
+
+    /** How many full batches may be queued before raising an event waits */
+    static final int QUEUED_BATCHES = 4;
+
+    private final Consumer<List<T>> listener;
+    private final int maxSize;
+    private final int capacity;
+    private final long lingerNanos;
+    private final Executor executor;
+    private final Supplier<ScheduledExecutorService> timer;
+    private final ArrayDeque<T> queued = new ArrayDeque<>();
+    private boolean running;
+    private long generation;
+
+    /**
+     * @param listener     the listener receiving the batches
+     * @param maxSize      the most events in a batch
+     * @param lingerMillis how long the first event of a batch may wait for more
+     * @param executor     runs the listener
+     * @param timer        the current timer ending the linger time
+     */
+    BatchDispatcher(Consumer<List<T>> listener, int maxSize, int lingerMillis, Executor executor,
+                    Supplier<ScheduledExecutorService> timer) {
+        this.listener = listener;
+        this.maxSize = maxSize;
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, (long) maxSize * QUEUED_BATCHES);
+        this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+        this.executor = executor;
+        this.timer = timer;
+    }
+
+    /**
+     * @param event the event to be added to the current batch, waiting while {@value #QUEUED_BATCHES} batches
+     *              are queued; an interrupted thread adds it without waiting
+     */
+    void add(T event) {
+        synchronized (this) {
+            while (queued.size() >= capacity) {
+                try { wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            queued.add(event);
+            if (running) return;
+            if (queued.size() < maxSize) {
+                if (queued.size() == 1) schedule();
+                return;
+            }
+            running = true;
+        }
+        executor.execute(this::drain);
+    }
+
+    /**
+     * Hands over whatever is queued without waiting for the batch to fill up
+     */
+    void flush() {
+        synchronized (this) {
+            if (running || queued.isEmpty()) return;
+            running = true;
+        }
+        executor.execute(this::drain);
+    }
+
+    private void schedule() {
+        long scheduled = ++generation;
+        timer.get().schedule(() -> lingered(scheduled), lingerNanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void lingered(long scheduled) {
+        synchronized (this) {
+            if (scheduled != generation) return;
+        }
+        flush();
+    }
+
+    private void drain() {
+        while (true) {
+            List<T> batch;
+            synchronized (this) {
+                batch = new ArrayList<>(Math.min(queued.size(), maxSize));
+                while (batch.size() < maxSize && !queued.isEmpty()) batch.add(queued.poll());
+                generation++;
+                notifyAll(); // wakes up the threads waiting for room
+            }
+            try { listener.accept(batch);
+            } catch (Exception ignore) { }
+            synchronized (this) {
+                if (queued.size() >= maxSize) continue;
+                running = false;
+                if (!queued.isEmpty()) schedule();
+                return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,228 @@
+package server;
+
+import org.json.JSONObject;
+import packets.PacketType;
+import scheduling.Priority;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A capture of the frames a {@link TcpServer} receives, after decryption, written to a memory-mapped file of a
+ * fixed size that is used as a ring: once it is full, the oldest records are overwritten, so a capture left running
+ * holds the most recent traffic. Appending a record costs a copy into the page cache under a short lock; nothing is
+ * forced to disk until the capture is closed.
+ * <p>
+ * The file starts with a 64 byte header: a magic number, the format version, the size of the ring, the positions of
+ * the oldest record and of the end of the newest one, counted in bytes written since the capture started, the wall
+ * clock time the capture started at, and how many records were too large to keep. Each record is the length of its
+ * payload (4 bytes), the nanoseconds since the capture started (8 bytes), the connection (4 bytes), the kind of
+ * record (1 byte: a {@link PacketType} ordinal, or one of the connection events), the {@link Priority} ordinal
+ * (1 byte), and the payload: the frame's content as UTF-8 JSON. A record never wraps around the end of the ring;
+ * a length of {@code -1}, or too little room for a length, marks the rest of the ring as unused.
+ */
+final class Capture implements AutoCloseable {
+
+    static final byte CONNECTED = -1;
+    static final byte REMOVED = -2;
+
+    private static final int MAGIC = 0x52544350; // "RTCP"
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    private static final int RECORD_HEADER = 18;
+    private static final int HEAD = 16, TAIL = 24, STARTED = 32, DROPPED = 40;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final long started = System.nanoTime();
+    private final AtomicInteger connections = new AtomicInteger();
+    private long head;
+    private long tail;
+    private long dropped;
+
+    /**
+     * Starts a new capture, replacing the file if it exists
+     *
+     * @param file  the capture file
+     * @param bytes the size of the file, header included
+     * @throws IOException if the file could not be created and mapped
+     */
+    Capture(Path file, int bytes) throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        capacity = bytes - HEADER;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, capacity);
+        buffer.putLong(STARTED, System.currentTimeMillis());
+    }
+
+    /**
+     * @return the number a new connection is recorded under
+     */
+    int connection() {
+        return connections.incrementAndGet();
+    }
+
+    /**
+     * @param connection the number of the connection
+     * @param event      {@link #CONNECTED} or {@link #REMOVED}
+     */
+    void event(int connection, byte event) {
+        append(connection, event, Priority.NORMAL, new byte[0]);
+    }
+
+    /**
+     * @param connection the number of the connection the frame was received through
+     * @param type       what kind of packet the frame carries
+     * @param priority   the {@link Priority} the frame was sent with
+     * @param data       the decrypted content of the frame
+     */
+    void frame(int connection, PacketType type, Priority priority, JSONObject data) {
+        append(connection, (byte) type.ordinal(), priority, data.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private synchronized void append(int connection, byte kind, Priority priority, byte[] payload) {
+        int size = RECORD_HEADER + payload.length;
+        if (size > capacity) {
+            buffer.putLong(DROPPED, ++dropped);
+            return;
+        }
+        int at = (int) (tail % capacity);
+        if (at + size > capacity) { // the record does not fit before the end of the ring, so it starts over
+            if (capacity - at >= 4) buffer.putInt(HEADER + at, -1);
+            tail += capacity - at;
+            at = 0;
+        }
+        while (tail + size - head > capacity) head = next(head);
+        ByteBuffer record = buffer.duplicate();
+        record.position(HEADER + at);
+        record.putInt(payload.length).putLong(System.nanoTime() - started).putInt(connection)
+                .put(kind).put((byte) priority.ordinal()).put(payload);
+        tail += size;
+        buffer.putLong(HEAD, head);
+        buffer.putLong(TAIL, tail);
+    }
+
+    /**
+     * @return the position of the record following the one at {@code position}
+     */
+    private long next(long position) {
+        int at = (int) (position % capacity);
+        int length = capacity - at < 4 ? -1 : buffer.getInt(HEADER + at);
+        return length < 0 ? position + capacity - at : position + RECORD_HEADER + length;
+    }
+
+    /**
+     * Forces the capture to disk and closes the file
+     */
+    @Override
+    public synchronized void close() {
+        buffer.force();
+        try { channel.close();
+        } catch (IOException ignore) { }
+    }
+
+    /**
+     * @param file a capture file
+     * @return a reader of the records in the capture, oldest first
+     * @throws IOException if the file could not be read or is not a capture
+     */
+    static Reader read(Path file) throws IOException {
+        return new Reader(file);
+    }
+
+    /**
+     * A single captured frame or connection event
+     */
+    static final class Record {
+        final long nanos;
+        final int connection;
+        final byte kind;
+        final Priority priority;
+        final byte[] payload;
+
+        private Record(long nanos, int connection, byte kind, Priority priority, byte[] payload) {
+            this.nanos = nanos;
+            this.connection = connection;
+            this.kind = kind;
+            this.priority = priority;
+            this.payload = payload;
+        }
+
+        PacketType getType() {
+            return PacketType.values()[kind];
+        }
+
+        JSONObject getData() {
+            return new JSONObject(new String(payload, StandardCharsets.UTF_8));
+        }
+    }
+
+    static final class Reader implements AutoCloseable {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int capacity;
+        private final long tail;
+        private long position;
+
+        private Reader(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if (channel.size() < HEADER || buffer.getInt(0) != MAGIC) throw new IOException("Not a capture file: " + file);
+                if (buffer.getInt(4) != VERSION) throw new IOException("Unsupported capture version " + buffer.getInt(4));
+                capacity = buffer.getInt(8);
+                if (capacity <= 0 || HEADER + (long) capacity > channel.size()) throw new IOException("Truncated capture file: " + file);
+                position = buffer.getLong(HEAD);
+                tail = buffer.getLong(TAIL);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return the next record, or {@code null} after the newest one
+         * @throws IOException if the capture is damaged
+         */
+        Record next() throws IOException {
+            while (position < tail) {
+                int at = (int) (position % capacity);
+                int length = capacity - at < 4 ? -1 : buffer.getInt(HEADER + at);
+                if (length < 0) {
+                    position += capacity - at;
+                    continue;
+                }
+                if (at + RECORD_HEADER + length > capacity) throw new IOException("Damaged capture record at " + position);
+                ByteBuffer record = buffer.duplicate();
+                record.position(HEADER + at + 4);
+                long nanos = record.getLong();
+                int connection = record.getInt();
+                byte kind = record.get();
+                int priority = record.get();
+                if ((kind < 0 ? kind < REMOVED : kind >= PacketType.values().length) || priority < 0 || priority >= Priority.values().length)
+                    throw new IOException("Damaged capture record at " + position);
+                byte[] payload = new byte[length];
+                record.get(payload);
+                position += RECORD_HEADER + length;
+                return new Record(nanos, connection, kind, Priority.values()[priority], payload);
+            }
+            return null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+}
@@ -0,0 +1,121 @@
+package server;
+
+import listener_references.ServerCommand;
+import listeners.CommandHandler;
+import listeners.ServerCommandListener;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Method;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps command names to the single {@link ServerCommandListener} handling each, so that a command is handed to
+ * its handler with one lookup instead of being offered to every listener. Commands without a handler go to the
+ * fallback, if there is one.
+ */
+final class CommandRouter {
+
+    private final Map<String, ServerCommandListener> routes = new ConcurrentHashMap<>();
+    private volatile ServerCommandListener fallback;
+
+    /**
+     * @param command the name of the command
+     * @param handler the handler of the command
+     * @throws IllegalArgumentException if the command already has a handler
+     */
+    synchronized void add(String command, ServerCommandListener handler) {
+        Objects.requireNonNull(command, "command cannot be null");
+        Objects.requireNonNull(handler, "handler cannot be null");
+        if (routes.putIfAbsent(command, handler) != null)
+            throw new IllegalArgumentException("Command " + command + " already has a handler");
+    }
+
+    /**
+     * Adds all of the handlers, or none of them if any of the commands already has a handler
+     *
+     * @param handlers the handler of each command
+     * @throws IllegalArgumentException if one of the commands already has a handler
+     */
+    synchronized void addAll(Map<String, ServerCommandListener> handlers) {
+        for (String command : handlers.keySet())
+            if (routes.containsKey(command)) throw new IllegalArgumentException("Command " + command + " already has a handler");
+        routes.putAll(handlers);
+    }
+
+    /**
+     * @param command the name of the command
+     * @return the handler that was removed, or {@code null} if the command had none
+     */
+    ServerCommandListener remove(String command) {
+        return routes.remove(command);
+    }
+
+    /**
+     * Finds the {@link CommandHandler} methods of the {@code target}; they are looked up once, here, and
+     * invoked through bound method handles afterwards
+     *
+     * @param target the object whose annotated methods handle commands
+     * @return the handler of each command, in no particular order
+     * @throws IllegalArgumentException if an annotated method does not take a single {@link ServerCommand}
+     *                                  or two methods handle the same command
+     */
+    static Map<String, ServerCommandListener> scan(Object target) {
+        Objects.requireNonNull(target, "target cannot be null");
+        Map<String, ServerCommandListener> handlers = new LinkedHashMap<>();
+        for (Method method : target.getClass().getMethods()) {
+            CommandHandler annotation = method.getAnnotation(CommandHandler.class);
+            if (annotation == null) continue;
+            if (method.getParameterCount() != 1 || method.getParameterTypes()[0] != ServerCommand.class)
+                throw new IllegalArgumentException("@CommandHandler method " + method + " must take a single ServerCommand");
+            MethodHandle handle;
+            try {
+                method.setAccessible(true); // public methods of non-public classes, such as anonymous ones
+                handle = MethodHandles.lookup().unreflect(method).bindTo(target);
+            } catch (IllegalAccessException | RuntimeException e) {
+                throw new IllegalArgumentException("Cannot access @CommandHandler method " + method + ": " + e.getMessage(), e);
+            }
+            if (handlers.put(annotation.value(), command -> invoke(handle, command)) != null)
+                throw new IllegalArgumentException("Command " + annotation.value() + " has more than one @CommandHandler");
+        }
+        return handlers;
+    }
+
+    /**
+     * @param fallback the handler of commands without a handler of their own, or {@code null} for none
+     */
+    void setFallback(ServerCommandListener fallback) {
+        this.fallback = fallback;
+    }
+
+    /**
+     * @param command the name of a received command
+     * @return the handler of the command, else the fallback, else {@code null}
+     */
+    ServerCommandListener route(String command) {
+        ServerCommandListener handler = routes.get(command);
+        return handler != null ? handler : fallback;
+    }
+
+    /**
+     * Removes every handler and the fallback
+     */
+    void clear() {
+        routes.clear();
+        fallback = null;
+    }
+
+    private static void invoke(MethodHandle handle, ServerCommand command) {
+        try { handle.invoke(command);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+}
@@ -0,0 +1,85 @@
+package server;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs client handshakes on a dedicated, bounded pool so that the public key operations of a
+ * connection storm cannot starve the threads serving already established connections.
+ * <p>
+ * Handshakes beyond the rate limit, beyond the capacity of the admission queue, or that waited in
+ * the queue for longer than {@code maxQueueMillis} are rejected straight away instead of being performed.
+ */
+class HandshakeExecutor {
+
+    private final AtomicLong rejected = new AtomicLong();
+    private final ThreadPoolExecutor executor;
+    private final TokenBucket rateLimit;
+    private final long maxQueueNanos;
+
+    /**
+     * @param threads        how many handshakes may run concurrently
+     * @param queueSize      how many accepted connections may wait for a handshake thread
+     * @param perSecond      how many handshakes may be started per second, or {@code 0} for no limit
+     * @param maxQueueMillis how long a connection may wait in the queue before it is rejected
+     */
+    HandshakeExecutor(int threads, int queueSize, double perSecond, long maxQueueMillis) {
+        if (threads <= 0) throw new IllegalArgumentException("threads must be greater than 0");
+        if (queueSize < 0) throw new IllegalArgumentException("queueSize cannot be negative");
+        BlockingQueue<Runnable> queue = queueSize > 0 ? new ArrayBlockingQueue<>(queueSize) : new SynchronousQueue<>();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, queue, runnable -> {
+            Thread thread = new Thread(runnable, "redtcp-handshake-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+        this.rateLimit = perSecond > 0 ? new TokenBucket(perSecond, Math.max(1, perSecond)) : null;
+        this.maxQueueNanos = maxQueueMillis > 0 ? TimeUnit.MILLISECONDS.toNanos(maxQueueMillis) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Queues a handshake, or rejects it immediately if the server is already at its limits
+     *
+     * @param handshake the handshake to be performed
+     * @param onReject  run instead of the handshake if it gets rejected, either now or after waiting too long
+     * @return {@code false} if the handshake was rejected immediately
+     */
+    boolean submit(Runnable handshake, Runnable onReject) {
+        if (rateLimit != null && !rateLimit.tryAcquire()) {
+            reject(onReject);
+            return false;
+        }
+        long queued = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                if (System.nanoTime() - queued > maxQueueNanos) reject(onReject);
+                else handshake.run();
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            reject(onReject);
+            return false;
+        }
+    }
+
+    /**
+     * @return how many handshakes have been rejected since the executor was created
+     */
+    long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Stops every running handshake and drops the queued ones
+     */
+    void shutdownNow() {
+        executor.shutdownNow();
+    }
+
+    private void reject(Runnable onReject) {
+        rejected.incrementAndGet();
+        onReject.run();
+    }
+
+}
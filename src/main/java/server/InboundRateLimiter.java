@@ -0,0 +1,189 @@
+package server;
+
+import listener_references.ServerRateLimit;
+
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enforces the inbound message and byte limits of a single connection, together with the limits
+ * shared by every connection from the same remote address.
+ */
+class InboundRateLimiter {
+
+    private static final long REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final Addresses addresses;
+    private final InetAddress address;
+    private final TokenBucket[] buckets;
+    private final ServerRateLimit.Scope[] scopes;
+    private final ServerRateLimit.Kind[] kinds;
+    private final RateLimitAction action;
+    private long limitedSinceReport;
+    private long lastReport;
+    private boolean released;
+
+    /**
+     * @param config    the configuration holding the limits
+     * @param addresses the limits shared between connections from the same address
+     * @param address   the remote address of the connection
+     */
+    InboundRateLimiter(TcpServerConfig config, Addresses addresses, InetAddress address) {
+        Addresses.Shared shared = addresses.acquire(address);
+        this.buckets = new TokenBucket[] {
+                bucket(config.getConnectionMessageRate(), config.getRateLimitBurst()),
+                bucket(config.getConnectionByteRate(), config.getRateLimitBurst()),
+                shared.messages,
+                shared.bytes
+        };
+        this.scopes = new ServerRateLimit.Scope[] {
+                ServerRateLimit.Scope.CONNECTION, ServerRateLimit.Scope.CONNECTION,
+                ServerRateLimit.Scope.ADDRESS, ServerRateLimit.Scope.ADDRESS
+        };
+        this.kinds = new ServerRateLimit.Kind[] {
+                ServerRateLimit.Kind.MESSAGES, ServerRateLimit.Kind.BYTES,
+                ServerRateLimit.Kind.MESSAGES, ServerRateLimit.Kind.BYTES
+        };
+        this.action = config.getRateLimitAction();
+        this.addresses = addresses;
+        this.address = address;
+        this.lastReport = System.nanoTime() - REPORT_INTERVAL_NANOS;
+    }
+
+    /**
+     * @param config the server configuration
+     * @return {@code true} if the configuration limits inbound traffic at all
+     */
+    static boolean isEnabled(TcpServerConfig config) {
+        return config.getConnectionMessageRate() > 0 || config.getConnectionByteRate() > 0
+                || config.getAddressMessageRate() > 0 || config.getAddressByteRate() > 0;
+    }
+
+    /**
+     * Accounts for a received frame. When throttling this blocks until the limits allow the frame,
+     * when rejecting it returns straight away.
+     *
+     * @param bytes the size of the frame
+     * @return the index of the limit that was exceeded, or {@code -1} if the frame was within every limit
+     * @throws InterruptedException if interrupted while throttling
+     */
+    int acquire(int bytes) throws InterruptedException {
+        return action == RateLimitAction.THROTTLE ? throttle(bytes) : tryAcquire(bytes);
+    }
+
+    private int throttle(int bytes) throws InterruptedException {
+        long longestWait = 0;
+        int limited = -1;
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] == null) continue;
+            long wait = buckets[i].reserve(permits(i, bytes));
+            if (wait > longestWait) {
+                longestWait = wait;
+                limited = i;
+            }
+        }
+        if (longestWait > 0) TimeUnit.NANOSECONDS.sleep(longestWait);
+        return limited;
+    }
+
+    private int tryAcquire(int bytes) {
+        for (int i = 0; i < buckets.length; i++) {
+            if (buckets[i] == null) continue;
+            // a frame larger than the burst is let through whenever the bucket is full
+            if (buckets[i].tryAcquire(Math.min(permits(i, bytes), buckets[i].getCapacity()))) continue;
+            for (int j = 0; j < i; j++)
+                if (buckets[j] != null) buckets[j].refund(Math.min(permits(j, bytes), buckets[j].getCapacity()));
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Records a limited frame and decides whether it is time to report the limit again
+     *
+     * @return how many frames were limited since the previous report, or {@code 0} if it is too early to report
+     */
+    long limited() {
+        limitedSinceReport++;
+        long now = System.nanoTime();
+        if (now - lastReport < REPORT_INTERVAL_NANOS) return 0;
+        lastReport = now;
+        long limited = limitedSinceReport;
+        limitedSinceReport = 0;
+        return limited;
+    }
+
+    /**
+     * @return what is done with traffic that exceeds a limit
+     */
+    RateLimitAction getAction() {
+        return action;
+    }
+
+    ServerRateLimit.Scope getScope(int limit) {
+        return scopes[limit];
+    }
+
+    ServerRateLimit.Kind getKind(int limit) {
+        return kinds[limit];
+    }
+
+    /**
+     * Stops sharing the address limits once the connection is closed; safe to call more than once
+     */
+    synchronized void release() {
+        if (released) return;
+        released = true;
+        addresses.release(address);
+    }
+
+    private double permits(int limit, int bytes) {
+        return kinds[limit] == ServerRateLimit.Kind.BYTES ? bytes : 1;
+    }
+
+    private static TokenBucket bucket(double perSecond, double burstSeconds) {
+        return perSecond > 0 ? new TokenBucket(perSecond, Math.max(1, perSecond * burstSeconds)) : null;
+    }
+
+    /**
+     * The limits shared by every connection from the same remote address, kept for as long as
+     * at least one such connection is open
+     */
+    static class Addresses {
+
+        private final Map<InetAddress, Shared> shared = new ConcurrentHashMap<>();
+        private final TcpServerConfig config;
+
+        Addresses(TcpServerConfig config) {
+            this.config = config;
+        }
+
+        private Shared acquire(InetAddress address) {
+            return shared.compute(address, (key, existing) -> {
+                Shared limits = existing != null ? existing : new Shared(
+                        bucket(config.getAddressMessageRate(), config.getRateLimitBurst()),
+                        bucket(config.getAddressByteRate(), config.getRateLimitBurst()));
+                limits.connections++;
+                return limits;
+            });
+        }
+
+        private void release(InetAddress address) {
+            shared.computeIfPresent(address, (key, limits) -> --limits.connections == 0 ? null : limits);
+        }
+
+        private static class Shared {
+            private final TokenBucket messages;
+            private final TokenBucket bytes;
+            private int connections;
+
+            private Shared(TokenBucket messages, TokenBucket bytes) {
+                this.messages = messages;
+                this.bytes = bytes;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,127 @@
+package server;
+
+import listener_references.ServerConnection;
+import listener_references.ServerInbound;
+
+import java.util.concurrent.Flow;
+
+/**
+ * The subscription of a single {@link Flow.Subscriber} to the frames received by one connection or by the
+ * whole server. A connection that has a frame for the subscriber waits for its demand before reading on,
+ * which leaves unread data in the socket and so lets TCP flow control push back on the client.
+ */
+class InboundSubscription implements Flow.Subscription {
+
+    private final Flow.Subscriber<? super ServerInbound> subscriber;
+    private final ServerConnection connection;
+    private final Runnable onCancel;
+    private final Object signalLock = new Object();
+    private long demand;
+    private boolean done;
+
+    /**
+     * @param subscriber the subscriber the frames are passed to
+     * @param connection the only connection whose frames are passed on, or {@code null} for every connection
+     * @param onCancel   called once the subscription ends for any reason
+     */
+    InboundSubscription(Flow.Subscriber<? super ServerInbound> subscriber, ServerConnection connection, Runnable onCancel) {
+        this.subscriber = subscriber;
+        this.connection = connection;
+        this.onCancel = onCancel;
+    }
+
+    /**
+     * @param inbound a received frame
+     * @return {@code true} if the frame is meant for this subscription
+     */
+    boolean accepts(ServerInbound inbound) {
+        return connection == null || connection == inbound.getConnection();
+    }
+
+    /**
+     * @param connection a connection that was closed
+     * @return {@code true} if the subscription only covers that connection
+     */
+    boolean isFor(ServerConnection connection) {
+        return this.connection != null && this.connection == connection;
+    }
+
+    /**
+     * Signals the subscription to its subscriber
+     */
+    void start() {
+        synchronized (signalLock) {
+            try { subscriber.onSubscribe(this);
+            } catch (Throwable t) {
+                cancel();
+            }
+        }
+    }
+
+    /**
+     * Waits until the subscriber asked for another frame and passes it on
+     *
+     * @param inbound the received frame
+     * @throws InterruptedException if interrupted while waiting for demand
+     */
+    void offer(ServerInbound inbound) throws InterruptedException {
+        synchronized (this) {
+            while (demand == 0 && !done) wait();
+            if (done) return;
+            if (demand != Long.MAX_VALUE) demand--;
+        }
+        synchronized (signalLock) {
+            try { subscriber.onNext(inbound);
+            } catch (Throwable t) {
+                cancel();
+            }
+        }
+    }
+
+    /**
+     * Tells the subscriber that no more frames will follow
+     */
+    void complete() {
+        if (!end()) return;
+        synchronized (signalLock) {
+            try { subscriber.onComplete();
+            } catch (Throwable ignore) { }
+        }
+    }
+
+    @Override
+    public void request(long n) {
+        if (n <= 0) {
+            if (!end()) return;
+            synchronized (signalLock) {
+                try { subscriber.onError(new IllegalArgumentException("non-positive subscription request: " + n));
+                } catch (Throwable ignore) { }
+            }
+            return;
+        }
+        synchronized (this) {
+            if (done) return;
+            demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            notifyAll();
+        }
+    }
+
+    @Override
+    public void cancel() {
+        end();
+    }
+
+    /**
+     * @return {@code true} if this call ended the subscription
+     */
+    private boolean end() {
+        synchronized (this) {
+            if (done) return false;
+            done = true;
+            notifyAll();
+        }
+        onCancel.run();
+        return true;
+    }
+
+}
@@ -0,0 +1,168 @@
+package server;
+
+import listeners.JsonFilter;
+import listeners.JsonFilter.Clause;
+import listeners.ServerJsonListener;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The {@link JsonFilter}s of all filtered {@link ServerJsonListener}s, compiled into one index so that each field any
+ * filter looks at is read once per object. Every filter is indexed by one of its clauses, preferring an equality:
+ * equalities become a hash lookup per field, prefixes a walk down a character trie per field, and the other clauses
+ * of a filter are only tested once the indexed one matched.
+ * <p>
+ * The index is rebuilt whenever a listener is added or removed, which is rare, and read without locking.
+ */
+final class JsonRouter {
+
+    private final Map<ServerJsonListener, JsonFilter> filters = new LinkedHashMap<>();
+    private volatile Index index = new Index(Collections.emptyMap());
+
+    /**
+     * @param filter   which objects the listener is interested in
+     * @param listener the listener, replacing its previous filter if it already had one
+     */
+    synchronized void add(JsonFilter filter, ServerJsonListener listener) {
+        filters.put(listener, filter);
+        index = new Index(filters);
+    }
+
+    /**
+     * @param listener the listener to remove
+     * @return {@code true} if the listener was registered with a filter
+     */
+    synchronized boolean remove(ServerJsonListener listener) {
+        if (filters.remove(listener) == null) return false;
+        index = new Index(filters);
+        return true;
+    }
+
+    synchronized void clear() {
+        filters.clear();
+        index = new Index(filters);
+    }
+
+    /**
+     * @param json a received object
+     * @return the listeners whose filters match the object, which is empty without allocating if none do
+     */
+    List<ServerJsonListener> match(JSONObject json) {
+        return index.match(json);
+    }
+
+    private static final class Entry {
+        private final ServerJsonListener listener;
+        private final JsonFilter filter;
+
+        private Entry(ServerJsonListener listener, JsonFilter filter) {
+            this.listener = listener;
+            this.filter = filter;
+        }
+
+        private void accept(JSONObject json, List<ServerJsonListener> matched) {
+            if (filter.getClauses().size() == 1 || filter.test(json)) matched.add(listener);
+        }
+    }
+
+    /**
+     * The clauses indexed on a single field
+     */
+    private static final class Field {
+        private final Clause reader;
+        private final Map<String, List<Entry>> equal = new HashMap<>();
+        private final List<Entry> present = new ArrayList<>();
+        private final PrefixNode prefixes = new PrefixNode();
+
+        private Field(Clause reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * @param matched the listeners matched so far, or {@code null} if none
+         * @return the listeners matched so far, or {@code null} if none
+         */
+        private List<ServerJsonListener> match(JSONObject json, List<ServerJsonListener> matched) {
+            Object value = reader.read(json);
+            if (value == null) return matched;
+            List<Entry> entries = equal.isEmpty() ? null : equal.get(JsonFilter.valueKey(value));
+            boolean prefixed = value instanceof String && prefixes.hasEntries();
+            if (entries == null && present.isEmpty() && !prefixed) return matched;
+            if (matched == null) matched = new ArrayList<>();
+            if (entries != null) for (Entry entry : entries) entry.accept(json, matched);
+            for (Entry entry : present) entry.accept(json, matched);
+            if (prefixed) prefixes.match((String) value, json, matched);
+            return matched;
+        }
+    }
+
+    private static final class PrefixNode {
+        private final Map<Character, PrefixNode> children = new HashMap<>();
+        private final List<Entry> entries = new ArrayList<>();
+
+        private void add(String prefix, Entry entry) {
+            PrefixNode node = this;
+            for (int i = 0; i < prefix.length(); i++) node = node.children.computeIfAbsent(prefix.charAt(i), c -> new PrefixNode());
+            node.entries.add(entry);
+        }
+
+        private boolean hasEntries() {
+            return !entries.isEmpty() || !children.isEmpty();
+        }
+
+        private void match(String value, JSONObject json, List<ServerJsonListener> matched) {
+            PrefixNode node = this;
+            for (int i = 0; node != null; i++) {
+                for (Entry entry : node.entries) entry.accept(json, matched);
+                if (i == value.length()) return;
+                node = node.children.get(value.charAt(i));
+            }
+        }
+    }
+
+    private static final class Index {
+        private final Field[] fields;
+
+        private Index(Map<ServerJsonListener, JsonFilter> filters) {
+            Map<String, Field> byPath = new LinkedHashMap<>();
+            filters.forEach((listener, filter) -> {
+                Clause clause = indexed(filter);
+                Field field = byPath.computeIfAbsent(clause.getPath(), path -> new Field(clause));
+                Entry entry = new Entry(listener, filter);
+                switch (clause.getKind()) {
+                    case EQUALS:
+                        field.equal.computeIfAbsent(JsonFilter.valueKey(clause.getValue()), key -> new ArrayList<>()).add(entry);
+                        break;
+                    case PREFIX:
+                        field.prefixes.add((String) clause.getValue(), entry);
+                        break;
+                    default:
+                        field.present.add(entry);
+                }
+            });
+            this.fields = byPath.values().toArray(new Field[0]);
+        }
+
+        private static Clause indexed(JsonFilter filter) {
+            Clause best = null;
+            for (Clause clause : filter.getClauses()) {
+                if (clause.getKind() == JsonFilter.Kind.EQUALS) return clause;
+                if (best == null || (clause.getKind() == JsonFilter.Kind.PREFIX && best.getKind() == JsonFilter.Kind.EXISTS)) best = clause;
+            }
+            return best;
+        }
+
+        private List<ServerJsonListener> match(JSONObject json) {
+            List<ServerJsonListener> matched = null;
+            for (Field field : fields) matched = field.match(json, matched);
+            return matched == null ? Collections.emptyList() : matched;
+        }
+    }
+
+}
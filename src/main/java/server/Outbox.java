@@ -0,0 +1,240 @@
+package server;
+
+import config.OutboxOptions;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import packets.Frame;
+import packets.PacketType;
+import scheduling.Priority;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The durable outbox of a {@link TcpServer}: a {@link Mailbox} per client identity, each backed by a
+ * {@link SegmentLog} in a subdirectory named after the SHA-256 hash of the identity, which keeps the names short
+ * whatever the identity, with the identity itself in a file of the subdirectory. A single daemon thread syncs the
+ * logs written to since its last run, applies the retention limit, and retires the mailboxes that have been
+ * drained, deleting their logs.
+ */
+final class Outbox {
+
+    private static final String CLIENT_ID = "client-id";
+
+    private final OutboxOptions options;
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService syncer;
+
+    /**
+     * Opens the outbox, along with the logs of the clients that still have frames queued
+     *
+     * @param options where the logs are kept and how they are limited
+     * @throws IOException if the directory or one of the logs could not be opened
+     */
+    Outbox(OutboxOptions options) throws IOException {
+        this.options = options;
+        Files.createDirectories(options.getDirectory());
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(options.getDirectory(), Files::isDirectory)) {
+            for (Path directory : directories) {
+                Path file = directory.resolve(CLIENT_ID);
+                if (!Files.isRegularFile(file)) continue;
+                String clientId = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+                if (!directory.getFileName().toString().equals(DigestUtils.sha256Hex(clientId))) continue;
+                Mailbox mailbox = lock(clientId);
+                try { mailbox.open();
+                } finally {
+                    mailbox.unlock();
+                }
+            }
+        }
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tcp-outbox-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        int period = options.getSyncInterval() > 0 ? options.getSyncInterval() : 1000;
+        syncer.scheduleWithFixedDelay(this::maintain, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Locks the mailbox of a client, which must be {@link Mailbox#unlock() unlocked} once done with
+     *
+     * @param clientId the identity of a client
+     * @return the mailbox of the client, which is only opened on disk once something is queued in it
+     */
+    Mailbox lock(String clientId) {
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(clientId, Mailbox::new);
+            mailbox.lock.lock();
+            if (!mailbox.retired) return mailbox;
+            mailbox.lock.unlock(); // drained and removed meanwhile, so the next one is created
+        }
+    }
+
+    /**
+     * Syncs and closes every log
+     */
+    void close() {
+        syncer.shutdownNow();
+        for (Mailbox mailbox : mailboxes.values()) {
+            mailbox.lock.lock();
+            try { mailbox.close();
+            } finally {
+                mailbox.unlock();
+            }
+        }
+    }
+
+    private void maintain() {
+        long cutoff = options.getRetention() == 0 ? Long.MIN_VALUE : System.currentTimeMillis() - options.getRetention();
+        for (Mailbox mailbox : mailboxes.values()) {
+            mailbox.lock.lock();
+            try {
+                if (mailbox.log != null) mailbox.log.expire(cutoff);
+                if (mailbox.isEmpty()) mailbox.retire();
+                else mailbox.log.sync();
+            } finally {
+                mailbox.unlock();
+            }
+        }
+    }
+
+    private static byte[] encode(Frame frame) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(frame.getType().name());
+            out.writeUTF(frame.getPriority().name());
+            out.write(frame.getData().toString().getBytes(StandardCharsets.UTF_8));
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Frame decode(byte[] record) throws IOException {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+            PacketType type = PacketType.valueOf(in.readUTF());
+            Priority priority = Priority.valueOf(in.readUTF());
+            byte[] data = new byte[in.available()];
+            in.readFully(data);
+            return new Frame(type, priority, new JSONObject(new String(data, StandardCharsets.UTF_8)));
+        } catch (IllegalArgumentException | JSONException e) {
+            throw new IOException("Malformed queued frame: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The frames queued for a single client. Callers hold the lock of the mailbox, see {@link #lock(String)},
+     * which also serves to keep the frames sent to a connected client in order with the ones being drained from
+     * its log.
+     */
+    final class Mailbox {
+
+        private final String clientId;
+        private final ReentrantLock lock = new ReentrantLock();
+        private SegmentLog log;
+        private byte[] peeked;
+        private boolean retired;
+
+        private Mailbox(String clientId) {
+            this.clientId = clientId;
+        }
+
+        /**
+         * Releases the mailbox {@link #lock(String)} returned
+         */
+        void unlock() {
+            lock.unlock();
+        }
+
+        /**
+         * @return {@code true} if nothing is queued
+         */
+        boolean isEmpty() {
+            return log == null || log.isEmpty();
+        }
+
+        /**
+         * @param frame the frame to queue
+         * @throws IOException if the frame could not be written, for example because it is larger than a segment
+         */
+        void append(Frame frame) throws IOException {
+            if (log == null) open();
+            log.append(encode(frame));
+            if (options.getSyncInterval() == 0) log.sync();
+        }
+
+        /**
+         * @return the oldest queued frame, without removing it, or {@code null} if nothing is queued;
+         *         frames that cannot be read back are dropped
+         */
+        Frame peek() {
+            while (log != null && (peeked = log.peek()) != null) {
+                try { return decode(peeked);
+                } catch (IOException e) {
+                    log.remove(peeked);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Removes the frame {@link #peek()} returned
+         */
+        void remove() {
+            if (peeked == null) return;
+            log.remove(peeked);
+            peeked = null;
+        }
+
+        private void open() throws IOException {
+            Path directory = Files.createDirectories(directory());
+            Path file = directory.resolve(CLIENT_ID);
+            if (!Files.exists(file)) Files.write(file, clientId.getBytes(StandardCharsets.UTF_8));
+            log = new SegmentLog(directory, options.getSegmentSize(), options.getMaxBytesPerClient());
+        }
+
+        private void close() {
+            if (log != null) log.close();
+            log = null;
+            peeked = null;
+        }
+
+        /**
+         * Deletes the log of a drained mailbox and removes the mailbox, which callers still holding it find out
+         * once they lock it
+         */
+        private void retire() {
+            if (log != null) {
+                close();
+                try (DirectoryStream<Path> files = Files.newDirectoryStream(directory())) {
+                    for (Path file : files) Files.deleteIfExists(file);
+                    Files.deleteIfExists(directory());
+                } catch (IOException ignore) { } // an empty log left behind is retired again after a restart
+            }
+            retired = true;
+            mailboxes.remove(clientId, this);
+        }
+
+        private Path directory() {
+            return options.getDirectory().resolve(DigestUtils.sha256Hex(clientId));
+        }
+    }
+
+}
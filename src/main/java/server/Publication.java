@@ -0,0 +1,65 @@
+package server;
+
+import org.json.JSONObject;
+import scheduling.Priority;
+
+/**
+ * A payload published to a topic with {@link TcpServer#publish(String, JSONObject, Priority)}. The frame is
+ * encoded once and the same line is written to every subscriber whose connection does not encrypt frames;
+ * encrypted connections still need a frame of their own, as each is encrypted for a different key.
+ */
+public final class Publication {
+
+    private final String topic;
+    private final JSONObject payload;
+    private final Priority priority;
+    private final JSONObject body;
+    private volatile String plainFrame;
+
+    Publication(String topic, JSONObject payload, Priority priority) {
+        this.topic = topic;
+        this.payload = payload;
+        this.priority = priority;
+        this.body = new JSONObject().put("topic", topic).put("payload", payload);
+    }
+
+    /**
+     * @return the topic the payload was published to
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @return the published payload
+     */
+    public JSONObject getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return the {@link Priority} of the publication on both ends of each connection
+     */
+    public Priority getPriority() {
+        return priority;
+    }
+
+    /**
+     * @return the content of the frame: the topic and the payload
+     */
+    JSONObject getBody() {
+        return body;
+    }
+
+    /**
+     * @return the unencrypted frame, or {@code null} if it has not been encoded yet
+     */
+    String getPlainFrame() {
+        return plainFrame;
+    }
+
+    void setPlainFrame(String plainFrame) {
+        this.plainFrame = plainFrame;
+    }
+
+}
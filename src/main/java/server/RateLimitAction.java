@@ -0,0 +1,23 @@
+package server;
+
+/**
+ * What a {@link TcpServer} does with inbound traffic that exceeds a configured rate limit
+ */
+public enum RateLimitAction {
+
+    /**
+     * Stops reading from the connection until the limit allows the traffic, which lets TCP flow
+     * control push back on the client. No traffic is lost.
+     */
+    THROTTLE,
+
+    /**
+     * Drops the traffic and tells the client by sending it the {@link #REJECTED_COMMAND} command
+     * with the exceeded limit as its arguments, at most once per second.
+     */
+    REJECT;
+
+    /** The command sent to clients whose traffic was rejected */
+    public static final String REJECTED_COMMAND = "rate_limited";
+
+}
@@ -0,0 +1,264 @@
+package server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only queue of records on memory-mapped segment files of a fixed size, read from the front through a
+ * persisted cursor. Records are written as their length, their CRC-32, and their bytes; a record cut short by a
+ * crash fails its checksum and ends the log when it is opened again. A segment is named after the offset of its
+ * first record, counted in bytes since the log was created, and the cursor file holds the offset of the next
+ * record to read.
+ * <p>
+ * Segments that have been read completely are deleted, as are the oldest segments once the log grows beyond its
+ * size limit or they expire. Writes only reach the page cache until {@link #sync()} forces them to disk.
+ * <p>
+ * Not thread safe; callers synchronize.
+ */
+final class SegmentLog {
+
+    private static final int HEADER = 8;
+    private static final String SUFFIX = ".seg";
+    private static final String CURSOR = "cursor";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final long maxBytes;
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final FileChannel cursorChannel;
+    private final MappedByteBuffer cursor;
+    private long readOffset;
+    private boolean cursorDirty;
+
+    /**
+     * Opens the log in the {@code directory}, creating it if it does not exist yet
+     *
+     * @param directory   the directory holding the segments and the cursor
+     * @param segmentSize the size of each segment file in bytes
+     * @param maxBytes    how many bytes of segments the log may hold before the oldest are dropped
+     * @throws IOException if the log could not be opened
+     */
+    SegmentLog(Path directory, int segmentSize, long maxBytes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.maxBytes = maxBytes;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                long base;
+                try { base = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                segments.put(base, new Segment(file, base));
+            }
+        }
+        cursorChannel = FileChannel.open(directory.resolve(CURSOR),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        cursor = cursorChannel.map(FileChannel.MapMode.READ_WRITE, 0, Long.BYTES);
+        readOffset = cursor.getLong(0);
+        if (segments.isEmpty()) segments.put(readOffset, new Segment(segmentPath(readOffset), readOffset));
+        else if (readOffset < segments.firstKey()) moveCursor(segments.firstKey());
+        Segment tail = segments.lastEntry().getValue();
+        tail.truncate();
+        if (readOffset > tail.base + tail.position) moveCursor(tail.base + tail.position); // records lost in a crash
+    }
+
+    /**
+     * @param record the bytes to append, at most the segment size less 8 bytes
+     * @throws IOException if the record is too large or a new segment could not be created
+     */
+    void append(byte[] record) throws IOException {
+        if (record.length > segmentSize - HEADER)
+            throw new IOException("Record of " + record.length + " bytes exceeds the segment size of " + segmentSize + " bytes");
+        Segment tail = segments.lastEntry().getValue();
+        if (tail.position + HEADER + record.length > segmentSize) tail = roll();
+        tail.write(record);
+    }
+
+    /**
+     * @return the next record, without removing it, or {@code null} if the log is empty
+     */
+    byte[] peek() {
+        while (true) {
+            Map.Entry<Long, Segment> entry = segments.floorEntry(readOffset);
+            Segment segment = entry.getValue();
+            byte[] record = segment.read((int) (readOffset - segment.base));
+            if (record != null) return record;
+            Long next = segments.higherKey(segment.base);
+            if (next == null) return null;
+            moveCursor(next);
+            compact();
+        }
+    }
+
+    /**
+     * Removes the record {@link #peek()} returned
+     *
+     * @param record the record returned by {@link #peek()}
+     */
+    void remove(byte[] record) {
+        moveCursor(readOffset + HEADER + record.length);
+        Segment tail = segments.lastEntry().getValue();
+        if (readOffset == tail.base + tail.position && tail.position > 0) {
+            try { roll(); // start the next burst on a fresh segment so that the drained ones can be deleted
+            } catch (IOException ignore) { }
+        }
+        compact();
+    }
+
+    /**
+     * @return {@code true} if every record has been removed
+     */
+    boolean isEmpty() {
+        return peek() == null;
+    }
+
+    /**
+     * Drops the segments, other than the one being written, whose last write is older than the {@code cutoff}
+     *
+     * @param cutoff the time in milliseconds since the epoch before which segments expire
+     */
+    void expire(long cutoff) {
+        while (segments.size() > 1 && segments.firstEntry().getValue().lastWrite < cutoff) drop(segments.firstKey());
+        if (readOffset < segments.firstKey()) moveCursor(segments.firstKey());
+    }
+
+    /**
+     * Forces the segments and the cursor written to since the last sync to disk
+     */
+    void sync() {
+        for (Segment segment : segments.values()) segment.sync();
+        if (cursorDirty) {
+            cursorDirty = false;
+            cursor.force();
+        }
+    }
+
+    /**
+     * Syncs and closes the files of the log
+     */
+    void close() {
+        sync();
+        for (Segment segment : segments.values()) segment.close();
+        try { cursorChannel.close();
+        } catch (IOException ignore) { }
+    }
+
+    private Segment roll() throws IOException {
+        Segment tail = segments.lastEntry().getValue();
+        long base = tail.base + tail.position;
+        Segment next = new Segment(segmentPath(base), base);
+        segments.put(base, next);
+        while (segments.size() > 1 && (long) segments.size() * segmentSize > maxBytes) drop(segments.firstKey());
+        if (readOffset < segments.firstKey()) moveCursor(segments.firstKey());
+        return next;
+    }
+
+    /**
+     * Deletes the segments that have been read completely
+     */
+    private void compact() {
+        Long current = segments.floorKey(readOffset);
+        while (segments.firstKey() < current) drop(segments.firstKey());
+    }
+
+    private void drop(long base) {
+        Segment segment = segments.remove(base);
+        segment.close();
+        try { Files.deleteIfExists(segment.path);
+        } catch (IOException ignore) { }
+    }
+
+    private void moveCursor(long offset) {
+        readOffset = offset;
+        cursor.putLong(0, offset);
+        cursorDirty = true;
+    }
+
+    private Path segmentPath(long base) {
+        return directory.resolve(String.format("%020d%s", base, SUFFIX));
+    }
+
+    private final class Segment {
+        private final Path path;
+        private final long base;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final CRC32 crc = new CRC32();
+        private int position;
+        private long lastWrite;
+        private boolean dirty;
+
+        private Segment(Path path, long base) throws IOException {
+            this.path = path;
+            this.base = base;
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            this.lastWrite = Files.getLastModifiedTime(path).toMillis();
+            while (read(position) != null) position += HEADER + buffer.getInt(position);
+        }
+
+        private void write(byte[] record) {
+            crc.reset();
+            crc.update(record);
+            buffer.putInt(position + 4, (int) crc.getValue());
+            ByteBuffer target = buffer.duplicate();
+            target.position(position + HEADER);
+            target.put(record);
+            buffer.putInt(position, record.length);
+            position += HEADER + record.length;
+            lastWrite = System.currentTimeMillis();
+            dirty = true;
+        }
+
+        /**
+         * @return the record at the position, or {@code null} if there is none or it is damaged
+         */
+        private byte[] read(int at) {
+            if (at + HEADER > segmentSize) return null;
+            int length = buffer.getInt(at);
+            if (length <= 0 || length > segmentSize - HEADER - at) return null;
+            byte[] record = new byte[length];
+            ByteBuffer source = buffer.duplicate();
+            source.position(at + HEADER);
+            source.get(record);
+            crc.reset();
+            crc.update(record);
+            return (int) crc.getValue() == buffer.getInt(at + 4) ? record : null;
+        }
+
+        /**
+         * Zeroes whatever follows the last intact record, so that a torn write cannot be followed by records
+         * that are appended after it and still pass their checksums
+         */
+        private void truncate() {
+            int at = position;
+            while (at < segmentSize && buffer.get(at) == 0) at++;
+            if (at == segmentSize) return; // nothing was written past the end, which is the usual case
+            for (at = position; at < segmentSize; at++) buffer.put(at, (byte) 0);
+            dirty = true;
+        }
+
+        private void sync() {
+            if (!dirty) return;
+            dirty = false;
+            buffer.force();
+        }
+
+        private void close() {
+            try { channel.close();
+            } catch (IOException ignore) { }
+        }
+    }
+
+}
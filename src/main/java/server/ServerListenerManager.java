@@ -1,39 +1,115 @@
 package server;
 
 import listener_references.*;
+import listeners.Dispatch;
+import listeners.JsonFilter;
+import listeners.Listener;
+import listeners.ServerCommandBatchListener;
 import listeners.ServerCommandListener;
 import listeners.ServerConnectionListener;
+import listeners.ServerJsonBatchListener;
 import listeners.ServerJsonListener;
+import listeners.ServerMessageBatchListener;
 import listeners.ServerMessageListener;
+import listeners.ServerRateLimitListener;
+import logging.Log;
 import org.json.JSONObject;
+import scheduling.InlineWatchdog;
+import scheduling.Priority;
+import scheduling.PriorityTaskQueue;
+import scheduling.Scheduling;
+import tracing.Trace;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 /**
  * A listener manager to manage all the event listeners
  */
 public class ServerListenerManager {
 
-    private ExecutorService executor;
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private volatile ExecutorService executor;
+    private final int threads;
+    private final int queueSize;
+    private final Scheduling scheduling;
+    private InlineWatchdog watchdog;
+    private Dispatch dispatch;
+    private Set<Listener> inlineListeners;
+    private int inlineBudget;
     private volatile List<ServerMessageListener> messageListeners;
     private volatile List<ServerConnectionListener> connectionListeners;
     private volatile List<ServerCommandListener> commandListeners;
     private volatile List<ServerJsonListener> jsonListeners;
+    private volatile List<ServerRateLimitListener> rateLimitListeners;
+    private volatile Map<ServerMessageBatchListener, BatchDispatcher<ServerMessage>> messageBatchListeners;
+    private volatile Map<ServerCommandBatchListener, BatchDispatcher<ServerCommand>> commandBatchListeners;
+    private volatile Map<ServerJsonBatchListener, BatchDispatcher<ServerJson>> jsonBatchListeners;
+    private ScheduledExecutorService batchTimer;
+    private final CommandRouter commandRouter = new CommandRouter();
+    private final JsonRouter jsonRouter = new JsonRouter();
 
     /**
      * Constructs a new {@link ServerListenerManager} with no listeners pre-registered
      */
     public ServerListenerManager() {
-        executor = Executors.newCachedThreadPool();
-        connectionListeners = new ArrayList<>();
-        messageListeners = new ArrayList<>();
-        commandListeners = new ArrayList<>();
-        jsonListeners = new ArrayList<>();
+        this(0, 0);
+    }
+
+    /**
+     * Constructs a new {@link ServerListenerManager} with no listeners pre-registered
+     * @param threads   how many listeners may run at once, or {@code 0} for no limit
+     * @param queueSize how many listener invocations may wait for a thread, or {@code 0} for no limit.
+     *                  Once the queue is full, the thread raising an event runs the listener itself.
+     */
+    public ServerListenerManager(int threads, int queueSize) {
+        this(threads, queueSize, Scheduling.STRICT);
+    }
+
+    /**
+     * Constructs a new {@link ServerListenerManager} with no listeners pre-registered
+     * @param threads    how many listeners may run at once, or {@code 0} for no limit
+     * @param queueSize  how many listener invocations may wait for a thread, or {@code 0} for no limit.
+     *                   Once the queue is full, the thread raising an event runs the listener itself.
+     * @param scheduling the order in which waiting listener invocations of different {@link Priority} classes run
+     */
+    public ServerListenerManager(int threads, int queueSize, Scheduling scheduling) {
+        this(threads, queueSize, scheduling, Dispatch.EXECUTOR, 0);
+    }
+
+    /**
+     * Constructs a new {@link ServerListenerManager} with no listeners pre-registered
+     * @param threads      how many listeners may run at once, or {@code 0} for no limit
+     * @param queueSize    how many listener invocations may wait for a thread, or {@code 0} for no limit.
+     *                     Once the queue is full, the thread raising an event runs the listener itself.
+     * @param scheduling   the order in which waiting listener invocations of different {@link Priority} classes run
+     * @param dispatch     where listeners registered without a {@link Dispatch} of their own run
+     * @param inlineBudget milliseconds an inline listener may run before it is moved to the executor,
+     *                     or {@code 0} to never move one
+     */
+    public ServerListenerManager(int threads, int queueSize, Scheduling scheduling, Dispatch dispatch, int inlineBudget) {
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.scheduling = scheduling;
+        executor = newExecutor(threads, queueSize, scheduling);
+        this.watchdog = new InlineWatchdog(inlineBudget, this::demote);
+        this.dispatch = Objects.requireNonNull(dispatch);
+        this.inlineListeners = ConcurrentHashMap.newKeySet();
+        this.inlineBudget = inlineBudget;
+        connectionListeners = new CopyOnWriteArrayList<>();
+        messageListeners = new CopyOnWriteArrayList<>();
+        commandListeners = new CopyOnWriteArrayList<>();
+        jsonListeners = new CopyOnWriteArrayList<>();
+        rateLimitListeners = new CopyOnWriteArrayList<>();
+        messageBatchListeners = new ConcurrentHashMap<>();
+        commandBatchListeners = new ConcurrentHashMap<>();
+        jsonBatchListeners = new ConcurrentHashMap<>();
     }
 
     /**
@@ -41,7 +117,17 @@ public class ServerListenerManager {
      * @param listener the listener to be added
      */
     public void addMessageListener(ServerMessageListener listener) {
+        addMessageListener(listener, dispatch);
+    }
+
+    /**
+     * Adds the specified {@link ServerMessageListener} to the list
+     * @param listener the listener to be added
+     * @param dispatch where the listener runs
+     */
+    public void addMessageListener(ServerMessageListener listener, Dispatch dispatch) {
         Objects.requireNonNull(listener);
+        register(listener, dispatch);
         messageListeners.add(listener);
     }
 
@@ -52,6 +138,7 @@ public class ServerListenerManager {
     public void removeMessageListener(ServerMessageListener listener) {
         Objects.requireNonNull(listener);
         messageListeners.remove(listener);
+        inlineListeners.remove(listener);
     }
 
     /**
@@ -59,7 +146,17 @@ public class ServerListenerManager {
      * @param listener the listener to be added
      */
     public void addCommandListener(ServerCommandListener listener) {
+        addCommandListener(listener, dispatch);
+    }
+
+    /**
+     * Adds the specified {@link ServerCommandListener} to the list
+     * @param listener the listener to be added
+     * @param dispatch where the listener runs
+     */
+    public void addCommandListener(ServerCommandListener listener, Dispatch dispatch) {
         Objects.requireNonNull(listener);
+        register(listener, dispatch);
         commandListeners.add(listener);
     }
 
@@ -70,6 +167,79 @@ public class ServerListenerManager {
     public void removeCommandListener(ServerCommandListener listener) {
         Objects.requireNonNull(listener);
         commandListeners.remove(listener);
+        inlineListeners.remove(listener);
+    }
+
+    /**
+     * Routes every {@code command} to the specified handler
+     * @param command the name of the command
+     * @param handler the handler to be added
+     * @throws IllegalArgumentException if the command already has a handler
+     */
+    void addCommandHandler(String command, ServerCommandListener handler) {
+        addCommandHandler(command, handler, dispatch);
+    }
+
+    /**
+     * Routes every {@code command} to the specified handler
+     * @param command the name of the command
+     * @param handler the handler to be added
+     * @param dispatch where the handler runs
+     * @throws IllegalArgumentException if the command already has a handler
+     */
+    void addCommandHandler(String command, ServerCommandListener handler, Dispatch dispatch) {
+        commandRouter.add(command, handler);
+        register(handler, dispatch);
+    }
+
+    /**
+     * Routes the commands of each {@link listeners.CommandHandler} method of the {@code target} to that method
+     * @param target the object whose annotated methods handle commands
+     * @throws IllegalArgumentException if a method is not a valid handler or its command already has one,
+     *                                  in which case none of the methods are added
+     */
+    void addCommandHandlers(Object target) {
+        addCommandHandlers(target, dispatch);
+    }
+
+    /**
+     * Routes the commands of each {@link listeners.CommandHandler} method of the {@code target} to that method
+     * @param target   the object whose annotated methods handle commands
+     * @param dispatch where the handlers run
+     * @throws IllegalArgumentException if a method is not a valid handler or its command already has one,
+     *                                  in which case none of the methods are added
+     */
+    void addCommandHandlers(Object target, Dispatch dispatch) {
+        Map<String, ServerCommandListener> handlers = CommandRouter.scan(target);
+        commandRouter.addAll(handlers);
+        handlers.values().forEach(handler -> register(handler, dispatch));
+    }
+
+    /**
+     * Stops routing the {@code command} to its handler
+     * @param command the name of the command
+     */
+    void removeCommandHandler(String command) {
+        ServerCommandListener handler = commandRouter.remove(command);
+        if (handler != null) inlineListeners.remove(handler);
+    }
+
+    /**
+     * Sets the handler of the commands that have no handler of their own
+     * @param fallback the handler, or {@code null} for none
+     */
+    void setCommandFallback(ServerCommandListener fallback) {
+        setCommandFallback(fallback, dispatch);
+    }
+
+    /**
+     * Sets the handler of the commands that have no handler of their own
+     * @param fallback the handler, or {@code null} for none
+     * @param dispatch where the handler runs
+     */
+    void setCommandFallback(ServerCommandListener fallback, Dispatch dispatch) {
+        if (fallback != null) register(fallback, dispatch);
+        commandRouter.setFallback(fallback);
     }
 
     /**
@@ -77,10 +247,42 @@ public class ServerListenerManager {
      * @param listener the listener to be added
      */
     void addJsonListener(ServerJsonListener listener) {
+        addJsonListener(listener, dispatch);
+    }
+
+    /**
+     * Adds the specified {@link ServerJsonListener} to the list
+     * @param listener the listener to be added
+     * @param dispatch where the listener runs
+     */
+    void addJsonListener(ServerJsonListener listener, Dispatch dispatch) {
         Objects.requireNonNull(listener);
+        register(listener, dispatch);
         jsonListeners.add(listener);
     }
 
+    /**
+     * Adds the specified {@link ServerJsonListener}, to be run only for the objects the {@code filter} matches
+     * @param filter   which objects the listener is interested in
+     * @param listener the listener to be added
+     * @param dispatch where the listener runs
+     */
+    void addJsonListener(JsonFilter filter, ServerJsonListener listener, Dispatch dispatch) {
+        Objects.requireNonNull(filter);
+        Objects.requireNonNull(listener);
+        register(listener, dispatch);
+        jsonRouter.add(filter, listener);
+    }
+
+    /**
+     * Adds the specified {@link ServerJsonListener}, to be run only for the objects the {@code filter} matches
+     * @param filter   which objects the listener is interested in
+     * @param listener the listener to be added
+     */
+    void addJsonListener(JsonFilter filter, ServerJsonListener listener) {
+        addJsonListener(filter, listener, dispatch);
+    }
+
     /**
      * Removes the specified {@link ServerJsonListener} from the list
      * @param listener the listener to be removed
@@ -88,6 +290,8 @@ public class ServerListenerManager {
     void removeJsonListener(ServerJsonListener listener) {
         Objects.requireNonNull(listener);
         jsonListeners.remove(listener);
+        jsonRouter.remove(listener);
+        inlineListeners.remove(listener);
     }
 
     /**
@@ -108,25 +312,119 @@ public class ServerListenerManager {
         connectionListeners.remove(listener);
     }
 
+    /**
+     * Adds the specified {@link ServerRateLimitListener} to the list
+     * @param listener the listener to be added
+     */
+    void addRateLimitListener(ServerRateLimitListener listener) {
+        Objects.requireNonNull(listener);
+        rateLimitListeners.add(listener);
+    }
+
+    /**
+     * Removes the specified {@link ServerRateLimitListener} from the list
+     * @param listener the listener to be removed
+     */
+    void removeRateLimitListener(ServerRateLimitListener listener) {
+        Objects.requireNonNull(listener);
+        rateLimitListeners.remove(listener);
+    }
+
+    /**
+     * Adds the specified {@link ServerMessageBatchListener} to the list
+     * @param listener     the listener to be added
+     * @param maxBatchSize the most events passed to the listener at once
+     * @param lingerMillis how long the first event of a batch may wait for more before the batch is passed on anyway
+     */
+    void addMessageBatchListener(ServerMessageBatchListener listener, int maxBatchSize, int lingerMillis) {
+        Objects.requireNonNull(listener);
+        messageBatchListeners.put(listener, batchDispatcher(listener::onMessagesReceived, maxBatchSize, lingerMillis));
+    }
+
+    /**
+     * Removes the specified {@link ServerMessageBatchListener} from the list after passing it the events it still has queued
+     * @param listener the listener to be removed
+     */
+    void removeMessageBatchListener(ServerMessageBatchListener listener) {
+        Objects.requireNonNull(listener);
+        BatchDispatcher<ServerMessage> dispatcher = messageBatchListeners.remove(listener);
+        if (dispatcher != null) dispatcher.flush();
+    }
+
+    /**
+     * Adds the specified {@link ServerCommandBatchListener} to the list
+     * @param listener     the listener to be added
+     * @param maxBatchSize the most events passed to the listener at once
+     * @param lingerMillis how long the first event of a batch may wait for more before the batch is passed on anyway
+     */
+    void addCommandBatchListener(ServerCommandBatchListener listener, int maxBatchSize, int lingerMillis) {
+        Objects.requireNonNull(listener);
+        commandBatchListeners.put(listener, batchDispatcher(listener::onCommandsReceived, maxBatchSize, lingerMillis));
+    }
+
+    /**
+     * Removes the specified {@link ServerCommandBatchListener} from the list after passing it the events it still has queued
+     * @param listener the listener to be removed
+     */
+    void removeCommandBatchListener(ServerCommandBatchListener listener) {
+        Objects.requireNonNull(listener);
+        BatchDispatcher<ServerCommand> dispatcher = commandBatchListeners.remove(listener);
+        if (dispatcher != null) dispatcher.flush();
+    }
+
+    /**
+     * Adds the specified {@link ServerJsonBatchListener} to the list
+     * @param listener     the listener to be added
+     * @param maxBatchSize the most events passed to the listener at once
+     * @param lingerMillis how long the first event of a batch may wait for more before the batch is passed on anyway
+     */
+    void addJsonBatchListener(ServerJsonBatchListener listener, int maxBatchSize, int lingerMillis) {
+        Objects.requireNonNull(listener);
+        jsonBatchListeners.put(listener, batchDispatcher(listener::onJsonReceived, maxBatchSize, lingerMillis));
+    }
+
+    /**
+     * Removes the specified {@link ServerJsonBatchListener} from the list after passing it the events it still has queued
+     * @param listener the listener to be removed
+     */
+    void removeJsonBatchListener(ServerJsonBatchListener listener) {
+        Objects.requireNonNull(listener);
+        BatchDispatcher<ServerJson> dispatcher = jsonBatchListeners.remove(listener);
+        if (dispatcher != null) dispatcher.flush();
+    }
+
     /**
      * Removes every single listener registered to the server
      */
     public void removeAllListeners() {
+        inlineListeners.clear();
         connectionListeners.clear();
         commandListeners.clear();
+        commandRouter.clear();
         messageListeners.clear();
         jsonListeners.clear();
+        jsonRouter.clear();
+        rateLimitListeners.clear();
+        messageBatchListeners.values().forEach(BatchDispatcher::flush);
+        messageBatchListeners.clear();
+        commandBatchListeners.values().forEach(BatchDispatcher::flush);
+        commandBatchListeners.clear();
+        jsonBatchListeners.values().forEach(BatchDispatcher::flush);
+        jsonBatchListeners.clear();
     }
 
     /**
      * Runs each of the {@link ServerMessageListener}s with the {@code message} as input
-     * @param message the {@link MessageImpl} to pass to each of the listeners
+     * @param message  the {@link MessageImpl} to pass to each of the listeners
+     * @param priority the {@link Priority} the listeners are queued with
+     * @param trace    the {@link Trace} timing the listeners, or {@code null}
      */
-    synchronized void raiseMessageEvent(ServerMessage message) {
-        messageListeners.forEach(listener -> executor.submit((Callable<Void>) () -> {
+    void raiseMessageEvent(ServerMessage message, Priority priority, Trace trace) {
+        messageListeners.forEach(listener -> dispatch(listener, priority, trace, () -> {
             listener.onMessageReceived(message);
             return null;
         }));
+        messageBatchListeners.values().forEach(batch -> batch.add(message));
     }
 
     /**
@@ -134,7 +432,7 @@ public class ServerListenerManager {
      * @param connection the {@link ServerConnection} to pass to each of the listeners
      * @param event      the {@link Connection.Event} associated with the connection
      */
-    synchronized void raiseConnectionEvent(ServerConnection connection, Connection.Event event) {
+    void raiseConnectionEvent(ServerConnection connection, Connection.Event event) {
         connectionListeners.forEach(listener -> executor.submit((Callable<Void>) () -> {
             if (event == Connection.Event.CONNECTED) listener.onConnectionCreated(connection);
             if (event == Connection.Event.REMOVED) listener.onConnectionRemoved(connection);
@@ -143,25 +441,131 @@ public class ServerListenerManager {
     }
 
     /**
-     * Runs each of the {@link ServerConnectionListener}s with the {@code command} as input
-     * @param command the {@link CommandImpl} to pass to each of the listeners
+     * Runs each of the {@link ServerConnectionListener}s with the {@code connection} and the {@code error} as input
+     * @param connection the {@link ServerConnection} that failed
+     * @param error      what went wrong
      */
-    synchronized void raiseCommandEvent(ServerCommand command) {
-        commandListeners.forEach(listener -> executor.submit((Callable<Void>) () -> {
+    void raiseConnectionError(ServerConnection connection, Throwable error) {
+        connectionListeners.forEach(listener -> executor.submit((Callable<Void>) () -> {
+            listener.onConnectionError(connection, error);
+            return null;
+        }));
+    }
+
+    /**
+     * Runs the handler the {@code command} is routed to, then each of the {@link ServerCommandListener}s with the {@code command} as input
+     * @param command  the {@link CommandImpl} to pass to each of the listeners
+     * @param priority the {@link Priority} the listeners are queued with
+     * @param trace    the {@link Trace} timing the listeners, or {@code null}
+     */
+    void raiseCommandEvent(ServerCommand command, Priority priority, Trace trace) {
+        ServerCommandListener handler = commandRouter.route(command.getCommand());
+        if (handler != null) dispatch(handler, priority, trace, () -> {
+            handler.onCommandReceived(command);
+            return null;
+        });
+        commandListeners.forEach(listener -> dispatch(listener, priority, trace, () -> {
             listener.onCommandReceived(command);
             return null;
         }));
+        commandBatchListeners.values().forEach(batch -> batch.add(command));
     }
 
     /**
-     * Runs each of the {@link ServerJsonListener}s with the {@code json} as input
-     * @param json the {@link JSONObject} to pass to each of the listeners
+     * Runs each of the {@link ServerJsonListener}s with the {@code json} as input, skipping the filtered ones
+     * whose filter does not match it
+     * @param json     the {@link JSONObject} to pass to each of the listeners
+     * @param priority the {@link Priority} the listeners are queued with
+     * @param trace    the {@link Trace} timing the listeners, or {@code null}
      */
-    synchronized void raiseJsonEvent(ServerJson json) {
-        jsonListeners.forEach(listener -> executor.submit((Callable<Void>) () -> {
+    void raiseJsonEvent(ServerJson json, Priority priority, Trace trace) {
+        jsonListeners.forEach(listener -> dispatch(listener, priority, trace, () -> {
+            listener.onJsonReceived(json);
+            return null;
+        }));
+        for (ServerJsonListener listener : jsonRouter.match(json.getJsonObject())) dispatch(listener, priority, trace, () -> {
             listener.onJsonReceived(json);
             return null;
+        });
+        jsonBatchListeners.values().forEach(batch -> batch.add(json));
+    }
+
+    /**
+     * Runs each of the {@link ServerRateLimitListener}s with the {@code limit} as input
+     * @param limit the {@link ServerRateLimit} to pass to each of the listeners
+     */
+    void raiseRateLimitEvent(ServerRateLimit limit) {
+        rateLimitListeners.forEach(listener -> executor.submit((Callable<Void>) () -> {
+            listener.onRateLimited(limit);
+            return null;
         }));
     }
 
+    /**
+     * Stops watching inline listeners until the next one runs, and lets the listener threads finish the listeners
+     * already queued and exit. The listeners of a restarted server run on a new pool.
+     */
+    void close() {
+        watchdog.close();
+        ExecutorService closed = executor;
+        executor = newExecutor(threads, queueSize, scheduling);
+        closed.shutdown();
+        synchronized (this) {
+            if (batchTimer != null) batchTimer.shutdownNow();
+            batchTimer = null;
+        }
+    }
+
+    private static ExecutorService newExecutor(int threads, int queueSize, Scheduling scheduling) {
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "tcp-server-dispatch-" + THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        if (threads <= 0) // a cached pool, which only rejects tasks once it is shut down
+            return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<>(), factory,
+                    new ThreadPoolExecutor.DiscardPolicy());
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityTaskQueue(scheduling, queueSize), factory, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private synchronized <T> BatchDispatcher<T> batchDispatcher(Consumer<List<T>> listener, int maxBatchSize, int lingerMillis) {
+        if (maxBatchSize <= 0) throw new IllegalArgumentException("maxBatchSize must be greater than 0");
+        if (lingerMillis < 0) throw new IllegalArgumentException("lingerMillis cannot be negative");
+        return new BatchDispatcher<>(listener, maxBatchSize, lingerMillis,
+                task -> executor.execute(new PriorityTaskQueue.Task(Priority.NORMAL, () -> {
+                    task.run();
+                    return null;
+                })), this::batchTimer);
+    }
+
+    /**
+     * @return the timer ending the linger time of batches, which is started again after {@link #close()}
+     */
+    private synchronized ScheduledExecutorService batchTimer() {
+        if (batchTimer == null) batchTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "batch-linger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        return batchTimer;
+    }
+
+    private void register(Listener listener, Dispatch dispatch) {
+        if (Objects.requireNonNull(dispatch) == Dispatch.INLINE) inlineListeners.add(listener);
+        else inlineListeners.remove(listener);
+    }
+
+    private void dispatch(Listener listener, Priority priority, Trace trace, Callable<Void> task) {
+        if (trace != null) task = trace.handler(task);
+        if (inlineListeners.contains(listener)) watchdog.run(listener, task);
+        else executor.execute(new PriorityTaskQueue.Task(priority, task));
+    }
+
+    private void demote(Object listener, Thread thread) {
+        if (!inlineListeners.remove(listener)) return;
+        Log.warn("server", "Listener " + listener.getClass().getName() + " exceeded its inline budget of "
+                + inlineBudget + " ms on " + thread.getName() + " and is dispatched on the executor from now on");
+    }
+
 }
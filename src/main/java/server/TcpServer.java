@@ -1,80 +1,143 @@
 package server;
 
+import cryptography.HandshakeCookie;
 import cryptography.HybridCryptography;
 import cryptography.SecuredGCMUsage;
 import listener_references.ServerCommand;
 import listener_references.ServerConnection;
+import listener_references.ServerInbound;
 import listener_references.ServerJson;
 import listener_references.ServerMessage;
+import listener_references.ServerRateLimit;
+import listeners.Dispatch;
+import listeners.JsonFilter;
+import listeners.ServerCommandBatchListener;
 import listeners.ServerCommandListener;
 import listeners.ServerConnectionListener;
+import listeners.ServerJsonBatchListener;
 import listeners.ServerJsonListener;
+import listeners.ServerMessageBatchListener;
 import listeners.ServerMessageListener;
+import listeners.ServerRateLimitListener;
+import local.LocalChannel;
+import local.LocalTransport;
+import local.LocalWriter;
+import logging.Log;
 import org.apache.commons.codec.binary.Base64;
+import org.json.JSONException;
 import org.json.JSONObject;
+import packets.AckedDelivery;
+import packets.Capabilities;
 import packets.CommandPacket;
+import packets.Frame;
+import packets.Hello;
 import packets.PacketType;
+import scheduling.Heartbeats;
+import scheduling.OrderedPipeline;
+import scheduling.Priority;
+import scheduling.PriorityWriter;
+import tracing.Trace;
+import tracing.TraceSink;
+import unix.UnixDomainSockets;
+import unix.UnixServerSocket;
+import unix.UnixSocket;
 
 import javax.crypto.spec.GCMParameterSpec;
+import javax.naming.InvalidNameException;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSocket;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintWriter;
 import java.net.*;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Path;
 import java.security.*;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
 import java.security.spec.InvalidKeySpecException;
 import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.Predicate;
 
 public class TcpServer implements AutoCloseable, Runnable {
 
     private ServerListenerManager listenerManager;
+    private HandshakeExecutor handshakeExecutor;
     private ExecutorService executorService;
     private ExecutorService threadPool;
-    private ServerSocket serverSocket;
-    private InetAddress inetAddress;
+    private ExecutorService decryptPool;
+    private InboundRateLimiter.Addresses rateLimitedAddresses;
+    private List<ServerSocket> serverSockets;
+    private TcpServerConfig config;
     private KeyPair serverKeys;
-    private boolean alive;
-    private int backlog;
-    private int timeout;
-    private int port;
+    private Capabilities capabilities;
+    private Capabilities plaintextCapabilities;
+    private volatile boolean alive;
+    private final List<InboundSubscription> subscriptions = new CopyOnWriteArrayList<>();
+    private final Set<LocalChannel> localChannels = ConcurrentHashMap.newKeySet();
+    private final TopicIndex topics = new TopicIndex();
+    private final Map<String, ServerConnection> identified = new ConcurrentHashMap<>();
+    private final Map<String, AckedDelivery> deliveries = new ConcurrentHashMap<>();
+    private volatile long deliverySweep = System.nanoTime();
+    private Outbox outbox;
+    private Capture capture;
+    private final Predicate<LocalChannel> localAcceptor = this::acceptLocal;
+    private long rejectedHandshakes;
 
     /**
-     * @param port port number that the server is to connect to
+     * @param config the {@link TcpServerConfig} describing where the server listens and how it is tuned
      */
-    public TcpServer(int port) {
-        listenerManager = new ServerListenerManager();
+    public TcpServer(TcpServerConfig config) {
+        this.config = Objects.requireNonNull(config, "config cannot be null");
+        listenerManager = new ServerListenerManager(config.getDispatchThreads(), config.getDispatchQueueSize(), config.getScheduling(),
+                config.getDispatch(), config.getInlineBudget());
+        rateLimitedAddresses = InboundRateLimiter.isEnabled(config) ? new InboundRateLimiter.Addresses(config) : null;
         executorService = null;
-        serverSocket = null;
-        inetAddress = null;
+        serverSockets = null;
         threadPool = null;
         serverKeys = null;
-        this.port = port;
-        this.timeout = 0;
-        this.backlog = 0;
         alive = false;
     }
 
+    /**
+     * @param config           the {@link TcpServerConfig} describing where the server listens and how it is tuned
+     * @param startImmediately should the server immediately connect and start
+     * @throws ServerException if something went wrong during the startup process
+     */
+    public TcpServer(TcpServerConfig config, boolean startImmediately) throws ServerException {
+        this(config);
+        if (startImmediately) start().join();
+    }
+
+    /**
+     * @param port port number that the server is to connect to
+     */
+    public TcpServer(int port) {
+        this(legacyConfig(port, 0, 0, null));
+    }
+
     /**
      * @param port    port number that the server is to connect to
      * @param timeout how many milliseconds of zero activity until a client is automatically disconnected
      */
     public TcpServer(int port, int timeout) {
-        listenerManager = new ServerListenerManager();
-        this.timeout = timeout > 0 ? timeout : 0;
-        executorService = null;
-        serverSocket = null;
-        inetAddress = null;
-        threadPool = null;
-        serverKeys = null;
-        this.port = port;
-        this.backlog = 0;
-        alive = false;
+        this(legacyConfig(port, timeout, 0, null));
     }
 
     /**
@@ -83,16 +146,7 @@ public class TcpServer implements AutoCloseable, Runnable {
      * @param backLog how many connections are allowed
      */
     public TcpServer(int port, int timeout, int backLog) {
-        listenerManager = new ServerListenerManager();
-        this.timeout = timeout > 0 ? timeout : 0;
-        executorService = null;
-        this.backlog = backLog;
-        serverSocket = null;
-        inetAddress = null;
-        threadPool = null;
-        serverKeys = null;
-        this.port = port;
-        alive = false;
+        this(legacyConfig(port, timeout, backLog, null));
     }
 
     /**
@@ -102,16 +156,7 @@ public class TcpServer implements AutoCloseable, Runnable {
      * @param bindAddr the local InetAddress the server will bind to. Leave null if you want to use "localhost"
      */
     public TcpServer(int port, int timeout, int backLog, InetAddress bindAddr) {
-        listenerManager = new ServerListenerManager();
-        this.timeout = timeout > 0 ? timeout : 0;
-        this.inetAddress = bindAddr;
-        executorService = null;
-        this.backlog = backLog;
-        serverSocket = null;
-        threadPool = null;
-        serverKeys = null;
-        this.port = port;
-        alive = false;
+        this(legacyConfig(port, timeout, backLog, bindAddr));
     }
 
     /**
@@ -122,18 +167,7 @@ public class TcpServer implements AutoCloseable, Runnable {
      * @throws ServerException if something went wrong during the startup process
      */
     public TcpServer(int port, int timeout, int backLog, boolean startImmediately) throws ServerException {
-        listenerManager = new ServerListenerManager();
-        this.timeout = timeout > 0 ? timeout : 0;
-        executorService = null;
-        this.backlog = backLog;
-        serverSocket = null;
-        inetAddress = null;
-        threadPool = null;
-        serverKeys = null;
-        this.port = port;
-        alive = false;
-
-        if (startImmediately) start().join();
+        this(legacyConfig(port, timeout, backLog, null), startImmediately);
     }
 
     /**
@@ -145,25 +179,55 @@ public class TcpServer implements AutoCloseable, Runnable {
      * @throws ServerException if something went wrong during the startup process
      */
     public TcpServer(int port, int timeout, int backLog, InetAddress bindAddr, boolean startImmediately) throws ServerException {
-        listenerManager = new ServerListenerManager();
-        this.timeout = timeout > 0 ? timeout : 0;
-        this.inetAddress = bindAddr;
-        executorService = null;
-        this.backlog = backLog;
-        serverSocket = null;
-        threadPool = null;
-        serverKeys = null;
-        this.port = port;
-        alive = false;
+        this(legacyConfig(port, timeout, backLog, bindAddr), startImmediately);
+    }
 
-        if (startImmediately) start().join();
+    /**
+     * Builds the configuration the original constructors describe, where {@code backLog}
+     * limits both the accept queue and the number of connections served at once
+     */
+    private static TcpServerConfig legacyConfig(int port, int timeout, int backLog, InetAddress bindAddr) {
+        return TcpServerConfig.builder(port)
+                .bindAddress(bindAddr)
+                .idleTimeout(Math.max(timeout, 0))
+                .acceptBacklog(Math.max(backLog, 0))
+                .workerThreads(Math.max(backLog, 0))
+                .build();
+    }
+
+    /**
+     * @return the {@link TcpServerConfig} the server was created with
+     */
+    public TcpServerConfig getConfig() {
+        return config;
     }
 
     /**
      * @return the {@link InetAddress} of the server
      */
     public InetAddress getSocketAddress() {
-        return serverSocket.getInetAddress();
+        return serverSockets.get(0).getInetAddress();
+    }
+
+    /**
+     * @return every local address and port the server is listening on, starting with
+     *         the one given to the constructor, or an empty list if the server is not running
+     */
+    public List<InetSocketAddress> getBoundAddresses() {
+        List<InetSocketAddress> bound = new ArrayList<>();
+        if (serverSockets == null) return bound;
+        for (ServerSocket socket : serverSockets) {
+            InetSocketAddress address = (InetSocketAddress) socket.getLocalSocketAddress();
+            if (address != null && !bound.contains(address)) bound.add(address);
+        }
+        return bound;
+    }
+
+    /**
+     * @return how many connections have been closed without a handshake because the server was at its handshake limits
+     */
+    public long getRejectedHandshakeCount() {
+        return rejectedHandshakes + (handshakeExecutor == null ? 0 : handshakeExecutor.getRejectedCount());
     }
 
     /**
@@ -172,31 +236,136 @@ public class TcpServer implements AutoCloseable, Runnable {
      * @return an empty {@link CompletableFuture<Void>} when the server has finished starting up
      * @throws ServerException if something goes wrong during startup
      */
-    public CompletableFuture<Void> start() throws ServerException {
+    public synchronized CompletableFuture<Void> start() throws ServerException {
         if (alive) throw new ServerException("Server is already running");
-        try { serverKeys = HybridCryptography.generateKeys();
+        try { serverKeys = HybridCryptography.generateKeys(config.getKeySize());
         } catch (NoSuchAlgorithmException e) {
             throw new ServerException("Unable to generate async encryption keys: " + e.getMessage());
         }
         if (serverKeys == null) throw new ServerException("Failed to generate async encryption keys");
+        capabilities = new Capabilities(Collections.emptySet(), Collections.singleton(Capabilities.JSON_CODEC),
+                config.getMaxFrameSize(), config.getHeartbeatInterval());
+        plaintextCapabilities = new Capabilities(Collections.emptySet(),
+                new LinkedHashSet<>(Arrays.asList(Capabilities.PLAIN_CODEC, Capabilities.JSON_CODEC)),
+                config.getMaxFrameSize(), config.getHeartbeatInterval());
+        if (config.getOutbox() != null) {
+            try { outbox = new Outbox(config.getOutbox());
+            } catch (IOException e) {
+                throw new ServerException("Failed to open the outbox: " + e.getMessage());
+            }
+        }
+        if (config.getCaptureFile() != null) {
+            try { capture = new Capture(config.getCaptureFile(), config.getCaptureSize());
+            } catch (IOException e) {
+                if (outbox != null) outbox.close();
+                throw new ServerException("Failed to open the capture: " + e.getMessage());
+            }
+        }
+        List<InetSocketAddress> endpoints = new ArrayList<>();
+        endpoints.add(new InetSocketAddress(config.getBindAddress(), config.getPort()));
+        endpoints.addAll(config.getExtraEndpoints());
+        List<ServerSocket> acceptSockets = new ArrayList<>();
+        serverSockets = new ArrayList<>();
         try {
-            serverSocket = new ServerSocket(port, backlog, inetAddress);
+            for (InetSocketAddress endpoint : endpoints) bind(endpoint, acceptSockets);
+            if (config.getUnixSocket() != null) {
+                UnixServerSocket socket = UnixDomainSockets.bind(config.getUnixSocket(), config.getAcceptBacklog());
+                serverSockets.add(socket);
+                acceptSockets.add(socket);
+            }
         } catch (IOException ioe) {
+            closeServerSockets();
+            if (outbox != null) outbox.close();
+            if (capture != null) capture.close();
             throw new ServerException("Failed to create server: " + ioe.getMessage());
         }
         alive = true;
-        if (backlog > 0) threadPool = Executors.newFixedThreadPool(backlog);
+        if (config.getWorkerThreads() > 0) threadPool = new ThreadPoolExecutor(config.getWorkerThreads(), config.getWorkerThreads(),
+                0L, TimeUnit.MILLISECONDS, config.getWorkerQueueSize() > 0
+                        ? new ArrayBlockingQueue<>(config.getWorkerQueueSize()) : new LinkedBlockingQueue<>());
         else threadPool = Executors.newCachedThreadPool();
-        executorService = Executors.newSingleThreadExecutor();
+        decryptPool = config.getDecryptThreads() > 0 ? Executors.newFixedThreadPool(config.getDecryptThreads()) : null;
+        if (handshakeExecutor != null) rejectedHandshakes += handshakeExecutor.getRejectedCount();
+        handshakeExecutor = new HandshakeExecutor(config.getHandshakeThreads(), config.getHandshakeQueueSize(),
+                config.getHandshakeRate(), config.getHandshakeTimeout());
+        executorService = Executors.newFixedThreadPool(acceptSockets.size());
         executorService.submit(this);
+        for (ServerSocket socket : acceptSockets.subList(1, acceptSockets.size()))
+            executorService.submit(() -> accept(socket));
+        if (config.getLocalName() != null) {
+            try { LocalTransport.bind(config.getLocalName(), localAcceptor);
+            } catch (IOException e) {
+                close();
+                throw new ServerException("Failed to create server: " + e.getMessage());
+            }
+        }
         return CompletableFuture.completedFuture(null);
     }
 
+    /**
+     * Opens the listening sockets of an endpoint and adds one entry per acceptor thread to {@code acceptSockets}
+     *
+     * @param endpoint      the local address and port to listen on
+     * @param acceptSockets the socket each acceptor thread should accept connections from
+     * @throws IOException if the endpoint could not be bound
+     */
+    private void bind(InetSocketAddress endpoint, List<ServerSocket> acceptSockets) throws IOException {
+        int acceptorThreads = config.getAcceptorThreads();
+        if (!config.isReusePort() || acceptorThreads == 1 || !supportsReusePort() || config.getTls() != null) {
+            ServerSocket socket;
+            if (config.getTls() != null) {
+                socket = config.getTls().getContext().getServerSocketFactory().createServerSocket();
+                config.getTls().apply((SSLServerSocket) socket);
+            } else socket = new ServerSocket();
+            serverSockets.add(socket);
+            config.getSocketOptions().applyBeforeBind(socket);
+            socket.bind(endpoint, config.getAcceptBacklog());
+            acceptSockets.addAll(Collections.nCopies(acceptorThreads, socket));
+            return;
+        }
+        for (int i = 0; i < acceptorThreads; i++) {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            serverSockets.add(channel.socket());
+            channel.setOption(reusePortOption(channel), true);
+            config.getSocketOptions().applyBeforeBind(channel.socket());
+            channel.bind(endpoint, config.getAcceptBacklog());
+            // every following socket has to share the port the first one actually got
+            endpoint = (InetSocketAddress) channel.getLocalAddress();
+            acceptSockets.add(channel.socket());
+        }
+    }
+
+    private static boolean supportsReusePort() {
+        try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+            return reusePortOption(channel) != null;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Looks {@code SO_REUSEPORT} up by name, as it only exists from Java 9 onwards
+     *
+     * @param channel the channel that should support the option
+     * @return the option, or {@code null} if the channel does not support it
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption(NetworkChannel channel) {
+        for (SocketOption<?> option : channel.supportedOptions())
+            if (option.name().equals("SO_REUSEPORT") && option.type() == Boolean.class)
+                return (SocketOption<Boolean>) option;
+        return null;
+    }
+
     @SuppressWarnings("unused")
     public void addMessageListener(ServerMessageListener listener) {
         listenerManager.addMessageListener(listener);
     }
     @SuppressWarnings("unused")
+    public void addMessageListener(ServerMessageListener listener, Dispatch dispatch) {
+        listenerManager.addMessageListener(listener, dispatch);
+    }
+    @SuppressWarnings("unused")
     public void removeMessageListener(ServerMessageListener listener) {
         listenerManager.removeMessageListener(listener);
     }
@@ -205,9 +374,61 @@ public class TcpServer implements AutoCloseable, Runnable {
         listenerManager.addCommandListener(listener);
     }
     @SuppressWarnings("unused")
+    public void addCommandListener(ServerCommandListener listener, Dispatch dispatch) {
+        listenerManager.addCommandListener(listener, dispatch);
+    }
+    @SuppressWarnings("unused")
     public void removeCommandListener(ServerCommandListener listener) {
         listenerManager.removeCommandListener(listener);
     }
+    /**
+     * Routes every {@code command} to the {@code handler} alone, with a single lookup and a single dispatch,
+     * instead of offering it to every {@link ServerCommandListener}. Command listeners still receive it too.
+     *
+     * @param command the name of the command
+     * @param handler the handler of the command
+     * @throws IllegalArgumentException if the command already has a handler
+     */
+    @SuppressWarnings("unused")
+    public void addCommandHandler(String command, ServerCommandListener handler) {
+        listenerManager.addCommandHandler(command, handler);
+    }
+    @SuppressWarnings("unused")
+    public void addCommandHandler(String command, ServerCommandListener handler, Dispatch dispatch) {
+        listenerManager.addCommandHandler(command, handler, dispatch);
+    }
+    /**
+     * Routes the commands of each {@link listeners.CommandHandler} method of the {@code target} to that method.
+     * The methods are found once, here, so handling a command costs no reflection.
+     *
+     * @param target the object whose annotated methods handle commands
+     * @throws IllegalArgumentException if a method does not take a single {@link ServerCommand} or its
+     *                                  command already has a handler, in which case none are added
+     */
+    @SuppressWarnings("unused")
+    public void addCommandHandlers(Object target) {
+        listenerManager.addCommandHandlers(target);
+    }
+    @SuppressWarnings("unused")
+    public void addCommandHandlers(Object target, Dispatch dispatch) {
+        listenerManager.addCommandHandlers(target, dispatch);
+    }
+    @SuppressWarnings("unused")
+    public void removeCommandHandler(String command) {
+        listenerManager.removeCommandHandler(command);
+    }
+    /**
+     * @param fallback the handler of commands that have no handler of their own, or {@code null} (the default)
+     *                 to leave them to the {@link ServerCommandListener}s alone
+     */
+    @SuppressWarnings("unused")
+    public void setCommandFallback(ServerCommandListener fallback) {
+        listenerManager.setCommandFallback(fallback);
+    }
+    @SuppressWarnings("unused")
+    public void setCommandFallback(ServerCommandListener fallback, Dispatch dispatch) {
+        listenerManager.setCommandFallback(fallback, dispatch);
+    }
     @SuppressWarnings("unused")
     public void addConnectionListener(ServerConnectionListener listener) {
         listenerManager.addConnectionListener(listener);
@@ -221,33 +442,547 @@ public class TcpServer implements AutoCloseable, Runnable {
         listenerManager.addJsonListener(listener);
     }
     @SuppressWarnings("unused")
+    public void addJsonListener(ServerJsonListener listener, Dispatch dispatch) {
+        listenerManager.addJsonListener(listener, dispatch);
+    }
+    /**
+     * Adds a {@link ServerJsonListener} that only runs for the objects the {@code filter} matches. The filters of
+     * all such listeners are indexed together and evaluated once per object, and an object no filter matches
+     * costs no dispatch at all.
+     *
+     * @param filter   which objects the listener is interested in
+     * @param listener the listener to be added
+     */
+    @SuppressWarnings("unused")
+    public void addJsonListener(JsonFilter filter, ServerJsonListener listener) {
+        listenerManager.addJsonListener(filter, listener);
+    }
+    @SuppressWarnings("unused")
+    public void addJsonListener(JsonFilter filter, ServerJsonListener listener, Dispatch dispatch) {
+        listenerManager.addJsonListener(filter, listener, dispatch);
+    }
+    @SuppressWarnings("unused")
     public void removeJsonListener(ServerJsonListener listener) {
         listenerManager.removeJsonListener(listener);
     }
     @SuppressWarnings("unused")
+    public void addMessageBatchListener(ServerMessageBatchListener listener, int maxBatchSize, int lingerMillis) {
+        listenerManager.addMessageBatchListener(listener, maxBatchSize, lingerMillis);
+    }
+    @SuppressWarnings("unused")
+    public void removeMessageBatchListener(ServerMessageBatchListener listener) {
+        listenerManager.removeMessageBatchListener(listener);
+    }
+    @SuppressWarnings("unused")
+    public void addCommandBatchListener(ServerCommandBatchListener listener, int maxBatchSize, int lingerMillis) {
+        listenerManager.addCommandBatchListener(listener, maxBatchSize, lingerMillis);
+    }
+    @SuppressWarnings("unused")
+    public void removeCommandBatchListener(ServerCommandBatchListener listener) {
+        listenerManager.removeCommandBatchListener(listener);
+    }
+    @SuppressWarnings("unused")
+    public void addJsonBatchListener(ServerJsonBatchListener listener, int maxBatchSize, int lingerMillis) {
+        listenerManager.addJsonBatchListener(listener, maxBatchSize, lingerMillis);
+    }
+    @SuppressWarnings("unused")
+    public void removeJsonBatchListener(ServerJsonBatchListener listener) {
+        listenerManager.removeJsonBatchListener(listener);
+    }
+    @SuppressWarnings("unused")
+    public void addRateLimitListener(ServerRateLimitListener listener) {
+        listenerManager.addRateLimitListener(listener);
+    }
+    @SuppressWarnings("unused")
+    public void removeRateLimitListener(ServerRateLimitListener listener) {
+        listenerManager.removeRateLimitListener(listener);
+    }
+    @SuppressWarnings("unused")
     public void removeAllListeners() {
         listenerManager.removeAllListeners();
     }
 
+    /**
+     * Every frame any connection receives from now on is passed to each subscriber of the returned publisher,
+     * in addition to the listeners. A connection with a frame for a subscriber that has not requested one
+     * stops reading until it does, so a slow subscriber slows down the clients instead of queueing their frames.
+     * Subscriptions complete once the server is closed.
+     *
+     * @return a {@link Flow.Publisher} of the frames received by every connection
+     */
+    public Flow.Publisher<ServerInbound> publisher() {
+        return subscriber -> subscribe(subscriber, null);
+    }
+
+    /**
+     * Like {@link #publisher()}, but only for the frames of a single connection. Subscriptions complete once
+     * the connection is closed.
+     *
+     * @param connection the connection whose frames are published
+     * @return a {@link Flow.Publisher} of the frames received by the {@code connection}
+     */
+    public Flow.Publisher<ServerInbound> publisher(ServerConnection connection) {
+        Objects.requireNonNull(connection, "connection cannot be null");
+        return subscriber -> subscribe(subscriber, connection);
+    }
+
+    private void subscribe(Flow.Subscriber<? super ServerInbound> subscriber, ServerConnection connection) {
+        Objects.requireNonNull(subscriber, "subscriber cannot be null");
+        InboundSubscription[] subscription = new InboundSubscription[1];
+        subscription[0] = new InboundSubscription(subscriber, connection, () -> subscriptions.remove(subscription[0]));
+        subscriptions.add(subscription[0]);
+        subscription[0].start();
+        if (connection != null && connection.isClosed()) subscription[0].complete();
+    }
+
+    /**
+     * Passes a received frame to every subscriber it is meant for, waiting for each of them to request it
+     *
+     * @param inbound the received frame
+     * @throws InterruptedException if interrupted while waiting for a subscriber
+     */
+    private void publish(ServerInbound inbound) throws InterruptedException {
+        for (InboundSubscription subscription : subscriptions)
+            if (subscription.accepts(inbound)) subscription.offer(inbound);
+    }
+
+    /**
+     * Accepts connections on the first endpoint until the server is closed. The server runs this
+     * on its own once started, next to one more acceptor for every additional thread and endpoint.
+     */
     @Override
     public void run() {
+        accept(serverSockets.get(0));
+    }
+
+    private void accept(ServerSocket serverSocket) {
         try {
             while (alive) {
-                ClientConnection connection = new ClientConnection(this, serverSocket.accept(), timeout);
-                try { threadPool.execute(connection);
-                } catch (Exception e) {
-                    connection.close();
-                    if (!e.getMessage().equals("Socket is closed"))
-                        e.printStackTrace();
+                Socket socket = serverSocket.accept();
+                ClientConnection connection;
+                try { connection = new ClientConnection(this, socket, config.getIdleTimeout());
+                } catch (IOException e) {
+                    socket.close();
+                    continue;
                 }
+                handshakeExecutor.submit(connection::handshake, connection::close);
             }
         } catch (IOException e) {
-            if (!e.getMessage().equals("socket closed"))
-                e.printStackTrace();
+            if (alive) Log.error("server", "Stopped accepting connections", e);
         }
         close();
     }
 
+    /**
+     * Takes the server end of a new in-JVM connection and serves it on the thread pool serving established
+     * connections. There is no handshake, since both ends run in the same JVM.
+     *
+     * @param channel the server end of the connection
+     * @return {@code false} if the server is closed or out of threads
+     */
+    private boolean acceptLocal(LocalChannel channel) {
+        if (!alive) return false;
+        ServerConnection connection = new ServerConnection(this, null, null, channel.getWriter(), Hello.VERSION, Capabilities.LOCAL);
+        localChannels.add(channel);
+        try { threadPool.execute(() -> serveLocal(channel, connection));
+        } catch (RejectedExecutionException e) {
+            localChannels.remove(channel);
+            return false;
+        }
+        return true;
+    }
+
+    private void serveLocal(LocalChannel channel, ServerConnection connection) {
+        int captured = capture == null ? 0 : capture.connection();
+        try {
+            listenerManager.raiseConnectionEvent(connection, ServerConnection.Event.CONNECTED);
+            if (capture != null) capture.event(captured, Capture.CONNECTED);
+            Frame frame;
+            while ((frame = channel.receive()) != null) {
+                if (capture != null) capture.frame(captured, frame.getType(), frame.getPriority(), frame.getData());
+                Trace trace = config.getTraceSink() == null ? null : trace(null, frame.getType(), connection, System.nanoTime());
+                if (!dispatch(frame.getType(), frame.getData(), frame.getPriority(), connection, trace)) break;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            Log.error("server", "Failed to serve an in-JVM connection", e);
+            listenerManager.raiseConnectionError(connection, e);
+        }
+        channel.close();
+        localChannels.remove(channel);
+        topics.unsubscribeAll(connection);
+        for (InboundSubscription subscription : subscriptions)
+            if (subscription.isFor(connection)) subscription.complete();
+        if (capture != null) capture.event(captured, Capture.REMOVED);
+        listenerManager.raiseConnectionEvent(connection, ServerConnection.Event.REMOVED);
+    }
+
+    /**
+     * Feeds a capture recorded with {@link TcpServerConfig.Builder#capture(Path, int)} back into the listeners,
+     * publishers, and topic subscriptions of this server, as if the captured clients were sending the frames again.
+     * Each captured connection is stood in for by a {@link ServerConnection#isReplayed() replayed}
+     * {@link ServerConnection} without a socket, whose connection events are raised like those of a real one and
+     * which discards whatever is sent to it. The server does not
+     * need to be started, so a capture can be replayed against handlers under test with no clients at all.
+     * <p>
+     * The frames are dispatched on the calling thread, and this returns once the last one has been handed to the
+     * listeners, which may still be processing it.
+     *
+     * @param capture  the capture file
+     * @param realTime {@code true} to keep the time that passed between the captured frames,
+     *                 {@code false} to replay them as fast as possible
+     * @return how many frames were replayed
+     * @throws ServerException if the capture cannot be read
+     * @throws InterruptedException if interrupted while waiting for the time of a frame or for a subscriber
+     */
+    public long replay(Path capture, boolean realTime) throws ServerException, InterruptedException {
+        Objects.requireNonNull(capture, "capture cannot be null");
+        Map<Integer, ServerConnection> connections = new HashMap<>();
+        long frames = 0;
+        try (Capture.Reader reader = Capture.read(capture)) {
+            long started = System.nanoTime(), first = -1;
+            Capture.Record record;
+            while ((record = reader.next()) != null) {
+                if (first < 0) first = record.nanos;
+                long wait = (record.nanos - first) - (System.nanoTime() - started);
+                if (realTime && wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                ServerConnection connection = connections.get(record.connection);
+                if (connection == null) { // the ring may have overwritten the start of the connection
+                    connection = new ServerConnection(this, null, null, null, Hello.VERSION, Capabilities.REPLAY);
+                    connections.put(record.connection, connection);
+                    listenerManager.raiseConnectionEvent(connection, ServerConnection.Event.CONNECTED);
+                }
+                if (record.kind == Capture.REMOVED) {
+                    unreplay(connections.remove(record.connection));
+                } else if (record.kind != Capture.CONNECTED) {
+                    dispatch(record.getType(), record.getData(), record.priority, connection, null);
+                    frames++;
+                }
+            }
+        } catch (IOException | JSONException e) {
+            throw new ServerException("Failed to read the capture: " + e.getMessage());
+        } finally {
+            connections.values().forEach(this::unreplay);
+        }
+        return frames;
+    }
+
+    private void unreplay(ServerConnection connection) {
+        topics.unsubscribeAll(connection);
+        for (InboundSubscription subscription : subscriptions)
+            if (subscription.isFor(connection)) subscription.complete();
+        listenerManager.raiseConnectionEvent(connection, ServerConnection.Event.REMOVED);
+    }
+
+    /**
+     * Raises and publishes the event of a frame received from a client
+     *
+     * @param type       what kind of packet the frame carries
+     * @param data       the decrypted content of the frame
+     * @param priority   the {@link Priority} the client sent the frame with
+     * @param connection the connection the frame was received through
+     * @param trace      the {@link Trace} of the frame if it was sampled, or {@code null}
+     * @return {@code false} if the client asked to be disconnected
+     * @throws InterruptedException if interrupted while waiting for a subscriber
+     */
+    private boolean dispatch(PacketType type, JSONObject data, Priority priority, ServerConnection connection, Trace trace)
+            throws InterruptedException {
+        if (trace != null) trace.queued();
+        try {
+            switch (type) {
+                case TEXT:
+                    ServerMessage message = new ServerMessage(data.getString("text"), connection);
+                    listenerManager.raiseMessageEvent(message, priority, trace);
+                    publish(message);
+                    break;
+                case COMMAND:
+                    String command = data.getString("command");
+                    String arguments = data.getString("arguments");
+                    CommandPacket cPacket = new CommandPacket(command, arguments);
+                    if (cPacket.getCommand().equals("sudo")) {
+                        if (cPacket.getArguments().equals("disconnect")) return false;
+                    } else {
+                        ServerCommand serverCommand = new ServerCommand(cPacket, connection);
+                        listenerManager.raiseCommandEvent(serverCommand, priority, trace);
+                        publish(serverCommand);
+                    }
+                    break;
+                case JSON:
+                    ServerJson json = new ServerJson(data, connection);
+                    listenerManager.raiseJsonEvent(json, priority, trace);
+                    publish(json);
+                    break;
+                case SUBSCRIBE: // patterns a client should have refused to send are ignored
+                    String pattern = data.getString("pattern");
+                    if (TopicIndex.isValidPattern(pattern)) topics.subscribe(pattern, connection);
+                    break;
+                case UNSUBSCRIBE:
+                    topics.unsubscribe(data.getString("pattern"), connection);
+                    break;
+            }
+            return true;
+        } finally {
+            if (trace != null) trace.release();
+        }
+    }
+
+    /**
+     * Starts the {@link Trace} of a received frame, if the server samples it, or the client did and the server
+     * {@link TcpServerConfig#isTraceClientSamples() traces what clients sample}
+     *
+     * @param packet     the packet the frame was received in, whose header may carry a trace id,
+     *                   or {@code null} for a frame passed in the same JVM
+     * @param type       what kind of packet the frame carries
+     * @param connection the connection the frame was received through
+     * @param read       when the frame was read
+     * @return the trace, or {@code null} if the frame is not sampled
+     */
+    private Trace trace(JSONObject packet, PacketType type, ServerConnection connection, long read) {
+        TraceSink sink = config.getTraceSink();
+        if (sink == null || type == PacketType.ACK) return null;
+        long id = packet == null ? 0 : packet.optLong("trace");
+        if (id == 0 || !config.isTraceClientSamples()) {
+            double rate = config.getTraceSampleRate();
+            if (rate == 0 || ThreadLocalRandom.current().nextDouble() >= rate) return null;
+        }
+        return id == 0 ? new Trace(Trace.newId(), 0, type, connection, read, sink)
+                : new Trace(id, packet.optLong("sent"), type, connection, read, sink);
+    }
+
+    /**
+     * Sends the {@code payload} to every client subscribed to a pattern matching the {@code topic}.
+     * Finding the subscribers costs the number of subscribers rather than the number of connections,
+     * and the frame is only encoded once for all the subscribers whose connections do not encrypt frames.
+     *
+     * @param topic   the topic, made of levels separated by {@code /}
+     * @param payload the {@link JSONObject} to publish
+     * @return how many subscribers the payload was sent to
+     * @throws IllegalArgumentException if the topic is empty or contains a wildcard
+     */
+    public int publish(String topic, JSONObject payload) {
+        return publish(topic, payload, Priority.NORMAL);
+    }
+
+    /**
+     * Sends the {@code payload} to every client subscribed to a pattern matching the {@code topic}.
+     * Finding the subscribers costs the number of subscribers rather than the number of connections,
+     * and the frame is only encoded once for all the subscribers whose connections do not encrypt frames.
+     * A subscriber the frame cannot be sent to, for example because it exceeds the max frame size agreed
+     * with that client, is skipped.
+     *
+     * @param topic    the topic, made of levels separated by {@code /}
+     * @param payload  the {@link JSONObject} to publish
+     * @param priority the {@link Priority} of the publication on both ends of each connection
+     * @return how many subscribers the payload was sent to
+     * @throws IllegalArgumentException if the topic is empty or contains a wildcard
+     */
+    public int publish(String topic, JSONObject payload, Priority priority) {
+        if (!TopicIndex.isValidTopic(topic)) throw new IllegalArgumentException("Invalid topic: " + topic);
+        if (payload == null) throw new IllegalArgumentException("Cannot publish empty data");
+        Objects.requireNonNull(priority, "priority cannot be null");
+        Set<ServerConnection> subscribers = topics.match(topic);
+        if (subscribers.isEmpty()) return 0;
+        Publication publication = new Publication(topic, payload, priority);
+        int sent = 0;
+        for (ServerConnection subscriber : subscribers) {
+            try {
+                subscriber.deliver(publication);
+                sent++;
+            } catch (ServerException ignore) { }
+        }
+        return sent;
+    }
+
+    /**
+     * @param clientId the identity a client declared during the handshake
+     * @return the connection of the client, if it is connected
+     */
+    public Optional<ServerConnection> getConnection(String clientId) {
+        return Optional.ofNullable(identified.get(clientId));
+    }
+
+    /**
+     * Sends a simple message to a client by its identity. If the client is offline, or frames queued for it
+     * while it was offline are still being delivered, the message is queued in the {@link TcpServerConfig#getOutbox() outbox}
+     * and delivered in order once it reconnects.
+     *
+     * @param clientId the identity the client declares during the handshake
+     * @param text     the String text to be sent to the client
+     * @return {@code true} if the message was sent right away, {@code false} if it was queued
+     * @throws ServerException if the client is offline and there is no outbox, or the message could not be queued
+     */
+    public boolean sendTextTo(String clientId, String text) throws ServerException {
+        return sendTextTo(clientId, text, Priority.NORMAL);
+    }
+
+    /**
+     * Like {@link #sendTextTo(String, String)}
+     *
+     * @param clientId the identity the client declares during the handshake
+     * @param text     the String text to be sent to the client
+     * @param priority the {@link Priority} of the message on both ends of the connection
+     * @return {@code true} if the message was sent right away, {@code false} if it was queued
+     * @throws ServerException if the client is offline and there is no outbox, or the message could not be queued
+     */
+    public boolean sendTextTo(String clientId, String text, Priority priority) throws ServerException {
+        return sendTo(clientId, new Frame(PacketType.TEXT, priority, new JSONObject().put("text", text)));
+    }
+
+    /**
+     * Like {@link #sendTextTo(String, String)}, but for a command
+     *
+     * @param clientId  the identity the client declares during the handshake
+     * @param command   the command to be sent
+     * @param arguments the command arguments
+     * @return {@code true} if the command was sent right away, {@code false} if it was queued
+     * @throws ServerException if the client is offline and there is no outbox, or the command could not be queued
+     */
+    public boolean sendCommandTo(String clientId, String command, String arguments) throws ServerException {
+        return sendCommandTo(clientId, command, arguments, Priority.NORMAL);
+    }
+
+    /**
+     * Like {@link #sendTextTo(String, String)}, but for a command
+     *
+     * @param clientId  the identity the client declares during the handshake
+     * @param command   the command to be sent
+     * @param arguments the command arguments
+     * @param priority  the {@link Priority} of the command on both ends of the connection
+     * @return {@code true} if the command was sent right away, {@code false} if it was queued
+     * @throws ServerException if the client is offline and there is no outbox, or the command could not be queued
+     */
+    public boolean sendCommandTo(String clientId, String command, String arguments, Priority priority) throws ServerException {
+        return sendTo(clientId, new Frame(PacketType.COMMAND, priority, new JSONObject().put("command", command).put("arguments", arguments)));
+    }
+
+    /**
+     * Like {@link #sendTextTo(String, String)}, but for a {@link JSONObject}
+     *
+     * @param clientId the identity the client declares during the handshake
+     * @param json     {@link JSONObject} to be sent to the client
+     * @return {@code true} if the object was sent right away, {@code false} if it was queued
+     * @throws ServerException if the client is offline and there is no outbox, or the object could not be queued
+     */
+    public boolean sendJsonTo(String clientId, JSONObject json) throws ServerException {
+        return sendJsonTo(clientId, json, Priority.NORMAL);
+    }
+
+    /**
+     * Like {@link #sendTextTo(String, String)}, but for a {@link JSONObject}
+     *
+     * @param clientId the identity the client declares during the handshake
+     * @param json     {@link JSONObject} to be sent to the client
+     * @param priority the {@link Priority} of the object on both ends of the connection
+     * @return {@code true} if the object was sent right away, {@code false} if it was queued
+     * @throws ServerException if the client is offline and there is no outbox, or the object could not be queued
+     */
+    public boolean sendJsonTo(String clientId, JSONObject json, Priority priority) throws ServerException {
+        return sendTo(clientId, new Frame(PacketType.JSON, priority, json));
+    }
+
+    private boolean sendTo(String clientId, Frame frame) throws ServerException {
+        Objects.requireNonNull(clientId, "clientId cannot be null");
+        Objects.requireNonNull(frame.getPriority(), "priority cannot be null");
+        if (frame.getData() == null || frame.getData().isEmpty()) throw new IllegalArgumentException("Cannot send empty data");
+        Outbox box = outbox;
+        if (box == null) {
+            ServerConnection connection = identified.get(clientId);
+            if (connection == null) throw new ServerException("Client " + clientId + " is not connected");
+            deliver(connection, frame);
+            return true;
+        }
+        Outbox.Mailbox mailbox = box.lock(clientId);
+        try {
+            ServerConnection connection = identified.get(clientId);
+            if (connection != null && !connection.isClosed() && mailbox.isEmpty()) {
+                try {
+                    deliver(connection, frame);
+                    return true;
+                } catch (ServerException e) {
+                    if (!connection.isClosed()) throw e; // the frame itself is at fault, queueing it would not help
+                }
+            }
+            try { mailbox.append(frame);
+            } catch (IOException e) {
+                throw new ServerException("Failed to queue data for client " + clientId + ": " + e.getMessage());
+            }
+            return false;
+        } finally {
+            mailbox.unlock();
+        }
+    }
+
+    /**
+     * Registers a connection under the identity its client declared and starts delivering what was queued for it
+     */
+    private void identify(String clientId, ServerConnection connection) {
+        identified.put(clientId, connection);
+        Outbox box = outbox;
+        if (box == null) return;
+        try { threadPool.execute(() -> drain(box, clientId, connection));
+        } catch (RejectedExecutionException ignore) { } // the server is closing; the frames stay queued
+    }
+
+    /**
+     * Delivers the queued frames of a client, oldest first, until none are left or the connection closes.
+     * The mailbox is locked per frame, so sends to the client queue up behind the drain instead of overtaking it.
+     */
+    private void drain(Outbox box, String clientId, ServerConnection connection) {
+        while (true) {
+            Outbox.Mailbox mailbox = box.lock(clientId);
+            try {
+                if (!alive || connection.isClosed() || identified.get(clientId) != connection) return;
+                Frame frame = mailbox.peek();
+                if (frame == null) return;
+                try { deliver(connection, frame);
+                } catch (ServerException e) {
+                    if (connection.isClosed()) return; // keep the frame for the next connection
+                }
+                mailbox.remove(); // delivered, or never deliverable to this client
+            } finally {
+                mailbox.unlock();
+            }
+        }
+    }
+
+    private void deliver(ServerConnection connection, Frame frame) throws ServerException {
+        JSONObject data = frame.getData();
+        switch (frame.getType()) {
+            case TEXT:
+                connection.replyText(data.getString("text"), frame.getPriority());
+                break;
+            case COMMAND:
+                connection.replyCommand(data.getString("command"), data.getString("arguments"), frame.getPriority());
+                break;
+            default:
+                connection.replyJson(data, frame.getPriority());
+        }
+    }
+
+    /**
+     * Sends a {@link Publication} to a subscribed client, reusing its encoded frame where the connection
+     * does not encrypt frames
+     *
+     * @param publication the {@link Publication} to be sent
+     * @param outgoing    {@link PrintWriter} used for sending messages to the client
+     * @param key         {@link PublicKey} of the client used to encrypt the data
+     */
+    public void sendPublication(Publication publication, PrintWriter outgoing, PublicKey key) throws ServerException {
+        if (!(outgoing instanceof PriorityWriter) || ((PriorityWriter) outgoing).getCapabilities().isEncrypted()
+                || ((PriorityWriter) outgoing).getDelivery() != null) { // numbered frames are encoded per connection
+            send(publication.getBody(), PacketType.TOPIC, publication.getPriority(), outgoing, key);
+            return;
+        }
+        if (!alive) return;
+        String frame = publication.getPlainFrame();
+        if (frame == null) { // a race encodes the same frame twice, which is harmless
+            frame = encodeFrame(new JSONObject().put("data", publication.getBody()), PacketType.TOPIC, publication.getPriority());
+            publication.setPlainFrame(frame);
+        }
+        write(frame, publication.getPriority(), (PriorityWriter) outgoing);
+    }
+
     /**
      * Attempts to encrypt the data and wrap it in an {@link JSONObject}
      *
@@ -285,7 +1020,19 @@ public class TcpServer implements AutoCloseable, Runnable {
      * @param key      {@link PublicKey} of the client used to encrypt the data
      */
     public void sendText(String text, PrintWriter outgoing, PublicKey key) throws ServerException {
-        send(new JSONObject().put("text", text), PacketType.TEXT, outgoing, key);
+        sendText(text, Priority.NORMAL, outgoing, key);
+    }
+
+    /**
+     * Sends a simple message to the client containing {@code text}
+     *
+     * @param text     the String text to be sent to the client
+     * @param priority the {@link Priority} of the message on both ends of the connection
+     * @param outgoing {@link PrintWriter} used for sending messages to the client
+     * @param key      {@link PublicKey} of the client used to encrypt the data
+     */
+    public void sendText(String text, Priority priority, PrintWriter outgoing, PublicKey key) throws ServerException {
+        send(new JSONObject().put("text", text), PacketType.TEXT, priority, outgoing, key);
     }
 
     /**
@@ -297,7 +1044,20 @@ public class TcpServer implements AutoCloseable, Runnable {
      * @param key       {@link PublicKey} of the client used to encrypt the data
      */
     public void sendCommand(String command, String arguments, PrintWriter outgoing, PublicKey key) throws ServerException {
-        send(new JSONObject().put("command", command).put("arguments", arguments), PacketType.COMMAND, outgoing, key);
+        sendCommand(command, arguments, Priority.NORMAL, outgoing, key);
+    }
+
+    /**
+     * Sends a command to the client
+     *
+     * @param command   the command to be sent
+     * @param arguments the command arguments
+     * @param priority  the {@link Priority} of the command on both ends of the connection
+     * @param outgoing  {@link PrintWriter} used to communicate to the client
+     * @param key       {@link PublicKey} of the client used to encrypt the data
+     */
+    public void sendCommand(String command, String arguments, Priority priority, PrintWriter outgoing, PublicKey key) throws ServerException {
+        send(new JSONObject().put("command", command).put("arguments", arguments), PacketType.COMMAND, priority, outgoing, key);
     }
 
     /**
@@ -308,44 +1068,248 @@ public class TcpServer implements AutoCloseable, Runnable {
      * @param key      {@link PublicKey} of the client used to encrypt the data
      */
     public void sendJson(JSONObject json, PrintWriter outgoing, PublicKey key) throws ServerException {
-        send(json, PacketType.JSON, outgoing, key);
+        sendJson(json, Priority.NORMAL, outgoing, key);
     }
 
-    private void send(JSONObject json, PacketType type, PrintWriter outgoing, PublicKey key) throws ServerException {
-        if (key == null || outgoing == null || !alive) return;
+    /**
+     * Sends a {@link JSONObject} to the client.
+     *
+     * @param json     {@link JSONObject} to be sent to the client
+     * @param priority the {@link Priority} of the object on both ends of the connection
+     * @param outgoing {@link PrintWriter} used for sending messages to the client
+     * @param key      {@link PublicKey} of the client used to encrypt the data
+     */
+    public void sendJson(JSONObject json, Priority priority, PrintWriter outgoing, PublicKey key) throws ServerException {
+        send(json, PacketType.JSON, priority, outgoing, key);
+    }
+
+    private void send(JSONObject json, PacketType type, Priority priority, PrintWriter outgoing, PublicKey key) throws ServerException {
+        if (outgoing == null || !alive) return;
         if (json == null || json.isEmpty()) throw new IllegalArgumentException("Cannot send empty data");
-        JSONObject packet = generateEncryptionPacket(json, key);
+        Objects.requireNonNull(priority, "priority cannot be null");
+        if (outgoing instanceof LocalWriter) { // in-JVM connections pass the frame as is
+            if (!((LocalWriter) outgoing).send(new Frame(type, priority, json)))
+                throw new ServerException("Failed to send data: the in-JVM connection to the client is closed");
+            return;
+        }
+        JSONObject packet = packet(json, outgoing, key);
+        if (packet == null) return;
+        if (!(outgoing instanceof PriorityWriter)) {
+            outgoing.println(encodeFrame(packet, type, priority));
+            return;
+        }
+        PriorityWriter writer = (PriorityWriter) outgoing;
+        AckedDelivery delivery = writer.getDelivery();
+        if (delivery == null) {
+            write(encodeFrame(packet, type, priority), priority, writer);
+            return;
+        }
+        long sequence = 0;
+        if (type != PacketType.ACK) {
+            try { sequence = delivery.sequence(new Frame(type, priority, json));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ServerException("Interrupted while waiting for the client to acknowledge earlier frames");
+            }
+            if (sequence == AckedDelivery.FULL) throw new ServerException("Failed to send data: "
+                    + delivery.getWindow() + " frames are unacknowledged and the client's acknowledgements are read by this thread");
+            if (sequence < 0) throw new ServerException("Failed to send data: the connection to the client closed with "
+                    + delivery.getWindow() + " frames unacknowledged");
+        }
+        writeNumbered(packet, type, priority, sequence, delivery, writer);
+    }
+
+    /**
+     * Sends a frame the client did not acknowledge on an earlier connection again, with its original number
+     *
+     * @param sequence the number of the frame
+     * @param frame    the frame
+     * @param delivery the {@link AckedDelivery} session of the client
+     * @param outgoing the writer of the new connection
+     * @param key      {@link PublicKey} of the client used to encrypt the data
+     */
+    private void resend(long sequence, Frame frame, AckedDelivery delivery, PriorityWriter outgoing, PublicKey key) throws ServerException {
+        JSONObject packet = packet(frame.getData(), outgoing, key);
+        if (packet != null) writeNumbered(packet, frame.getType(), frame.getPriority(), sequence, delivery, outgoing);
+    }
+
+    /**
+     * @return the packet carrying the {@code json}, encrypted unless the connection agreed on unencrypted frames,
+     *         or {@code null} if the key to encrypt it with is missing
+     */
+    private JSONObject packet(JSONObject json, PrintWriter outgoing, PublicKey key) throws ServerException {
+        boolean encrypted = !(outgoing instanceof PriorityWriter) || ((PriorityWriter) outgoing).getCapabilities().isEncrypted();
+        if (encrypted && key == null) return null;
+        JSONObject packet = encrypted ? generateEncryptionPacket(json, key) : new JSONObject().put("data", json);
         if (packet == null || packet.isEmpty()) throw new ServerException("Failed to encrypt data: could not generate encryption packet");
+        return packet;
+    }
+
+    /**
+     * Writes a packet with its number, if it has one, and whatever acknowledgement is due to the client
+     */
+    private static void writeNumbered(JSONObject packet, PacketType type, Priority priority, long sequence,
+                                      AckedDelivery delivery, PriorityWriter writer) throws ServerException {
+        if (sequence > 0) packet.put("seq", sequence).put("base", delivery.getBase());
+        delivery.acknowledgeTo(packet);
+        String frame = encodeFrame(packet, type, priority);
+        if (!writer.allowsFrame(frame.length())) delivery.unsent(sequence, packet);
+        write(frame, priority, writer);
+    }
+
+    private static String encodeFrame(JSONObject packet, PacketType type, Priority priority) {
         packet.put("type", type);
-        outgoing.println(Base64.encodeBase64String(packet.toString().getBytes()));
+        if (priority != Priority.NORMAL) packet.put("priority", priority);
+        return Base64.encodeBase64String(packet.toString().getBytes());
+    }
+
+    private static void write(String frame, Priority priority, PriorityWriter writer) throws ServerException {
+        if (!writer.allowsFrame(frame.length()))
+            throw new ServerException("Frame of " + frame.length() + " characters exceeds the max frame size agreed with the client");
+        writer.println(frame, priority);
     }
 
     /**
      * Performs a handshake with the client to swap asymmetric public keys and
-     * ensure the keys were received.
+     * agree on the protocol version and {@link Capabilities} of the connection.
+     * When handshake cookies are enabled the client has to return a valid cookie
+     * before its public key is even parsed.
+     * <p>
+     * A version 2 client sends a {@link Hello}, which the server answers with its
+     * own carrying the agreed capabilities. A version 1 client sends its key as
+     * text instead and confirms receipt of the server's key with an extra message.
      *
      * @param   incoming the BufferedReader representing the input stream of
      *                   the socket the client is connected through.
      * @param   outgoing the PrintWriter representing the output stream of
      *                   the socket the client is connected through.
-     * @return The PublicKey of the client if the full handshake was
-     *         successful, or null if the handshake was unsuccessful.
+     * @param   offered  the capabilities the server offers this client
+     * @param   handshaking the connection being set up, which is attached to the client's
+     *                   {@link AckedDelivery} session if the client asked for one and the server agreed
+     * @return The version, public key, and agreed capabilities of the client if the full
+     *         handshake was successful, or null if the client disconnected before sending its key.
+     * @throws ServerException if the handshake failed
      */
-    private CompletableFuture<PublicKey> exchangePublicKeys(BufferedReader incoming, PrintWriter outgoing) throws ServerException {
+    private Hello exchangePublicKeys(BufferedReader incoming, PrintWriter outgoing, Capabilities offered,
+                                     ClientConnection handshaking) throws ServerException {
         Objects.requireNonNull(incoming,"\"incoming\" cannot be null" );
         Objects.requireNonNull(outgoing, "\"outgoing\" cannot be null");
-        String confirmation;
-        byte[] keyBytes;
-        JSONObject message;
-        PublicKey publicKey;
+        HandshakeCookie cookie = config.isHandshakeCookies() ? new HandshakeCookie(config.getHandshakePuzzleDifficulty()) : null;
+        String firstMessage;
 
+        if (cookie != null) outgoing.println(cookie.challenge()); // challenge the client before doing any work for it
         try { // receive client public key
-            String firstMessage = incoming.readLine();
+            firstMessage = incoming.readLine();
             if (firstMessage == null) return null;
-            keyBytes = parseStrByteArray(firstMessage);
+            if (cookie != null && !cookie.verify(incoming.readLine()))
+                throw new ServerException("Client failed to return a valid handshake cookie");
         } catch (IOException ioe) {
             throw new ServerException("Client connection failure while exchanging public async keys: " + ioe.getMessage());
+        } catch (NoSuchAlgorithmException e) {
+            throw new ServerException("Failed to verify handshake cookie: " + e.getMessage());
         }
+        if (Hello.isHello(firstMessage)) {
+            Hello hello;
+            try { hello = Hello.decode(firstMessage);
+            } catch (IOException e) {
+                throw new ServerException("Failed to read the client's hello: " + e.getMessage());
+            }
+            if (hello.getClientId() != null && config.isClientIdFromCertificate()
+                    && !hello.getClientId().equals(certificateName(handshaking.socket)))
+                throw new ServerException("Client declared a client id its certificate was not issued to");
+            int version = Math.min(hello.getVersion(), Hello.VERSION);
+            Capabilities agreed = offered.agree(hello.getCapabilities());
+            if (agreed.getCodecs().isEmpty()) throw new ServerException("Client supports none of the server's codecs");
+            if (agreed.isEncrypted() && hello.getPublicKey() == null)
+                throw new ServerException("Client sent no public key for encrypted frames");
+            AckedDelivery delivery = null;
+            if (hello.getDeliverySession() != 0 && config.getAckWindow() > 0) {
+                delivery = attachDelivery(hello);
+                handshaking.delivery = delivery;
+            }
+            outgoing.println(new Hello(version, serverKeys.getPublic(), agreed, null,
+                    delivery == null ? 0 : delivery.getSession(), delivery == null ? 0 : delivery.getWindow()).encode());
+            return new Hello(version, hello.getPublicKey(), agreed, hello.getClientId());
+        }
+        if (!config.isLegacyHandshake())
+            throw new ServerException("Client attempted a version 1 handshake, which the server does not accept");
+        return new Hello(1, exchangeLegacyPublicKeys(incoming, outgoing, firstMessage), Capabilities.LEGACY);
+    }
+
+    /**
+     * @param socket the socket a client connected through
+     * @return the common name of the certificate the client authenticated with over TLS, or {@code null} if it
+     *         presented none
+     */
+    private static String certificateName(Socket socket) {
+        if (!(socket instanceof SSLSocket)) return null;
+        try {
+            Certificate certificate = ((SSLSocket) socket).getSession().getPeerCertificates()[0];
+            if (!(certificate instanceof X509Certificate)) return null;
+            String name = null;
+            for (Rdn rdn : new LdapName(((X509Certificate) certificate).getSubjectX500Principal().getName()).getRdns())
+                if (rdn.getType().equalsIgnoreCase("CN")) name = rdn.getValue().toString(); // the most specific one
+            return name;
+        } catch (SSLPeerUnverifiedException | InvalidNameException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Attaches a connection to the {@link AckedDelivery} session of its client, which is kept across connections
+     * if the client declared a client id and fewer than {@link TcpServerConfig#getMaxAckSessions()} are kept
+     *
+     * @param hello the hello of a client asking for acknowledged delivery
+     * @return the session, with the connection attached
+     */
+    private AckedDelivery attachDelivery(Hello hello) {
+        String clientId = hello.getClientId();
+        if (clientId != null) {
+            expireDeliveries();
+            if (deliveries.size() < config.getMaxAckSessions() || deliveries.containsKey(clientId))
+                return deliveries.compute(clientId, (id, delivery) -> {
+                    if (delivery == null) delivery = new AckedDelivery(config.getAckWindow());
+                    delivery.connect(hello.getDeliverySession(), hello.getDeliveryWindow());
+                    return delivery;
+                });
+        }
+        AckedDelivery delivery = new AckedDelivery(config.getAckWindow());
+        delivery.connect(hello.getDeliverySession(), hello.getDeliveryWindow());
+        return delivery;
+    }
+
+    /**
+     * Drops the sessions no connection has been attached to for {@link TcpServerConfig#getAckRetention()},
+     * looking a few times per retention period, or whenever the most sessions are kept
+     */
+    private void expireDeliveries() {
+        long now = System.nanoTime();
+        long retention = TimeUnit.MILLISECONDS.toNanos(config.getAckRetention());
+        if (now - deliverySweep < retention / 4 && deliveries.size() < config.getMaxAckSessions()) return;
+        deliverySweep = now;
+        for (String clientId : deliveries.keySet())
+            deliveries.computeIfPresent(clientId, (id, delivery) -> delivery.expire(retention) ? null : delivery);
+    }
+
+    /**
+     * Completes a version 1 handshake, in which the client sends its key as text
+     * and confirms that it received the server's key
+     *
+     * @param   incoming     the BufferedReader representing the input stream of
+     *                       the socket the client is connected through.
+     * @param   outgoing     the PrintWriter representing the output stream of
+     *                       the socket the client is connected through.
+     * @param   firstMessage the line carrying the client's public key
+     * @return The PublicKey of the client
+     * @throws ServerException if the handshake failed
+     */
+    private PublicKey exchangeLegacyPublicKeys(BufferedReader incoming, PrintWriter outgoing, String firstMessage) throws ServerException {
+        String confirmation;
+        byte[] keyBytes;
+        JSONObject message;
+        PublicKey publicKey;
+
+        keyBytes = parseStrByteArray(firstMessage);
         // verify that the key's bytes exist before attempting to process them
         if (keyBytes == null || keyBytes.length <= 0)
             throw new ServerException("Unable to retrieve client's public async encryption key");
@@ -370,7 +1334,7 @@ public class TcpServer implements AutoCloseable, Runnable {
         } catch (Exception e) {
             throw new ServerException("Failed to decrypt confirmation message from the client: " + e.getMessage());
         }
-        if (message.getString("text").equals("handshake")) return CompletableFuture.completedFuture(publicKey);
+        if (message.getString("text").equals("handshake")) return publicKey;
         else throw new ServerException("Received invalid confirmation that the client received the server's public key");
     }
 
@@ -386,30 +1350,51 @@ public class TcpServer implements AutoCloseable, Runnable {
      * Attempts to gracefully-ish shutdown the server and disconnect all existing client connections
      */
     @Override
-    public void close() {
+    public synchronized void close() {
         if (!alive) return; alive = false;
+        if (config.getLocalName() != null) LocalTransport.unbind(config.getLocalName(), localAcceptor);
+        localChannels.forEach(LocalChannel::close);
         listenerManager.removeAllListeners();
+        listenerManager.close();
+        subscriptions.forEach(InboundSubscription::complete);
         executorService.shutdownNow();
+        handshakeExecutor.shutdownNow();
         threadPool.shutdownNow();
-        try { serverSocket.close();
-        } catch (IOException ioe) {
-            ioe.printStackTrace();
+        if (decryptPool != null) decryptPool.shutdownNow();
+        if (outbox != null) outbox.close();
+        if (capture != null) capture.close();
+        deliveries.clear();
+        closeServerSockets();
+    }
+
+    private void closeServerSockets() {
+        for (ServerSocket socket : serverSockets) {
+            try { socket.close();
+            } catch (IOException ioe) {
+                Log.warn("server", "Failed to close a server socket", ioe);
+            }
         }
     }
 
     public class ClientConnection implements Runnable, AutoCloseable {
 
         private PublicKey clientPublicKey;
+        private InboundRateLimiter rateLimiter;
+        private ScheduledFuture<?> heartbeat;
+        private ScheduledFuture<?> ackFlush;
+        private AckedDelivery delivery;
+        private boolean closed;
+        private int captured;
         private BufferedReader incoming;
         private ServerConnection connection;
-        private PrintWriter outgoing;
+        private PriorityWriter outgoing;
         private TcpServer server;
         private Socket socket;
         private int timeout;
 
         ClientConnection(TcpServer server, Socket socket, int timeout) throws IOException {
             this.incoming = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.outgoing = new PrintWriter(socket.getOutputStream(), true);
+            this.outgoing = new PriorityWriter(socket.getOutputStream(), config.getScheduling());
             this.timeout = timeout < 0 ? 0 : timeout;
             this.clientPublicKey = null;
             this.server = server;
@@ -417,75 +1402,240 @@ public class TcpServer implements AutoCloseable, Runnable {
             connection = null;
         }
 
-        @Override
-        public void run() {
+        /**
+         * Performs the key exchange with the client on a handshake thread and, once it succeeds,
+         * hands the connection over to the thread pool serving established connections
+         */
+        void handshake() {
             try {
                 //Logger.log("client", socket.getInetAddress().getHostAddress(), "handshake", "client requesting handshake");
-                socket.setSoTimeout(5000);
-                clientPublicKey = Objects.requireNonNull(exchangePublicKeys(incoming, outgoing), "client public key was null").get(2, TimeUnit.MINUTES);
-                if (clientPublicKey == null) {
+                config.getSocketOptions().apply(socket);
+                socket.setSoTimeout(config.getHandshakeTimeout());
+                if (socket instanceof SSLSocket) {
+                    try { ((SSLSocket) socket).startHandshake();
+                    } catch (IOException e) {
+                        throw new ServerException("TLS handshake failed: " + e.getMessage());
+                    }
+                }
+                Hello hello = exchangePublicKeys(incoming, outgoing, offeredCapabilities(), this);
+                if (hello == null) {
                     //Logger.log("client", socket.getInetAddress().getHostAddress(), "handshake", "client failed to complete handshake");
                     close();
                     return;
                 }
                 socket.setSoTimeout(timeout);
-                socket.setKeepAlive(true);
                 //Logger.log("client", socket.getInetAddress().getHostAddress(), "handshake", "client completed handshake");
-                connection = new ServerConnection(server, socket, clientPublicKey, outgoing);
+                clientPublicKey = hello.getPublicKey();
+                Capabilities agreed = hello.getCapabilities();
+                connection = new ServerConnection(server, socket, clientPublicKey, outgoing, hello.getVersion(), agreed,
+                        hello.getClientId());
+                outgoing.setCapabilities(agreed);
+                if (capture != null) captured = capture.connection();
+                if (agreed.getHeartbeatInterval() > 0) heartbeat = Heartbeats.start(outgoing, agreed.getHeartbeatInterval());
+                if (delivery != null) {
+                    outgoing.setDelivery(delivery);
+                    ackFlush = AckedDelivery.schedule(this::acknowledge);
+                }
+                if (rateLimitedAddresses != null)
+                    rateLimiter = new InboundRateLimiter(config, rateLimitedAddresses, socket.getInetAddress());
+            } catch (ServerException e) {
+                //Logger.log("client", socket.getInetAddress().getHostAddress(), "handshake", "client failed to complete handshake");
+                close();
+                return;
+            } catch (Exception e) {
+                Log.error("server", "Handshake failed unexpectedly", e);
+                close();
+                return;
+            }
+            try { threadPool.execute(this);
+            } catch (RejectedExecutionException e) {
+                close();
+            }
+        }
+
+        @Override
+        public void run() {
+            OrderedPipeline<Frame> pipeline = decryptPool == null ? null : new OrderedPipeline<>(decryptPool, config.getDecryptWindow(), frame -> {
+                if (receive(frame)) return true;
+                close();
+                return false;
+            }, e -> {
+                failed(e);
+                close();
+            });
+            try {
                 listenerManager.raiseConnectionEvent(connection, ServerConnection.Event.CONNECTED);
+                if (capture != null) capture.event(captured, Capture.CONNECTED);
+                if (delivery != null) retransmit();
+                connection.getClientId().ifPresent(clientId -> identify(clientId, connection));
                 while (!socket.isClosed()) {
                     String received = incoming.readLine();
-                    if (received == null) return;
-
-                    String raw = new String(Base64.decodeBase64(received));
-                    JSONObject packet = new JSONObject(raw);
-                    JSONObject data = decryptEncryptionPacket(packet, clientPublicKey);
-
-                    switch (packet.getEnum(PacketType.class, "type")) {
-                        case TEXT:
-                            String text = data.getString("text");
-                            listenerManager.raiseMessageEvent(new ServerMessage(text, connection));
-                            break;
-                        case COMMAND:
-                            String command = data.getString("command");
-                            String arguments = data.getString("arguments");
-                            CommandPacket cPacket = new CommandPacket(command, arguments);
-                            if (cPacket.getCommand().equals("sudo")) {
-                                if (cPacket.getArguments().equals("disconnect")) {
-                                    socket.close();
-                                    break;
-                                }
-                            } else {
-                                listenerManager.raiseCommandEvent(new ServerCommand(cPacket, connection));
-                            }
-                            break;
-                        case JSON:
-                            listenerManager.raiseJsonEvent(new ServerJson(data, connection));
-                            break;
-                    }
+                    if (received == null) break;
+                    long read = config.getTraceSink() == null ? 0 : System.nanoTime();
+                    if (received.equals(Capabilities.HEARTBEAT)) continue;
+                    if (!connection.getCapabilities().allowsFrame(received.length())) break;
+                    if (rateLimiter != null && !admit(received.length())) continue;
 
+                    if (pipeline != null) {
+                        pipeline.submit(() -> decode(received, read));
+                        continue;
+                    }
+                    if (!receive(decode(received, read))) socket.close();
                 }
             } catch (SocketTimeoutException e) {
                 //System.out.println("[SOCKET][" + socket.getInetAddress().getHostAddress() + "](DISCONNECTED) socket connection timed out");
             } catch (SocketException e) {
-                if (!(e.getMessage().equals("ServerConnection reset")) && !(e.getMessage().equals("Socket closed")))
-                    e.printStackTrace();
+                if (!socket.isClosed() && !"Connection reset".equals(e.getMessage()) && !"Socket closed".equals(e.getMessage())) failed(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             } catch (Exception e) {
-                e.printStackTrace();
+                failed(e);
             }
 
+            if (pipeline != null) { // let the frames still being decrypted reach the listeners before REMOVED
+                try { pipeline.awaitIdle();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
             try { close();
             } catch (Exception e) {
-                e.printStackTrace();
+                Log.warn("server", "Failed to close a connection", e);
             }
 
+            topics.unsubscribeAll(connection);
+            connection.getClientId().ifPresent(clientId -> identified.remove(clientId, connection));
+            for (InboundSubscription subscription : subscriptions)
+                if (subscription.isFor(connection)) subscription.complete();
+            if (capture != null) capture.event(captured, Capture.REMOVED);
             listenerManager.raiseConnectionEvent(connection, ServerConnection.Event.REMOVED);
         }
 
+        /**
+         * Logs an unexpected failure of the connection and raises it to the connection listeners
+         */
+        private void failed(Exception e) {
+            Log.error("server", "Connection failed", e);
+            listenerManager.raiseConnectionError(connection, e);
+        }
+
+        /**
+         * Decodes, decrypts, and verifies a received frame
+         *
+         * @param received the line the frame was received as
+         * @param read     when the line was read, which only matters if frames are traced
+         * @return the decoded frame
+         * @throws Exception if the frame is malformed or failed verification
+         */
+        private Frame decode(String received, long read) throws Exception {
+            JSONObject packet = new JSONObject(new String(Base64.decodeBase64(received)));
+            PacketType type = packet.getEnum(PacketType.class, "type");
+            Trace trace = trace(packet, type, connection, read);
+            JSONObject data = connection.getCapabilities().isEncrypted()
+                    ? decryptEncryptionPacket(packet, clientPublicKey) : packet.getJSONObject("data");
+            if (trace != null) trace.decrypted();
+            if (delivery != null) delivery.acknowledge(packet);
+            return new Frame(type, packet.optEnum(Priority.class, "priority", Priority.NORMAL), data,
+                    packet.optLong("seq"), packet.optLong("base"), trace);
+        }
+
+        /**
+         * Dispatches a received frame, unless acknowledged delivery finds that it was received before
+         *
+         * @param frame the decoded frame
+         * @return {@code false} if the client asked to be disconnected
+         * @throws InterruptedException if interrupted while waiting for a subscriber
+         */
+        private boolean receive(Frame frame) throws InterruptedException {
+            if (delivery != null) {
+                if (frame.getType() == PacketType.ACK) {
+                    delivery.acknowledge(frame.getData());
+                    return true;
+                }
+                if (frame.getSequence() > 0 && !delivery.receive(frame.getSequence(), frame.getBase())) return true;
+            }
+            if (capture != null) capture.frame(captured, frame.getType(), frame.getPriority(), frame.getData());
+            if (delivery != null) delivery.beginReceiving();
+            boolean open;
+            try { open = dispatch(frame.getType(), frame.getData(), frame.getPriority(), connection, frame.getTrace());
+            } finally {
+                if (delivery != null) delivery.endReceiving();
+            }
+            if (delivery != null && (!open || delivery.isAckUrgent())) acknowledge();
+            return open;
+        }
+
+        /**
+         * Sends the acknowledgement due to the client as a frame of its own, since nothing else carried it
+         */
+        private void acknowledge() {
+            JSONObject body = new JSONObject();
+            if (!delivery.acknowledgeTo(body)) return;
+            try { send(body, PacketType.ACK, Priority.HIGH, outgoing, clientPublicKey);
+            } catch (ServerException e) {
+                delivery.unsent(0, body);
+            }
+        }
+
+        /**
+         * Sends what the client did not acknowledge on its earlier connections again
+         */
+        private void retransmit() {
+            for (Map.Entry<Long, Frame> entry : delivery.getUnacknowledged().entrySet()) {
+                try { resend(entry.getKey(), entry.getValue(), delivery, outgoing, clientPublicKey);
+                } catch (ServerException e) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return the capabilities to offer the client; unencrypted frames are only offered where the
+         *         transport protects them already
+         */
+        private Capabilities offeredCapabilities() {
+            if (socket instanceof SSLSocket || (socket instanceof UnixSocket && config.isUnixPlaintext())) return plaintextCapabilities;
+            return capabilities;
+        }
+
+        /**
+         * Applies the inbound rate limits to a received frame and reports limit hits, coalesced to
+         * at most one reply and one event per second
+         *
+         * @param bytes the size of the frame
+         * @return {@code true} if the frame should be processed, {@code false} if it was rejected
+         * @throws InterruptedException if interrupted while being throttled
+         */
+        private boolean admit(int bytes) throws InterruptedException {
+            int limit = rateLimiter.acquire(bytes);
+            if (limit < 0) return true;
+            RateLimitAction action = rateLimiter.getAction();
+            long limitedFrames = rateLimiter.limited();
+            if (limitedFrames > 0) {
+                ServerRateLimit.Scope scope = rateLimiter.getScope(limit);
+                ServerRateLimit.Kind kind = rateLimiter.getKind(limit);
+                if (action == RateLimitAction.REJECT) {
+                    try { connection.replyCommand(RateLimitAction.REJECTED_COMMAND,
+                            scope.name().toLowerCase() + " " + kind.name().toLowerCase(), Priority.HIGH);
+                    } catch (ServerException ignore) { }
+                }
+                listenerManager.raiseRateLimitEvent(new ServerRateLimit(connection, scope, kind, action, limitedFrames));
+            }
+            return action == RateLimitAction.THROTTLE;
+        }
+
         @Override
         public void close() {
+            synchronized (this) {
+                if (closed) return;
+                closed = true;
+            }
             try { socket.close();
             } catch (IOException ignore) { }
+            if (rateLimiter != null) rateLimiter.release();
+            if (heartbeat != null) heartbeat.cancel(false);
+            if (ackFlush != null) ackFlush.cancel(false);
+            if (delivery != null) delivery.disconnect();
             //Logger.log("socket", socket.getRemoteSocketAddress().toString(), "disconnected", "socket connection closed");
         }
     }
@@ -0,0 +1,1148 @@
+package server;
+
+import config.OutboxOptions;
+import config.SocketOptions;
+import config.TlsOptions;
+import cryptography.HandshakeCookie;
+import cryptography.HybridCryptography;
+import listeners.Dispatch;
+import packets.AckedDelivery;
+import scheduling.Priority;
+import scheduling.Scheduling;
+import tracing.TraceSink;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Everything that can be tuned about a {@link TcpServer}: where it listens, how many threads it uses
+ * for accepting, handshaking, serving connections, and running listeners, how far each of their
+ * queues may grow, the socket options of every connection, its timeouts, inbound rate limits, and its key size.
+ * <p>
+ * Instances are immutable and created through {@link #builder(int)}, which validates the
+ * combination of settings when {@link Builder#build()} is called.
+ */
+public final class TcpServerConfig {
+
+    private final int port;
+    private final InetAddress bindAddress;
+    private final List<InetSocketAddress> extraEndpoints;
+    private final String localName;
+    private final Path unixSocket;
+    private final boolean unixPlaintext;
+    private final int acceptorThreads;
+    private final boolean reusePort;
+    private final int acceptBacklog;
+    private final int workerThreads;
+    private final int workerQueueSize;
+    private final int dispatchThreads;
+    private final int dispatchQueueSize;
+    private final int idleTimeout;
+    private final int handshakeTimeout;
+    private final int handshakeThreads;
+    private final int handshakeQueueSize;
+    private final double handshakeRate;
+    private final boolean handshakeCookies;
+    private final int handshakePuzzleDifficulty;
+    private final Scheduling scheduling;
+    private final Dispatch dispatch;
+    private final int inlineBudget;
+    private final int decryptThreads;
+    private final int decryptWindow;
+    private final double connectionMessageRate;
+    private final double connectionByteRate;
+    private final double addressMessageRate;
+    private final double addressByteRate;
+    private final double rateLimitBurst;
+    private final RateLimitAction rateLimitAction;
+    private final int maxFrameSize;
+    private final int heartbeatInterval;
+    private final boolean legacyHandshake;
+    private final int keySize;
+    private final SocketOptions socketOptions;
+    private final TlsOptions tls;
+    private final OutboxOptions outbox;
+    private final boolean clientIdFromCertificate;
+    private final int ackWindow;
+    private final long ackRetention;
+    private final int maxAckSessions;
+    private final Path captureFile;
+    private final int captureSize;
+    private final TraceSink traceSink;
+    private final double traceSampleRate;
+    private final boolean traceClientSamples;
+
+    private TcpServerConfig(Builder builder) {
+        this.port = builder.port;
+        this.bindAddress = builder.bindAddress;
+        this.extraEndpoints = Collections.unmodifiableList(new ArrayList<>(builder.extraEndpoints));
+        this.localName = builder.localName;
+        this.unixSocket = builder.unixSocket;
+        this.unixPlaintext = builder.unixPlaintext;
+        this.acceptorThreads = builder.acceptorThreads;
+        this.reusePort = builder.reusePort;
+        this.acceptBacklog = builder.acceptBacklog;
+        this.workerThreads = builder.workerThreads;
+        this.workerQueueSize = builder.workerQueueSize;
+        this.dispatchThreads = builder.dispatchThreads;
+        this.dispatchQueueSize = builder.dispatchQueueSize;
+        this.scheduling = builder.scheduling;
+        this.dispatch = builder.dispatch;
+        this.inlineBudget = builder.inlineBudget;
+        this.decryptThreads = builder.decryptThreads;
+        this.decryptWindow = builder.decryptWindow;
+        this.idleTimeout = builder.idleTimeout;
+        this.handshakeTimeout = builder.handshakeTimeout;
+        this.handshakeThreads = builder.handshakeThreads;
+        this.handshakeQueueSize = builder.handshakeQueueSize;
+        this.handshakeRate = builder.handshakeRate;
+        this.handshakeCookies = builder.handshakeCookies;
+        this.handshakePuzzleDifficulty = builder.handshakePuzzleDifficulty;
+        this.connectionMessageRate = builder.connectionMessageRate;
+        this.connectionByteRate = builder.connectionByteRate;
+        this.addressMessageRate = builder.addressMessageRate;
+        this.addressByteRate = builder.addressByteRate;
+        this.rateLimitBurst = builder.rateLimitBurst;
+        this.rateLimitAction = builder.rateLimitAction;
+        this.maxFrameSize = builder.maxFrameSize;
+        this.heartbeatInterval = builder.heartbeatInterval;
+        this.legacyHandshake = builder.legacyHandshake;
+        this.keySize = builder.keySize;
+        this.socketOptions = builder.socketOptions;
+        this.tls = builder.tls;
+        this.outbox = builder.outbox;
+        this.clientIdFromCertificate = builder.clientIdFromCertificate;
+        this.ackWindow = builder.ackWindow;
+        this.ackRetention = builder.ackRetention;
+        this.maxAckSessions = builder.maxAckSessions;
+        this.captureFile = builder.captureFile;
+        this.captureSize = builder.captureSize;
+        this.traceSink = builder.traceSink;
+        this.traceSampleRate = builder.traceSampleRate;
+        this.traceClientSamples = builder.traceClientSamples;
+    }
+
+    /**
+     * @param port the port the server listens on, or {@code 0} for any free port
+     * @return a new {@link Builder} with every other setting at its default
+     */
+    public static Builder builder(int port) {
+        return new Builder(port);
+    }
+
+    /**
+     * @return a new {@link Builder} initialized with the settings of this config
+     */
+    public Builder toBuilder() {
+        Builder builder = new Builder(port);
+        builder.bindAddress = bindAddress;
+        builder.extraEndpoints.addAll(extraEndpoints);
+        builder.localName = localName;
+        builder.unixSocket = unixSocket;
+        builder.unixPlaintext = unixPlaintext;
+        builder.acceptorThreads = acceptorThreads;
+        builder.reusePort = reusePort;
+        builder.acceptBacklog = acceptBacklog;
+        builder.workerThreads = workerThreads;
+        builder.workerQueueSize = workerQueueSize;
+        builder.dispatchThreads = dispatchThreads;
+        builder.dispatchQueueSize = dispatchQueueSize;
+        builder.scheduling = scheduling;
+        builder.dispatch = dispatch;
+        builder.inlineBudget = inlineBudget;
+        builder.decryptThreads = decryptThreads;
+        builder.decryptWindow = decryptWindow;
+        builder.idleTimeout = idleTimeout;
+        builder.handshakeTimeout = handshakeTimeout;
+        builder.handshakeThreads = handshakeThreads;
+        builder.handshakeQueueSize = handshakeQueueSize;
+        builder.handshakeRate = handshakeRate;
+        builder.handshakeCookies = handshakeCookies;
+        builder.handshakePuzzleDifficulty = handshakePuzzleDifficulty;
+        builder.connectionMessageRate = connectionMessageRate;
+        builder.connectionByteRate = connectionByteRate;
+        builder.addressMessageRate = addressMessageRate;
+        builder.addressByteRate = addressByteRate;
+        builder.rateLimitBurst = rateLimitBurst;
+        builder.rateLimitAction = rateLimitAction;
+        builder.maxFrameSize = maxFrameSize;
+        builder.heartbeatInterval = heartbeatInterval;
+        builder.legacyHandshake = legacyHandshake;
+        builder.keySize = keySize;
+        builder.socketOptions = socketOptions;
+        builder.tls = tls;
+        builder.outbox = outbox;
+        builder.clientIdFromCertificate = clientIdFromCertificate;
+        builder.ackWindow = ackWindow;
+        builder.ackRetention = ackRetention;
+        builder.maxAckSessions = maxAckSessions;
+        builder.captureFile = captureFile;
+        builder.captureSize = captureSize;
+        builder.traceSink = traceSink;
+        builder.traceSampleRate = traceSampleRate;
+        builder.traceClientSamples = traceClientSamples;
+        return builder;
+    }
+
+    /**
+     * @return the port the server listens on, {@code 0} meaning any free port
+     */
+    public int getPort() {
+        return port;
+    }
+
+    /**
+     * @return the local address the server listens on, or {@code null} for all local addresses
+     */
+    public InetAddress getBindAddress() {
+        return bindAddress;
+    }
+
+    /**
+     * @return the endpoints the server listens on in addition to the main one
+     */
+    public List<InetSocketAddress> getExtraEndpoints() {
+        return extraEndpoints;
+    }
+
+    /**
+     * @return the name the server accepts in-JVM connections under, or {@code null} if it does not
+     */
+    public String getLocalName() {
+        return localName;
+    }
+
+    /**
+     * @return the socket file the server also listens on, or {@code null} if it does not
+     */
+    public Path getUnixSocket() {
+        return unixSocket;
+    }
+
+    /**
+     * @return whether clients connected through the Unix domain socket may skip encryption
+     */
+    public boolean isUnixPlaintext() {
+        return unixPlaintext;
+    }
+
+    /**
+     * @return how many threads accept connections on each endpoint
+     */
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    /**
+     * @return whether every acceptor thread gets its own {@code SO_REUSEPORT} socket where supported
+     */
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    /**
+     * @return the accept backlog of every listening socket, or {@code 0} for the OS default
+     */
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    /**
+     * @return the most connections served at once, or {@code 0} for no limit
+     */
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    /**
+     * @return how many connections may wait for a worker thread, or {@code 0} for no limit
+     */
+    public int getWorkerQueueSize() {
+        return workerQueueSize;
+    }
+
+    /**
+     * @return how many listeners may run at once, or {@code 0} for no limit
+     */
+    public int getDispatchThreads() {
+        return dispatchThreads;
+    }
+
+    /**
+     * @return how many listener invocations may wait for a dispatch thread, or {@code 0} for no limit
+     */
+    public int getDispatchQueueSize() {
+        return dispatchQueueSize;
+    }
+
+    /**
+     * @return how queued frames and listener invocations of different {@link Priority} classes are ordered
+     */
+    public Scheduling getScheduling() {
+        return scheduling;
+    }
+
+    /**
+     * @return where listeners registered without a {@link Dispatch} of their own run
+     */
+    public Dispatch getDispatch() {
+        return dispatch;
+    }
+
+    /**
+     * @return milliseconds an inline listener may run before it is moved to a dispatch thread, or {@code 0} for no limit
+     */
+    public int getInlineBudget() {
+        return inlineBudget;
+    }
+
+    /**
+     * @return how many threads decode and decrypt received frames, or {@code 0} to do it on the reading thread
+     */
+    public int getDecryptThreads() {
+        return decryptThreads;
+    }
+
+    /**
+     * @return how many frames of a single connection may be decrypted at once
+     */
+    public int getDecryptWindow() {
+        return decryptWindow == 0 ? decryptThreads * 4 : decryptWindow;
+    }
+
+    /**
+     * @return milliseconds of zero activity until a client is disconnected, or {@code 0} for never
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    /**
+     * @return milliseconds a client may take for each step of its handshake
+     */
+    public int getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    /**
+     * @return how many handshakes may run at once
+     */
+    public int getHandshakeThreads() {
+        return handshakeThreads;
+    }
+
+    /**
+     * @return how many accepted connections may wait for a handshake thread
+     */
+    public int getHandshakeQueueSize() {
+        return handshakeQueueSize;
+    }
+
+    /**
+     * @return how many handshakes may be started per second, or {@code 0} for no limit
+     */
+    public double getHandshakeRate() {
+        return handshakeRate;
+    }
+
+    /**
+     * @return whether clients have to return a handshake cookie before any public key work
+     */
+    public boolean isHandshakeCookies() {
+        return handshakeCookies;
+    }
+
+    /**
+     * @return the leading zero bits required of a client's puzzle solution
+     */
+    public int getHandshakePuzzleDifficulty() {
+        return handshakePuzzleDifficulty;
+    }
+
+    /**
+     * @return how many messages each connection may send per second, or {@code 0} for no limit
+     */
+    public double getConnectionMessageRate() {
+        return connectionMessageRate;
+    }
+
+    /**
+     * @return how many bytes each connection may send per second, or {@code 0} for no limit
+     */
+    public double getConnectionByteRate() {
+        return connectionByteRate;
+    }
+
+    /**
+     * @return how many messages all connections from one remote address may send per second together, or {@code 0} for no limit
+     */
+    public double getAddressMessageRate() {
+        return addressMessageRate;
+    }
+
+    /**
+     * @return how many bytes all connections from one remote address may send per second together, or {@code 0} for no limit
+     */
+    public double getAddressByteRate() {
+        return addressByteRate;
+    }
+
+    /**
+     * @return how many seconds worth of traffic each inbound rate limit lets through in a single burst
+     */
+    public double getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    /**
+     * @return what is done with inbound traffic that exceeds a rate limit
+     */
+    public RateLimitAction getRateLimitAction() {
+        return rateLimitAction;
+    }
+
+    /**
+     * @return the longest frame in characters the server accepts, or {@code 0} for no limit
+     */
+    public int getMaxFrameSize() {
+        return maxFrameSize;
+    }
+
+    /**
+     * @return milliseconds between the heartbeats the server sends and expects, or {@code 0} for none
+     */
+    public int getHeartbeatInterval() {
+        return heartbeatInterval;
+    }
+
+    /**
+     * @return whether clients may still use the version 1 handshake
+     */
+    public boolean isLegacyHandshake() {
+        return legacyHandshake;
+    }
+
+    /**
+     * @return the size of the server's RSA key in bits
+     */
+    public int getKeySize() {
+        return keySize;
+    }
+
+    /**
+     * @return the options applied to every accepted connection
+     */
+    public SocketOptions getSocketOptions() {
+        return socketOptions;
+    }
+
+    /**
+     * @return the TLS settings of the TCP endpoints, or {@code null} if the server uses its own encryption
+     */
+    public TlsOptions getTls() {
+        return tls;
+    }
+
+    /**
+     * @return where frames for offline clients are queued, or {@code null} if they are not
+     */
+    public OutboxOptions getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * @return {@code true} if a client may only declare the client id its TLS client certificate is issued to
+     */
+    public boolean isClientIdFromCertificate() {
+        return clientIdFromCertificate;
+    }
+
+    /**
+     * @return how many frames the server may have unacknowledged per client under acknowledged delivery,
+     *         or {@code 0} if it refuses clients asking for it
+     */
+    public int getAckWindow() {
+        return ackWindow;
+    }
+
+    /**
+     * @return milliseconds the acknowledged delivery session of a client with a client id is kept after its last
+     *         connection closes
+     */
+    public long getAckRetention() {
+        return ackRetention;
+    }
+
+    /**
+     * @return how many acknowledged delivery sessions of clients with a client id the server keeps at most
+     */
+    public int getMaxAckSessions() {
+        return maxAckSessions;
+    }
+
+    /**
+     * @return the file received frames are captured to, or {@code null} if they are not captured
+     */
+    public Path getCaptureFile() {
+        return captureFile;
+    }
+
+    /**
+     * @return the size in bytes of the capture file, which keeps the most recent frames once it is full
+     */
+    public int getCaptureSize() {
+        return captureSize;
+    }
+
+    /**
+     * @return where the traces of sampled frames go, or {@code null} if frames are not traced
+     */
+    public TraceSink getTraceSink() {
+        return traceSink;
+    }
+
+    /**
+     * @return the fraction of the frames arriving without a trace header that the server samples itself
+     */
+    public double getTraceSampleRate() {
+        return traceSampleRate;
+    }
+
+    /**
+     * @return {@code true} if every frame a client sampled is traced, rather than only the
+     *         {@link #getTraceSampleRate() fraction} the server samples itself
+     */
+    public boolean isTraceClientSamples() {
+        return traceClientSamples;
+    }
+
+    public static final class Builder {
+
+        private final int port;
+        private InetAddress bindAddress = null;
+        private final List<InetSocketAddress> extraEndpoints = new ArrayList<>();
+        private String localName;
+        private Path unixSocket;
+        private boolean unixPlaintext = false;
+        private int acceptorThreads = 1;
+        private boolean reusePort = false;
+        private int acceptBacklog = 0;
+        private int workerThreads = 0;
+        private int workerQueueSize = 0;
+        private int dispatchThreads = 0;
+        private int dispatchQueueSize = 0;
+        private Scheduling scheduling = Scheduling.STRICT;
+        private Dispatch dispatch = Dispatch.EXECUTOR;
+        private int inlineBudget = 10;
+        private int decryptThreads = 0;
+        private int decryptWindow = 0;
+        private int idleTimeout = 0;
+        private int handshakeTimeout = 5000;
+        private int handshakeThreads = Runtime.getRuntime().availableProcessors();
+        private int handshakeQueueSize = 128;
+        private double handshakeRate = 0;
+        private boolean handshakeCookies = false;
+        private int handshakePuzzleDifficulty = 0;
+        private double connectionMessageRate = 0;
+        private double connectionByteRate = 0;
+        private double addressMessageRate = 0;
+        private double addressByteRate = 0;
+        private double rateLimitBurst = 1;
+        private RateLimitAction rateLimitAction = RateLimitAction.THROTTLE;
+        private int maxFrameSize = 0;
+        private int heartbeatInterval = 0;
+        private boolean legacyHandshake = true;
+        private int keySize = HybridCryptography.DEFAULT_KEY_SIZE;
+        private SocketOptions socketOptions = SocketOptions.DEFAULT;
+        private TlsOptions tls;
+        private OutboxOptions outbox;
+        private boolean clientIdFromCertificate = false;
+        private int ackWindow = 0;
+        private long ackRetention = TimeUnit.MINUTES.toMillis(5);
+        private int maxAckSessions = 10_000;
+        private Path captureFile;
+        private int captureSize = 64 * 1024 * 1024;
+        private TraceSink traceSink;
+        private double traceSampleRate = 0;
+        private boolean traceClientSamples = false;
+
+        private Builder(int port) {
+            this.port = port;
+        }
+
+        /**
+         * @param bindAddress the local address to listen on, or {@code null} (the default) for all local addresses
+         * @return this builder
+         */
+        public Builder bindAddress(InetAddress bindAddress) {
+            this.bindAddress = bindAddress;
+            return this;
+        }
+
+        /**
+         * Listens on another local address and port in addition to the main one. Connections from
+         * every endpoint share the same listeners, keys, and thread pools.
+         *
+         * @param bindAddress the local address to listen on, or {@code null} for all local addresses
+         * @param port        the port to listen on
+         * @return this builder
+         */
+        public Builder addEndpoint(InetAddress bindAddress, int port) {
+            this.extraEndpoints.add(new InetSocketAddress(bindAddress, port));
+            return this;
+        }
+
+        /**
+         * Also accepts connections from clients in the same JVM that connect by name with
+         * {@link client.TcpClientConfig#local(String)}. Such connections skip sockets, the handshake, and
+         * encryption, and pass frames as objects, while raising the same listener events.
+         *
+         * @param name the in-JVM name to accept connections under, unique within the JVM, or {@code null}
+         *             (the default) for none
+         * @return this builder
+         */
+        public Builder localName(String name) {
+            this.localName = name;
+            return this;
+        }
+
+        /**
+         * Also listens on a Unix domain socket, which needs Java 16 or newer. Clients on the same host connect
+         * with {@link client.TcpClientConfig#unix(Path)} and use the same handshake and listeners as over TCP,
+         * without the overhead of the loopback network stack. Who may connect is decided by the permissions of
+         * the socket file and its directory; the file is removed when the server closes.
+         *
+         * @param path the socket file to create, or {@code null} (the default) for none
+         * @return this builder
+         */
+        public Builder unixSocket(Path path) {
+            this.unixSocket = path;
+            return this;
+        }
+
+        /**
+         * Offers the {@link packets.Capabilities#PLAIN_CODEC relaxed crypto mode} to clients connected through
+         * the Unix domain socket. Clients that also enable it skip encrypting and signing frames after the
+         * handshake; everyone else keeps using encrypted frames.
+         *
+         * @param allow {@code true} to offer unencrypted frames on the Unix domain socket, {@code false} (the default) otherwise
+         * @return this builder
+         */
+        public Builder unixPlaintext(boolean allow) {
+            this.unixPlaintext = allow;
+            return this;
+        }
+
+        /**
+         * @param threads how many threads accept connections on each endpoint (default 1)
+         * @return this builder
+         */
+        public Builder acceptorThreads(int threads) {
+            this.acceptorThreads = threads;
+            return this;
+        }
+
+        /**
+         * Gives every acceptor thread its own listening socket bound with {@code SO_REUSEPORT}, so that
+         * the operating system spreads incoming connections over them. Where the JDK or the platform
+         * does not support the option, the acceptors of an endpoint share one socket instead.
+         *
+         * @param reusePort {@code true} to bind one socket per acceptor thread where supported (default {@code false})
+         * @return this builder
+         */
+        public Builder reusePort(boolean reusePort) {
+            this.reusePort = reusePort;
+            return this;
+        }
+
+        /**
+         * @param backlog how many not yet accepted connections the OS queues per listening socket,
+         *                or {@code 0} (the default) for the OS default
+         * @return this builder
+         */
+        public Builder acceptBacklog(int backlog) {
+            this.acceptBacklog = backlog;
+            return this;
+        }
+
+        /**
+         * Every established connection occupies one worker thread while it is open.
+         *
+         * @param threads the most connections served at once, or {@code 0} (the default) for no limit
+         * @return this builder
+         */
+        public Builder workerThreads(int threads) {
+            this.workerThreads = threads;
+            return this;
+        }
+
+        /**
+         * @param queueSize how many established connections may wait for a worker thread before new ones are
+         *                  closed, or {@code 0} (the default) for no limit. Requires a worker thread limit.
+         * @return this builder
+         */
+        public Builder workerQueueSize(int queueSize) {
+            this.workerQueueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * @param threads how many listeners may run at once, or {@code 0} (the default) for no limit
+         * @return this builder
+         */
+        public Builder dispatchThreads(int threads) {
+            this.dispatchThreads = threads;
+            return this;
+        }
+
+        /**
+         * Once the queue is full, the connection that received an event runs its listeners itself,
+         * which stops it from reading further until the listeners catch up.
+         *
+         * @param queueSize how many listener invocations may wait for a dispatch thread, or {@code 0}
+         *                  (the default) for no limit. Requires a dispatch thread limit.
+         * @return this builder
+         */
+        public Builder dispatchQueueSize(int queueSize) {
+            this.dispatchQueueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * Decides which {@link Priority} goes first, both among frames waiting to be written to a busy connection
+         * and among listener invocations waiting for a dispatch thread.
+         *
+         * @param scheduling how frames and listener invocations of different priorities are ordered
+         *                   (default {@link Scheduling#STRICT})
+         * @return this builder
+         */
+        public Builder scheduling(Scheduling scheduling) {
+            this.scheduling = scheduling;
+            return this;
+        }
+
+        /**
+         * {@link Dispatch#INLINE} runs listeners on the thread that read the event, which is the fastest path
+         * for listeners that only take microseconds. Single listeners can still be registered with a dispatch of their own.
+         *
+         * @param dispatch where listeners registered without a {@link Dispatch} of their own run (default {@link Dispatch#EXECUTOR})
+         * @return this builder
+         */
+        public Builder dispatch(Dispatch dispatch) {
+            this.dispatch = dispatch;
+            return this;
+        }
+
+        /**
+         * An inline listener that runs longer than this, or is found still running after it, is reported and
+         * dispatched on a dispatch thread from then on.
+         *
+         * @param millis how long an inline listener may run, or {@code 0} to never move one (default 10)
+         * @return this builder
+         */
+        public Builder inlineBudget(int millis) {
+            this.inlineBudget = millis;
+            return this;
+        }
+
+        /**
+         * Decodes, decrypts, and verifies received frames on a pool of threads shared by all connections instead of the
+         * thread reading the connection, so that a single busy connection can use more than one core. Frames are
+         * still dispatched in the order they were received.
+         *
+         * @param threads how many threads decrypt frames, or {@code 0} (the default) to decrypt on the reading thread
+         * @return this builder
+         */
+        public Builder decryptThreads(int threads) {
+            this.decryptThreads = threads;
+            return this;
+        }
+
+        /**
+         * @param frames how many frames of a single connection may be decrypted at once before the connection stops
+         *               reading, or {@code 0} (the default) for four per decrypt thread
+         * @return this builder
+         */
+        public Builder decryptWindow(int frames) {
+            this.decryptWindow = frames;
+            return this;
+        }
+
+        /**
+         * @param millis how many milliseconds of zero activity until a client is automatically disconnected,
+         *               or {@code 0} (the default) to never disconnect idle clients
+         * @return this builder
+         */
+        public Builder idleTimeout(int millis) {
+            this.idleTimeout = millis;
+            return this;
+        }
+
+        /**
+         * @param millis how long a client may take for each step of its handshake, which is also the longest
+         *               a connection may wait for a handshake thread (default 5000)
+         * @return this builder
+         */
+        public Builder handshakeTimeout(int millis) {
+            this.handshakeTimeout = millis;
+            return this;
+        }
+
+        /**
+         * @param threads how many handshakes may run at once (default: the number of available processors)
+         * @return this builder
+         */
+        public Builder handshakeThreads(int threads) {
+            this.handshakeThreads = threads;
+            return this;
+        }
+
+        /**
+         * @param queueSize how many accepted connections may wait for a handshake thread before new ones are
+         *                  closed immediately (default 128)
+         * @return this builder
+         */
+        public Builder handshakeQueueSize(int queueSize) {
+            this.handshakeQueueSize = queueSize;
+            return this;
+        }
+
+        /**
+         * @param perSecond how many handshakes may be started per second before new connections are closed
+         *                  immediately, or {@code 0} (the default) for no limit
+         * @return this builder
+         */
+        public Builder handshakeRate(double perSecond) {
+            this.handshakeRate = perSecond;
+            return this;
+        }
+
+        /**
+         * Makes connecting clients echo back a random cookie before the server performs any public key operation
+         * for them, so that floods of connections that do not speak the protocol cost no RSA operation. Combined
+         * with a {@link #handshakePuzzleDifficulty(int) puzzle}, every handshake also costs the client some work.
+         *
+         * @param enabled {@code true} to require handshake cookies (default {@code false})
+         * @return this builder
+         */
+        public Builder handshakeCookies(boolean enabled) {
+            this.handshakeCookies = enabled;
+            return this;
+        }
+
+        /**
+         * Every extra bit doubles the average work a client performs before it may handshake,
+         * while the server's cost to check a solution stays the same. Requires handshake cookies.
+         *
+         * @param bits leading zero bits required of the client's puzzle solution, or {@code 0} (the default) for no puzzle
+         * @return this builder
+         */
+        public Builder handshakePuzzleDifficulty(int bits) {
+            this.handshakePuzzleDifficulty = bits;
+            return this;
+        }
+
+        /**
+         * @param perSecond how many messages each connection may send per second, or {@code 0} (the default) for no limit
+         * @return this builder
+         */
+        public Builder connectionMessageRate(double perSecond) {
+            this.connectionMessageRate = perSecond;
+            return this;
+        }
+
+        /**
+         * Bytes are counted as they arrive on the wire, before decryption.
+         *
+         * @param perSecond how many bytes each connection may send per second, or {@code 0} (the default) for no limit
+         * @return this builder
+         */
+        public Builder connectionByteRate(double perSecond) {
+            this.connectionByteRate = perSecond;
+            return this;
+        }
+
+        /**
+         * @param perSecond how many messages all connections from one remote address may send per second together,
+         *                  or {@code 0} (the default) for no limit
+         * @return this builder
+         */
+        public Builder addressMessageRate(double perSecond) {
+            this.addressMessageRate = perSecond;
+            return this;
+        }
+
+        /**
+         * @param perSecond how many bytes all connections from one remote address may send per second together,
+         *                  or {@code 0} (the default) for no limit
+         * @return this builder
+         */
+        public Builder addressByteRate(double perSecond) {
+            this.addressByteRate = perSecond;
+            return this;
+        }
+
+        /**
+         * @param seconds how many seconds worth of traffic each inbound rate limit lets through in a single burst (default 1)
+         * @return this builder
+         */
+        public Builder rateLimitBurst(double seconds) {
+            this.rateLimitBurst = seconds;
+            return this;
+        }
+
+        /**
+         * @param action what is done with inbound traffic that exceeds a rate limit (default {@link RateLimitAction#THROTTLE})
+         * @return this builder
+         */
+        public Builder rateLimitAction(RateLimitAction action) {
+            this.rateLimitAction = action;
+            return this;
+        }
+
+        /**
+         * Offered to the client during a version 2 handshake; the smaller limit of both sides applies to frames in
+         * either direction. A peer that sends a longer frame is disconnected, and sending one fails.
+         *
+         * @param characters the longest frame the server accepts, or {@code 0} (the default) for no limit
+         * @return this builder
+         */
+        public Builder maxFrameSize(int characters) {
+            this.maxFrameSize = characters;
+            return this;
+        }
+
+        /**
+         * Offered to the client during a version 2 handshake. If both sides ask for heartbeats, each sends one at the
+         * slower of the two intervals whenever it is not busy sending anything else, which keeps an otherwise quiet
+         * connection from running into an idle timeout.
+         *
+         * @param millis milliseconds between heartbeats, or {@code 0} (the default) for none
+         * @return this builder
+         */
+        public Builder heartbeatInterval(int millis) {
+            this.heartbeatInterval = millis;
+            return this;
+        }
+
+        /**
+         * @param accept {@code true} (the default) to also accept clients that use the version 1 handshake,
+         *               which sends keys as text and takes an extra round trip
+         * @return this builder
+         */
+        public Builder legacyHandshake(boolean accept) {
+            this.legacyHandshake = accept;
+            return this;
+        }
+
+        /**
+         * @param bits the size of the server's RSA key (default {@link HybridCryptography#DEFAULT_KEY_SIZE}).
+         *             Smaller keys make handshakes and every message cheaper at the cost of security margin.
+         * @return this builder
+         */
+        public Builder keySize(int bits) {
+            this.keySize = bits;
+            return this;
+        }
+
+        /**
+         * @param socketOptions the options applied to every accepted connection
+         * @return this builder
+         */
+        public Builder socketOptions(SocketOptions socketOptions) {
+            this.socketOptions = socketOptions;
+            return this;
+        }
+
+        /**
+         * Runs the TCP endpoints over TLS instead of the library's own encryption. Clients have to connect with
+         * matching {@link client.TcpClientConfig.Builder#tls(TlsOptions) TLS options}; the Unix domain socket and
+         * in-JVM connections are unaffected.
+         *
+         * @param tls the TLS settings, which need a key store, or {@code null} (the default) for the library's own encryption
+         * @return this builder
+         */
+        public Builder tls(TlsOptions tls) {
+            this.tls = tls;
+            return this;
+        }
+
+        /**
+         * Queues what is sent to an offline client by its identity, with {@link TcpServer#sendJsonTo(String, org.json.JSONObject)}
+         * and the like, on disk until the client reconnects with the same
+         * {@link client.TcpClientConfig.Builder#clientId(String) client id}.
+         * <p>
+         * <b>A client id is only as trustworthy as whoever declares it:</b> unless
+         * {@link #clientIdFromCertificate(boolean)} is on, any client may declare any id, and with it receives what
+         * is queued for that id and what is sent to it from then on. Leave the outbox off, or turn that on, unless
+         * every client able to connect is trusted.
+         *
+         * @param outbox where and how the frames are queued, or {@code null} (the default) to fail sends to offline clients
+         * @return this builder
+         */
+        public Builder outbox(OutboxOptions outbox) {
+            this.outbox = outbox;
+            return this;
+        }
+
+        /**
+         * Binds client ids to TLS client certificates: a client declaring a
+         * {@link client.TcpClientConfig.Builder#clientId(String) client id} is refused unless the id is the common
+         * name of the certificate it authenticated with. Requires {@link #tls(TlsOptions) TLS} with
+         * {@link TlsOptions.Builder#needClientAuth(boolean) client authentication}; clients connecting through the
+         * Unix domain socket cannot declare an id at all.
+         *
+         * @param verify {@code true} to verify client ids, {@code false} (the default) to take them as declared
+         * @return this builder
+         */
+        public Builder clientIdFromCertificate(boolean verify) {
+            this.clientIdFromCertificate = verify;
+            return this;
+        }
+
+        /**
+         * Serves clients that ask for {@link client.TcpClientConfig.Builder#ackWindow(int) acknowledged delivery},
+         * which the server refuses otherwise. Frames in both directions are then numbered and acknowledged, and
+         * what a lost connection did not deliver is sent again when the client reconnects. The session, and with it
+         * suppressing duplicates across connections, only survives a reconnect for clients that declare a
+         * {@link client.TcpClientConfig.Builder#clientId(String) client id}, whose sessions the server keeps for
+         * {@link #ackRetention(long, int)} after their last connection closes.
+         *
+         * @param frames how many frames may be sent to a client before the server waits for it to acknowledge them,
+         *               at most {@value AckedDelivery#MAX_WINDOW}, or {@code 0} (the default) to refuse
+         * @return this builder
+         */
+        public Builder ackWindow(int frames) {
+            this.ackWindow = frames;
+            return this;
+        }
+
+        /**
+         * Bounds the acknowledged delivery sessions kept for clients with a client id. A session, with the frames
+         * its client has not acknowledged, is dropped once no connection has been attached to it for
+         * {@code millis}, and a client reconnecting later starts a new one. While {@code sessions} are kept, further
+         * clients get a session that ends with their connection, as clients without a client id do.
+         *
+         * @param millis   how long a session is kept without a connection, 5 minutes by default
+         * @param sessions how many sessions are kept at most, 10000 by default
+         * @return this builder
+         */
+        public Builder ackRetention(long millis, int sessions) {
+            this.ackRetention = millis;
+            this.maxAckSessions = sessions;
+            return this;
+        }
+
+        /**
+         * Captures every frame the server receives, after decryption, along with when and through which connection
+         * it arrived, so that the traffic can be fed back into the listeners with {@link TcpServer#replay(Path, boolean)}.
+         * The file is replaced when the server starts and, once full, keeps the most recent frames.
+         *
+         * @param file  the capture file, or {@code null} (the default) not to capture
+         * @param bytes the size of the file, 64 MiB by default
+         * @return this builder
+         */
+        public Builder capture(Path file, int bytes) {
+            this.captureFile = file;
+            this.captureSize = bytes;
+            return this;
+        }
+
+        /**
+         * Traces where sampled frames spend their time between being read and the last of their listeners
+         * returning. The server samples frames at {@code sampleRate}, whether or not a client sampled them too,
+         * see {@link client.TcpClientConfig.Builder#traceSampleRate(double)}; a frame a client sampled keeps
+         * the client's trace id. Frames that are not sampled are not timed at all.
+         *
+         * @param sink       where the {@link tracing.Trace}s go, or {@code null} (the default) not to trace
+         * @param sampleRate the fraction, between {@code 0} (the default) and {@code 1}, of the frames the server
+         *                   samples itself
+         * @return this builder
+         */
+        public Builder tracing(TraceSink sink, double sampleRate) {
+            this.traceSink = sink;
+            this.traceSampleRate = sampleRate;
+            return this;
+        }
+
+        /**
+         * Also traces every frame a client sampled, which lets clients choose what is traced. The trace header
+         * is not authenticated and each trace costs the server some work, so this is only for clients that are
+         * trusted not to sample every frame they send.
+         *
+         * @param trace {@code true} to trace every frame a client sampled, {@code false} (the default) to only
+         *              trace the frames the server samples itself
+         * @return this builder
+         */
+        public Builder traceClientSamples(boolean trace) {
+            this.traceClientSamples = trace;
+            return this;
+        }
+
+        /**
+         * @return the configured {@link TcpServerConfig}
+         * @throws IllegalArgumentException if a setting is out of range or conflicts with another one
+         */
+        public TcpServerConfig build() {
+            checkPort(port);
+            for (InetSocketAddress endpoint : extraEndpoints) checkPort(endpoint.getPort());
+            if (localName != null && localName.isEmpty()) throw new IllegalArgumentException("localName cannot be empty");
+            if (acceptorThreads <= 0) throw new IllegalArgumentException("acceptorThreads must be greater than 0");
+            if (acceptBacklog < 0) throw new IllegalArgumentException("acceptBacklog cannot be negative");
+            if (workerThreads < 0) throw new IllegalArgumentException("workerThreads cannot be negative");
+            if (workerQueueSize < 0) throw new IllegalArgumentException("workerQueueSize cannot be negative");
+            if (workerQueueSize > 0 && workerThreads == 0)
+                throw new IllegalArgumentException("workerQueueSize requires a workerThreads limit");
+            if (dispatchThreads < 0) throw new IllegalArgumentException("dispatchThreads cannot be negative");
+            if (dispatchQueueSize < 0) throw new IllegalArgumentException("dispatchQueueSize cannot be negative");
+            if (dispatchQueueSize > 0 && dispatchThreads == 0)
+                throw new IllegalArgumentException("dispatchQueueSize requires a dispatchThreads limit");
+            if (idleTimeout < 0) throw new IllegalArgumentException("idleTimeout cannot be negative");
+            if (handshakeTimeout <= 0) throw new IllegalArgumentException("handshakeTimeout must be greater than 0");
+            if (handshakeThreads <= 0) throw new IllegalArgumentException("handshakeThreads must be greater than 0");
+            if (handshakeQueueSize < 0) throw new IllegalArgumentException("handshakeQueueSize cannot be negative");
+            if (handshakeRate < 0) throw new IllegalArgumentException("handshakeRate cannot be negative");
+            if (handshakePuzzleDifficulty < 0 || handshakePuzzleDifficulty > HandshakeCookie.MAX_DIFFICULTY)
+                throw new IllegalArgumentException("handshakePuzzleDifficulty must be between 0 and " + HandshakeCookie.MAX_DIFFICULTY);
+            if (handshakePuzzleDifficulty > 0 && !handshakeCookies)
+                throw new IllegalArgumentException("handshakePuzzleDifficulty requires handshakeCookies");
+            if (connectionMessageRate < 0) throw new IllegalArgumentException("connectionMessageRate cannot be negative");
+            if (connectionByteRate < 0) throw new IllegalArgumentException("connectionByteRate cannot be negative");
+            if (addressMessageRate < 0) throw new IllegalArgumentException("addressMessageRate cannot be negative");
+            if (addressByteRate < 0) throw new IllegalArgumentException("addressByteRate cannot be negative");
+            if (!(rateLimitBurst > 0)) throw new IllegalArgumentException("rateLimitBurst must be greater than 0");
+            if (rateLimitAction == null) throw new IllegalArgumentException("rateLimitAction cannot be null");
+            if (scheduling == null) throw new IllegalArgumentException("scheduling cannot be null");
+            if (dispatch == null) throw new IllegalArgumentException("dispatch cannot be null");
+            if (inlineBudget < 0) throw new IllegalArgumentException("inlineBudget cannot be negative");
+            if (decryptThreads < 0) throw new IllegalArgumentException("decryptThreads cannot be negative");
+            if (decryptWindow < 0) throw new IllegalArgumentException("decryptWindow cannot be negative");
+            if (maxFrameSize < 0) throw new IllegalArgumentException("maxFrameSize cannot be negative");
+            if (heartbeatInterval < 0) throw new IllegalArgumentException("heartbeatInterval cannot be negative");
+            if (keySize < HybridCryptography.MIN_KEY_SIZE)
+                throw new IllegalArgumentException("keySize must be at least " + HybridCryptography.MIN_KEY_SIZE);
+            if (socketOptions == null) throw new IllegalArgumentException("socketOptions cannot be null");
+            if (ackWindow < 0 || ackWindow > AckedDelivery.MAX_WINDOW)
+                throw new IllegalArgumentException("ackWindow must be between 0 and " + AckedDelivery.MAX_WINDOW);
+            if (ackRetention < 0) throw new IllegalArgumentException("ackRetention cannot be negative");
+            if (clientIdFromCertificate && (tls == null || !tls.isNeedClientAuth()))
+                throw new IllegalArgumentException("clientIdFromCertificate requires TLS with client authentication");
+            if (maxAckSessions < 0) throw new IllegalArgumentException("maxAckSessions cannot be negative");
+            if (!(traceSampleRate >= 0 && traceSampleRate <= 1)) throw new IllegalArgumentException("traceSampleRate must be between 0 and 1");
+            if (traceSampleRate > 0 && traceSink == null) throw new IllegalArgumentException("traceSampleRate requires a trace sink");
+            if (traceClientSamples && traceSink == null) throw new IllegalArgumentException("traceClientSamples requires a trace sink");
+            if (captureFile != null && captureSize < 4096) throw new IllegalArgumentException("captureSize must be at least 4096");
+            return new TcpServerConfig(this);
+        }
+
+        private static void checkPort(int port) {
+            if (port < 0 || port > 65535) throw new IllegalArgumentException("port out of range: " + port);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+package server;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket that refills continuously at a fixed rate up to a maximum burst size
+ */
+final class TokenBucket {
+
+    private final double permitsPerNano;
+    private final double capacity;
+    private double available;
+    private long lastRefill;
+
+    /**
+     * @param permitsPerSecond how many permits are added to the bucket every second
+     * @param burst            the most permits the bucket can hold at once
+     */
+    TokenBucket(double permitsPerSecond, double burst) {
+        if (permitsPerSecond <= 0) throw new IllegalArgumentException("permitsPerSecond must be greater than 0");
+        if (burst < 1) throw new IllegalArgumentException("burst must be at least 1");
+        this.permitsPerNano = permitsPerSecond / TimeUnit.SECONDS.toNanos(1);
+        this.capacity = burst;
+        this.available = burst;
+        this.lastRefill = System.nanoTime();
+    }
+
+    /**
+     * Takes a single permit from the bucket if one is available
+     *
+     * @return {@code true} if the permit was taken
+     */
+    boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    /**
+     * Takes {@code permits} from the bucket if that many are available
+     *
+     * @param permits how many permits to take
+     * @return {@code true} if the permits were taken, {@code false} if the bucket was left untouched
+     */
+    synchronized boolean tryAcquire(double permits) {
+        refill();
+        if (available < permits) return false;
+        available -= permits;
+        return true;
+    }
+
+    /**
+     * Takes {@code permits} from the bucket even if that leaves it in debt, which later permits have to repay
+     *
+     * @param permits how many permits to take
+     * @return how many nanoseconds until the bucket is out of debt, or {@code 0} if it never went into debt
+     */
+    synchronized long reserve(double permits) {
+        refill();
+        available -= permits;
+        return available >= 0 ? 0 : (long) Math.ceil(-available / permitsPerNano);
+    }
+
+    /**
+     * Returns permits taken by an operation that did not go ahead after all
+     *
+     * @param permits how many permits to return
+     */
+    synchronized void refund(double permits) {
+        available = Math.min(capacity, available + permits);
+    }
+
+    /**
+     * @return the most permits the bucket can hold at once
+     */
+    double getCapacity() {
+        return capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefill) * permitsPerNano);
+        lastRefill = now;
+    }
+
+}
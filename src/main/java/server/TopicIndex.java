@@ -0,0 +1,143 @@
+package server;
+
+import listener_references.ServerConnection;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Which connections are subscribed to which topics. Topics are made of levels separated by {@code /}; a pattern
+ * may use {@code +} for exactly one level and a trailing {@code #} for any number of levels, including none.
+ * Exact patterns are kept in a hash and wildcard patterns in a trie, so finding the subscribers of a topic costs
+ * the number of levels and matching subscribers rather than the number of connections or patterns.
+ * <p>
+ * Lookups do not lock; changes to the subscriptions are serialized.
+ */
+final class TopicIndex {
+
+    private final Map<String, Set<ServerConnection>> exact = new ConcurrentHashMap<>();
+    private final Node wildcards = new Node();
+    private final Map<ServerConnection, Set<String>> patterns = new ConcurrentHashMap<>();
+
+    /**
+     * @param pattern the pattern to subscribe to
+     * @return {@code true} if the pattern is non-empty and only uses wildcards as whole levels,
+     *         with {@code #} as the last one
+     */
+    static boolean isValidPattern(String pattern) {
+        if (pattern == null || pattern.isEmpty()) return false;
+        String[] levels = pattern.split("/", -1);
+        for (int i = 0; i < levels.length; i++) {
+            String level = levels[i];
+            if (level.equals("#")) {
+                if (i != levels.length - 1) return false;
+            } else if (!level.equals("+") && (level.indexOf('+') >= 0 || level.indexOf('#') >= 0)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param topic the topic to publish to
+     * @return {@code true} if the topic is non-empty and has no wildcards
+     */
+    static boolean isValidTopic(String topic) {
+        return topic != null && !topic.isEmpty() && topic.indexOf('+') < 0 && topic.indexOf('#') < 0;
+    }
+
+    /**
+     * @param pattern    a {@link #isValidPattern valid} pattern
+     * @param connection the connection to subscribe
+     * @return {@code false} if the connection was already subscribed to the pattern
+     */
+    synchronized boolean subscribe(String pattern, ServerConnection connection) {
+        if (!patterns.computeIfAbsent(connection, c -> ConcurrentHashMap.newKeySet()).add(pattern)) return false;
+        if (isWildcard(pattern)) {
+            Node node = wildcards;
+            for (String level : pattern.split("/", -1)) node = node.children.computeIfAbsent(level, l -> new Node());
+            node.subscribers.add(connection);
+        } else exact.computeIfAbsent(pattern, p -> ConcurrentHashMap.newKeySet()).add(connection);
+        return true;
+    }
+
+    /**
+     * @param pattern    the pattern to unsubscribe from
+     * @param connection the connection to unsubscribe
+     * @return {@code false} if the connection was not subscribed to the pattern
+     */
+    synchronized boolean unsubscribe(String pattern, ServerConnection connection) {
+        Set<String> subscribed = patterns.get(connection);
+        if (subscribed == null || !subscribed.remove(pattern)) return false;
+        if (subscribed.isEmpty()) patterns.remove(connection);
+        if (isWildcard(pattern)) remove(wildcards, pattern.split("/", -1), 0, connection);
+        else {
+            Set<ServerConnection> subscribers = exact.get(pattern);
+            subscribers.remove(connection);
+            if (subscribers.isEmpty()) exact.remove(pattern);
+        }
+        return true;
+    }
+
+    /**
+     * Drops every subscription of a connection, once it is closed
+     *
+     * @param connection the closed connection
+     */
+    synchronized void unsubscribeAll(ServerConnection connection) {
+        Set<String> subscribed = patterns.get(connection);
+        if (subscribed == null) return;
+        for (String pattern : subscribed.toArray(new String[0])) unsubscribe(pattern, connection);
+    }
+
+    /**
+     * @param topic a {@link #isValidTopic valid} topic
+     * @return every connection subscribed to a pattern matching the topic, each once
+     */
+    Set<ServerConnection> match(String topic) {
+        Set<ServerConnection> exactSubscribers = exact.get(topic);
+        if (wildcards.children.isEmpty())
+            return exactSubscribers == null ? Collections.emptySet() : new HashSet<>(exactSubscribers);
+        Set<ServerConnection> matched = exactSubscribers == null ? new HashSet<>() : new HashSet<>(exactSubscribers);
+        collect(wildcards, topic.split("/", -1), 0, matched);
+        return matched;
+    }
+
+    private static boolean isWildcard(String pattern) {
+        return pattern.indexOf('+') >= 0 || pattern.indexOf('#') >= 0;
+    }
+
+    private static void collect(Node node, String[] levels, int depth, Set<ServerConnection> matched) {
+        Node rest = node.children.get("#");
+        if (rest != null) matched.addAll(rest.subscribers);
+        if (depth == levels.length) {
+            matched.addAll(node.subscribers);
+            return;
+        }
+        Node any = node.children.get("+");
+        if (any != null) collect(any, levels, depth + 1, matched);
+        Node level = node.children.get(levels[depth]);
+        if (level != null) collect(level, levels, depth + 1, matched);
+    }
+
+    /**
+     * Removes the subscriber and prunes the nodes left without subscribers or children
+     *
+     * @return {@code true} if the node is now empty
+     */
+    private static boolean remove(Node node, String[] levels, int depth, ServerConnection connection) {
+        if (depth == levels.length) node.subscribers.remove(connection);
+        else {
+            Node child = node.children.get(levels[depth]);
+            if (child != null && remove(child, levels, depth + 1, connection)) node.children.remove(levels[depth]);
+        }
+        return node.subscribers.isEmpty() && node.children.isEmpty();
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private final Set<ServerConnection> subscribers = ConcurrentHashMap.newKeySet();
+    }
+
+}
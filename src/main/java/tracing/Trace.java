@@ -0,0 +1,202 @@
+package tracing;
+
+import listener_references.Connection;
+import logging.Log;
+import packets.PacketType;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Where a single sampled frame spent its time on the receiving side, from the moment it was read to the moment the
+ * last listener handling it returned. The checkpoints are {@link System#nanoTime()} readings, so they can only be
+ * compared with each other; the time the sender stamped on the frame is wall clock time in milliseconds, which is
+ * only comparable with the receiver's clock as far as the two hosts agree.
+ * <p>
+ * A frame carries the header of a trace when its sender sampled it, see
+ * {@link client.TcpClientConfig.Builder#traceSampleRate(double)}, and the receiver may also sample frames that
+ * arrive without one. Frames that are not sampled carry no header and are not timed at all.
+ */
+public final class Trace {
+
+    private final long id;
+    private final long sentMillis;
+    private final PacketType type;
+    private final Connection connection;
+    private final long readNanos;
+    private final TraceSink sink;
+    private final AtomicInteger pending = new AtomicInteger(1);
+    private long decryptedNanos;
+    private long queuedNanos;
+    private long handlerStartNanos;
+    private long handlerEndNanos;
+    private int handlers;
+
+    /**
+     * @param id         the id of the trace
+     * @param sentMillis the wall clock time the sender stamped on the frame, or {@code 0} if the receiver sampled it
+     * @param type       what kind of packet the frame carries
+     * @param connection the connection the frame was received through
+     * @param readNanos  when the frame was read
+     * @param sink       where the trace goes once it is complete
+     */
+    public Trace(long id, long sentMillis, PacketType type, Connection connection, long readNanos, TraceSink sink) {
+        this.id = id;
+        this.sentMillis = sentMillis;
+        this.type = type;
+        this.connection = connection;
+        this.readNanos = readNanos;
+        this.decryptedNanos = readNanos;
+        this.sink = sink;
+    }
+
+    /**
+     * @return a new random id for a trace
+     */
+    public static long newId() {
+        long id;
+        do id = ThreadLocalRandom.current().nextLong(); while (id == 0);
+        return id;
+    }
+
+    /**
+     * Records that the frame was decoded and decrypted
+     */
+    public void decrypted() {
+        decryptedNanos = System.nanoTime();
+    }
+
+    /**
+     * Records that the frame is being handed to its listeners
+     */
+    public void queued() {
+        queuedNanos = System.nanoTime();
+    }
+
+    /**
+     * Times a listener handling the frame. Every task wrapped before {@link #release()} is called is waited for.
+     *
+     * @param task the task running the listener
+     * @return the task, recording when it starts and ends
+     */
+    public <V> Callable<V> handler(Callable<V> task) {
+        pending.incrementAndGet();
+        return () -> {
+            started(System.nanoTime());
+            try { return task.call();
+            } finally {
+                ended(System.nanoTime());
+                release();
+            }
+        };
+    }
+
+    /**
+     * Called once every listener handling the frame was handed a task, which hands the trace to the sink right
+     * away if there were none, or else once the last of them returns
+     */
+    public void release() {
+        if (pending.decrementAndGet() != 0) return;
+        try { sink.accept(this);
+        } catch (RuntimeException e) {
+            Log.error("tracing", "Trace sink failed", e);
+        }
+    }
+
+    private synchronized void started(long nanos) {
+        if (handlers++ == 0 || nanos < handlerStartNanos) handlerStartNanos = nanos;
+    }
+
+    private synchronized void ended(long nanos) {
+        handlerEndNanos = Math.max(handlerEndNanos, nanos);
+    }
+
+    /**
+     * @return the id of the trace, which the sender chose if it sampled the frame
+     */
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * @return the wall clock time in milliseconds the sender stamped on the frame, or {@code 0} if the receiver
+     *         sampled the frame
+     */
+    public long getSentMillis() {
+        return sentMillis;
+    }
+
+    /**
+     * @return what kind of packet the frame carries
+     */
+    public PacketType getType() {
+        return type;
+    }
+
+    /**
+     * @return the connection the frame was received through
+     */
+    public Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * @return when the frame was read
+     */
+    public long getReadNanos() {
+        return readNanos;
+    }
+
+    /**
+     * @return when the frame was decoded and decrypted, the same as {@link #getReadNanos()} for frames that are
+     *         passed in the same JVM
+     */
+    public long getDecryptedNanos() {
+        return decryptedNanos;
+    }
+
+    /**
+     * @return when the frame was handed to its listeners
+     */
+    public long getQueuedNanos() {
+        return queuedNanos;
+    }
+
+    /**
+     * @return when the first listener handling the frame started, or {@code 0} if none did
+     */
+    public synchronized long getHandlerStartNanos() {
+        return handlerStartNanos;
+    }
+
+    /**
+     * @return when the last listener handling the frame returned, or {@code 0} if none did
+     */
+    public synchronized long getHandlerEndNanos() {
+        return handlerEndNanos;
+    }
+
+    /**
+     * @return how many listeners handled the frame, not counting batch listeners, which handle frames together
+     */
+    public synchronized int getHandlerCount() {
+        return handlers;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("Trace ").append(Long.toHexString(id)).append(' ').append(type)
+                .append(": decrypt ").append(micros(decryptedNanos - readNanos))
+                .append(", queue ").append(micros(queuedNanos - decryptedNanos));
+        if (handlers > 0) builder.append(", wait ").append(micros(handlerStartNanos - queuedNanos))
+                .append(", handle ").append(micros(handlerEndNanos - handlerStartNanos))
+                .append(" (").append(handlers).append(handlers == 1 ? " listener)" : " listeners)");
+        return builder.toString();
+    }
+
+    private static String micros(long nanos) {
+        return (nanos / 1000) + " us";
+    }
+
+}
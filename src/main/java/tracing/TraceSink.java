@@ -0,0 +1,19 @@
+package tracing;
+
+/**
+ * Receives the {@link Trace}s of sampled frames
+ *
+ * @see server.TcpServerConfig.Builder#tracing(TraceSink, double)
+ */
+@FunctionalInterface
+public interface TraceSink {
+
+    /**
+     * Called once per sampled frame, on the thread of whichever listener handling the frame returned last,
+     * so anything slow should be handed off to another thread
+     *
+     * @param trace the completed trace
+     */
+    void accept(Trace trace);
+
+}
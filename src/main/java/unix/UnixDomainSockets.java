@@ -0,0 +1,40 @@
+package unix;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Opens Unix domain sockets, which need Java 16 or newer. This is the fallback for older runtimes; the
+ * multi-release jar carries the implementation used on Java 16 and newer under {@code META-INF/versions/16}.
+ */
+public final class UnixDomainSockets {
+
+    private UnixDomainSockets() { }
+
+    /**
+     * @return {@code true} if the runtime supports Unix domain sockets
+     */
+    public static boolean isSupported() {
+        return false;
+    }
+
+    /**
+     * @param path    the socket file to create
+     * @param backlog the maximum number of pending connections, or {@code 0} for the default
+     * @return the listening socket
+     * @throws IOException if the socket could not be bound
+     */
+    public static UnixServerSocket bind(Path path, int backlog) throws IOException {
+        throw new IOException("Unix domain sockets require Java 16 or newer");
+    }
+
+    /**
+     * @param path the socket file of the server
+     * @return the connected socket
+     * @throws IOException if the socket could not be connected
+     */
+    public static UnixSocket connect(Path path) throws IOException {
+        throw new IOException("Unix domain sockets require Java 16 or newer");
+    }
+
+}
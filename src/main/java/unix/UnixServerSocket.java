@@ -0,0 +1,81 @@
+package unix;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A listening Unix domain socket presented as a {@link ServerSocket}, so that the server can accept from it like
+ * from its TCP endpoints. Closing it removes the socket file.
+ */
+public final class UnixServerSocket extends ServerSocket {
+
+    private final ServerSocketChannel channel;
+    private final Path path;
+    private volatile boolean closed;
+
+    UnixServerSocket(ServerSocketChannel channel, Path path) throws IOException {
+        this.channel = channel;
+        this.path = path;
+    }
+
+    /**
+     * @return the path of the socket file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public Socket accept() throws IOException {
+        if (closed) throw new SocketException("Socket is closed");
+        return new UnixSocket(channel.accept(), path);
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return null;
+    }
+
+    @Override
+    public int getLocalPort() {
+        return -1;
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return null;
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try { channel.close();
+        } finally {
+            Files.deleteIfExists(path);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UnixServerSocket[path=" + path + "]";
+    }
+
+}
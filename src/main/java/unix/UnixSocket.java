@@ -0,0 +1,245 @@
+package unix;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketImpl;
+import java.net.SocketOption;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * A connected Unix domain socket presented as a {@link Socket}, so that the server and client can treat it like
+ * a TCP connection. The channel is used in non-blocking mode behind the streams, which is what makes
+ * {@link #setSoTimeout(int)} work.
+ * <p>
+ * Unix domain sockets have no IP address: the peer is reported as the loopback address, so per-address rate
+ * limits and handshake cookies treat every peer of the socket as the same host. TCP specific options are ignored.
+ */
+public final class UnixSocket extends Socket {
+
+    private final SocketChannel channel;
+    private final Path path;
+    private final ChannelInput input;
+    private final ChannelOutput output;
+    private volatile int soTimeout;
+    private volatile boolean closed;
+
+    UnixSocket(SocketChannel channel, Path path) throws IOException {
+        super((SocketImpl) null);
+        this.channel = channel;
+        this.path = path;
+        channel.configureBlocking(false);
+        this.input = new ChannelInput();
+        this.output = new ChannelOutput();
+    }
+
+    /**
+     * @return the path of the socket file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        if (closed) throw new SocketException("Socket is closed");
+        return input;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        if (closed) throw new SocketException("Socket is closed");
+        return output;
+    }
+
+    @Override
+    public void setSoTimeout(int timeout) throws SocketException {
+        if (timeout < 0) throw new IllegalArgumentException("timeout can't be negative");
+        soTimeout = timeout;
+    }
+
+    @Override
+    public int getSoTimeout() {
+        return soTimeout;
+    }
+
+    @Override
+    public void setSendBufferSize(int size) throws SocketException {
+        setOption(StandardSocketOptions.SO_SNDBUF, size);
+    }
+
+    @Override
+    public void setReceiveBufferSize(int size) throws SocketException {
+        setOption(StandardSocketOptions.SO_RCVBUF, size);
+    }
+
+    private void setOption(SocketOption<Integer> option, int value) throws SocketException {
+        try { channel.setOption(option, value);
+        } catch (IOException e) {
+            throw new SocketException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) { }
+
+    @Override
+    public void setKeepAlive(boolean on) { }
+
+    @Override
+    public void setSoLinger(boolean on, int linger) { }
+
+    @Override
+    public void setTrafficClass(int tc) { }
+
+    @Override
+    public void connect(SocketAddress endpoint, int timeout) throws IOException {
+        throw new SocketException("Unix domain socket is already connected");
+    }
+
+    @Override
+    public InetAddress getInetAddress() {
+        return InetAddress.getLoopbackAddress();
+    }
+
+    @Override
+    public SocketAddress getRemoteSocketAddress() {
+        return new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    @Override
+    public SocketAddress getLocalSocketAddress() {
+        return null;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return true;
+    }
+
+    @Override
+    public boolean isBound() {
+        return true;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try { channel.close();
+        } finally {
+            input.selector.close();
+            output.selector.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "UnixSocket[path=" + path + "]";
+    }
+
+    /**
+     * Closes the socket like an interruptible channel would when the waiting thread is interrupted
+     */
+    private SocketException interrupted() {
+        try { close();
+        } catch (IOException ignore) { }
+        return new SocketException("Socket closed");
+    }
+
+    private final class ChannelInput extends InputStream {
+
+        private final Selector selector;
+
+        private ChannelInput() throws IOException {
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_READ);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            int timeout = soTimeout;
+            long deadline = System.nanoTime() + timeout * 1_000_000L;
+            try {
+                while (true) {
+                    int read = channel.read(buffer);
+                    if (read != 0) return read;
+                    long remaining = timeout == 0 ? 0 : (deadline - System.nanoTime()) / 1_000_000L;
+                    if (timeout > 0 && remaining <= 0) throw new SocketTimeoutException("Read timed out");
+                    selector.select(remaining);
+                    selector.selectedKeys().clear();
+                    if (Thread.interrupted()) throw interrupted();
+                }
+            } catch (ClosedChannelException | ClosedSelectorException e) {
+                throw new SocketException("Socket closed");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            UnixSocket.this.close();
+        }
+    }
+
+    private final class ChannelOutput extends OutputStream {
+
+        private final Selector selector;
+
+        private ChannelOutput() throws IOException {
+            selector = Selector.open();
+            channel.register(selector, SelectionKey.OP_WRITE);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+            try {
+                while (buffer.hasRemaining()) {
+                    if (channel.write(buffer) > 0) continue;
+                    selector.select();
+                    selector.selectedKeys().clear();
+                    if (Thread.interrupted()) throw interrupted();
+                }
+            } catch (ClosedChannelException | ClosedSelectorException e) {
+                throw new SocketException("Socket closed");
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            UnixSocket.this.close();
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+package unix;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Opens Unix domain sockets through {@link UnixDomainSocketAddress}. This is the Java 16 version of the class,
+ * placed under {@code META-INF/versions/16} of the multi-release jar.
+ */
+public final class UnixDomainSockets {
+
+    private UnixDomainSockets() { }
+
+    /**
+     * @return {@code true} if the runtime supports Unix domain sockets
+     */
+    public static boolean isSupported() {
+        return true;
+    }
+
+    /**
+     * Binds a listening socket. A socket file left behind by a server that did not shut down cleanly is
+     * replaced, while one that still accepts connections is left alone.
+     *
+     * @param path    the socket file to create
+     * @param backlog the maximum number of pending connections, or {@code 0} for the default
+     * @return the listening socket
+     * @throws IOException if the socket could not be bound
+     */
+    public static UnixServerSocket bind(Path path, int backlog) throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(path);
+        if (Files.exists(path)) {
+            if (!Files.readAttributes(path, BasicFileAttributes.class).isOther())
+                throw new IOException(path + " already exists and is not a socket");
+            SocketChannel probe;
+            try { probe = SocketChannel.open(address);
+            } catch (ConnectException stale) {
+                probe = null;
+            }
+            if (probe != null) {
+                probe.close();
+                throw new IOException("Another server is already listening on " + path);
+            }
+            Files.delete(path);
+        }
+        ServerSocketChannel channel = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try { channel.bind(address, backlog);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        return new UnixServerSocket(channel, path);
+    }
+
+    /**
+     * @param path the socket file of the server
+     * @return the connected socket
+     * @throws IOException if the socket could not be connected
+     */
+    public static UnixSocket connect(Path path) throws IOException {
+        SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(path));
+        try { return new UnixSocket(channel, path);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+}